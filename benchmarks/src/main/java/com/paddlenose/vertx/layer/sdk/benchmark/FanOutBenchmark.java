@@ -0,0 +1,139 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to post one message to 10 000 conversations.
+ * <p>
+ *     Every operation is one fan-out to {@link #TARGETS} conversations, started from an event loop. Window 0 calls
+ *     postMessage for every conversation at once, which encodes the message every time and queues every request
+ *     in the connection pool. Other windows use postMessageFanOut with that many posts in flight. The pool has
+ *     {@link #POOL_SIZE} connections for every window. Run it with one JMH thread:
+ *     <code>java -jar target/benchmarks.jar FanOutBenchmark 1</code>.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final int TARGETS = 10000;
+    private static final int POOL_SIZE = 128;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    @Param({"0", "16", "128"})
+    public int window;
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private LayerServerClient client;
+    private Context context;
+    private JsonObject last;
+
+    private final List<String> conversation_UUIDs = new ArrayList<>(TARGETS);
+    private final JsonObject message = LayerStubServer.message(0).put("sender_id", "layer:///identities/1234");
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        stub = LayerStubServer.start(vertx, LayerServerClientBenchmark.PORT);
+        client = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(POOL_SIZE)
+                .setDefaultHost("localhost")
+                .setDefaultPort(LayerServerClientBenchmark.PORT)),
+                new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN));
+        context = vertx.getOrCreateContext();
+        for (int i = 0; i < TARGETS; i++) {
+            conversation_UUIDs.add(String.format("f3cc7b32-3c92-11e4-baad-%012d", i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (last != null) {
+            last.remove("failures");
+            System.out.println("Fan-out: " + last.encode());
+        }
+        client.close();
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int fanOut() throws Exception {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        if (window == 0) {
+            context.runOnContext(v -> postEach(done));
+        } else {
+            context.runOnContext(v -> client.postMessageFanOut(message, conversation_UUIDs)
+                    .concurrency(window)
+                    .start()
+                    .setHandler(result -> {
+                        last = result.result();
+                        done.complete(last.getInteger("failed"));
+                    }));
+        }
+        int failed = done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " posts failed");
+        }
+        return TARGETS;
+    }
+
+    /**
+     * Posts to every conversation at once, completes with the number of failed posts.
+     */
+    private void postEach(CompletableFuture<Integer> done) {
+        AtomicInteger remaining = new AtomicInteger(TARGETS);
+        AtomicInteger failed = new AtomicInteger();
+        for (String conversation_UUID : conversation_UUIDs) {
+            client.postMessage(response -> {
+                if (response == null) {
+                    failed.incrementAndGet();
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(failed.get());
+                    }
+                    return;
+                }
+                response.bodyHandler(body -> {
+                    if (response.statusCode() / 100 != 2) {
+                        failed.incrementAndGet();
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(failed.get());
+                    }
+                });
+            }, conversation_UUID, message);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks at several concurrency levels with allocation profiling.
+ * <p>
+ *     Usage: <code>java -jar target/benchmarks.jar [include-regex] [threads,threads,...]</code> <br>
+ *     Every thread count is run against every pool size declared by the benchmark. The report contains
+ *     ops/ms (Throughput), p0.50/p0.99/p0.999 latency (SampleTime) and gc.alloc.rate.norm, the bytes
+ *     allocated per operation. Results are also written to <code>jmh-threads-N.json</code>. <br>
+ *     {@link ShardedClientBenchmark}, {@link OutboxBenchmark}, {@link SyncBenchmark}, {@link StoreBenchmark},
+ *     {@link WebhookBenchmark} and {@link FanOutBenchmark} make their calls from Vert.x event loops or share state
+ *     between calls, run them with one thread.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+public class LayerBenchmarkRunner {
+    private static final String DEFAULT_INCLUDE = LayerServerClientBenchmark.class.getSimpleName();
+    private static final String DEFAULT_THREADS = "1,8,32";
+
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        String threads = args.length > 1 ? args[1] : DEFAULT_THREADS;
+        for (String count : threads.split(",")) {
+            int threadCount = Integer.parseInt(count.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-threads-" + threadCount + ".json");
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerBodyTemplate;
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Throughput and latency of every public LayerServerClient method against {@link LayerStubServer}.
+ * <p>
+ *     Each operation is one complete call: request sent, response received and body read. <br>
+ *     The raw benchmarks send the same requests, Layer headers included, straight through the HttpClient. The
+ *     difference to the matching client benchmark is what LayerServerClient adds. <br>
+ *     Concurrency is the number of JMH threads, each keeping one call in flight. Use
+ *     {@link LayerBenchmarkRunner} to sweep thread counts and pool sizes with the GC profiler attached.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayerServerClientBenchmark {
+    static final int PORT = 18080;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Param({"1", "10", "50"})
+    public int poolSize;
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private HttpClient httpClient;
+    private LayerServerClient client;
+
+    private final String conversation_UUID = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+    private final String user_ID = "123456789";
+    private final String conversationUri = "/apps/" + LayerStubServer.APP_ID + "/conversations/" + conversation_UUID;
+    private final String conversationsUri = "/apps/" + LayerStubServer.APP_ID + "/conversations";
+    private final String bearer = "Bearer " + LayerStubServer.APP_TOKEN;
+    private final JsonObject message = LayerStubServer.message(0).put("sender_id", "layer:///identities/1234");
+    private final Buffer encodedMessage = Buffer.buffer(message.encode());
+    private final LayerBodyTemplate textMessage = new LayerBodyTemplate(new JsonObject()
+            .put("sender_id", "layer:///identities/1234")
+            .put("parts", new JsonArray().add(new JsonObject().put("body", "${body}").put("mime_type", "text/plain"))), "body");
+    private final JsonObject conversation = new JsonObject()
+            .put("participants", new JsonArray().add("layer:///identities/1234").add("layer:///identities/5678"))
+            .put("distinct", false)
+            .put("metadata", new JsonObject().put("background_color", "#3c3c3c"));
+    private final JsonObject announcement = new JsonObject()
+            .put("recipients", new JsonArray().add("layer:///identities/1234").add("layer:///identities/5678"))
+            .put("sender_id", "layer:///identities/777")
+            .put("parts", new JsonArray().add(new JsonObject().put("body", "Hello, World!").put("mime_type", "text/plain")))
+            .put("notification", new JsonObject().put("title", "New Alert").put("text", "This is the alert text."));
+    private final JsonObject notification = new JsonObject()
+            .put("recipients", new JsonArray().add("layer:///identities/777").add("layer:///identities/999"))
+            .put("notification", new JsonObject().put("title", "New Alert").put("text", "This is the alert text."));
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        stub = LayerStubServer.start(vertx, PORT);
+        httpClient = vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(poolSize)
+                .setDefaultHost("localhost")
+                .setDefaultPort(PORT));
+        client = new LayerServerClient(httpClient, new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int getConversationsAsUser() throws Exception {
+        return call(handler -> client.getConversationsAsUser(handler, user_ID));
+    }
+
+    @Benchmark
+    public int getConversationMessageAsUser() throws Exception {
+        return call(handler -> client.getConversationMessageAsUser(handler, conversation_UUID, user_ID));
+    }
+
+    @Benchmark
+    public int postMessageAsUser() throws Exception {
+        return call(handler -> client.postMessageAsUser(handler, conversation_UUID, message, user_ID));
+    }
+
+    @Benchmark
+    public int postConversationAsUser() throws Exception {
+        return call(handler -> client.postConversationAsUser(handler, conversation, user_ID));
+    }
+
+    @Benchmark
+    public int getConversation() throws Exception {
+        return call(handler -> client.getConversation(handler, conversation_UUID));
+    }
+
+    @Benchmark
+    public int getConversationMessage() throws Exception {
+        return call(handler -> client.getConversationMessage(handler, conversation_UUID));
+    }
+
+    @Benchmark
+    public int postConversation() throws Exception {
+        return call(handler -> client.postConversation(handler, conversation));
+    }
+
+    @Benchmark
+    public int postMessage() throws Exception {
+        return call(handler -> client.postMessage(handler, conversation_UUID, message));
+    }
+
+    @Benchmark
+    public int postMessageEncoded() throws Exception {
+        return call(handler -> client.postMessage(handler, conversation_UUID, encodedMessage));
+    }
+
+    @Benchmark
+    public int postMessageTemplate() throws Exception {
+        return call(handler -> client.postMessage(handler, conversation_UUID, textMessage.apply("Hello, World!")));
+    }
+
+    @Benchmark
+    public int postMessageFuture() throws Exception {
+        return call(handler -> {
+            Future<HttpClientResponse> future = Future.future();
+            future.setHandler(result -> handler.handle(result.succeeded() ? result.result() : null));
+            client.postMessage(future, conversation_UUID, message);
+        });
+    }
+
+    @Benchmark
+    public int postAnnouncement() throws Exception {
+        return call(handler -> client.postAnnouncement(handler, announcement));
+    }
+
+    @Benchmark
+    public int postNotification() throws Exception {
+        return call(handler -> client.postNotification(handler, notification));
+    }
+
+    @Benchmark
+    public int rawGetConversation() throws Exception {
+        return call(handler -> raw(HttpMethod.GET, conversationUri, null, handler));
+    }
+
+    @Benchmark
+    public int rawGetConversationMessage() throws Exception {
+        return call(handler -> raw(HttpMethod.GET, conversationUri + "/messages", null, handler));
+    }
+
+    @Benchmark
+    public int rawPostConversation() throws Exception {
+        return call(handler -> raw(HttpMethod.POST, conversationsUri, conversation.encode(), handler));
+    }
+
+    @Benchmark
+    public int rawPostMessage() throws Exception {
+        return call(handler -> raw(HttpMethod.POST, conversationUri + "/messages", message.encode(), handler));
+    }
+
+    /**
+     * Sends a request with the Layer headers straight through the HttpClient.
+     * @param body Request body, null for none
+     */
+    private void raw(HttpMethod method, String uri, String body, Handler<HttpClientResponse> handler) {
+        HttpClientRequest request = httpClient.request(method, uri, handler)
+                .exceptionHandler(e -> handler.handle(null));
+        request.headers()
+                .set("accept", "application/vnd.layer+json; version=2.0")
+                .set("Authorization", bearer)
+                .set("Content-Type", "application/json");
+        if (body == null) {
+            request.end();
+        } else {
+            request.end(body);
+        }
+    }
+
+    /**
+     * Issues one call and blocks until its response body has been read.
+     * @param call Invokes the client method under test with the given response handler
+     * @return Response body length, returned so JMH consumes it
+     * @throws Exception if the call failed or timed out
+     */
+    static int call(Consumer<Handler<HttpClientResponse>> call) throws Exception {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        call.accept(response -> {
+            if (response == null) {
+                done.completeExceptionally(new IllegalStateException("Request failed"));
+                return;
+            }
+            response.bodyHandler(body -> done.complete(body.length()));
+        });
+        return done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,177 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for the Layer Server API.
+ * <p>
+ *     Serves canned payloads shaped like the ones in LayerServerClientTest, so the benchmarks measure
+ *     LayerServerClient and the Vert.x HttpClient rather than the network or Layer itself. <br>
+ *     List endpoints return a full page of 100 items, like Layer does by default.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public class LayerStubServer {
+    public static final String APP_ID = "123456789abc";
+    public static final String APP_TOKEN = "thisIsAToken";
+    public static final int PAGE_SIZE = 100;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+    private final Buffer conversation;
+    private final Buffer conversations;
+    private final Buffer messages;
+
+    private LayerStubServer() {
+        this.conversation = Buffer.buffer(conversation(0).encode());
+        this.conversations = Buffer.buffer(page(LayerStubServer::conversation).encode());
+        this.messages = Buffer.buffer(page(LayerStubServer::message).encode());
+    }
+
+    /**
+     * Starts a stub server and blocks until it is listening.
+     * @param vertx Vertx instance that owns the server
+     * @param port Port to listen on
+     * @return Started server
+     * @throws Exception if the server could not be started within 10 seconds
+     */
+    public static LayerStubServer start(Vertx vertx, int port) throws Exception {
+        return start(vertx, port, 1);
+    }
+
+    /**
+     * Starts a stub server on several event loops and blocks until it is listening.
+     * <p>
+     *     Vert.x spreads the connections on the port over the instances, use one per client event loop so
+     *     the stub does not limit the benchmark.
+     * </p>
+     * @param vertx Vertx instance that owns the server
+     * @param port Port to listen on
+     * @param instances Number of HttpServers sharing the port
+     * @return Started server
+     * @throws Exception if the server could not be started within 10 seconds
+     */
+    public static LayerStubServer start(Vertx vertx, int port, int instances) throws Exception {
+        LayerStubServer stub = new LayerStubServer();
+        for (int i = 0; i < instances; i++) {
+            HttpServer server = vertx.createHttpServer();
+            CompletableFuture<Void> listening = new CompletableFuture<>();
+            server.requestHandler(stub::handle).listen(port, result -> {
+                if (result.succeeded()) listening.complete(null);
+                else listening.completeExceptionally(result.cause());
+            });
+            listening.get(10, TimeUnit.SECONDS);
+            stub.servers.add(server);
+        }
+        return stub;
+    }
+
+    /**
+     * Closes the server and blocks until it is closed.
+     * @throws Exception if the server could not be closed within 10 seconds
+     */
+    public void close() throws Exception {
+        for (HttpServer server : servers) {
+            CompletableFuture<Void> closed = new CompletableFuture<>();
+            server.close(result -> closed.complete(null));
+            closed.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns number of client connections that sent a request, told apart by their local port.
+     * @return Number of connections since the server started
+     */
+    public int connections() {
+        return connections.size();
+    }
+
+    private void handle(HttpServerRequest request) {
+        connections.add(request.remoteAddress().port());
+        String path = request.path();
+        if (request.method() == HttpMethod.GET) {
+            if (path.endsWith("/messages")) {
+                request.response().end(messages);
+            } else if (path.endsWith("/conversations")) {
+                request.response().end(conversations);
+            } else {
+                request.response().end(conversation);
+            }
+        } else {
+            int status = path.endsWith("/announcements") || path.endsWith("/notifications") ? 202 : 201;
+            request.bodyHandler(body -> request.response().setStatusCode(status).end(body));
+        }
+    }
+
+    private interface ItemFactory {
+        JsonObject create(int index);
+    }
+
+    private static JsonArray page(ItemFactory factory) {
+        JsonArray page = new JsonArray();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(factory.create(i));
+        }
+        return page;
+    }
+
+    /**
+     * Creates a conversation shaped like the ones Layer returns.
+     * @param index Index used to make ids unique
+     * @return Conversation
+     */
+    public static JsonObject conversation(int index) {
+        return new JsonObject()
+                .put("id", "layer:///conversations/f3cc7b32-3c92-11e4-baad-" + String.format("%012d", index))
+                .put("url", "https://api.layer.com/apps/" + APP_ID + "/conversations/" + index)
+                .put("participants", new JsonArray()
+                        .add(new JsonObject().put("user_id", "123456789").put("display_name", "kakor"))
+                        .add(new JsonObject().put("user_id", "789").put("display_name", "lisa")))
+                .put("distinct", true)
+                .put("created_at", "2014-09-15T04:44:47+00:00")
+                .put("metadata", new JsonObject().put("title", "conversation " + index));
+    }
+
+    /**
+     * Creates a message shaped like the ones Layer returns.
+     * @param index Index used to make ids unique
+     * @return Message
+     */
+    public static JsonObject message(int index) {
+        return new JsonObject()
+                .put("id", "layer:///messages/940de862-3c96-11e4-baad-" + String.format("%012d", index))
+                .put("url", "https://api.layer.com/messages/" + index)
+                .put("receipts_url", "https://api.layer.com/messages/" + index + "/receipts")
+                .put("position", 15032697020L + index)
+                .put("conversation", new JsonObject()
+                        .put("id", "layer:///conversations/123")
+                        .put("url", "https://api.layer.com/conversations/123"))
+                .put("parts", new JsonArray().add(new JsonObject()
+                        .put("id", "layer:///messages/" + index + "/parts/0")
+                        .put("mime_type", "text/plain")
+                        .put("body", "This is the message.")))
+                .put("sent_at", "2014-09-09T04:44:47+00:00")
+                .put("sender", new JsonObject()
+                        .put("id", "layer:///identities/1234")
+                        .put("user_id", "123")
+                        .put("display_name", "One Two Three Four"))
+                .put("is_unread", true)
+                .put("recipient_status", new JsonObject()
+                        .put("layer:///identities/777", "sent")
+                        .put("layer:///identities/1234", "read"));
+    }
+}
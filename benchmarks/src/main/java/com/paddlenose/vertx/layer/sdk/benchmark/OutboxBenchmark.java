@@ -0,0 +1,144 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sustained postMessage throughput with and without the outbox.
+ * <p>
+ *     Every operation is one postMessage, made from one event loop with {@link #window} posts in flight. Journal
+ *     none disables the outbox, mapped journals every message without forcing it to disk and fsync forces it
+ *     before the message is sent. Forces are shared by the posts in flight, so the cost of fsync should shrink as
+ *     the window grows. Every trial uses a new temporary directory. Run it with one JMH thread:
+ *     <code>java -jar target/benchmarks.jar OutboxBenchmark 1</code>.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutboxBenchmark {
+    private static final int BATCH = 1024;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Param({"none", "mapped", "fsync"})
+    public String journal;
+
+    @Param({"1", "64"})
+    public int window;
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private LayerServerClient client;
+    private Context context;
+    private File directory;
+
+    private final String conversation_UUID = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+    private final JsonObject message = LayerStubServer.message(0).put("sender_id", "layer:///identities/1234");
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        stub = LayerStubServer.start(vertx, LayerServerClientBenchmark.PORT);
+        LayerServerOptions options = new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN);
+        if (!"none".equals(journal)) {
+            directory = Files.createTempDirectory("outbox").toFile();
+            options.setOutboxDirectory(directory.getPath());
+            options.setOutboxFsync("fsync".equals(journal));
+        }
+        client = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(window)
+                .setDefaultHost("localhost")
+                .setDefaultPort(LayerServerClientBenchmark.PORT)), options);
+        context = vertx.getOrCreateContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("Outbox: " + client.getOutboxStats().encode());
+        client.close();
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int postMessage() throws Exception {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(BATCH);
+        context.runOnContext(v -> {
+            for (int i = 0; i < window; i++) {
+                next(remaining, done, failed);
+            }
+        });
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(done.getCount() + " posts did not complete");
+        }
+        if (failed.get() > 0) {
+            throw new IllegalStateException(failed.get() + " posts failed");
+        }
+        return BATCH;
+    }
+
+    /**
+     * Makes the next post, if any are left, and the post after it once its body was read.
+     */
+    private void next(AtomicInteger remaining, CountDownLatch done, AtomicInteger failed) {
+        if (remaining.getAndDecrement() <= 0) {
+            return;
+        }
+        client.postMessage(response -> {
+            if (response == null) {
+                failed.incrementAndGet();
+                done.countDown();
+                next(remaining, done, failed);
+                return;
+            }
+            response.bodyHandler(body -> {
+                done.countDown();
+                next(remaining, done, failed);
+            });
+        }, conversation_UUID, message);
+    }
+}
@@ -0,0 +1,86 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of HTTP/1.1 pipelining against one request per connection.
+ * <p>
+ *     Concurrency is the number of JMH threads, each keeping one call in flight, run it with more threads than
+ *     connections: <code>java -jar target/benchmarks.jar PipeliningBenchmark 32</code>. <br>
+ *     The number of connections the stub saw is printed at the end of every trial.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeliningBenchmark {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Param({"false", "true"})
+    public boolean pipelining;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private LayerServerClient client;
+
+    private final String conversation_UUID = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+    private final JsonObject message = LayerStubServer.message(0).put("sender_id", "layer:///identities/1234");
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        stub = LayerStubServer.start(vertx, LayerServerClientBenchmark.PORT);
+        LayerServerOptions options = new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN);
+        options.setPipelining(pipelining);
+        options.setMaxConnections(connections);
+        client = new LayerServerClient(vertx, vertx.createHttpClient(options.applyTo(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(LayerServerClientBenchmark.PORT))), options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("Connections: " + stub.connections());
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public int getConversation() throws Exception {
+        return LayerServerClientBenchmark.call(handler -> client.getConversation(handler, conversation_UUID));
+    }
+
+    @Benchmark
+    public int postMessage() throws Exception {
+        return LayerServerClientBenchmark.call(handler -> client.postMessage(handler, conversation_UUID, message));
+    }
+}
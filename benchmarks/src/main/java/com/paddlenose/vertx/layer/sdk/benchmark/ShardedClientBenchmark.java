@@ -0,0 +1,138 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClientOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of one LayerServerClient shared by the verticles of several event loops.
+ * <p>
+ *     Every operation is one getConversation call, made from one of {@link #eventLoops} contexts with
+ *     {@link #WINDOW} calls in flight per context. The calls are made by the event loops themselves, run it with
+ *     one JMH thread: <code>java -jar target/benchmarks.jar ShardedClientBenchmark 1</code>. <br>
+ *     With sharded false the client uses one HttpClient whose connections are shared by all event loops,
+ *     with sharded true it is created with {@link LayerServerClient#createSharded}. Throughput of the sharded
+ *     client should grow with the number of event loops, as long as there are cores for them and the stub.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedClientBenchmark {
+    private static final int BATCH = 1024;
+    private static final int WINDOW = 16;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Param({"1", "2", "4", "8"})
+    public int eventLoops;
+
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private LayerServerClient client;
+    private final List<Context> contexts = new ArrayList<>();
+
+    private final String conversation_UUID = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Event loops for the callers and for the stub
+        vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(eventLoops * 2));
+        stub = LayerStubServer.start(vertx, LayerServerClientBenchmark.PORT, eventLoops);
+        LayerServerOptions options = new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN);
+        HttpClientOptions clientOptions = new HttpClientOptions()
+                .setKeepAlive(true)
+                .setDefaultHost("localhost")
+                .setDefaultPort(LayerServerClientBenchmark.PORT);
+        if (sharded) {
+            client = LayerServerClient.createSharded(vertx, clientOptions.setMaxPoolSize(WINDOW), options);
+        } else {
+            client = new LayerServerClient(vertx, vertx.createHttpClient(clientOptions.setMaxPoolSize(WINDOW * eventLoops)), options);
+        }
+        for (int i = 0; i < eventLoops; i++) {
+            contexts.add(vertx.getOrCreateContext());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int getConversation() throws Exception {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        AtomicInteger failed = new AtomicInteger();
+        for (Context context : contexts) {
+            AtomicInteger remaining = new AtomicInteger(BATCH / contexts.size());
+            context.runOnContext(v -> {
+                for (int i = 0; i < WINDOW; i++) {
+                    next(remaining, done, failed);
+                }
+            });
+        }
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(done.getCount() + " calls did not complete");
+        }
+        if (failed.get() > 0) {
+            throw new IllegalStateException(failed.get() + " calls failed");
+        }
+        return BATCH;
+    }
+
+    /**
+     * Makes the next call of a context, if any are left, and the call after it once its body was read.
+     */
+    private void next(AtomicInteger remaining, CountDownLatch done, AtomicInteger failed) {
+        if (remaining.getAndDecrement() <= 0) {
+            return;
+        }
+        client.getConversation(response -> {
+            if (response == null) {
+                failed.incrementAndGet();
+                done.countDown();
+                next(remaining, done, failed);
+                return;
+            }
+            response.bodyHandler(body -> {
+                done.countDown();
+                next(remaining, done, failed);
+            });
+        }, conversation_UUID);
+    }
+}
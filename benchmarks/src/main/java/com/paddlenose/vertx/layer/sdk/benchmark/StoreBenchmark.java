@@ -0,0 +1,114 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerMessageStore;
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of reading messages from the local store against reading them from Layer.
+ * <p>
+ *     The setup reads the stub listing of 100 messages once, which stores them. remoteMessages reads the listing
+ *     again over loopback HTTP, storedMessages reads the 20 newest from the store and storedMessage one message by
+ *     id. Loopback is the best case for the remote read, Layer adds a network round trip. Every trial uses a new
+ *     temporary directory: <code>java -jar target/benchmarks.jar StoreBenchmark 1</code>.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final String CONVERSATION = "layer:///conversations/123";
+
+    private Vertx vertx;
+    private LayerStubServer stub;
+    private LayerServerClient client;
+    private LayerMessageStore store;
+    private File directory;
+    private final String[] ids = new String[LayerStubServer.PAGE_SIZE];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        stub = LayerStubServer.start(vertx, LayerServerClientBenchmark.PORT);
+        directory = Files.createTempDirectory("store").toFile();
+        LayerServerOptions options = new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN);
+        options.setStoreDirectory(directory.getPath());
+        client = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setDefaultHost("localhost")
+                .setDefaultPort(LayerServerClientBenchmark.PORT)), options);
+        store = client.getMessageStore();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = LayerStubServer.message(i).getString("id");
+        }
+        remoteMessages();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("Store: " + store.getStats().encode());
+        client.close();
+        stub.close();
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public Buffer remoteMessages() throws Exception {
+        CompletableFuture<Buffer> body = new CompletableFuture<>();
+        client.getConversationMessage(response -> {
+            if (response == null) {
+                body.completeExceptionally(new IllegalStateException("Request failed"));
+            } else {
+                response.bodyHandler(body::complete);
+            }
+        }, "123");
+        return body.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public List<JsonObject> storedMessages() {
+        return store.getConversationMessages(CONVERSATION, 20);
+    }
+
+    @Benchmark
+    public JsonObject storedMessage() {
+        return store.getMessage(ids[next++ % ids.length]);
+    }
+}
@@ -0,0 +1,163 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerConversationSync;
+import com.paddlenose.vertx.layer.sdk.LayerServerClient;
+import com.paddlenose.vertx.layer.sdk.LayerServerOptions;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping an inbox current, incremental refreshes against full re-fetches.
+ * <p>
+ *     The stub inbox holds {@link #conversations} conversations sorted by last message. Every operation first gives
+ *     {@link #changes} of them a new message, then refreshes the sync: refreshAll re-reads and compares every
+ *     conversation, as diffing the full listing does, refresh reads from the top until the unchanged ones. The
+ *     teardown prints pages and bytes read per refresh. Run it with one JMH thread:
+ *     <code>java -jar target/benchmarks.jar SyncBenchmark 1</code>.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncBenchmark {
+    static final int PORT = 18082;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Param({"refresh", "refreshAll"})
+    public String mode;
+
+    @Param({"500"})
+    public int conversations;
+
+    @Param({"1", "10"})
+    public int changes;
+
+    private Vertx vertx;
+    private HttpServer server;
+    private LayerConversationSync sync;
+    private Context context;
+    /**
+     * Conversations of the stub, newest last message first, guarded by itself
+     */
+    private final List<JsonObject> inbox = new ArrayList<>();
+    private Instant clock = Instant.parse("2017-01-07T00:00:00Z");
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        for (int i = 0; i < conversations; i++) {
+            inbox.add(0, withMessage(LayerStubServer.conversation(i)));
+        }
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        server = vertx.createHttpServer().requestHandler(this::page).listen(PORT, result -> {
+            if (result.succeeded()) listening.complete(null);
+            else listening.completeExceptionally(result.cause());
+        });
+        listening.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        LayerServerClient client = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setDefaultHost("localhost")
+                .setDefaultPort(PORT)), new LayerServerOptions(LayerStubServer.APP_ID, LayerStubServer.APP_TOKEN));
+        sync = client.syncConversationsAsUser("1234");
+        context = vertx.getOrCreateContext();
+        refresh(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        JsonObject stats = sync.getStats();
+        long refreshes = stats.getLong("refreshes");
+        System.out.println("Sync: " + stats.encode() + ", per refresh " + stats.getLong("pages") / (double) refreshes
+                + " pages, " + stats.getLong("bytes_read") / refreshes + " bytes");
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public JsonObject keepCurrent() throws Exception {
+        synchronized (inbox) {
+            for (int i = 0; i < changes; i++) {
+                JsonObject conversation = inbox.remove(inbox.size() - 1 - next++ % (conversations - changes));
+                inbox.add(0, withMessage(conversation));
+            }
+        }
+        return refresh("refreshAll".equals(mode));
+    }
+
+    private JsonObject refresh(boolean full) throws Exception {
+        CompletableFuture<JsonObject> done = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            if (full) {
+                sync.refreshAll(result -> complete(done, result.succeeded() ? result.result() : null, result.cause()));
+            } else {
+                sync.refresh(result -> complete(done, result.succeeded() ? result.result() : null, result.cause()));
+            }
+        });
+        return done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void complete(CompletableFuture<JsonObject> done, JsonObject result, Throwable cause) {
+        if (cause != null) done.completeExceptionally(cause);
+        else done.complete(result);
+    }
+
+    /**
+     * Gives a conversation a message sent a minute after the previous one.
+     */
+    private JsonObject withMessage(JsonObject conversation) {
+        clock = clock.plusSeconds(60);
+        return conversation.copy().put("last_message", LayerStubServer.message(next).put("sent_at", clock.toString()));
+    }
+
+    /**
+     * Serves a page of the inbox after from_id.
+     */
+    private void page(HttpServerRequest request) {
+        int page_size = Integer.parseInt(request.getParam("page_size"));
+        String from_id = request.getParam("from_id");
+        JsonArray page = new JsonArray();
+        synchronized (inbox) {
+            int start = 0;
+            if (from_id != null) {
+                while (start < inbox.size() && !inbox.get(start).getString("id").equals(from_id)) {
+                    start++;
+                }
+                start++;
+            }
+            for (int i = start; i < inbox.size() && page.size() < page_size; i++) {
+                page.add(inbox.get(i));
+            }
+            request.response().end(page.encode());
+        }
+    }
+}
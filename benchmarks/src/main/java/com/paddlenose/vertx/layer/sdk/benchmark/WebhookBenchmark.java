@@ -0,0 +1,162 @@
+package com.paddlenose.vertx.layer.sdk.benchmark;
+
+import com.paddlenose.vertx.layer.sdk.LayerWebhookOptions;
+import com.paddlenose.vertx.layer.sdk.LayerWebhookServer;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sustained webhook events per second received by LayerWebhookServer.
+ * <p>
+ *     Every operation is one signed Message.created delivery with a new event id, so each is verified, decoded,
+ *     recorded by the deduplicator and published to a consumer. Deliveries are made from one event loop with
+ *     {@link #window} in flight over as many connections, the server runs {@link #instances} event loops, so
+ *     events per second per core is the score divided by instances. Bodies are signed as Layer does, on the event loop
+ *     of the client. Run it with one JMH thread: <code>java -jar target/benchmarks.jar WebhookBenchmark 1</code>.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookBenchmark {
+    static final int PORT = 18081;
+    private static final int BATCH = 1024;
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final String SECRET = "benchmarkSecret";
+
+    @Param({"1", "2"})
+    public int instances;
+
+    @Param({"16", "64"})
+    public int window;
+
+    private Vertx vertx;
+    private LayerWebhookServer server;
+    private HttpClient client;
+    private Context context;
+    /**
+     * Signs on the event loop of the client
+     */
+    private Mac mac;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final JsonObject message = LayerStubServer.message(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        vertx.eventBus().consumer("layer.webhook.Message.created", event -> consumed.incrementAndGet());
+        LayerWebhookOptions options = new LayerWebhookOptions(SECRET);
+        options.setPort(PORT);
+        options.setInstances(instances);
+        server = new LayerWebhookServer(vertx, options);
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        server.listen(result -> {
+            if (result.succeeded()) {
+                listening.complete(null);
+            } else {
+                listening.completeExceptionally(result.cause());
+            }
+        });
+        listening.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client = vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(window)
+                .setDefaultHost("localhost")
+                .setDefaultPort(PORT));
+        context = vertx.getOrCreateContext();
+        mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("Webhooks: " + server.getStats().encode() + ", consumed " + consumed.get());
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int receive() throws Exception {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(BATCH);
+        context.runOnContext(v -> {
+            for (int i = 0; i < window; i++) {
+                next(remaining, done, failed);
+            }
+        });
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(done.getCount() + " deliveries did not complete");
+        }
+        if (failed.get() > 0) {
+            throw new IllegalStateException(failed.get() + " deliveries failed");
+        }
+        return BATCH;
+    }
+
+    /**
+     * Delivers the next event, if any are left, and the event after it once it was acknowledged.
+     */
+    private void next(AtomicInteger remaining, CountDownLatch done, AtomicInteger failed) {
+        if (remaining.getAndDecrement() <= 0) {
+            return;
+        }
+        Buffer body = Buffer.buffer(new JsonObject()
+                .put("event", new JsonObject()
+                        .put("created_at", "2017-01-07T12:00:00.000Z")
+                        .put("type", "Message.created")
+                        .put("id", "c12f340d-3b62-4cf1-9b93-" + ids.incrementAndGet()))
+                .put("message", message).encode());
+        client.post("/", response -> response.bodyHandler(b -> {
+            if (response.statusCode() != 200) {
+                failed.incrementAndGet();
+            }
+            done.countDown();
+            next(remaining, done, failed);
+        })).putHeader(LayerWebhookServer.SIGNATURE_HEADER, sign(body)).end(body);
+    }
+
+    private String sign(Buffer body) {
+        byte[] digest = mac.doFinal(body.getBytes());
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
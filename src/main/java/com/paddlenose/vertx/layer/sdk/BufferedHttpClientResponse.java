@@ -0,0 +1,192 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.net.NetSocket;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A HttpClientResponse whose body has already been received.
+ * <p>
+ *     Used when one received response is handed to several callers or kept for later calls.
+ *     The body is replayed to the handlers set on this instance, every instance replays independently. <br>
+ *     Handlers set while the response handler runs receive the body when {@link #replay()} is called,
+ *     handlers set later receive it immediately.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class BufferedHttpClientResponse implements HttpClientResponse {
+    private final int statusCode;
+    private final String statusMessage;
+    private final MultiMap headers;
+    private final Buffer body;
+
+    private Handler<Buffer> handler;
+    private Handler<Buffer> bodyHandler;
+    private Handler<Void> endHandler;
+    private boolean replaying;
+    private boolean paused;
+    private boolean delivered;
+
+    /**
+     * @param statusCode HTTP status code
+     * @param statusMessage HTTP status message
+     * @param headers Response headers, not copied
+     * @param body Response body, not copied
+     */
+    BufferedHttpClientResponse(int statusCode, String statusMessage, MultiMap headers, Buffer body) {
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Reads the body of a response.
+     * @param response Response, body handling must not have started
+     * @param handler Receives the buffered response
+     */
+    static void buffer(HttpClientResponse response, Handler<AsyncResult<BufferedHttpClientResponse>> handler) {
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap().addAll(response.headers());
+        response.exceptionHandler(err -> handler.handle(Future.failedFuture(err)));
+        response.bodyHandler(body -> handler.handle(Future.succeededFuture(
+                new BufferedHttpClientResponse(response.statusCode(), response.statusMessage(), headers, body))));
+    }
+
+    /**
+     * @return New instance with the same status, headers and body, ready to be replayed again
+     */
+    BufferedHttpClientResponse copy() {
+        return new BufferedHttpClientResponse(statusCode, statusMessage, headers, body);
+    }
+
+    /**
+     * @return The received body
+     */
+    Buffer body() {
+        return body;
+    }
+
+    /**
+     * Hands this response to a dispatch handler and replays the body once the handler has returned.
+     * @param handler Dispatch handler
+     */
+    void respond(Handler<AsyncResult<HttpClientResponse>> handler) {
+        handler.handle(Future.succeededFuture(this));
+        replay();
+    }
+
+    /**
+     * Starts delivering the body, call after the response handler has returned.
+     */
+    void replay() {
+        replaying = true;
+        deliver();
+    }
+
+    private void deliver() {
+        if (!replaying || paused || delivered || handler == null && bodyHandler == null && endHandler == null) {
+            return;
+        }
+        delivered = true;
+        if (handler != null && body.length() > 0) {
+            handler.handle(body);
+        }
+        if (bodyHandler != null) {
+            bodyHandler.handle(body);
+        }
+        if (endHandler != null) {
+            endHandler.handle(null);
+        }
+    }
+
+    @Override
+    public HttpClientResponse resume() {
+        paused = false;
+        deliver();
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        deliver();
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        deliver();
+        return this;
+    }
+
+    @Override
+    public int statusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String statusMessage() {
+        return statusMessage;
+    }
+
+    @Override
+    public MultiMap headers() {
+        return headers;
+    }
+
+    @Override
+    public String getHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public String getHeader(CharSequence headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public String getTrailer(String trailerName) {
+        return null;
+    }
+
+    @Override
+    public MultiMap trailers() {
+        return MultiMap.caseInsensitiveMultiMap();
+    }
+
+    @Override
+    public List<String> cookies() {
+        return Collections.unmodifiableList(headers.getAll("Set-Cookie"));
+    }
+
+    @Override
+    public HttpClientResponse bodyHandler(Handler<Buffer> bodyHandler) {
+        this.bodyHandler = bodyHandler;
+        deliver();
+        return this;
+    }
+
+    @Override
+    public NetSocket netSocket() {
+        throw new UnsupportedOperationException("Buffered response has no socket");
+    }
+}
@@ -0,0 +1,94 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+
+import java.util.Map;
+
+/**
+ * Read-through cache in front of the GET endpoints that have a TTL.
+ * <p>
+ *     Fresh entries are answered without a request. Stale entries with an ETag are revalidated with
+ *     If-None-Match, a 304 extends the entry. Only 200 responses are stored. <br>
+ *     A POST to a conversation invalidates that conversation when it is sent and again when it is acknowledged.
+ *     Streaming requests are never cached.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class CachingDispatcher implements LayerDispatcher {
+    private static final CharSequence ETAG = HttpHeaders.createOptimized("ETag");
+    private static final CharSequence IF_NONE_MATCH = HttpHeaders.createOptimized("If-None-Match");
+
+    private final LayerDispatcher next;
+    private final LayerResponseCache cache;
+    private final Map<LayerEndpoint, Long> ttls;
+
+    /**
+     * @param next Dispatcher that sends uncached requests
+     * @param cache Cache to read and fill
+     * @param ttls Time to live in milliseconds per cached endpoint
+     */
+    CachingDispatcher(LayerDispatcher next, LayerResponseCache cache, Map<LayerEndpoint, Long> ttls) {
+        this.next = next;
+        this.cache = cache;
+        this.ttls = ttls;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.endpoint.method == HttpMethod.POST) {
+            if (request.conversation_UUID == null) {
+                next.dispatch(request, handler);
+                return;
+            }
+            cache.invalidateConversation(request.conversation_UUID);
+            next.dispatch(request, result -> {
+                cache.invalidateConversation(request.conversation_UUID);
+                handler.handle(result);
+            });
+            return;
+        }
+        Long ttl = ttls.get(request.endpoint);
+        if (ttl == null || request.streaming) {
+            next.dispatch(request, handler);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        LayerResponseCache.Entry cached = cache.get(request.uri, now);
+        if (cached != null && cached.fresh(now)) {
+            cached.response.copy().respond(handler);
+            return;
+        }
+        if (cached != null && cached.etag != null) {
+            request.headers().set(IF_NONE_MATCH, cached.etag);
+        }
+        long generation = cache.generation();
+        next.dispatch(request, result -> {
+            if (result.failed()) {
+                handler.handle(result);
+                return;
+            }
+            HttpClientResponse response = result.result();
+            if (response.statusCode() == 304 && cached != null) {
+                cache.revalidated(cached, System.currentTimeMillis() + ttl);
+                cached.response.copy().respond(handler);
+            } else if (response.statusCode() == 200) {
+                BufferedHttpClientResponse.buffer(response, buffered -> {
+                    if (buffered.failed()) {
+                        handler.handle(Future.failedFuture(buffered.cause()));
+                        return;
+                    }
+                    cache.put(new LayerResponseCache.Entry(request.uri, request.conversation_UUID, buffered.result(),
+                            response.getHeader(ETAG), System.currentTimeMillis() + ttl), generation);
+                    buffered.result().copy().respond(handler);
+                });
+            } else {
+                handler.handle(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Circuit breaker of one endpoint family.
+ * <p>
+ *     Closed, the outcomes of the most recent calls are kept in a fixed size window. When the window is full and the
+ *     share of failed or of slow calls reaches its threshold the breaker opens. <br>
+ *     Open, calls are refused until the open duration has passed, then the breaker is half-open. <br>
+ *     Half-open, {@link #PROBES} calls are let through. If their failure or slow-call rate reaches the threshold
+ *     the breaker opens again, otherwise it closes with an empty window. <br>
+ *     Time is passed in as System.nanoTime() values. Thread safe, all access is synchronized.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class CircuitBreaker {
+    /**
+     * Calls let through while half-open
+     */
+    static final int PROBES = 3;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String family;
+    private final double failureRate;
+    private final double slowCallRate;
+    private final long openDuration;
+    private final Handler<JsonObject> listener;
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int size;
+    private int index;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesLeft;
+    private int probesDone;
+    private int probeFailures;
+    private int probeSlowCalls;
+
+    /**
+     * @param family Endpoint family
+     * @param window Calls in the window
+     * @param failureRate Failure rate in percent that opens the breaker
+     * @param slowCallRate Slow-call rate in percent that opens the breaker
+     * @param openDuration Nanoseconds the breaker stays open
+     * @param listener Receives a state-change event, called while this instance is locked
+     */
+    CircuitBreaker(String family, int window, double failureRate, double slowCallRate, long openDuration, Handler<JsonObject> listener) {
+        this.family = family;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+        this.openDuration = openDuration;
+        this.listener = listener;
+        this.failed = new boolean[Math.max(1, window)];
+        this.slow = new boolean[failed.length];
+    }
+
+    /**
+     * @param now Current time in nanoseconds
+     * @return True if the call may be sent
+     */
+    synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openUntil < 0) {
+                    return false;
+                }
+                probesLeft = PROBES;
+                probesDone = 0;
+                probeFailures = 0;
+                probeSlowCalls = 0;
+                transition(State.HALF_OPEN, 0, 0);
+                return acquireProbe();
+            default:
+                return acquireProbe();
+        }
+    }
+
+    /**
+     * Lets one of the probes of the half-open state through.
+     * @return True if a probe was left
+     */
+    private boolean acquireProbe() {
+        if (probesLeft == 0) {
+            return false;
+        }
+        probesLeft--;
+        return true;
+    }
+
+    /**
+     * Records the outcome of a call let through by {@link #tryAcquire}.
+     * @param now Current time in nanoseconds
+     * @param failure True if the call failed
+     * @param slowCall True if the call took longer than the slow-call duration
+     */
+    synchronized void record(long now, boolean failure, boolean slowCall) {
+        if (state == State.CLOSED) {
+            if (size == failed.length) {
+                failures -= failed[index] ? 1 : 0;
+                slowCalls -= slow[index] ? 1 : 0;
+            } else {
+                size++;
+            }
+            failed[index] = failure;
+            slow[index] = slowCall;
+            failures += failure ? 1 : 0;
+            slowCalls += slowCall ? 1 : 0;
+            index = (index + 1) % failed.length;
+            if (size == failed.length && trips(failures, slowCalls, size)) {
+                open(now, failures, slowCalls, size);
+            }
+        } else if (state == State.HALF_OPEN) {
+            probesDone++;
+            probeFailures += failure ? 1 : 0;
+            probeSlowCalls += slowCall ? 1 : 0;
+            if (trips(probeFailures, probeSlowCalls, PROBES)) {
+                open(now, probeFailures, probeSlowCalls, probesDone);
+            } else if (probesDone == PROBES) {
+                size = 0;
+                index = 0;
+                failures = 0;
+                slowCalls = 0;
+                transition(State.CLOSED, probeFailures * 100d / probesDone, probeSlowCalls * 100d / probesDone);
+            }
+        }
+        // Calls let through before the breaker opened do not count
+    }
+
+    /**
+     * Returns a permit of a call that was not sent after all.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN && probesLeft + probesDone < PROBES) {
+            probesLeft++;
+        }
+    }
+
+    /**
+     * @return Current state
+     */
+    synchronized State state() {
+        return state;
+    }
+
+    private boolean trips(int failures, int slowCalls, int calls) {
+        return failures * 100d / calls >= failureRate || slowCalls * 100d / calls >= slowCallRate;
+    }
+
+    private void open(long now, int failures, int slowCalls, int calls) {
+        openUntil = now + openDuration;
+        transition(State.OPEN, failures * 100d / calls, slowCalls * 100d / calls);
+    }
+
+    private void transition(State next, double failureRate, double slowCallRate) {
+        State previous = state;
+        state = next;
+        listener.handle(new JsonObject()
+                .put("family", family)
+                .put("state", next.name().toLowerCase())
+                .put("previous_state", previous.name().toLowerCase())
+                .put("failure_rate", failureRate)
+                .put("slow_call_rate", slowCallRate));
+    }
+}
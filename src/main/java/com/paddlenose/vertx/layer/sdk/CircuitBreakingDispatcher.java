@@ -0,0 +1,81 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fails calls at once while Layer is failing, one {@link CircuitBreaker} per endpoint family.
+ * <p>
+ *     A call fails when no response was received or Layer answered 5xx, failures raised by the client itself,
+ *     LayerServerException, are not counted. A call is slow when its response headers took longer than the slow-call
+ *     duration. Calls refused by an open breaker fail with {@link LayerCircuitOpenException}.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class CircuitBreakingDispatcher implements LayerDispatcher {
+    private final LayerDispatcher next;
+    private final Map<String, CircuitBreaker> breakers;
+    private final long slowCallDuration;
+
+    /**
+     * @param next Dispatcher that sends permitted calls
+     * @param breakers Breaker of every endpoint family
+     * @param slowCallDuration Nanoseconds after which a call is slow
+     */
+    CircuitBreakingDispatcher(LayerDispatcher next, Map<String, CircuitBreaker> breakers, long slowCallDuration) {
+        this.next = next;
+        this.breakers = breakers;
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        CircuitBreaker breaker = breakers.get(request.endpoint.family);
+        long start = System.nanoTime();
+        if (!breaker.tryAcquire(start)) {
+            handler.handle(Future.failedFuture(new LayerCircuitOpenException(request.endpoint.family)));
+            return;
+        }
+        next.dispatch(request, result -> {
+            long now = System.nanoTime();
+            if (result.succeeded()) {
+                breaker.record(now, result.result().statusCode() >= 500, now - start > slowCallDuration);
+            } else if (!(result.cause() instanceof LayerServerException)) {
+                breaker.record(now, true, now - start > slowCallDuration);
+            } else {
+                // Refused locally, Layer was not asked
+                breaker.release();
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * @return State of every endpoint family
+     */
+    JsonObject states() {
+        JsonObject states = new JsonObject();
+        for (Map.Entry<String, CircuitBreaker> breaker : breakers.entrySet()) {
+            states.put(breaker.getKey(), breaker.getValue().state().name().toLowerCase());
+        }
+        return states;
+    }
+
+    /**
+     * Creates a breaker for every endpoint family.
+     * @param listener Receives state-change events
+     */
+    static Map<String, CircuitBreaker> breakers(int window, double failureRate, double slowCallRate, long openDuration, Handler<JsonObject> listener) {
+        Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+        for (String family : LayerEndpoint.FAMILIES) {
+            breakers.put(family, new CircuitBreaker(family, window, failureRate, slowCallRate, openDuration, listener));
+        }
+        return breakers;
+    }
+}
@@ -0,0 +1,103 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-flight for GET requests.
+ * <p>
+ *     While a GET for a URI is in flight, identical GETs wait for it instead of sending their own request.
+ *     When the response arrives without followers it is passed on as is, otherwise its body is buffered once
+ *     and every caller receives its own replay. <br>
+ *     Calls made after the response has arrived send a new request. Streaming requests are never coalesced.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class CoalescingDispatcher implements LayerDispatcher {
+    private static final CharSequence IF_NONE_MATCH = HttpHeaders.createOptimized("If-None-Match");
+
+    private final LayerDispatcher next;
+    private final Map<String, List<Handler<AsyncResult<HttpClientResponse>>>> inFlight = new HashMap<>();
+    private long coalesced;
+
+    /**
+     * @param next Dispatcher that sends the leading request
+     */
+    CoalescingDispatcher(LayerDispatcher next) {
+        this.next = next;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.endpoint.method != HttpMethod.GET || request.streaming) {
+            next.dispatch(request, handler);
+            return;
+        }
+        String key = key(request);
+        List<Handler<AsyncResult<HttpClientResponse>>> own = new ArrayList<>(2);
+        synchronized (this) {
+            List<Handler<AsyncResult<HttpClientResponse>>> followers = inFlight.get(key);
+            if (followers != null) {
+                followers.add(handler);
+                coalesced++;
+                return;
+            }
+            inFlight.put(key, own);
+        }
+        AtomicBoolean completed = new AtomicBoolean();
+        next.dispatch(request, result -> {
+            // A late failure of a request that already responded is dropped, its followers were already served
+            // and the key may belong to a newer request by now
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            List<Handler<AsyncResult<HttpClientResponse>>> followers;
+            synchronized (this) {
+                followers = inFlight.remove(key, own) ? own : Collections.emptyList();
+            }
+            if (followers.isEmpty() || result.failed()) {
+                handler.handle(result);
+                for (Handler<AsyncResult<HttpClientResponse>> follower : followers) {
+                    follower.handle(result);
+                }
+                return;
+            }
+            BufferedHttpClientResponse.buffer(result.result(), buffered -> {
+                if (buffered.failed()) {
+                    handler.handle(Future.failedFuture(buffered.cause()));
+                    for (Handler<AsyncResult<HttpClientResponse>> follower : followers) {
+                        follower.handle(Future.failedFuture(buffered.cause()));
+                    }
+                    return;
+                }
+                buffered.result().respond(handler);
+                for (Handler<AsyncResult<HttpClientResponse>> follower : followers) {
+                    buffered.result().copy().respond(follower);
+                }
+            });
+        });
+    }
+
+    /**
+     * @return Number of calls that were served by another call's request
+     */
+    synchronized long coalesced() {
+        return coalesced;
+    }
+
+    private static String key(LayerRequest request) {
+        String etag = request.hasHeaders() ? request.headers().get(IF_NONE_MATCH) : null;
+        return etag == null ? request.uri : request.uri + '\n' + etag;
+    }
+}
@@ -0,0 +1,162 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates compressed responses and gzips large request bodies.
+ * <p>
+ *     With response compression every request accepts gzip and deflate, and a response with either Content-Encoding
+ *     is inflated as it arrives, see {@link DecompressingHttpClientResponse}. <br>
+ *     POST bodies of at least the threshold are gzipped once, before retries, and sent with Content-Encoding gzip,
+ *     unless that does not make them smaller. <br>
+ *     Byte counts and the CPU time of the calling thread spent compressing and inflating are kept for
+ *     {@link #stats()}, wall time where the JVM does not measure thread CPU time.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class CompressionDispatcher implements LayerDispatcher {
+    private static final CharSequence GZIP = HttpHeaders.createOptimized("gzip");
+    private static final CharSequence GZIP_DEFLATE = HttpHeaders.createOptimized("gzip, deflate");
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean THREAD_CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+    private final LayerDispatcher next;
+    private final boolean responses;
+    private final int threshold;
+
+    private final AtomicLong requestsCompressed = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestCompressedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong responsesInflated = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseCompressedBytes = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    /**
+     * @param next Dispatcher that sends the requests
+     * @param responses True to accept compressed responses
+     * @param threshold Smallest POST body that is gzipped in bytes, 0 to send bodies as they are
+     */
+    CompressionDispatcher(LayerDispatcher next, boolean responses, int threshold) {
+        this.next = next;
+        this.responses = responses;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        LayerRequest sent = compress(request);
+        if (!responses) {
+            next.dispatch(sent, handler);
+            return;
+        }
+        sent.headers().set(HttpHeaders.ACCEPT_ENCODING, GZIP_DEFLATE);
+        next.dispatch(sent, result -> {
+            ZlibWrapper wrapper = result.succeeded() ? wrapper(result.result().getHeader(HttpHeaders.CONTENT_ENCODING)) : null;
+            if (wrapper == null) {
+                handler.handle(result);
+                return;
+            }
+            responsesInflated.incrementAndGet();
+            handler.handle(Future.succeededFuture(new DecompressingHttpClientResponse(result.result(), wrapper, this)));
+        });
+    }
+
+    /**
+     * @return requests_compressed, request_bytes before and request_compressed_bytes after compression,
+     *         responses_inflated, response_compressed_bytes received and response_bytes after inflating,
+     *         the ratios of uncompressed to compressed bytes and compress_cpu_ms and inflate_cpu_ms
+     */
+    JsonObject stats() {
+        return new JsonObject()
+                .put("requests_compressed", requestsCompressed.get())
+                .put("request_bytes", requestBytes.get())
+                .put("request_compressed_bytes", requestCompressedBytes.get())
+                .put("request_ratio", ratio(requestBytes.get(), requestCompressedBytes.get()))
+                .put("compress_cpu_ms", compressNanos.get() / 1e6)
+                .put("responses_inflated", responsesInflated.get())
+                .put("response_bytes", responseBytes.get())
+                .put("response_compressed_bytes", responseCompressedBytes.get())
+                .put("response_ratio", ratio(responseBytes.get(), responseCompressedBytes.get()))
+                .put("inflate_cpu_ms", inflateNanos.get() / 1e6);
+    }
+
+    /**
+     * Counts a chunk of an inflated response.
+     * @param compressed Bytes received
+     * @param inflated Bytes after inflating
+     * @param nanos CPU time spent
+     */
+    void inflated(long compressed, long inflated, long nanos) {
+        responseCompressedBytes.addAndGet(compressed);
+        responseBytes.addAndGet(inflated);
+        inflateNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return CPU time of the current thread in nanoseconds, System.nanoTime() if not measured
+     */
+    static long cpuTime() {
+        return THREAD_CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private LayerRequest compress(LayerRequest request) {
+        if (threshold <= 0 || request.body == null || request.body.length() < threshold || request.endpoint.method != HttpMethod.POST) {
+            return request;
+        }
+        long start = cpuTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(request.body.length() / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(request.body.getBytes());
+        } catch (IOException e) {
+            // Writes to memory do not fail
+            throw new IllegalStateException(e);
+        }
+        compressNanos.addAndGet(cpuTime() - start);
+        if (out.size() >= request.body.length()) {
+            return request;
+        }
+        requestsCompressed.incrementAndGet();
+        requestBytes.addAndGet(request.body.length());
+        requestCompressedBytes.addAndGet(out.size());
+        LayerRequest compressed = request.withBody(Buffer.buffer(out.toByteArray()));
+        compressed.headers().set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        return compressed;
+    }
+
+    private static ZlibWrapper wrapper(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return ZlibWrapper.GZIP;
+            case "deflate":
+            case "x-deflate":
+                return ZlibWrapper.ZLIB_OR_NONE;
+            default:
+                return null;
+        }
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return compressed == 0 ? 0d : (double) uncompressed / compressed;
+    }
+}
@@ -0,0 +1,141 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit on requests in flight.
+ * <p>
+ *     Requests above the limit wait in a bounded FIFO queue, requests beyond the queue fail at once with
+ *     LayerServerException. The limit is a {@link GradientLimit} over the time from sending a request to
+ *     receiving its response headers. Failures, 429 and 503 count as dropped. A waiting request is sent on the
+ *     context it was made on. <br>
+ *     Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class ConcurrencyLimitingDispatcher implements LayerDispatcher {
+
+    private static final class Pending {
+        final LayerRequest request;
+        final Handler<AsyncResult<HttpClientResponse>> handler;
+        final Context context;
+
+        Pending(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler, Context context) {
+            this.request = request;
+            this.handler = handler;
+            this.context = context;
+        }
+    }
+
+    private final LayerDispatcher next;
+    private final GradientLimit limit;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final int maxQueued;
+
+    private int inFlight;
+    private long rejected;
+
+    /**
+     * @param next Dispatcher that sends admitted requests
+     * @param limit Limit, owned by this dispatcher
+     * @param maxQueued Maximum number of waiting requests, more are rejected
+     */
+    ConcurrencyLimitingDispatcher(LayerDispatcher next, GradientLimit limit, int maxQueued) {
+        this.next = next;
+        this.limit = limit;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Creates a dispatcher with a fixed limit, a limit with equal bounds never moves.
+     * @param next Dispatcher that sends admitted requests
+     * @param limit Requests in flight
+     * @param maxQueued Maximum number of waiting requests, more are rejected
+     * @return Dispatcher
+     */
+    static ConcurrencyLimitingDispatcher fixed(LayerDispatcher next, int limit, int maxQueued) {
+        return new ConcurrencyLimitingDispatcher(next, new GradientLimit(limit, limit, limit), maxQueued);
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        boolean admitted = false;
+        boolean full = false;
+        synchronized (this) {
+            if (inFlight < limit.limit()) {
+                inFlight++;
+                admitted = true;
+            } else if (queue.size() < maxQueued) {
+                queue.add(new Pending(request, handler, Vertx.currentContext()));
+            } else {
+                rejected++;
+                full = true;
+            }
+        }
+        if (admitted) {
+            send(request, handler);
+        } else if (full) {
+            handler.handle(Future.failedFuture(new LayerServerException("Concurrency limit reached")));
+        }
+    }
+
+    /**
+     * @return Counters: limit, in_flight, queued, rejected, rtt_ms and long_rtt_ms
+     */
+    synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("limit", limit.limit())
+                .put("in_flight", inFlight)
+                .put("queued", queue.size())
+                .put("rejected", rejected)
+                .put("rtt_ms", limit.lastRtt() / (double) TimeUnit.MILLISECONDS.toNanos(1))
+                .put("long_rtt_ms", limit.longRtt() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void send(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        long start = System.nanoTime();
+        next.dispatch(request, result -> {
+            complete(result, System.nanoTime() - start);
+            handler.handle(result);
+        });
+    }
+
+    private void complete(AsyncResult<HttpClientResponse> result, long rtt) {
+        List<Pending> ready = null;
+        synchronized (this) {
+            if (result.failed() || result.result().statusCode() == 429 || result.result().statusCode() == 503) {
+                limit.dropped();
+            } else {
+                limit.sample(rtt, inFlight);
+            }
+            inFlight--;
+            while (inFlight < limit.limit() && !queue.isEmpty()) {
+                inFlight++;
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(queue.poll());
+            }
+        }
+        if (ready != null) {
+            for (Pending pending : ready) {
+                if (pending.context == null || pending.context == Vertx.currentContext()) {
+                    send(pending.request, pending.handler);
+                } else {
+                    pending.context.runOnContext(v -> send(pending.request, pending.handler));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.function.Supplier;
+
+/**
+ * Streams rich content to the upload URL Layer hands out.
+ * <p>
+ *     The body is sent with chunked transfer encoding as it is read. The source is paused while the request's write
+ *     queue is full, so at most one write queue of the content is held in memory whatever its size. A source that
+ *     runs on another context hands over one chunk at a time to the context of the request. <br>
+ *     The upload goes to cloud storage, not to Layer, so it carries no Layer headers and bypasses the dispatchers.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class ContentUploader {
+    private static final String CONTENT_TYPE = "Content-Type";
+
+    private final Supplier<HttpClient> clients;
+
+    /**
+     * @param clients Supplies the HttpClient of the calling context
+     */
+    ContentUploader(Supplier<HttpClient> clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Uploads content.
+     * @param upload_url Absolute URL returned by Layer
+     * @param mime_type Type of the content
+     * @param size Bytes the source must deliver, as announced to Layer
+     * @param content Source, paused until the request is sent. Its handlers are replaced
+     * @param handler Completed once storage answers with 2xx, failed on a source error, a size mismatch or any other status
+     */
+    void upload(String upload_url, String mime_type, long size, ReadStream<Buffer> content, Handler<AsyncResult<Void>> handler) {
+        Future<Void> result = Future.future();
+        result.setHandler(handler);
+        Context context = Vertx.currentContext();
+        long[] written = new long[1];
+        HttpClientRequest request = clients.get().requestAbs(HttpMethod.PUT, upload_url, response -> {
+            if (result.isComplete()) {
+                return;
+            }
+            if (response.statusCode() / 100 == 2) {
+                result.complete();
+            } else {
+                result.fail(new LayerServerException(response.statusCode(), response.statusMessage()));
+            }
+        });
+        request.setChunked(true).putHeader(CONTENT_TYPE, mime_type);
+        request.exceptionHandler(err -> {
+            if (!result.isComplete()) {
+                result.fail(err);
+            }
+        });
+        Handler<Buffer> write = buffer -> {
+            written[0] += buffer.length();
+            request.write(buffer);
+            if (request.writeQueueFull()) {
+                content.pause();
+                request.drainHandler(v -> content.resume());
+            }
+        };
+        content.handler(buffer -> {
+            if (context == null || context == Vertx.currentContext()) {
+                write.handle(buffer);
+            } else {
+                // The source runs on another context, hand over one chunk at a time
+                content.pause();
+                context.runOnContext(v -> {
+                    write.handle(buffer);
+                    if (!request.writeQueueFull()) {
+                        content.resume();
+                    }
+                });
+            }
+        });
+        content.exceptionHandler(err -> run(context, v -> {
+            if (!result.isComplete()) {
+                result.fail(err);
+            }
+            // Storage rejects the upload as shorter than announced
+            request.end();
+        }));
+        content.endHandler(end -> run(context, v -> {
+            if (written[0] != size && !result.isComplete()) {
+                result.fail(new LayerServerException("Content was " + written[0] + " bytes, announced " + size));
+            }
+            request.end();
+        }));
+        content.resume();
+    }
+
+    /**
+     * Runs an action on a context, at once if it is the current one.
+     */
+    private static void run(Context context, Handler<Void> action) {
+        if (context == null || context == Vertx.currentContext()) {
+            action.handle(null);
+        } else {
+            context.runOnContext(action);
+        }
+    }
+}
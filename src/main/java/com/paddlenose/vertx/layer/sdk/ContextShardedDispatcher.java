@@ -0,0 +1,156 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Innermost dispatcher with one HttpClient, and so one connection pool, per Vert.x context.
+ * <p>
+ *     A request is sent with the HttpClient of the context it is made on, created on first use. Its connections
+ *     belong to the caller's event loop, so responses are handled without passing through another thread. <br>
+ *     The HttpClient of a context is closed when the context is, when its verticle is undeployed.
+ *     Requests made outside a context share one HttpClient. <br>
+ *     With a cap on requests in flight, every HttpClient gets its own cap. <br>
+ *     With pipelining, only GETs are pipelined. Every context gets a second HttpClient without pipelining for the
+ *     other requests: a POST that is not the first request on a connection may be sent again on a new connection
+ *     if the connection closes early, which would post it twice (RFC 7230, 6.3.2).
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class ContextShardedDispatcher implements LayerDispatcher {
+    private final Vertx vertx;
+    private final HttpClientOptions options;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final Map<Context, Shard> shards = new ConcurrentHashMap<>();
+    private Shard unbound;
+
+    /**
+     * HttpClients of a context and the dispatchers that send with them.
+     */
+    private static final class Shard {
+        final HttpClient client;
+        final LayerDispatcher dispatcher;
+        /**
+         * HttpClient of requests other than GET, the client itself unless it pipelines
+         */
+        final HttpClient postClient;
+        final LayerDispatcher posts;
+
+        Shard(HttpClient client, LayerDispatcher dispatcher, HttpClient postClient, LayerDispatcher posts) {
+            this.client = client;
+            this.dispatcher = dispatcher;
+            this.postClient = postClient;
+            this.posts = posts;
+        }
+
+        void close() {
+            client.close();
+            if (postClient != client) {
+                postClient.close();
+            }
+        }
+    }
+
+    /**
+     * @param vertx Vert.x instance that creates the HttpClients
+     * @param options Options of every HttpClient, requires default host
+     * @param maxInFlight Requests in flight per HttpClient, 0 for no cap
+     * @param maxQueued Maximum number of requests waiting for the cap, more are rejected
+     */
+    ContextShardedDispatcher(Vertx vertx, HttpClientOptions options, int maxInFlight, int maxQueued) {
+        this.vertx = vertx;
+        this.options = new HttpClientOptions(options);
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        Shard shard = current();
+        (request.endpoint.method == HttpMethod.GET ? shard.dispatcher : shard.posts).dispatch(request, handler);
+    }
+
+    /**
+     * @return HttpClient of the current context, created on first use
+     */
+    HttpClient client() {
+        return current().client;
+    }
+
+    private Shard current() {
+        Context context = Vertx.currentContext();
+        Shard shard = context == null ? unbound() : shards.get(context);
+        if (shard == null) {
+            shard = shards.computeIfAbsent(context, this::shard);
+        }
+        return shard;
+    }
+
+    /**
+     * @return Number of contexts with their own HttpClient
+     */
+    int shards() {
+        return shards.size();
+    }
+
+    /**
+     * Closes every HttpClient.
+     */
+    void close() {
+        for (Context context : shards.keySet()) {
+            Shard shard = shards.remove(context);
+            if (shard != null) {
+                shard.close();
+            }
+        }
+        synchronized (this) {
+            if (unbound != null) {
+                unbound.close();
+                unbound = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the HttpClient of a context, called on the context.
+     */
+    private Shard shard(Context context) {
+        // A HttpClient created on a context closes itself with the context, only forget it here
+        context.addCloseHook(completion -> {
+            shards.remove(context);
+            completion.handle(Future.succeededFuture());
+        });
+        return shard();
+    }
+
+    private synchronized Shard unbound() {
+        if (unbound == null) {
+            unbound = shard();
+        }
+        return unbound;
+    }
+
+    private Shard shard() {
+        HttpClient client = vertx.createHttpClient(options);
+        LayerDispatcher dispatcher = new HttpClientDispatcher(client);
+        if (maxInFlight > 0) {
+            dispatcher = ConcurrencyLimitingDispatcher.fixed(dispatcher, maxInFlight, maxQueued);
+        }
+        if (!options.isPipelining()) {
+            return new Shard(client, dispatcher, client, dispatcher);
+        }
+        HttpClient postClient = vertx.createHttpClient(new HttpClientOptions(options).setPipelining(false));
+        return new Shard(client, dispatcher, postClient, new HttpClientDispatcher(postClient));
+    }
+}
@@ -0,0 +1,240 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.util.ReferenceCountUtil;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.net.NetSocket;
+
+import java.util.List;
+
+/**
+ * A HttpClientResponse whose gzip or deflate body is inflated as it arrives.
+ * <p>
+ *     Chunks are inflated one at a time with the Netty decoder HttpContentDecompressor uses, so streamed responses
+ *     stay streamed. The headers are those of the response without Content-Encoding and Content-Length.
+ *     Pause and resume pass to the response. <br>
+ *     Inflated and received sizes and the CPU time spent inflating are reported to the {@link CompressionDispatcher}.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class DecompressingHttpClientResponse implements HttpClientResponse {
+    private final HttpClientResponse response;
+    private final CompressionDispatcher stats;
+    private final EmbeddedChannel decoder;
+    private final MultiMap headers;
+
+    private Handler<Buffer> handler;
+    private Handler<Buffer> bodyHandler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private Buffer body;
+    private boolean installed;
+    private boolean failed;
+
+    /**
+     * @param response Response with a compressed body, body handling must not have started
+     * @param wrapper Format of the body
+     * @param stats Receives sizes and CPU time
+     */
+    DecompressingHttpClientResponse(HttpClientResponse response, ZlibWrapper wrapper, CompressionDispatcher stats) {
+        this.response = response;
+        this.stats = stats;
+        this.decoder = new EmbeddedChannel(ZlibCodecFactory.newZlibDecoder(wrapper));
+        this.headers = MultiMap.caseInsensitiveMultiMap().addAll(response.headers())
+                .remove(HttpHeaders.CONTENT_ENCODING)
+                .remove(HttpHeaders.CONTENT_LENGTH);
+    }
+
+    /**
+     * Starts reading the response once a body or end handler is set.
+     */
+    private void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        response.handler(this::handleChunk);
+        response.endHandler(v -> handleEnd());
+    }
+
+    private void handleChunk(Buffer chunk) {
+        if (failed) {
+            return;
+        }
+        long start = CompressionDispatcher.cpuTime();
+        Buffer inflated;
+        try {
+            decoder.writeInbound(chunk.getByteBuf());
+            inflated = drain();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        stats.inflated(chunk.length(), inflated.length(), CompressionDispatcher.cpuTime() - start);
+        deliver(inflated);
+    }
+
+    private void handleEnd() {
+        if (failed) {
+            return;
+        }
+        long start = CompressionDispatcher.cpuTime();
+        Buffer inflated;
+        try {
+            decoder.finish();
+            inflated = drain();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        stats.inflated(0, inflated.length(), CompressionDispatcher.cpuTime() - start);
+        deliver(inflated);
+        if (bodyHandler != null) {
+            bodyHandler.handle(body);
+        }
+        if (endHandler != null) {
+            endHandler.handle(null);
+        }
+    }
+
+    /**
+     * Reads what the decoder inflated, releasing its buffers.
+     */
+    private Buffer drain() {
+        Buffer inflated = null;
+        ByteBuf out;
+        while ((out = (ByteBuf) decoder.readInbound()) != null) {
+            try {
+                byte[] bytes = new byte[out.readableBytes()];
+                out.readBytes(bytes);
+                inflated = inflated == null ? Buffer.buffer(bytes) : inflated.appendBytes(bytes);
+            } finally {
+                out.release();
+            }
+        }
+        return inflated == null ? Buffer.buffer(0) : inflated;
+    }
+
+    private void deliver(Buffer inflated) {
+        if (inflated.length() == 0) {
+            return;
+        }
+        if (body != null) {
+            body.appendBuffer(inflated);
+        }
+        if (handler != null) {
+            handler.handle(inflated);
+        }
+    }
+
+    private void fail(Throwable err) {
+        failed = true;
+        try {
+            decoder.finish();
+        } catch (RuntimeException ignored) {
+            // Already failed
+        }
+        Object out;
+        while ((out = decoder.readInbound()) != null) {
+            ReferenceCountUtil.release(out);
+        }
+        if (exceptionHandler != null) {
+            exceptionHandler.handle(err);
+        }
+    }
+
+    @Override
+    public HttpClientResponse resume() {
+        response.resume();
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        response.exceptionHandler(handler);
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        install();
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse pause() {
+        response.pause();
+        return this;
+    }
+
+    @Override
+    public HttpClientResponse endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        install();
+        return this;
+    }
+
+    @Override
+    public int statusCode() {
+        return response.statusCode();
+    }
+
+    @Override
+    public String statusMessage() {
+        return response.statusMessage();
+    }
+
+    @Override
+    public MultiMap headers() {
+        return headers;
+    }
+
+    @Override
+    public String getHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public String getHeader(CharSequence headerName) {
+        return headers.get(headerName);
+    }
+
+    @Override
+    public String getTrailer(String trailerName) {
+        return response.getTrailer(trailerName);
+    }
+
+    @Override
+    public MultiMap trailers() {
+        return response.trailers();
+    }
+
+    @Override
+    public List<String> cookies() {
+        return response.cookies();
+    }
+
+    @Override
+    public HttpClientResponse bodyHandler(Handler<Buffer> bodyHandler) {
+        this.bodyHandler = bodyHandler;
+        if (body == null) {
+            body = Buffer.buffer();
+        }
+        install();
+        return this;
+    }
+
+    @Override
+    public NetSocket netSocket() {
+        throw new UnsupportedOperationException("Decompressed response has no socket");
+    }
+}
@@ -0,0 +1,238 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares a cap on requests in flight between tenants by weighted fair queuing.
+ * <p>
+ *     Every tenant has a FIFO queue, a weight and an optional cap on its own requests in flight. While the shared cap
+ *     is reached requests wait in the queue of their tenant, requests beyond it fail at once with LayerServerException.
+ *     When a request completes, the next one is taken from the tenant with the lowest pass among those with a waiting
+ *     request and room under their cap, and that tenant's pass grows by 1 / weight (stride scheduling). Over time a
+ *     backlogged tenant gets a share of the cap proportional to its weight, and a tenant that was idle joins at the
+ *     current pass, so it neither banks credit nor waits behind the backlog of others. <br>
+ *     A waiting request is sent on the context it was made on. Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class FairQueuingDispatcher {
+
+    private static final class Pending {
+        final Tenant tenant;
+        final LayerRequest request;
+        final Handler<AsyncResult<HttpClientResponse>> handler;
+        final Context context;
+
+        Pending(Tenant tenant, LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler, Context context) {
+            this.tenant = tenant;
+            this.request = request;
+            this.handler = handler;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Transport of one tenant.
+     */
+    final class Tenant implements LayerDispatcher {
+        private final String app_id;
+        private final double weight;
+        private final int maxInFlight;
+        private final int maxQueued;
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+        private double pass;
+        private int inFlight;
+        private long sent;
+        private long rejected;
+        private boolean removed;
+
+        private Tenant(String app_id, double weight, int maxInFlight, int maxQueued) {
+            this.app_id = app_id;
+            this.weight = weight;
+            this.maxInFlight = maxInFlight > 0 ? maxInFlight : Integer.MAX_VALUE;
+            this.maxQueued = maxQueued;
+        }
+
+        @Override
+        public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+            FairQueuingDispatcher.this.dispatch(this, request, handler);
+        }
+    }
+
+    private final LayerDispatcher next;
+    private final int maxInFlight;
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+    private int inFlight;
+    /**
+     * Pass of the last request started, idle tenants join at it
+     */
+    private double virtualTime;
+
+    /**
+     * @param next Dispatcher that sends the requests of every tenant
+     * @param maxInFlight Requests in flight over all tenants
+     */
+    FairQueuingDispatcher(LayerDispatcher next, int maxInFlight) {
+        this.next = next;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Adds a tenant.
+     * @param app_id Layer app id of the tenant
+     * @param weight Share of the cap relative to other tenants, above 0
+     * @param maxInFlight Requests in flight of the tenant, 0 for no cap of its own
+     * @param maxQueued Maximum number of waiting requests of the tenant, more are rejected
+     * @return Transport of the tenant
+     * @throws IllegalArgumentException If the app id is taken or the weight not above 0
+     */
+    synchronized Tenant register(String app_id, double weight, int maxInFlight, int maxQueued) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Tenant weight must be above 0");
+        }
+        if (tenants.containsKey(app_id)) {
+            throw new IllegalArgumentException("Tenant " + app_id + " is already registered");
+        }
+        Tenant tenant = new Tenant(app_id, weight, maxInFlight, maxQueued);
+        tenant.pass = virtualTime;
+        tenants.put(app_id, tenant);
+        return tenant;
+    }
+
+    /**
+     * Removes a tenant, its waiting requests fail and its requests in flight complete.
+     * @param app_id Layer app id of the tenant
+     */
+    void remove(String app_id) {
+        List<Pending> dropped;
+        synchronized (this) {
+            Tenant tenant = tenants.remove(app_id);
+            if (tenant == null) {
+                return;
+            }
+            tenant.removed = true;
+            dropped = new ArrayList<>(tenant.queue);
+            tenant.queue.clear();
+        }
+        for (Pending pending : dropped) {
+            pending.handler.handle(Future.failedFuture(new LayerServerException("Tenant " + app_id + " was removed")));
+        }
+    }
+
+    /**
+     * @return in_flight and max_in_flight over all tenants, and per app id the weight, in_flight, queued,
+     *         sent and rejected of the tenant
+     */
+    synchronized JsonObject stats() {
+        JsonObject perTenant = new JsonObject();
+        for (Tenant tenant : tenants.values()) {
+            perTenant.put(tenant.app_id, new JsonObject()
+                    .put("weight", tenant.weight)
+                    .put("in_flight", tenant.inFlight)
+                    .put("queued", tenant.queue.size())
+                    .put("sent", tenant.sent)
+                    .put("rejected", tenant.rejected));
+        }
+        return new JsonObject()
+                .put("in_flight", inFlight)
+                .put("max_in_flight", maxInFlight)
+                .put("tenants", perTenant);
+    }
+
+    private void dispatch(Tenant tenant, LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        boolean admitted = false;
+        String refused = null;
+        synchronized (this) {
+            if (tenant.removed) {
+                refused = "Tenant " + tenant.app_id + " was removed";
+            } else if (tenant.queue.isEmpty() && inFlight < maxInFlight && tenant.inFlight < tenant.maxInFlight) {
+                join(tenant);
+                start(tenant);
+                admitted = true;
+            } else if (tenant.queue.size() < tenant.maxQueued) {
+                join(tenant);
+                tenant.queue.add(new Pending(tenant, request, handler, Vertx.currentContext()));
+            } else {
+                tenant.rejected++;
+                refused = "Tenant queue of " + tenant.app_id + " is full";
+            }
+        }
+        if (admitted) {
+            send(tenant, request, handler);
+        } else if (refused != null) {
+            handler.handle(Future.failedFuture(new LayerServerException(refused)));
+        }
+    }
+
+    /**
+     * Moves a tenant that was idle up to the current pass.
+     */
+    private void join(Tenant tenant) {
+        if (tenant.queue.isEmpty() && tenant.inFlight == 0 && tenant.pass < virtualTime) {
+            tenant.pass = virtualTime;
+        }
+    }
+
+    private void start(Tenant tenant) {
+        inFlight++;
+        tenant.inFlight++;
+        tenant.sent++;
+        virtualTime = Math.max(virtualTime, tenant.pass);
+        tenant.pass += 1 / tenant.weight;
+    }
+
+    private void send(Tenant tenant, LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        next.dispatch(request, result -> {
+            complete(tenant);
+            handler.handle(result);
+        });
+    }
+
+    private void complete(Tenant tenant) {
+        List<Pending> ready = null;
+        synchronized (this) {
+            inFlight--;
+            tenant.inFlight--;
+            while (inFlight < maxInFlight) {
+                Tenant chosen = null;
+                for (Tenant candidate : tenants.values()) {
+                    if (!candidate.queue.isEmpty() && candidate.inFlight < candidate.maxInFlight
+                            && (chosen == null || candidate.pass < chosen.pass)) {
+                        chosen = candidate;
+                    }
+                }
+                if (chosen == null) {
+                    break;
+                }
+                start(chosen);
+                if (ready == null) {
+                    ready = new ArrayList<>();
+                }
+                ready.add(chosen.queue.poll());
+            }
+        }
+        if (ready != null) {
+            for (Pending pending : ready) {
+                if (pending.context == null || pending.context == Vertx.currentContext()) {
+                    send(pending.tenant, pending.request, pending.handler);
+                } else {
+                    pending.context.runOnContext(v -> send(pending.tenant, pending.request, pending.handler));
+                }
+            }
+        }
+    }
+}
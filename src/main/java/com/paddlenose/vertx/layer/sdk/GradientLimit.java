@@ -0,0 +1,105 @@
+package com.paddlenose.vertx.layer.sdk;
+
+/**
+ * Concurrency limit that follows the gradient between long-term and current round trip time.
+ * <p>
+ *     While the current RTT stays close to the long-term average the limit grows by its square root,
+ *     when it rises above {@link #TOLERANCE} times the average the limit shrinks, at most by half per sample.
+ *     Samples taken while less than half the limit is in use are ignored for the limit, the RTT of an idle
+ *     client says nothing about how much more it could send. Dropped requests decrease the limit multiplicatively. <br>
+ *     Not thread safe, callers synchronize.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class GradientLimit {
+    /**
+     * Current RTT may exceed the long-term RTT by this factor before the limit shrinks
+     */
+    static final double TOLERANCE = 1.5;
+    /**
+     * Weight of a new limit
+     */
+    static final double SMOOTHING = 0.2;
+    /**
+     * Samples in the long-term RTT average
+     */
+    static final int LONG_WINDOW = 100;
+    /**
+     * Factor applied to the limit when a request is dropped
+     */
+    static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private double longRtt;
+    private long lastRtt;
+
+    /**
+     * @param initialLimit Limit before any sample
+     * @param minLimit Lowest limit
+     * @param maxLimit Highest limit
+     */
+    GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @return Current limit
+     */
+    int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return Long-term RTT average in nanoseconds, 0 before any sample
+     */
+    long longRtt() {
+        return (long) longRtt;
+    }
+
+    /**
+     * @return Last RTT in nanoseconds, 0 before any sample
+     */
+    long lastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * @param rtt Round trip time of a completed request in nanoseconds
+     * @param inFlight Requests in flight when it completed, itself included
+     */
+    void sample(long rtt, int inFlight) {
+        rtt = Math.max(1, rtt);
+        lastRtt = rtt;
+        if (longRtt == 0) {
+            longRtt = rtt;
+        } else {
+            longRtt += (rtt - longRtt) / LONG_WINDOW;
+        }
+        // Let the average catch up when latency has dropped a lot
+        if (longRtt > 2 * rtt) {
+            longRtt *= 0.95;
+        }
+        if (inFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1, TOLERANCE * longRtt / rtt));
+        double next = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - SMOOTHING) + next * SMOOTHING);
+    }
+
+    /**
+     * A request failed or was refused by Layer.
+     */
+    void dropped() {
+        limit = clamp(limit * BACKOFF);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
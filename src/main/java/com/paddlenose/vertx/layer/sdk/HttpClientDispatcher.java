@@ -0,0 +1,50 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+
+/**
+ * Innermost dispatcher, sends requests with a HttpClient.
+ * @author Gustaf Nilstadius
+ */
+final class HttpClientDispatcher implements LayerDispatcher {
+    private final HttpClient client;
+
+    /**
+     * @param client A HttpClient, requires default host
+     */
+    HttpClientDispatcher(HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        // The request may fail after its response arrived, the dispatchers above count on one result per request
+        boolean[] done = new boolean[1];
+        HttpClientRequest http = client.request(request.endpoint.method, request.uri, response -> {
+            if (!done[0]) {
+                done[0] = true;
+                handler.handle(Future.succeededFuture(response));
+            }
+        });
+        request.template.applyHeaders(http.headers());
+        if (request.hasHeaders()) {
+            http.headers().addAll(request.headers());
+        }
+        http.exceptionHandler(err -> {
+            if (!done[0]) {
+                done[0] = true;
+                handler.handle(Future.failedFuture(err));
+            }
+        });
+        if (request.body == null) {
+            http.end();
+        } else {
+            http.end(request.body);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sends a POST at most once per idempotency key.
+ * <p>
+ *     A POST carrying the Idempotency-Key header that arrives while a POST with the same key is in flight waits
+ *     for its response. Once a POST is answered with 2xx its response is buffered and kept for the window, posts
+ *     with the key are answered with a replay of it without a request. Failures and other statuses are not kept,
+ *     the post can be sent again. <br>
+ *     At most maxEntries answered keys are kept, the oldest are forgotten first. POSTs without a key get a
+ *     generated one when enabled, it is sent to Layer but not kept since no caller can submit it again. <br>
+ *     Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class IdempotencyDispatcher implements LayerDispatcher {
+
+    private static final class Entry {
+        List<Handler<AsyncResult<HttpClientResponse>>> waiting = new ArrayList<>(1);
+        BufferedHttpClientResponse response;
+        long expires;
+    }
+
+    private final LayerDispatcher next;
+    private final boolean generate;
+    private final long windowNanos;
+    private final int maxEntries;
+    /**
+     * Entries by key, oldest first
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private long keyed;
+    private long generated;
+    private long sent;
+    private long collapsed;
+    private long replayed;
+
+    /**
+     * @param next Dispatcher that sends the posts
+     * @param generate True to give POSTs without a key a generated one
+     * @param windowNanos Time an answered key is kept
+     * @param maxEntries Most answered keys kept
+     */
+    IdempotencyDispatcher(LayerDispatcher next, boolean generate, long windowNanos, int maxEntries) {
+        this.next = next;
+        this.generate = generate;
+        this.windowNanos = windowNanos;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.endpoint.method != HttpMethod.POST) {
+            next.dispatch(request, handler);
+            return;
+        }
+        String key = request.hasHeaders() ? request.headers().get(LayerServerClient.IDEMPOTENCY_KEY_HEADER) : null;
+        if (key == null) {
+            if (generate) {
+                request.headers().set(LayerServerClient.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString());
+                synchronized (this) {
+                    generated++;
+                }
+            }
+            next.dispatch(request, handler);
+            return;
+        }
+        Entry entry;
+        BufferedHttpClientResponse response = null;
+        synchronized (this) {
+            keyed++;
+            expire(System.nanoTime());
+            entry = entries.get(key);
+            if (entry != null && entry.response != null) {
+                replayed++;
+                response = entry.response;
+            } else if (entry != null) {
+                collapsed++;
+                entry.waiting.add(handler);
+                return;
+            } else {
+                sent++;
+                entry = new Entry();
+                entry.waiting.add(handler);
+                entries.put(key, entry);
+            }
+        }
+        if (response != null) {
+            response.copy().respond(handler);
+            return;
+        }
+        Entry sending = entry;
+        next.dispatch(request, result -> {
+            if (result.failed()) {
+                complete(key, sending, null, result);
+                return;
+            }
+            BufferedHttpClientResponse.buffer(result.result(), buffered -> complete(key, sending,
+                    buffered.succeeded() ? buffered.result() : null,
+                    buffered.succeeded() ? null : Future.failedFuture(buffered.cause())));
+        });
+    }
+
+    /**
+     * @return keyed posts, generated keys, posts sent for a key, collapsed posts that waited for one in flight,
+     *         replayed posts answered from the window and entries kept
+     */
+    synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("keyed", keyed)
+                .put("generated", generated)
+                .put("sent", sent)
+                .put("collapsed", collapsed)
+                .put("replayed", replayed)
+                .put("entries", entries.size());
+    }
+
+    /**
+     * Answers the posts waiting for a key, and keeps a 2xx response for the window.
+     * @param response Buffered response, null on failure
+     * @param failure Failure, null if there is a response
+     */
+    private void complete(String key, Entry entry, BufferedHttpClientResponse response, AsyncResult<HttpClientResponse> failure) {
+        List<Handler<AsyncResult<HttpClientResponse>>> waiting;
+        synchronized (this) {
+            waiting = entry.waiting;
+            if (waiting == null) {
+                // A late failure of a post that already responded
+                return;
+            }
+            entry.waiting = null;
+            if (response != null && response.statusCode() / 100 == 2 && windowNanos > 0) {
+                entry.response = response;
+                entry.expires = System.nanoTime() + windowNanos;
+                // Answered keys are kept in the order they were answered
+                entries.remove(key);
+                entries.put(key, entry);
+                bound();
+            } else {
+                entries.remove(key, entry);
+            }
+        }
+        for (int i = 0; i < waiting.size(); i++) {
+            if (response == null) {
+                waiting.get(i).handle(failure);
+            } else {
+                (i == 0 ? response : response.copy()).respond(waiting.get(i));
+            }
+        }
+    }
+
+    /**
+     * Forgets answered keys whose window has passed.
+     */
+    private void expire(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.response == null) {
+                continue;
+            }
+            if (entry.expires - now > 0) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Forgets the oldest answered keys above the bound, keys in flight are kept.
+     */
+    private void bound() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        int excess = entries.size() - maxEntries;
+        while (excess > 0 && iterator.hasNext()) {
+            if (iterator.next().response != null) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+}
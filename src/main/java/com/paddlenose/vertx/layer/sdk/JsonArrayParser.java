@@ -0,0 +1,151 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser for a JSON array of objects.
+ * <p>
+ *     Chunks are fed as they arrive. The bytes of one element are collected until its closing brace,
+ *     then the element is decoded and passed on. Memory use is bounded by the largest element,
+ *     not by the size of the array. <br>
+ *     Elements are decoded from bytes, so multi-byte characters split across chunks are handled.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class JsonArrayParser {
+    private static final int INITIAL_ELEMENT_SIZE = 1024;
+
+    private enum State { BEFORE_ARRAY, BEFORE_ELEMENT, AFTER_ELEMENT, IN_ELEMENT, DONE }
+
+    private final Handler<JsonObject> elementHandler;
+
+    private State state = State.BEFORE_ARRAY;
+    private byte[] element = new byte[INITIAL_ELEMENT_SIZE];
+    private int length;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private int count;
+
+    /**
+     * @param elementHandler Receives each element as soon as it is complete
+     */
+    JsonArrayParser(Handler<JsonObject> elementHandler) {
+        this.elementHandler = elementHandler;
+    }
+
+    /**
+     * Parses a chunk.
+     * @param chunk Next bytes of the array
+     * @throws DecodeException if the input is not an array of objects
+     */
+    void handle(Buffer chunk) {
+        int size = chunk.length();
+        for (int i = 0; i < size; i++) {
+            byte b = chunk.getByte(i);
+            switch (state) {
+                case BEFORE_ARRAY:
+                    if (b == '[') {
+                        state = State.BEFORE_ELEMENT;
+                    } else if (!whitespace(b)) {
+                        throw unexpected(b);
+                    }
+                    break;
+                case BEFORE_ELEMENT:
+                    if (b == '{') {
+                        startElement();
+                    } else if (b == ']' && count == 0) {
+                        state = State.DONE;
+                    } else if (!whitespace(b)) {
+                        throw unexpected(b);
+                    }
+                    break;
+                case AFTER_ELEMENT:
+                    if (b == ',') {
+                        state = State.BEFORE_ELEMENT;
+                    } else if (b == ']') {
+                        state = State.DONE;
+                    } else if (!whitespace(b)) {
+                        throw unexpected(b);
+                    }
+                    break;
+                case IN_ELEMENT:
+                    append(b);
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if ((b == '}' || b == ']') && --depth == 0) {
+                        completeElement();
+                    }
+                    break;
+                case DONE:
+                    if (!whitespace(b)) {
+                        throw unexpected(b);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Signals the end of input.
+     * @throws DecodeException if the array is not complete
+     */
+    void end() {
+        if (state != State.DONE) {
+            throw new DecodeException("Unexpected end of JSON array after " + count + " elements");
+        }
+    }
+
+    /**
+     * @return Number of elements parsed so far
+     */
+    int count() {
+        return count;
+    }
+
+    private void startElement() {
+        state = State.IN_ELEMENT;
+        length = 0;
+        depth = 1;
+        append((byte) '{');
+    }
+
+    private void completeElement() {
+        JsonObject object = new JsonObject(new String(element, 0, length, StandardCharsets.UTF_8));
+        state = State.AFTER_ELEMENT;
+        length = 0;
+        count++;
+        elementHandler.handle(object);
+    }
+
+    private void append(byte b) {
+        if (length == element.length) {
+            element = Arrays.copyOf(element, length * 2);
+        }
+        element[length++] = b;
+    }
+
+    private static boolean whitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private DecodeException unexpected(byte b) {
+        return new DecodeException("Unexpected character '" + (char) b + "' in JSON array after " + count + " elements");
+    }
+}
@@ -0,0 +1,132 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stream of the objects in a JSON array response, parsed as the response arrives.
+ * <p>
+ *     The response is paused until a handler is set and whenever this stream is paused.
+ *     Elements parsed from a chunk after a pause are held until resume, so at most one chunk
+ *     worth of elements is buffered.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class JsonArrayStream implements ReadStream<JsonObject> {
+    private final HttpClientResponse response;
+    private final JsonArrayParser parser;
+    private final ArrayDeque<JsonObject> pending = new ArrayDeque<>();
+
+    private Handler<JsonObject> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+
+    private boolean paused;
+    private boolean responseEnded;
+    private boolean closed;
+
+    /**
+     * @param response Response with a JSON array body, body handling must not have started
+     */
+    JsonArrayStream(HttpClientResponse response) {
+        this.response = response;
+        this.parser = new JsonArrayParser(pending::add);
+        response.pause();
+        response.handler(this::onChunk);
+        response.endHandler(v -> onEnd());
+        response.exceptionHandler(this::fail);
+    }
+
+    @Override
+    public JsonArrayStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public JsonArrayStream handler(Handler<JsonObject> handler) {
+        this.handler = handler;
+        if (handler != null && !paused) {
+            response.resume();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonArrayStream pause() {
+        paused = true;
+        response.pause();
+        return this;
+    }
+
+    @Override
+    public JsonArrayStream resume() {
+        paused = false;
+        emit();
+        if (!paused && handler != null && !responseEnded) {
+            response.resume();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonArrayStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    private void onChunk(Buffer chunk) {
+        if (closed) {
+            return;
+        }
+        try {
+            parser.handle(chunk);
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        emit();
+    }
+
+    private void onEnd() {
+        responseEnded = true;
+        if (closed) {
+            return;
+        }
+        try {
+            parser.end();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        emit();
+    }
+
+    private void emit() {
+        while (!paused && !closed && !pending.isEmpty()) {
+            handler.handle(pending.poll());
+        }
+        if (responseEnded && pending.isEmpty() && !closed) {
+            closed = true;
+            if (endHandler != null) {
+                endHandler.handle(null);
+            }
+        }
+    }
+
+    private void fail(Throwable err) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.clear();
+        if (exceptionHandler != null) {
+            exceptionHandler.handle(err);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in microseconds, in the style of HdrHistogram.
+ * <p>
+ *     Every power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is off by at most
+ *     1 / {@link #SUB_BUCKETS} of itself. Values from 0 to 2^{@link #MAX_BITS} microseconds, about 71 minutes, are kept,
+ *     larger values count as the largest. <br>
+ *     Recording is lock-free and allocates nothing. A snapshot taken while values are recorded may miss some of them.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LatencyHistogram {
+    static final int SUB_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int MAX_BITS = 32;
+    static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_KEYS = {"p50_ms", "p90_ms", "p99_ms", "p999_ms"};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos Latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    long count() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile Percentile, 0 to 100
+     * @return Highest value in microseconds of the bucket the percentile falls in, 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long[] snapshot = copy();
+        return percentile(snapshot, total(snapshot), percentile);
+    }
+
+    /**
+     * @return count, mean_ms, p50_ms, p90_ms, p99_ms, p999_ms and max_ms
+     */
+    JsonObject snapshot() {
+        long[] snapshot = copy();
+        long total = total(snapshot);
+        JsonObject json = new JsonObject()
+                .put("count", total)
+                .put("mean_ms", total == 0 ? 0d : sum.get() / (double) total / 1000);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.put(PERCENTILE_KEYS[i], percentile(snapshot, total, PERCENTILES[i]) / 1000d);
+        }
+        return json.put("max_ms", max.get() / 1000d);
+    }
+
+    private long[] copy() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    private static long total(long[] snapshot) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        return total;
+    }
+
+    private long percentile(long[] snapshot, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(max.get(), highest(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param micros Value in microseconds, at most {@link #MAX_VALUE}
+     * @return Bucket of the value
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param index Bucket
+     * @return Lowest value in microseconds of the bucket
+     */
+    static long lowest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @param index Bucket
+     * @return Highest value in microseconds of the bucket
+     */
+    static long highest(int index) {
+        return index + 1 < BUCKETS ? lowest(index + 1) - 1 : MAX_VALUE;
+    }
+}
@@ -0,0 +1,52 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import java.util.Arrays;
+
+/**
+ * The most recent latencies of one endpoint and their 95th percentile.
+ * <p>
+ *     The percentile is recomputed every {@link #RECOMPUTE_EVERY} samples, not on every read. <br>
+ *     Thread safe, all access is synchronized.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LatencyWindow {
+    /**
+     * Latencies kept
+     */
+    static final int SIZE = 100;
+    /**
+     * Samples needed before a percentile is reported
+     */
+    static final int MIN_SAMPLES = 20;
+    /**
+     * Samples between recomputations of the percentile
+     */
+    static final int RECOMPUTE_EVERY = 10;
+
+    private final long[] samples = new long[SIZE];
+    private final long[] sorted = new long[SIZE];
+    private long count;
+    private long p95 = -1;
+
+    /**
+     * @param latency Latency in nanoseconds
+     */
+    synchronized void record(long latency) {
+        samples[(int) (count % SIZE)] = latency;
+        count++;
+        if (count >= MIN_SAMPLES && count % RECOMPUTE_EVERY == 0) {
+            int size = (int) Math.min(count, SIZE);
+            System.arraycopy(samples, 0, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+            p95 = sorted[(int) Math.ceil(size * 0.95) - 1];
+        }
+    }
+
+    /**
+     * @return 95th percentile in nanoseconds, -1 until enough samples were recorded
+     */
+    synchronized long p95() {
+        return p95;
+    }
+}
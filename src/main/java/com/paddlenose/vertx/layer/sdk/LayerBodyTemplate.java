@@ -0,0 +1,152 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request body encoded once, with the fields that change per request spliced in as bytes.
+ * <p>
+ *     The envelope is a JsonObject in which every variable field has the string value <code>${name}</code>.
+ *     It is encoded once when the template is created, {@link #apply(Object...)} then writes the constant bytes
+ *     and the encoded values into one Buffer of the exact size, without building or encoding the whole body.
+ * </p>
+ * <pre>
+ * LayerBodyTemplate text = new LayerBodyTemplate(new JsonObject()
+ *         .put("sender_id", "layer:///identities/bot")
+ *         .put("parts", new JsonArray().add(new JsonObject().put("body", "${body}").put("mime_type", "text/plain"))),
+ *         "body");
+ * client.postMessage(handler, conversation_UUID, text.apply("Hello"));
+ * </pre>
+ * <p>
+ *     Strings are spliced as JSON strings, JsonObjects and JsonArrays as their encoding, a Buffer as is since it
+ *     already holds JSON, null as null and other values as Json.encode writes them. A field may appear more than once.
+ *     Immutable and thread safe.
+ * </p>
+ * <p>
+ *     The Buffer overloads of LayerServerClient send a pre-encoded body as is, without decoding or encoding it, and
+ *     the body must not change until the response handler is called. Apply a template, or wrap a Netty ByteBuf with
+ *     Buffer.buffer(byteBuf), which does not copy it.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerBodyTemplate {
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Constant bytes, one more than there are splices
+     */
+    private final byte[][] fragments;
+    /**
+     * Index in the apply arguments of every splice
+     */
+    private final int[] splices;
+    private final int fields;
+    private final int constantSize;
+
+    /**
+     * @param envelope Body with the string value <code>${name}</code> wherever a field is spliced in
+     * @param fields Names of the variable fields, in the order apply takes their values
+     * @throws IllegalArgumentException If a field does not appear in the envelope
+     */
+    public LayerBodyTemplate(JsonObject envelope, String... fields) {
+        String encoded = envelope.encode();
+        List<byte[]> fragments = new ArrayList<>();
+        List<Integer> splices = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int next = -1;
+            int field = -1;
+            for (int i = 0; i < fields.length; i++) {
+                int at = encoded.indexOf(placeholder(fields[i]), start);
+                if (at >= 0 && (next < 0 || at < next)) {
+                    next = at;
+                    field = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            fragments.add(encoded.substring(start, next).getBytes(StandardCharsets.UTF_8));
+            splices.add(field);
+            start = next + placeholder(fields[field]).length();
+        }
+        fragments.add(encoded.substring(start).getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < fields.length; i++) {
+            if (!splices.contains(i)) {
+                throw new IllegalArgumentException("Field " + fields[i] + " is not in the envelope");
+            }
+        }
+
+        this.fragments = fragments.toArray(new byte[fragments.size()][]);
+        this.splices = new int[splices.size()];
+        for (int i = 0; i < this.splices.length; i++) {
+            this.splices[i] = splices.get(i);
+        }
+        this.fields = fields.length;
+        int size = 0;
+        for (byte[] fragment : this.fragments) {
+            size += fragment.length;
+        }
+        this.constantSize = size;
+    }
+
+    /**
+     * Builds a body.
+     * @param values Value of every field, in the order the fields were given
+     * @return Encoded body
+     * @throws IllegalArgumentException If the number of values does not match the fields
+     */
+    public Buffer apply(Object... values) {
+        if (values.length != fields) {
+            throw new IllegalArgumentException("Expected " + fields + " values, got " + values.length);
+        }
+        byte[][] encoded = new byte[fields][];
+        Buffer[] raw = new Buffer[fields];
+        int size = constantSize;
+        for (int splice : splices) {
+            if (raw[splice] == null && encoded[splice] == null) {
+                Object value = values[splice];
+                if (value instanceof Buffer) {
+                    raw[splice] = (Buffer) value;
+                } else {
+                    encoded[splice] = encode(value);
+                }
+            }
+            size += raw[splice] != null ? raw[splice].length() : encoded[splice].length;
+        }
+
+        Buffer body = Buffer.buffer(size);
+        for (int i = 0; i < splices.length; i++) {
+            body.appendBytes(fragments[i]);
+            int splice = splices[i];
+            if (raw[splice] != null) {
+                body.appendBuffer(raw[splice]);
+            } else {
+                body.appendBytes(encoded[splice]);
+            }
+        }
+        return body.appendBytes(fragments[splices.length]);
+    }
+
+    private static byte[] encode(Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof JsonObject) {
+            return ((JsonObject) value).encode().getBytes(StandardCharsets.UTF_8);
+        } else if (value instanceof JsonArray) {
+            return ((JsonArray) value).encode().getBytes(StandardCharsets.UTF_8);
+        }
+        return Json.encode(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String placeholder(String field) {
+        return "\"${" + field + "}\"";
+    }
+}
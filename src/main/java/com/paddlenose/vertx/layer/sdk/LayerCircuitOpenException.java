@@ -0,0 +1,28 @@
+package com.paddlenose.vertx.layer.sdk;
+
+/**
+ * Failure of a Layer call that was not sent because the circuit breaker of its endpoint family is open.
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public class LayerCircuitOpenException extends LayerServerException {
+    private static final long serialVersionUID = 1L;
+
+    private final String family;
+
+    /**
+     * @param family Endpoint family whose circuit is open
+     */
+    public LayerCircuitOpenException(String family) {
+        super("Circuit breaker of " + family + " is open");
+        this.family = family;
+    }
+
+    /**
+     * Returns endpoint family
+     * @return Endpoint family whose circuit is open: conversations, messages, announcements, notifications or content
+     */
+    public String getFamily() {
+        return family;
+    }
+}
@@ -0,0 +1,336 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local view of the conversations of a user, kept current with deltas.
+ * <p>
+ *     Conversations are listed sorted by last message, newest first. The first refresh reads every page. Later
+ *     refreshes read from the top, with a first page of sync_page_size and pages doubling up to the page size, and
+ *     stop at the first conversation whose last message, or creation time if it has none, is older than the newest
+ *     one seen before: nothing below it has a new message. Every conversation read is compared with the local copy
+ *     and an add or update delta is emitted when it is new or differs. <br>
+ *     Removals, and changes to conversations without a new message such as metadata, are only seen by
+ *     {@link #refreshAll(Handler)}, which reads every page and emits a remove delta for every conversation it did
+ *     not find. A conversation that gets a message while a full refresh pages past it can be missed by it, it is
+ *     added back by the next refresh. <br>
+ *     A delta is a JsonObject with type add, update or remove, the conversation id and the conversation, the
+ *     previous one for remove. A refresh requested while one runs is made once it completes, requests that wait
+ *     share one refresh. Not thread safe, use it on one context.
+ * </p>
+ * <pre>
+ * LayerConversationSync inbox = client.syncConversationsAsUser(user_ID);
+ * inbox.deltaHandler(delta -&gt; render(delta.getString("type"), delta.getJsonObject("conversation")));
+ * vertx.setPeriodic(5000, id -&gt; inbox.refresh(result -&gt; { }));
+ * </pre>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerConversationSync {
+
+    private static final class Entry {
+        final JsonObject conversation;
+        final Instant key;
+
+        Entry(JsonObject conversation, Instant key) {
+            this.conversation = conversation;
+            this.key = key;
+        }
+    }
+
+    /**
+     * State of one refresh.
+     */
+    private static final class Run {
+        final boolean full;
+        final List<Handler<AsyncResult<JsonObject>>> handlers;
+        final Set<String> seen;
+        Instant newest;
+        int pages;
+        int read;
+        long bytes;
+        int added;
+        int updated;
+        int removed;
+
+        Run(boolean full, List<Handler<AsyncResult<JsonObject>>> handlers) {
+            this.full = full;
+            this.handlers = handlers;
+            this.seen = full ? new HashSet<>() : null;
+        }
+    }
+
+    private final LayerServerClient client;
+    private final String uri;
+    private final int pageSize;
+    private final int syncPageSize;
+    private final Map<String, Entry> view = new HashMap<>();
+
+    private Handler<JsonObject> deltaHandler;
+    /**
+     * Newest sort key seen, null until a full refresh completed
+     */
+    private Instant watermark;
+    private boolean running;
+    private boolean queuedFull;
+    private List<Handler<AsyncResult<JsonObject>>> queued = new ArrayList<>();
+
+    private long refreshes;
+    private long fullRefreshes;
+    private long pages;
+    private long read;
+    private long bytes;
+    private long added;
+    private long updated;
+    private long removed;
+
+    /**
+     * @param client Client the pages are requested with
+     * @param uri Conversations of the user sorted by last message, built by the template
+     * @param pageSize Items per page of a full refresh, most items per page of an incremental one
+     * @param syncPageSize Items on the first page of an incremental refresh
+     */
+    LayerConversationSync(LayerServerClient client, String uri, int pageSize, int syncPageSize) {
+        this.client = client;
+        this.uri = uri;
+        this.pageSize = pageSize;
+        this.syncPageSize = Math.max(1, Math.min(syncPageSize, pageSize));
+    }
+
+    /**
+     * Set handler of deltas.
+     * @param handler Receives every add, update and remove as it is found
+     * @return This sync
+     */
+    public LayerConversationSync deltaHandler(Handler<JsonObject> handler) {
+        this.deltaHandler = handler;
+        return this;
+    }
+
+    /**
+     * Reads the conversations with new messages since the last refresh, all of them the first time.
+     * @param handler Receives counts of the refresh: full, pages, conversations_read, bytes_read, added, updated
+     *                and removed. Fails with the failure of a page, deltas found before it are kept
+     */
+    public void refresh(Handler<AsyncResult<JsonObject>> handler) {
+        submit(false, handler);
+    }
+
+    /**
+     * Reads every conversation, emitting removals and changes without a new message too.
+     * @param handler Receives counts of the refresh, as {@link #refresh(Handler)}
+     */
+    public void refreshAll(Handler<AsyncResult<JsonObject>> handler) {
+        submit(true, handler);
+    }
+
+    /**
+     * Returns the local view.
+     * @return Conversations, newest last message first
+     */
+    public List<JsonObject> getConversations() {
+        List<Entry> entries = new ArrayList<>(view.values());
+        entries.sort((a, b) -> b.key.compareTo(a.key));
+        List<JsonObject> conversations = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            conversations.add(entry.conversation);
+        }
+        return conversations;
+    }
+
+    /**
+     * Returns a conversation of the local view.
+     * @param id Conversation id, layer:///conversations/:conversation_UUID
+     * @return Conversation, null if not in the view
+     */
+    public JsonObject getConversation(String id) {
+        Entry entry = view.get(id);
+        return entry == null ? null : entry.conversation;
+    }
+
+    /**
+     * Returns counters of all refreshes.
+     * @return refreshes, full_refreshes, pages, conversations_read, bytes_read, added, updated, removed
+     *         and conversations in the view
+     */
+    public JsonObject getStats() {
+        return new JsonObject()
+                .put("refreshes", refreshes)
+                .put("full_refreshes", fullRefreshes)
+                .put("pages", pages)
+                .put("conversations_read", read)
+                .put("bytes_read", bytes)
+                .put("added", added)
+                .put("updated", updated)
+                .put("removed", removed)
+                .put("conversations", view.size());
+    }
+
+    private void submit(boolean full, Handler<AsyncResult<JsonObject>> handler) {
+        if (running) {
+            queuedFull |= full;
+            queued.add(handler);
+            return;
+        }
+        start(full, Collections.singletonList(handler));
+    }
+
+    private void start(boolean full, List<Handler<AsyncResult<JsonObject>>> handlers) {
+        running = true;
+        Run run = new Run(full || watermark == null, handlers);
+        fetch(run, null, run.full ? pageSize : syncPageSize);
+    }
+
+    private void fetch(Run run, String from_id, int size) {
+        run.pages++;
+        client.page(LayerEndpoint.GET_CONVERSATIONS_AS_USER, uri, null, from_id, size, result -> {
+            if (result.failed()) {
+                finish(run, Future.failedFuture(result.cause()));
+                return;
+            }
+            Buffer body = result.result();
+            run.bytes += body.length();
+            JsonArray page;
+            try {
+                page = body.toJsonArray();
+            } catch (DecodeException e) {
+                finish(run, Future.failedFuture(e));
+                return;
+            }
+            for (int i = 0; i < page.size(); i++) {
+                JsonObject conversation = page.getJsonObject(i);
+                Instant key = sortKey(conversation);
+                if (!run.full && key.isBefore(watermark)) {
+                    finish(run, null);
+                    return;
+                }
+                run.read++;
+                merge(run, conversation, key);
+            }
+            if (page.size() < size) {
+                finish(run, null);
+            } else {
+                fetch(run, page.getJsonObject(page.size() - 1).getString("id"), run.full ? pageSize : Math.min(pageSize, size * 2));
+            }
+        });
+    }
+
+    /**
+     * Compares a conversation read with the local copy.
+     */
+    private void merge(Run run, JsonObject conversation, Instant key) {
+        String id = conversation.getString("id");
+        if (run.seen != null) {
+            run.seen.add(id);
+        }
+        if (run.newest == null || key.isAfter(run.newest)) {
+            run.newest = key;
+        }
+        Entry previous = view.put(id, new Entry(conversation, key));
+        if (previous == null) {
+            run.added++;
+            emit("add", id, conversation);
+        } else if (!previous.conversation.equals(conversation)) {
+            run.updated++;
+            emit("update", id, conversation);
+        }
+    }
+
+    /**
+     * Completes a refresh, on success a full one removes what it did not see and moves the watermark.
+     * @param failure Failure of the refresh, null on success
+     */
+    private void finish(Run run, AsyncResult<JsonObject> failure) {
+        if (failure == null) {
+            if (run.full) {
+                Iterator<Map.Entry<String, Entry>> entries = view.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, Entry> entry = entries.next();
+                    if (!run.seen.contains(entry.getKey())) {
+                        entries.remove();
+                        run.removed++;
+                        emit("remove", entry.getKey(), entry.getValue().conversation);
+                    }
+                }
+                watermark = Instant.MIN;
+                for (Entry entry : view.values()) {
+                    if (entry.key.isAfter(watermark)) {
+                        watermark = entry.key;
+                    }
+                }
+            } else if (run.newest != null && run.newest.isAfter(watermark)) {
+                watermark = run.newest;
+            }
+        }
+        refreshes++;
+        fullRefreshes += run.full ? 1 : 0;
+        pages += run.pages;
+        read += run.read;
+        bytes += run.bytes;
+        added += run.added;
+        updated += run.updated;
+        removed += run.removed;
+        AsyncResult<JsonObject> result = failure != null ? failure : Future.succeededFuture(new JsonObject()
+                .put("full", run.full)
+                .put("pages", run.pages)
+                .put("conversations_read", run.read)
+                .put("bytes_read", run.bytes)
+                .put("added", run.added)
+                .put("updated", run.updated)
+                .put("removed", run.removed));
+        running = false;
+        for (Handler<AsyncResult<JsonObject>> handler : run.handlers) {
+            handler.handle(result);
+        }
+        if (!running && !queued.isEmpty()) {
+            List<Handler<AsyncResult<JsonObject>>> waiting = queued;
+            boolean full = queuedFull;
+            queued = new ArrayList<>();
+            queuedFull = false;
+            start(full, waiting);
+        }
+    }
+
+    private void emit(String type, String id, JsonObject conversation) {
+        if (deltaHandler != null) {
+            deltaHandler.handle(new JsonObject().put("type", type).put("id", id).put("conversation", conversation));
+        }
+    }
+
+    /**
+     * @return Time of the last message, creation time if there is none, the epoch if neither can be read
+     */
+    static Instant sortKey(JsonObject conversation) {
+        Object last = conversation.getValue("last_message");
+        String time = last instanceof JsonObject ? ((JsonObject) last).getString("sent_at") : null;
+        if (time == null) {
+            time = conversation.getString("created_at");
+        }
+        if (time == null) {
+            return Instant.EPOCH;
+        }
+        try {
+            return OffsetDateTime.parse(time).toInstant();
+        } catch (DateTimeParseException e) {
+            return Instant.EPOCH;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+
+/**
+ * Sends a LayerRequest.
+ * <p>
+ *     LayerServerClient stacks dispatchers, each optional feature wraps the next one
+ *     and the innermost sends the request with the HttpClient.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+interface LayerDispatcher {
+    /**
+     * @param request Request to send
+     * @param handler Receives the response, or the failure if no response was received
+     */
+    void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler);
+}
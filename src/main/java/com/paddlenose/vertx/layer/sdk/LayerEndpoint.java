@@ -0,0 +1,64 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.http.HttpMethod;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layer endpoints called by LayerServerClient.
+ * <p>
+ *     The key is the name of the client method and is used in options, metrics and outbox journals.
+ *     The family groups endpoints that share a Layer resource.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+enum LayerEndpoint {
+    GET_CONVERSATIONS_AS_USER("getConversationsAsUser", LayerEndpoint.CONVERSATIONS, HttpMethod.GET),
+    GET_CONVERSATION_MESSAGE_AS_USER("getConversationMessageAsUser", LayerEndpoint.MESSAGES, HttpMethod.GET),
+    POST_MESSAGE_AS_USER("postMessageAsUser", LayerEndpoint.MESSAGES, HttpMethod.POST),
+    POST_CONVERSATION_AS_USER("postConversationAsUser", LayerEndpoint.CONVERSATIONS, HttpMethod.POST),
+    GET_CONVERSATION("getConversation", LayerEndpoint.CONVERSATIONS, HttpMethod.GET),
+    GET_CONVERSATION_MESSAGE("getConversationMessage", LayerEndpoint.MESSAGES, HttpMethod.GET),
+    POST_CONVERSATION("postConversation", LayerEndpoint.CONVERSATIONS, HttpMethod.POST),
+    POST_MESSAGE("postMessage", LayerEndpoint.MESSAGES, HttpMethod.POST),
+    POST_ANNOUNCEMENT("postAnnouncement", LayerEndpoint.ANNOUNCEMENTS, HttpMethod.POST),
+    POST_NOTIFICATION("postNotification", LayerEndpoint.NOTIFICATIONS, HttpMethod.POST),
+    POST_CONTENT("postContent", LayerEndpoint.CONTENT, HttpMethod.POST);
+
+    static final String CONVERSATIONS = "conversations";
+    static final String MESSAGES = "messages";
+    static final String ANNOUNCEMENTS = "announcements";
+    static final String NOTIFICATIONS = "notifications";
+    static final String CONTENT = "content";
+    static final List<String> FAMILIES = Collections.unmodifiableList(Arrays.asList(CONVERSATIONS, MESSAGES, ANNOUNCEMENTS, NOTIFICATIONS, CONTENT));
+
+    final String key;
+    final String family;
+    final HttpMethod method;
+
+    LayerEndpoint(String key, String family, HttpMethod method) {
+        this.key = key;
+        this.family = family;
+        this.method = method;
+    }
+
+    private static final Map<String, LayerEndpoint> BY_KEY = new HashMap<>();
+
+    static {
+        for (LayerEndpoint endpoint : values()) {
+            BY_KEY.put(endpoint.key, endpoint);
+        }
+    }
+
+    /**
+     * @param key Key of an endpoint
+     * @return Endpoint with the key, null if there is none
+     */
+    static LayerEndpoint forKey(String key) {
+        return BY_KEY.get(key);
+    }
+}
@@ -0,0 +1,303 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts one message to many conversations with a bounded number of requests in flight.
+ * <p>
+ *     The message is encoded once and the same body is sent to every conversation, in the order given. At most
+ *     {@link #concurrency(int)} posts are in flight, and with a rate cap posts are paced evenly over time. <br>
+ *     Every post is reported to the result handler as a JsonObject with the conversation_UUID, the status, 0 if
+ *     no response arrived, and the id of the message on 2xx or the error otherwise. The future returned by
+ *     {@link #start()} completes once every post is done or, after {@link #cancel()}, once the posts in flight
+ *     are done. It never fails, failed posts are counted in its result. <br>
+ *     Handlers are called on the context the fan-out was created on, if any. Thread safe, state is guarded by
+ *     this instance.
+ * </p>
+ * <pre>
+ * client.postMessageFanOut(message, conversation_UUIDs)
+ *         .concurrency(64)
+ *         .rateLimit(200)
+ *         .resultHandler(result -&gt; { })
+ *         .start()
+ *         .setHandler(done -&gt; log(done.result().getInteger("failed")));
+ * </pre>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerFanOut {
+
+    /**
+     * Posts the message to one conversation.
+     */
+    interface Poster {
+        /**
+         * @param conversation_UUID Conversation posted to
+         * @param idempotency_key Key of the post, null for none
+         * @param handler Receives the response, or the failure
+         */
+        void post(String conversation_UUID, String idempotency_key, Handler<AsyncResult<HttpClientResponse>> handler);
+    }
+
+    private final Vertx vertx;
+    private final Poster poster;
+    private final String[] targets;
+    private final Context context;
+    private final Future<JsonObject> done = Future.future();
+    private final JsonArray failures = new JsonArray();
+
+    private int concurrency;
+    private double rate;
+    private String idempotencyKey;
+    private Handler<JsonObject> resultHandler;
+    private boolean started;
+    private boolean cancelled;
+    private boolean sending;
+    private boolean finished;
+    private long timer = -1;
+    private long startTime;
+    private int next;
+    private int inFlight;
+    private int succeeded;
+    private int failed;
+
+    /**
+     * @param vertx Vertx instance for rate caps, null if none
+     * @param poster Posts the message
+     * @param targets Conversation UUIDs, in the order they are posted to
+     * @param concurrency Default posts in flight
+     */
+    LayerFanOut(Vertx vertx, Poster poster, String[] targets, int concurrency) {
+        this.vertx = vertx;
+        this.poster = poster;
+        this.targets = targets;
+        this.concurrency = Math.max(1, concurrency);
+        this.context = Vertx.currentContext();
+    }
+
+    /**
+     * Set number of posts in flight.
+     * @param concurrency Posts in flight, defaults to write_queue_max_size
+     * @return This fan-out
+     */
+    public synchronized LayerFanOut concurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /**
+     * Set most posts started per second.
+     * @param per_second Posts per second, 0 for no cap
+     * @return This fan-out
+     * @throws IllegalArgumentException if the client was created without a Vertx instance
+     */
+    public synchronized LayerFanOut rateLimit(double per_second) {
+        if (per_second > 0 && vertx == null) {
+            throw new IllegalArgumentException("Fan-out rate caps require a Vertx instance");
+        }
+        this.rate = Math.max(0, per_second);
+        return this;
+    }
+
+    /**
+     * Set idempotency key of the fan-out, the post to a conversation is sent with the key, a colon and the
+     * conversation UUID. Starting the fan-out again with the key within the idempotency window does not post
+     * again to the conversations that were posted to.
+     * @param idempotency_key Key, null for none
+     * @return This fan-out
+     */
+    public synchronized LayerFanOut idempotencyKey(String idempotency_key) {
+        this.idempotencyKey = idempotency_key;
+        return this;
+    }
+
+    /**
+     * Set handler of the result of every post.
+     * @param handler Receives conversation_UUID, status and id or error
+     * @return This fan-out
+     */
+    public synchronized LayerFanOut resultHandler(Handler<JsonObject> handler) {
+        this.resultHandler = handler;
+        return this;
+    }
+
+    /**
+     * Starts posting.
+     * @return Completes with targets, sent, succeeded, failed, cancelled, the targets not posted to, duration_ms
+     *         and failures, the results of the failed posts
+     * @throws IllegalStateException if the fan-out was started before
+     */
+    public Future<JsonObject> start() {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("Fan-out is started");
+            }
+            started = true;
+            startTime = System.nanoTime();
+        }
+        send();
+        return done;
+    }
+
+    /**
+     * Stops starting posts, the posts in flight complete.
+     */
+    public void cancel() {
+        long pending;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = timer;
+            timer = -1;
+        }
+        if (pending != -1) {
+            vertx.cancelTimer(pending);
+        }
+        finishIfDone();
+    }
+
+    /**
+     * Returns progress of the fan-out.
+     * @return targets, sent, in_flight, succeeded and failed
+     */
+    public synchronized JsonObject getStats() {
+        return new JsonObject()
+                .put("targets", targets.length)
+                .put("sent", next)
+                .put("in_flight", inFlight)
+                .put("succeeded", succeeded)
+                .put("failed", failed);
+    }
+
+    /**
+     * Starts posts while the window and the rate cap allow. A post that completes while this runs leaves the
+     * next posts to it, so posts that fail at once do not nest.
+     */
+    private void send() {
+        synchronized (this) {
+            if (sending) {
+                return;
+            }
+            sending = true;
+        }
+        while (true) {
+            String target;
+            String key;
+            long wait = 0;
+            synchronized (this) {
+                if (cancelled || !started || next >= targets.length || inFlight >= concurrency || timer != -1) {
+                    sending = false;
+                    break;
+                }
+                if (rate > 0) {
+                    wait = startTime + (long) (next * TimeUnit.SECONDS.toNanos(1) / rate) - System.nanoTime();
+                }
+                if (wait <= 0) {
+                    target = targets[next++];
+                    key = idempotencyKey == null ? null : idempotencyKey + ':' + target;
+                    inFlight++;
+                } else {
+                    target = null;
+                    key = null;
+                    sending = false;
+                    timer = vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)), id -> {
+                        synchronized (this) {
+                            timer = -1;
+                        }
+                        send();
+                    });
+                }
+            }
+            if (target == null) {
+                break;
+            }
+            String conversation_UUID = target;
+            poster.post(conversation_UUID, key, result -> completed(conversation_UUID, result));
+        }
+        finishIfDone();
+    }
+
+    private void completed(String conversation_UUID, AsyncResult<HttpClientResponse> result) {
+        if (result.failed()) {
+            record(new JsonObject().put("conversation_UUID", conversation_UUID).put("status", 0)
+                    .put("error", String.valueOf(result.cause())));
+            return;
+        }
+        HttpClientResponse response = result.result();
+        response.exceptionHandler(err -> record(new JsonObject().put("conversation_UUID", conversation_UUID)
+                .put("status", 0).put("error", String.valueOf(err))));
+        response.bodyHandler(body -> {
+            JsonObject outcome = new JsonObject().put("conversation_UUID", conversation_UUID).put("status", response.statusCode());
+            if (response.statusCode() / 100 != 2) {
+                outcome.put("error", response.statusMessage());
+            } else {
+                try {
+                    outcome.put("id", body.toJsonObject().getValue("id"));
+                } catch (DecodeException | ClassCastException e) {
+                    // Posted, without a readable id
+                }
+            }
+            record(outcome);
+        });
+    }
+
+    /**
+     * Counts the result of a post, reports it and starts the next posts.
+     */
+    private void record(JsonObject outcome) {
+        if (context != null && Vertx.currentContext() != context) {
+            context.runOnContext(v -> record(outcome));
+            return;
+        }
+        Handler<JsonObject> handler;
+        synchronized (this) {
+            inFlight--;
+            if (outcome.containsKey("error")) {
+                failed++;
+                failures.add(outcome);
+            } else {
+                succeeded++;
+            }
+            handler = resultHandler;
+        }
+        if (handler != null) {
+            handler.handle(outcome);
+        }
+        send();
+    }
+
+    private void finishIfDone() {
+        JsonObject result;
+        synchronized (this) {
+            if (finished || !started || inFlight > 0 || next < targets.length && !cancelled) {
+                return;
+            }
+            finished = true;
+            result = new JsonObject()
+                    .put("targets", targets.length)
+                    .put("sent", next)
+                    .put("succeeded", succeeded)
+                    .put("failed", failed)
+                    .put("cancelled", targets.length - next)
+                    .put("duration_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime))
+                    .put("failures", failures.copy());
+        }
+        if (context != null && Vertx.currentContext() != context) {
+            context.runOnContext(v -> done.complete(result));
+        } else {
+            done.complete(result);
+        }
+    }
+}
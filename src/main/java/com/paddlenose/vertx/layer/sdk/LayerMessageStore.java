@@ -0,0 +1,338 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Local append-only store of the conversations and messages a LayerServerClient has read or posted.
+ * <p>
+ *     Every conversation and message is a record in a {@link SegmentLog}: its type and its JSON. A record that is
+ *     identical to the stored one is not written again, a changed one is appended and replaces it. <br>
+ *     Conversations and messages are found through primary indexes by UUID, the last path segment of their id,
+ *     kept in primitive arrays. Secondary indexes list the messages of a conversation by position and the
+ *     conversations of a participant. The indexes are in memory and rebuilt from the segments when the store is
+ *     opened. Records are written to the mapped segment, they survive a crash of the process but are not forced to
+ *     disk. Segments are never deleted, delete the directory to start over. <br>
+ *     Reads return what was stored last, which can be older than what Layer has. Thread safe, state is guarded by
+ *     this instance.
+ * </p>
+ * <pre>
+ * LayerServerOptions options = new LayerServerOptions(app_ID, token);
+ * options.setStoreDirectory("/var/lib/my-app/layer-store");
+ * LayerServerClient client = new LayerServerClient(vertx, httpClient, options);
+ * List&lt;JsonObject&gt; history = client.getMessageStore().getConversationMessages(conversation_UUID, 50);
+ * </pre>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerMessageStore {
+    private static final byte CONVERSATION = 1;
+    private static final byte MESSAGE = 2;
+    /**
+     * Smallest segment
+     */
+    static final int MIN_SEGMENT_SIZE = SegmentLog.MIN_SEGMENT_SIZE;
+
+    private final SegmentLog log;
+    private final UuidIndex conversations = new UuidIndex(1024);
+    private final UuidIndex messages = new UuidIndex(1024);
+    /**
+     * Position of every message, the key of the message in the history of its conversation
+     */
+    private final UuidIndex positions = new UuidIndex(1024);
+    /**
+     * Messages of every conversation by position
+     */
+    private final Map<UUID, TreeMap<Long, UUID>> histories = new HashMap<>();
+    /**
+     * Conversations of every participant
+     */
+    private final Map<String, Set<UUID>> participants = new HashMap<>();
+
+    private boolean closed;
+    /**
+     * Stands in for the position of messages without one, past every position stored
+     */
+    private long sequence;
+    private long appended;
+    private long unchanged;
+    private long skipped;
+    private long reads;
+    private long hits;
+
+    /**
+     * Opens the store in a directory and rebuilds the indexes from its segments. Blocks while reading.
+     * @param directory Directory of the segment files, created if missing
+     * @param segmentSize Size of a segment file in bytes
+     * @throws IOException if the directory or a segment could not be opened
+     */
+    LayerMessageStore(File directory, int segmentSize) throws IOException {
+        this.log = new SegmentLog(directory, "store", segmentSize);
+        log.read(this::read);
+    }
+
+    /**
+     * Returns a stored conversation.
+     * @param conversation_UUID Conversation UUID, or id layer:///conversations/:conversation_UUID
+     * @return Conversation as stored last, null if it is not stored
+     */
+    public synchronized JsonObject getConversation(String conversation_UUID) {
+        return found(conversations.get(key(conversation_UUID)));
+    }
+
+    /**
+     * Returns a stored message.
+     * @param message_UUID Message UUID, or id layer:///messages/:message_UUID
+     * @return Message as stored last, null if it is not stored
+     */
+    public synchronized JsonObject getMessage(String message_UUID) {
+        return found(messages.get(key(message_UUID)));
+    }
+
+    /**
+     * Returns the newest stored messages of a conversation.
+     * @param conversation_UUID Conversation UUID, or id
+     * @param limit Most messages returned
+     * @return Messages, highest position first. Empty if none are stored
+     */
+    public List<JsonObject> getConversationMessages(String conversation_UUID, int limit) {
+        return getConversationMessages(conversation_UUID, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Returns stored messages of a conversation before a position, to scroll back through its history.
+     * @param conversation_UUID Conversation UUID, or id
+     * @param before Position the messages are before, the position of the oldest message of the previous call
+     * @param limit Most messages returned
+     * @return Messages, highest position first. Empty if none are stored
+     */
+    public synchronized List<JsonObject> getConversationMessages(String conversation_UUID, long before, int limit) {
+        reads++;
+        TreeMap<Long, UUID> history = histories.get(key(conversation_UUID));
+        if (history == null) {
+            return Collections.emptyList();
+        }
+        hits++;
+        List<JsonObject> found = new ArrayList<>(Math.min(limit, history.size()));
+        for (UUID message : history.headMap(before, false).descendingMap().values()) {
+            if (found.size() >= limit) {
+                break;
+            }
+            found.add(read(messages.get(message)));
+        }
+        return found;
+    }
+
+    /**
+     * Returns the stored conversations a user participates in.
+     * @param user_ID User id
+     * @return Conversations, newest last message first. Empty if none are stored
+     */
+    public synchronized List<JsonObject> getConversationsOfParticipant(String user_ID) {
+        reads++;
+        Set<UUID> keys = participants.get(user_ID);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        hits++;
+        List<JsonObject> found = new ArrayList<>(keys.size());
+        for (UUID conversation : keys) {
+            found.add(read(conversations.get(conversation)));
+        }
+        found.sort((a, b) -> LayerConversationSync.sortKey(b).compareTo(LayerConversationSync.sortKey(a)));
+        return found;
+    }
+
+    /**
+     * Returns store counters.
+     * @return conversations, messages and participants stored, segments, bytes written to them, appended records,
+     *         unchanged records that were not written again, skipped records larger than a segment, reads and hits
+     */
+    public synchronized JsonObject getStats() {
+        return new JsonObject()
+                .put("conversations", conversations.size())
+                .put("messages", messages.size())
+                .put("participants", participants.size())
+                .put("segments", log.size())
+                .put("bytes", log.bytes())
+                .put("appended", appended)
+                .put("unchanged", unchanged)
+                .put("skipped", skipped)
+                .put("reads", reads)
+                .put("hits", hits);
+    }
+
+    /**
+     * Stores a conversation and its last message.
+     * @param conversation Conversation as returned by Layer, ignored without an id
+     */
+    synchronized void putConversation(JsonObject conversation) {
+        Object last = conversation.getValue("last_message");
+        if (last instanceof JsonObject) {
+            putMessage((JsonObject) last);
+        }
+        put(CONVERSATION, conversation);
+    }
+
+    /**
+     * Stores a message.
+     * @param message Message as returned by Layer, ignored without an id
+     */
+    synchronized void putMessage(JsonObject message) {
+        put(MESSAGE, message);
+    }
+
+    /**
+     * Stops writing, the store can still be read. Records are read back when it is opened again.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    private void put(byte type, JsonObject record) {
+        String id = record.getValue("id") instanceof String ? record.getString("id") : null;
+        if (closed || id == null) {
+            return;
+        }
+        byte[] json = record.encode().getBytes(StandardCharsets.UTF_8);
+        long previous = (type == CONVERSATION ? conversations : messages).get(key(id));
+        if (previous != UuidIndex.MISSING && same(previous, json)) {
+            unchanged++;
+            return;
+        }
+        long location;
+        try {
+            location = log.append(type, json);
+        } catch (IOException e) {
+            skipped++;
+            return;
+        }
+        appended++;
+        index(type, record, location, previous);
+    }
+
+    /**
+     * Adds a record to the indexes, replacing the previous one of its id.
+     */
+    private void index(byte type, JsonObject record, long location, long previous) {
+        UUID key = key(record.getString("id"));
+        if (type == CONVERSATION) {
+            if (previous != UuidIndex.MISSING) {
+                for (String participant : participants(read(previous))) {
+                    Set<UUID> keys = participants.get(participant);
+                    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                        participants.remove(participant);
+                    }
+                }
+            }
+            conversations.put(key, location);
+            for (String participant : participants(record)) {
+                participants.computeIfAbsent(participant, p -> new HashSet<>()).add(key);
+            }
+            return;
+        }
+        messages.put(key, location);
+        Object conversation = record.getValue("conversation");
+        Object conversationId = conversation instanceof JsonObject ? ((JsonObject) conversation).getValue("id") : null;
+        if (!(conversationId instanceof String)) {
+            return;
+        }
+        Object value = record.getValue("position");
+        long oldPosition = positions.get(key);
+        long position = value instanceof Number && ((Number) value).longValue() >= 0 ? ((Number) value).longValue()
+                : oldPosition != UuidIndex.MISSING ? oldPosition : sequence++;
+        // Also restores the sequence while the segments are read, stand-ins never collide with a stored position
+        sequence = Math.max(sequence, position + 1);
+        positions.put(key, position);
+        TreeMap<Long, UUID> history = histories.computeIfAbsent(key((String) conversationId), c -> new TreeMap<>());
+        if (oldPosition != UuidIndex.MISSING && oldPosition != position) {
+            history.remove(oldPosition, key);
+        }
+        history.put(position, key);
+    }
+
+    private static List<String> participants(JsonObject conversation) {
+        Object value = conversation.getValue("participants");
+        if (!(value instanceof JsonArray)) {
+            return Collections.emptyList();
+        }
+        List<String> found = new ArrayList<>();
+        for (Object participant : (JsonArray) value) {
+            Object user = participant instanceof JsonObject ? ((JsonObject) participant).getValue("user_id") : participant;
+            if (user instanceof String) {
+                found.add((String) user);
+            }
+        }
+        return found;
+    }
+
+    private JsonObject found(long location) {
+        reads++;
+        if (location == UuidIndex.MISSING) {
+            return null;
+        }
+        hits++;
+        return read(location);
+    }
+
+    private JsonObject read(long location) {
+        return Buffer.buffer(bytes(location)).toJsonObject();
+    }
+
+    /**
+     * @return JSON of the record at a location
+     */
+    private byte[] bytes(long location) {
+        return log.rest(location);
+    }
+
+    private boolean same(long location, byte[] json) {
+        return log.length(location) == json.length + 1 && Arrays.equals(bytes(location), json);
+    }
+
+    /**
+     * Indexes a record read when the store is opened.
+     */
+    private void read(long location, byte[] record) {
+        byte type = record[0];
+        JsonObject json;
+        try {
+            json = new JsonObject(new String(record, 1, record.length - 1, StandardCharsets.UTF_8));
+        } catch (DecodeException e) {
+            return;
+        }
+        if (!(json.getValue("id") instanceof String)) {
+            return;
+        }
+        index(type, json, location, (type == CONVERSATION ? conversations : messages).get(key(json.getString("id"))));
+    }
+
+    /**
+     * @param id Id or UUID of a conversation or message
+     * @return UUID of the last path segment, a name based UUID of it if it is not a UUID
+     */
+    static UUID key(String id) {
+        String uuid = id.substring(id.lastIndexOf('/') + 1);
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return UUID.nameUUIDFromBytes(uuid.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
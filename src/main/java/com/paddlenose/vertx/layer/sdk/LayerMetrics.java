@@ -0,0 +1,106 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, gauges and latency histograms of every endpoint of a LayerServerClient.
+ * <p>
+ *     All instruments are created up front and only updated with atomic operations, recording is lock-free and
+ *     allocates nothing.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerMetrics {
+    /**
+     * Status codes counted one by one, others are counted as 0
+     */
+    private static final int STATUS_CODES = 600;
+
+    /**
+     * Instruments of one endpoint.
+     */
+    static final class Endpoint {
+        /**
+         * From handing the request to the HttpClient until the response headers, includes the wait for a connection
+         */
+        final LatencyHistogram latency = new LatencyHistogram();
+        /**
+         * From calling the client until the request is handed to the HttpClient: limits, backoff and earlier attempts
+         */
+        final LatencyHistogram wait = new LatencyHistogram();
+        /**
+         * Time spent in the caller's handler before it returned
+         */
+        final LatencyHistogram handler = new LatencyHistogram();
+        final AtomicLongArray statuses = new AtomicLongArray(STATUS_CODES);
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicInteger callsInFlight = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * @param status HTTP status code of a response
+         */
+        void status(int status) {
+            statuses.incrementAndGet(status > 0 && status < STATUS_CODES ? status : 0);
+        }
+
+        JsonObject snapshot() {
+            JsonObject status = new JsonObject();
+            for (int i = 0; i < STATUS_CODES; i++) {
+                long count = statuses.get(i);
+                if (count > 0) {
+                    status.put(Integer.toString(i), count);
+                }
+            }
+            return new JsonObject()
+                    .put("calls", calls.get())
+                    .put("calls_in_flight", callsInFlight.get())
+                    .put("requests", requests.get())
+                    .put("in_flight", inFlight.get())
+                    .put("failed", failed.get())
+                    .put("status", status)
+                    .put("request_bytes", requestBytes.get())
+                    .put("response_bytes", responseBytes.get())
+                    .put("latency", latency.snapshot())
+                    .put("wait", wait.snapshot())
+                    .put("handler", handler.snapshot());
+        }
+    }
+
+    private final Map<LayerEndpoint, Endpoint> endpoints = new EnumMap<>(LayerEndpoint.class);
+
+    LayerMetrics() {
+        for (LayerEndpoint endpoint : LayerEndpoint.values()) {
+            endpoints.put(endpoint, new Endpoint());
+        }
+    }
+
+    /**
+     * @param endpoint Endpoint
+     * @return Instruments of the endpoint
+     */
+    Endpoint endpoint(LayerEndpoint endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    /**
+     * @return Snapshot of every endpoint, keyed by client method name
+     */
+    JsonObject snapshot() {
+        JsonObject snapshot = new JsonObject();
+        for (Map.Entry<LayerEndpoint, Endpoint> endpoint : endpoints.entrySet()) {
+            snapshot.put(endpoint.getKey().key, endpoint.getValue().snapshot());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,157 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stream over every item of a paged Layer listing.
+ * <p>
+ *     Pages are requested with Layer's from_id cursor, the id of the last item of the previous page.
+ *     The next page is fetched while the current one is being consumed, at most two pages are held in memory. <br>
+ *     While paused at most one page is prefetched. The stream ends after the first page with fewer items than the page size.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerPageStream implements ReadStream<JsonObject> {
+
+    /**
+     * Fetches one page of a listing.
+     */
+    interface PageFetcher {
+        /**
+         * @param from_id Id of the last item of the previous page, null for the first page
+         * @param handler Receives the page
+         */
+        void fetch(String from_id, Handler<AsyncResult<JsonArray>> handler);
+    }
+
+    private final PageFetcher fetcher;
+    private final int pageSize;
+    private final ArrayDeque<JsonObject> queue;
+
+    private Handler<JsonObject> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+
+    private String cursor;
+    private boolean started;
+    private boolean fetching;
+    private boolean lastPage;
+    private boolean paused;
+    private boolean emitting;
+    private boolean closed;
+
+    /**
+     * @param fetcher Fetches pages
+     * @param pageSize Items requested per page
+     */
+    LayerPageStream(PageFetcher fetcher, int pageSize) {
+        this.fetcher = fetcher;
+        this.pageSize = pageSize;
+        this.queue = new ArrayDeque<>(pageSize * 2);
+    }
+
+    @Override
+    public LayerPageStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public LayerPageStream handler(Handler<JsonObject> handler) {
+        this.handler = handler;
+        if (handler != null && !started) {
+            started = true;
+            fetchIfNeeded();
+        }
+        return this;
+    }
+
+    @Override
+    public LayerPageStream pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public LayerPageStream resume() {
+        paused = false;
+        fetchIfNeeded();
+        emit();
+        return this;
+    }
+
+    @Override
+    public LayerPageStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    /**
+     * Stops the stream, buffered items are dropped and no more pages are fetched. The end handler is not called.
+     */
+    void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    private void fetchIfNeeded() {
+        if (closed || lastPage || fetching || queue.size() > pageSize) {
+            return;
+        }
+        fetching = true;
+        fetcher.fetch(cursor, this::onPage);
+    }
+
+    private void onPage(AsyncResult<JsonArray> page) {
+        fetching = false;
+        if (closed) {
+            return;
+        }
+        if (page.failed()) {
+            closed = true;
+            queue.clear();
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(page.cause());
+            }
+            return;
+        }
+        JsonArray items = page.result();
+        for (int i = 0; i < items.size(); i++) {
+            queue.add(items.getJsonObject(i));
+        }
+        if (items.size() < pageSize) {
+            lastPage = true;
+        } else {
+            cursor = items.getJsonObject(items.size() - 1).getString("id");
+        }
+        fetchIfNeeded();
+        emit();
+    }
+
+    private void emit() {
+        if (emitting) {
+            return;
+        }
+        emitting = true;
+        try {
+            while (!paused && !closed && handler != null && !queue.isEmpty()) {
+                handler.handle(queue.poll());
+                fetchIfNeeded();
+            }
+        } finally {
+            emitting = false;
+        }
+        if (queue.isEmpty() && lastPage && !closed) {
+            closed = true;
+            if (endHandler != null) {
+                endHandler.handle(null);
+            }
+        }
+    }
+}
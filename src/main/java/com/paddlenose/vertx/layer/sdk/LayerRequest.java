@@ -0,0 +1,73 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * One Layer call on its way through the dispatchers of a LayerServerClient.
+ * <p>
+ *     The body is kept as a Buffer so the request can be sent more than once.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerRequest {
+    final LayerRequestTemplate template;
+    final LayerEndpoint endpoint;
+    final String uri;
+    final String conversation_UUID;
+    final Buffer body;
+    final boolean streaming;
+    /**
+     * System.nanoTime() when the call entered the client, 0 if not measured
+     */
+    long dispatched;
+    private MultiMap headers;
+
+    /**
+     * @param template Template of the app the request belongs to, supplies the Layer headers
+     * @param endpoint Endpoint called
+     * @param uri Request URI
+     * @param conversation_UUID Conversation the request reads or writes, null if none
+     * @param body Request body, null for no body
+     * @param streaming True if the caller consumes the response as a stream, such responses are never buffered
+     */
+    LayerRequest(LayerRequestTemplate template, LayerEndpoint endpoint, String uri, String conversation_UUID, Buffer body, boolean streaming) {
+        this.template = template;
+        this.endpoint = endpoint;
+        this.uri = uri;
+        this.conversation_UUID = conversation_UUID;
+        this.body = body;
+        this.streaming = streaming;
+    }
+
+    /**
+     * @param body Body of the copy
+     * @return Copy of this request with another body, the extra headers and dispatch time
+     */
+    LayerRequest withBody(Buffer body) {
+        LayerRequest copy = new LayerRequest(template, endpoint, uri, conversation_UUID, body, streaming);
+        copy.dispatched = dispatched;
+        if (hasHeaders()) {
+            copy.headers().addAll(headers);
+        }
+        return copy;
+    }
+
+    /**
+     * Extra headers for this request, added after the Layer headers.
+     * @return Headers, created on first use
+     */
+    MultiMap headers() {
+        if (headers == null) {
+            headers = MultiMap.caseInsensitiveMultiMap();
+        }
+        return headers;
+    }
+
+    /**
+     * @return True if extra headers were set
+     */
+    boolean hasHeaders() {
+        return headers != null && !headers.isEmpty();
+    }
+}
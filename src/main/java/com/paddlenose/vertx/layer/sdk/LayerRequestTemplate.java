@@ -0,0 +1,165 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Pre-built parts of every Layer request.
+ * <p>
+ *     Created once per LayerServerClient. The app-scoped path prefixes and the constant header values are
+ *     computed here, so a call only assembles its variable URI segments. <br>
+ *     Header names and values are Netty-optimized CharSequences, they are written to the wire without
+ *     being re-encoded per request.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerRequestTemplate {
+    static final CharSequence ACCEPT = HttpHeaders.createOptimized("accept");
+    static final CharSequence ACCEPT_LAYER = HttpHeaders.createOptimized("application/vnd.layer+json; version=2.0");
+    static final CharSequence AUTHORIZATION = HttpHeaders.createOptimized("Authorization");
+    static final CharSequence CONTENT_TYPE = HttpHeaders.createOptimized("Content-Type");
+    static final CharSequence APPLICATION_JSON = HttpHeaders.createOptimized("application/json");
+
+    private static final String CONVERSATIONS = "/conversations";
+    private static final String MESSAGES = "/messages";
+    private static final String SORT_BY_LAST_MESSAGE = "?sort_by=last_message";
+
+    private final CharSequence bearer;
+    private final String conversations;
+    private final String conversationPrefix;
+    private final String usersPrefix;
+    private final String announcements;
+    private final String notifications;
+    private final String content;
+
+    /**
+     * @param layer_app_id Application id for Layer API
+     * @param layer_app_token Application token for Layer API
+     */
+    LayerRequestTemplate(String layer_app_id, String layer_app_token) {
+        String app = "/apps/" + layer_app_id;
+        this.bearer = HttpHeaders.createOptimized("Bearer " + layer_app_token);
+        this.conversations = app + CONVERSATIONS;
+        this.conversationPrefix = conversations + "/";
+        this.usersPrefix = app + "/users/";
+        this.announcements = app + "/announcements";
+        this.notifications = app + "/notifications";
+        this.content = app + "/content";
+    }
+
+    /**
+     * Sets the accept, authorization and content type headers.
+     * @param headers Headers of the request
+     */
+    void applyHeaders(MultiMap headers) {
+        headers.set(ACCEPT, ACCEPT_LAYER)
+                .set(AUTHORIZATION, bearer)
+                .set(CONTENT_TYPE, APPLICATION_JSON);
+    }
+
+    /**
+     * @return /apps/:app_id/conversations
+     */
+    String conversations() {
+        return conversations;
+    }
+
+    /**
+     * @param conversation_UUID Conversation UUID
+     * @return /apps/:app_id/conversations/:conversation_UUID
+     */
+    String conversation(String conversation_UUID) {
+        return concat(conversationPrefix, conversation_UUID, "");
+    }
+
+    /**
+     * @param conversation_UUID Conversation UUID
+     * @return /apps/:app_id/conversations/:conversation_UUID/messages
+     */
+    String conversationMessages(String conversation_UUID) {
+        return concat(conversationPrefix, conversation_UUID, MESSAGES);
+    }
+
+    /**
+     * @param user_ID User id
+     * @return /apps/:app_id/users/:user_ID/conversations
+     */
+    String userConversations(String user_ID) {
+        return concat(usersPrefix, user_ID, CONVERSATIONS);
+    }
+
+    /**
+     * @param user_ID User id
+     * @return /apps/:app_id/users/:user_ID/conversations?sort_by=last_message
+     */
+    String userConversationsByLastMessage(String user_ID) {
+        return new StringBuilder(usersPrefix.length() + user_ID.length() + CONVERSATIONS.length() + SORT_BY_LAST_MESSAGE.length())
+                .append(usersPrefix).append(user_ID).append(CONVERSATIONS).append(SORT_BY_LAST_MESSAGE)
+                .toString();
+    }
+
+    /**
+     * @param conversation_UUID Conversation UUID
+     * @param user_ID User id
+     * @return /apps/:app_id/users/:user_ID/conversations/:conversation_UUID/messages
+     */
+    String userConversationMessages(String conversation_UUID, String user_ID) {
+        return new StringBuilder(usersPrefix.length() + user_ID.length() + CONVERSATIONS.length() + 1 + conversation_UUID.length() + MESSAGES.length())
+                .append(usersPrefix).append(user_ID).append(CONVERSATIONS).append('/').append(conversation_UUID).append(MESSAGES)
+                .toString();
+    }
+
+    /**
+     * @return /apps/:app_id/announcements
+     */
+    String announcements() {
+        return announcements;
+    }
+
+    /**
+     * @return /apps/:app_id/notifications
+     */
+    String notifications() {
+        return notifications;
+    }
+
+    /**
+     * @return /apps/:app_id/content
+     */
+    String content() {
+        return content;
+    }
+
+    /**
+     * Appends Layer paging parameters to a listing URI.
+     * @param uri Listing URI, may already have a query
+     * @param from_id Id of the last item of the previous page, null for the first page
+     * @param page_size Items per page
+     * @return URI of the page
+     */
+    String page(String uri, String from_id, int page_size) {
+        StringBuilder page = new StringBuilder(uri.length() + 64)
+                .append(uri).append(uri.indexOf('?') < 0 ? '?' : '&')
+                .append("page_size=").append(page_size);
+        if (from_id != null) {
+            try {
+                page.append("&from_id=").append(URLEncoder.encode(from_id, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return page.toString();
+    }
+
+    /**
+     * Joins three segments with a builder of the exact final size.
+     */
+    private static String concat(String prefix, String segment, String suffix) {
+        return new StringBuilder(prefix.length() + segment.length() + suffix.length())
+                .append(prefix).append(segment).append(suffix)
+                .toString();
+    }
+}
@@ -0,0 +1,183 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size-bounded LRU cache of successful GET responses, keyed by app-scoped URI.
+ * <p>
+ *     Entries are indexed by conversation so a write to a conversation drops every cached read of it. <br>
+ *     Every invalidation advances a generation. A response of a conversation requested before that conversation
+ *     was invalidated is not stored, so a read that raced a write cannot put stale data back. The most recent
+ *     invalidations are remembered per conversation, older ones only as a generation floor. <br>
+ *     Thread safe, all access is synchronized.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerResponseCache {
+    private static final int TRACKED_INVALIDATIONS = 1024;
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        final String key;
+        final String conversation_UUID;
+        final BufferedHttpClientResponse response;
+        final String etag;
+        volatile long expiresAt;
+
+        Entry(String key, String conversation_UUID, BufferedHttpClientResponse response, String etag, long expiresAt) {
+            this.key = key;
+            this.conversation_UUID = conversation_UUID;
+            this.response = response;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean fresh(long now) {
+            return now < expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, Set<String>> byConversation = new HashMap<>();
+    private final LinkedHashMap<String, Long> recentInvalidations;
+
+    private long generation;
+    private long untrackedGeneration;
+    private long hits;
+    private long misses;
+    private long revalidations;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxEntries Maximum number of cached responses
+     */
+    LayerResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > LayerResponseCache.this.maxEntries) {
+                    evictions++;
+                    unindex(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.recentInvalidations = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > TRACKED_INVALIDATIONS) {
+                    untrackedGeneration = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up an entry, fresh or stale, and counts a hit or miss.
+     * @param key Request URI
+     * @param now Current time in milliseconds
+     * @return Entry, null if not cached
+     */
+    synchronized Entry get(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.fresh(now)) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    /**
+     * @return Current generation, pass to {@link #put} when the response arrives
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Stores a response unless the cache was invalidated after the request was sent.
+     * @param entry Entry to store
+     * @param generation Generation when the request was sent
+     */
+    synchronized void put(Entry entry, long generation) {
+        if (entry.conversation_UUID != null) {
+            Long invalidated = recentInvalidations.get(entry.conversation_UUID);
+            if (invalidated != null ? invalidated > generation : untrackedGeneration > generation) {
+                return;
+            }
+        }
+        Entry previous = entries.put(entry.key, entry);
+        if (previous != null) {
+            unindex(previous);
+        }
+        if (entry.conversation_UUID != null) {
+            byConversation.computeIfAbsent(entry.conversation_UUID, id -> new HashSet<>()).add(entry.key);
+        }
+    }
+
+    /**
+     * Extends an entry after Layer confirmed it with 304 Not Modified.
+     * @param entry Revalidated entry
+     * @param expiresAt New expiry time in milliseconds
+     */
+    synchronized void revalidated(Entry entry, long expiresAt) {
+        revalidations++;
+        entry.expiresAt = expiresAt;
+    }
+
+    /**
+     * Drops every entry of a conversation.
+     * @param conversation_UUID Conversation that was written to
+     */
+    synchronized void invalidateConversation(String conversation_UUID) {
+        generation++;
+        recentInvalidations.remove(conversation_UUID);
+        recentInvalidations.put(conversation_UUID, generation);
+        Set<String> keys = byConversation.remove(conversation_UUID);
+        if (keys != null) {
+            for (String key : keys) {
+                entries.remove(key);
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * @return Counters: size, hits, misses, revalidations, evictions, invalidations
+     */
+    synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("size", entries.size())
+                .put("max_entries", maxEntries)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("revalidations", revalidations)
+                .put("evictions", evictions)
+                .put("invalidations", invalidations);
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.conversation_UUID == null) {
+            return;
+        }
+        Set<String> keys = byConversation.get(entry.conversation_UUID);
+        if (keys != null && keys.remove(entry.key) && keys.isEmpty()) {
+            byConversation.remove(entry.conversation_UUID);
+        }
+    }
+}
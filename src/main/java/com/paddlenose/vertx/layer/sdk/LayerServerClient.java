@@ -1,11 +1,29 @@
 package com.paddlenose.vertx.layer.sdk;
 
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 //TODO add error handlers
 
@@ -28,28 +46,457 @@ import io.vertx.core.json.JsonObject;
 @SuppressWarnings("WeakerAccess")
 public class LayerServerClient {
     /**
-     * A HttpClient, requires default host
+     * Header carrying the idempotency key of a post
      */
-    private final HttpClient client;
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
     /**
-     * Application id for Layer API
+     * Concurrency limit before any latency was measured
      */
-    private final String layer_app_id;
+    private static final int INITIAL_CONCURRENCY = 10;
+    private static final CharSequence UPLOAD_CONTENT_TYPE = HttpHeaders.createOptimized("Upload-Content-Type");
+    private static final CharSequence UPLOAD_CONTENT_LENGTH = HttpHeaders.createOptimized("Upload-Content-Length");
 
     /**
-     * Application token for Layer API
+     * Sends requests, wraps the HttpClient with the enabled features
+     */
+    private final LayerDispatcher dispatcher;
+    /**
+     * Response cache, null if disabled
+     */
+    private final LayerResponseCache cache;
+    /**
+     * Compression of requests and responses, null if disabled
+     */
+    private final CompressionDispatcher compression;
+    /**
+     * Coalescing of identical GET requests, null if disabled
+     */
+    private final CoalescingDispatcher coalescing;
+    /**
+     * Journal of messages not acknowledged yet, null if disabled
+     */
+    private final OutboxDispatcher outbox;
+    /**
+     * Deduplication of posts by idempotency key, null if disabled
      */
-    private final String layer_app_token;
+    private final IdempotencyDispatcher idempotency;
+    /**
+     * Writes conversations and messages to the local store, null if disabled
+     */
+    private final StoringDispatcher storing;
+    /**
+     * Local store of conversations and messages, null if disabled
+     */
+    private final LayerMessageStore store;
+    /**
+     * Per conversation ordering of posts, null if disabled
+     */
+    private final OrderingDispatcher ordering;
+    /**
+     * Adaptive concurrency limit, null if disabled
+     */
+    private final ConcurrencyLimitingDispatcher concurrencyLimiting;
+    /**
+     * Client side rate limit, null if disabled
+     */
+    private final RateLimitingDispatcher rateLimiting;
+    /**
+     * Vertx instance the client belongs to, null if created without one
+     */
+    private final Vertx vertx;
+    /**
+     * Endpoint metrics, null if disabled
+     */
+    private final LayerMetrics metrics;
+    /**
+     * Timer publishing metrics, -1 if not publishing
+     */
+    private final long metricsTimer;
+    /**
+     * Circuit breakers, null if disabled
+     */
+    private final CircuitBreakingDispatcher circuitBreaking;
+    /**
+     * Retries and hedging, null if disabled
+     */
+    private final RetryingDispatcher retrying;
+    /**
+     * HttpClient per context, null if the client was created with a single HttpClient
+     */
+    private final ContextShardedDispatcher shards;
+    /**
+     * Streams rich content to storage
+     */
+    private final ContentUploader uploader;
+    /**
+     * Path prefixes and header values shared by all requests
+     */
+    private final LayerRequestTemplate template;
+
+    /**
+     * Items per page when streaming listings
+     */
+    private final int pageSize;
+    /**
+     * Requests in flight of a new post stream
+     */
+    private final int writeQueueMaxSize;
+    /**
+     * Items on the first page of an incremental conversation sync
+     */
+    private final int syncPageSize;
     /**
      * LayerClient implements LayerInterface.
+     * <p>
+     *     Uses the Vertx instance of the current context for timers, if any.
+     * </p>
      *
      * @param client A HttpClient, requires default host
      * @param options Requires layer_app_id and layer_app_token
      */
     public LayerServerClient(HttpClient client, LayerServerOptions options) {
-        this.client = client;
-        this.layer_app_id = options.getString("layer_app_id");
-        this.layer_app_token = options.getString("layer_app_token");
+        this(Vertx.currentContext() == null ? null : Vertx.currentContext().owner(), client, options);
+    }
+
+    /**
+     * LayerClient implements LayerInterface.
+     *
+     * @param vertx Vertx instance the client belongs to, runs timers of rate limiting, retries and hedging,
+     *              receives circuit breaker events and metrics
+     * @param client A HttpClient, requires default host
+     * @param options Requires layer_app_id and layer_app_token
+     */
+    public LayerServerClient(Vertx vertx, HttpClient client, LayerServerOptions options) {
+        this(vertx, new HttpClientDispatcher(client), null, () -> client, options);
+    }
+
+    /**
+     * Creates a client with one HttpClient per Vert.x context.
+     * <p>
+     *     Share one client between the verticles of all event loops: every request is sent with a HttpClient owned
+     *     by the context it is made on, so connections are not shared between event loops and responses are handled
+     *     on the caller's event loop. The HttpClient of a context is created on its first request and closed when
+     *     the context is. The limits, cache and metrics of the client stay shared. <br>
+     *     Requests made outside a context share one HttpClient.
+     * </p>
+     *
+     * @param vertx Vertx instance the client belongs to, creates the HttpClients
+     * @param clientOptions Options of every HttpClient, requires default host. max_pool_size is per context,
+     *                      see {@link LayerServerOptions#applyTo}. With pipelining the cap on requests in flight is
+     *                      per context too, and only GETs are pipelined
+     * @param options Requires layer_app_id and layer_app_token
+     * @return A LayerServerClient
+     */
+    public static LayerServerClient createSharded(Vertx vertx, HttpClientOptions clientOptions, LayerServerOptions options) {
+        ContextShardedDispatcher shards = new ContextShardedDispatcher(vertx, clientOptions,
+                pipelinedInFlight(options), options.getConcurrencyQueueSize());
+        return new LayerServerClient(vertx, shards, shards, shards::client, options);
+    }
+
+    /**
+     * Creates a client that sends its requests through a transport shared with other clients.
+     *
+     * @param vertx Vertx instance the client belongs to, null if none
+     * @param client HttpClient behind the transport, for uploads outside Layer
+     * @param transport Innermost dispatcher, sends the requests
+     * @param options Requires layer_app_id and layer_app_token
+     * @return A LayerServerClient
+     */
+    static LayerServerClient create(Vertx vertx, HttpClient client, LayerDispatcher transport, LayerServerOptions options) {
+        return new LayerServerClient(vertx, transport, null, () -> client, options);
+    }
+
+    /**
+     * @param vertx Vertx instance the client belongs to, null if none
+     * @param transport Innermost dispatcher, sends the requests
+     * @param shards The transport if it is sharded by context, otherwise null
+     * @param clients Supplies the HttpClient of the calling context, for uploads outside Layer
+     * @param options Requires layer_app_id and layer_app_token
+     */
+    private LayerServerClient(Vertx vertx, LayerDispatcher transport, ContextShardedDispatcher shards, Supplier<HttpClient> clients,
+                              LayerServerOptions options) {
+        this.template = new LayerRequestTemplate(options.getString("layer_app_id"), options.getString("layer_app_token"));
+        this.pageSize = options.getPageSize();
+        this.writeQueueMaxSize = options.getWriteQueueMaxSize();
+        this.syncPageSize = options.getSyncPageSize();
+        this.shards = shards;
+        this.uploader = new ContentUploader(clients);
+        LayerDispatcher dispatcher = transport;
+        if (shards == null && options.getPipelining()) {
+            dispatcher = ConcurrencyLimitingDispatcher.fixed(dispatcher, pipelinedInFlight(options), options.getConcurrencyQueueSize());
+        }
+        this.metrics = options.getMetrics() ? new LayerMetrics() : null;
+        if (metrics != null) {
+            dispatcher = new MetricsDispatcher(dispatcher, metrics, true);
+        }
+        if (options.getAdaptiveConcurrency()) {
+            this.concurrencyLimiting = new ConcurrencyLimitingDispatcher(dispatcher,
+                    new GradientLimit(INITIAL_CONCURRENCY, 1, options.getMaxConcurrency()), options.getConcurrencyQueueSize());
+            dispatcher = concurrencyLimiting;
+        } else {
+            this.concurrencyLimiting = null;
+        }
+        Map<String, Double> familyRates = familyRates(options);
+        if (options.getRateLimit() > 0 || !familyRates.isEmpty()) {
+            if (vertx == null) {
+                throw new IllegalArgumentException("Rate limits require a Vertx instance");
+            }
+            this.rateLimiting = new RateLimitingDispatcher(vertx, dispatcher, options.getRateLimit(), familyRates, options.getRateLimitQueueSize());
+            dispatcher = rateLimiting;
+        } else {
+            this.rateLimiting = null;
+        }
+        if (options.getCircuitBreaker()) {
+            if (vertx == null) {
+                throw new IllegalArgumentException("Circuit breakers require a Vertx instance");
+            }
+            String address = options.getCircuitBreakerAddress();
+            this.circuitBreaking = new CircuitBreakingDispatcher(dispatcher,
+                    CircuitBreakingDispatcher.breakers(options.getCircuitBreakerWindow(), options.getCircuitBreakerFailureRate(),
+                            options.getCircuitBreakerSlowCallRate(), TimeUnit.MILLISECONDS.toNanos(options.getCircuitBreakerOpenDuration()),
+                            event -> vertx.eventBus().publish(address, event)),
+                    TimeUnit.MILLISECONDS.toNanos(options.getCircuitBreakerSlowCallDuration()));
+            dispatcher = circuitBreaking;
+        } else {
+            this.circuitBreaking = null;
+        }
+        if (options.getRetryMaxAttempts() > 1 || options.getHedging()) {
+            if (vertx == null) {
+                throw new IllegalArgumentException("Retries and hedging require a Vertx instance");
+            }
+            this.retrying = new RetryingDispatcher(vertx, dispatcher, options.getRetryMaxAttempts(), options.getRetryBackoff(),
+                    options.getRetryMaxBackoff(), new RetryBudget(options.getRetryBudget()), options.getHedging());
+            dispatcher = retrying;
+        } else {
+            this.retrying = null;
+        }
+        if (options.getCompression() || options.getCompressionThreshold() > 0) {
+            this.compression = new CompressionDispatcher(dispatcher, options.getCompression(), options.getCompressionThreshold());
+            dispatcher = compression;
+        } else {
+            this.compression = null;
+        }
+        if (options.getCoalesceRequests()) {
+            this.coalescing = new CoalescingDispatcher(dispatcher);
+            dispatcher = coalescing;
+        } else {
+            this.coalescing = null;
+        }
+        if (options.getOrderedMessages()) {
+            this.ordering = new OrderingDispatcher(dispatcher);
+            dispatcher = ordering;
+        } else {
+            this.ordering = null;
+        }
+        if (options.getStoreDirectory() != null) {
+            try {
+                this.store = new LayerMessageStore(new File(options.getStoreDirectory()), options.getStoreSegmentSize());
+            } catch (IOException e) {
+                throw new LayerServerException("Could not open message store", e);
+            }
+            this.storing = new StoringDispatcher(dispatcher, store);
+            dispatcher = storing;
+        } else {
+            this.store = null;
+            this.storing = null;
+        }
+        if (options.getCacheMaxEntries() > 0) {
+            this.cache = new LayerResponseCache(options.getCacheMaxEntries());
+            dispatcher = new CachingDispatcher(dispatcher, cache, cacheTtls(options));
+        } else {
+            this.cache = null;
+        }
+        if (options.getOutboxDirectory() != null) {
+            if (vertx == null) {
+                throw new IllegalArgumentException("The outbox requires a Vertx instance");
+            }
+            try {
+                this.outbox = new OutboxDispatcher(vertx, dispatcher, new OutboxJournal(vertx, new File(options.getOutboxDirectory()),
+                        options.getOutboxSegmentSize(), options.getOutboxFsync()), template);
+            } catch (IOException e) {
+                throw new LayerServerException("Could not open outbox", e);
+            }
+            dispatcher = outbox;
+        } else {
+            this.outbox = null;
+        }
+        if (options.getIdempotencyWindow() > 0 || options.getGenerateIdempotencyKeys()) {
+            this.idempotency = new IdempotencyDispatcher(dispatcher, options.getGenerateIdempotencyKeys(),
+                    TimeUnit.MILLISECONDS.toNanos(options.getIdempotencyWindow()), options.getIdempotencyMaxEntries());
+            dispatcher = idempotency;
+        } else {
+            this.idempotency = null;
+        }
+        if (metrics != null) {
+            dispatcher = new MetricsDispatcher(dispatcher, metrics, false);
+        }
+        this.dispatcher = dispatcher;
+        if (metrics != null && vertx != null && options.getMetricsPublishInterval() > 0) {
+            String address = options.getMetricsAddress();
+            this.metricsTimer = vertx.setPeriodic(options.getMetricsPublishInterval(), id -> vertx.eventBus().publish(address, getMetrics()));
+        } else {
+            this.metricsTimer = -1;
+        }
+        this.vertx = vertx;
+        if (outbox != null) {
+            outbox.replay();
+        }
+    }
+
+    /**
+     * Cap on pipelined requests in flight, max_pipelined_requests per connection.
+     * @return Requests in flight, 0 if pipelining is disabled
+     */
+    private static int pipelinedInFlight(LayerServerOptions options) {
+        return options.getPipelining() ? options.getMaxConnections() * options.getMaxPipelinedRequests() : 0;
+    }
+
+    /**
+     * Reads rate limits of the endpoint families, families without a limit are left out.
+     */
+    private static Map<String, Double> familyRates(LayerServerOptions options) {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (String family : LayerEndpoint.FAMILIES) {
+            double rate = options.getRateLimit(family);
+            if (rate > 0) {
+                rates.put(family, rate);
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Reads cache time to live of the cacheable endpoints, endpoints with a time to live of 0 are left out.
+     */
+    private static Map<LayerEndpoint, Long> cacheTtls(LayerServerOptions options) {
+        Map<LayerEndpoint, Long> ttls = new EnumMap<>(LayerEndpoint.class);
+        for (LayerEndpoint endpoint : LayerEndpoint.values()) {
+            long ttl = options.getCacheTtl(endpoint.key);
+            if (endpoint.method == HttpMethod.GET && ttl > 0) {
+                ttls.put(endpoint, ttl);
+            }
+        }
+        return ttls;
+    }
+
+    /**
+     * Sends a request through the dispatchers.
+     * @param endpoint Endpoint called
+     * @param uri Request URI, built by the template
+     * @param conversation_UUID Conversation the request reads or writes, null if none
+     * @param body Request body, null for no body
+     * @param handler Receives the response, or the failure
+     */
+    private void dispatch(LayerEndpoint endpoint, String uri, String conversation_UUID, Buffer body, Handler<AsyncResult<HttpClientResponse>> handler) {
+        dispatcher.dispatch(new LayerRequest(template, endpoint, uri, conversation_UUID, body, false), handler);
+    }
+
+    /**
+     * Sends a post through the dispatchers with an idempotency key.
+     * @param idempotency_key Key sent in the Idempotency-Key header, null for none
+     */
+    private void dispatch(LayerEndpoint endpoint, String uri, String conversation_UUID, Buffer body, String idempotency_key,
+                          Handler<AsyncResult<HttpClientResponse>> handler) {
+        LayerRequest request = new LayerRequest(template, endpoint, uri, conversation_UUID, body, false);
+        if (idempotency_key != null) {
+            request.headers().set(IDEMPOTENCY_KEY_HEADER, idempotency_key);
+        }
+        dispatcher.dispatch(request, handler);
+    }
+
+    /**
+     * Adapts a response handler, failures are passed as null.
+     */
+    private static Handler<AsyncResult<HttpClientResponse>> orNull(Handler<HttpClientResponse> future) {
+        return result -> future.handle(result.succeeded() ? result.result() : null);
+    }
+
+    /**
+     * Adapts a response handler, failures are printed and passed as null.
+     */
+    private static Handler<AsyncResult<HttpClientResponse>> printOrNull(Handler<HttpClientResponse> future) {
+        return result -> {
+            if (result.failed()) {
+                result.cause().printStackTrace();
+            }
+            future.handle(result.succeeded() ? result.result() : null);
+        };
+    }
+
+    /**
+     * Requests a listing and parses the response incrementally.
+     * @param endpoint Endpoint called
+     * @param uri Listing URI, built by the template
+     * @param conversation_UUID Conversation listed, null if none
+     * @param handler Receives the element stream once the response status is known
+     */
+    private void elements(LayerEndpoint endpoint, String uri, String conversation_UUID, Handler<AsyncResult<ReadStream<JsonObject>>> handler) {
+        dispatcher.dispatch(new LayerRequest(template, endpoint, uri, conversation_UUID, null, true), result -> {
+            if (result.failed()) {
+                handler.handle(Future.failedFuture(result.cause()));
+                return;
+            }
+            HttpClientResponse response = result.result();
+            if (response.statusCode() != 200) {
+                handler.handle(Future.failedFuture(new LayerServerException(response.statusCode(), response.statusMessage())));
+                return;
+            }
+            handler.handle(Future.succeededFuture(new JsonArrayStream(response)));
+        });
+    }
+
+    /**
+     * Creates a stream over all pages of a listing.
+     * @param endpoint Endpoint called
+     * @param uri Listing URI, built by the template
+     * @param conversation_UUID Conversation listed, null if none
+     * @return Stream of listing items
+     */
+    private ReadStream<JsonObject> pages(LayerEndpoint endpoint, String uri, String conversation_UUID) {
+        return new LayerPageStream((from_id, handler) -> page(endpoint, uri, conversation_UUID, from_id, pageSize, body -> {
+            if (body.failed()) {
+                handler.handle(Future.failedFuture(body.cause()));
+                return;
+            }
+            JsonArray page;
+            try {
+                page = body.result().toJsonArray();
+            } catch (DecodeException e) {
+                handler.handle(Future.failedFuture(e));
+                return;
+            }
+            handler.handle(Future.succeededFuture(page));
+        }), pageSize);
+    }
+
+    /**
+     * Requests one page of a listing.
+     * @param endpoint Endpoint called
+     * @param uri Listing URI, built by the template
+     * @param conversation_UUID Conversation listed, null if none
+     * @param from_id Id of the last item of the previous page, null for the first page
+     * @param page_size Items per page
+     * @param handler Receives the body of the page, fails with LayerServerException on HTTP errors
+     */
+    void page(LayerEndpoint endpoint, String uri, String conversation_UUID, String from_id, int page_size, Handler<AsyncResult<Buffer>> handler) {
+        dispatcher.dispatch(new LayerRequest(template, endpoint, template.page(uri, from_id, page_size), conversation_UUID, null, true), result -> {
+            if (result.failed()) {
+                handler.handle(Future.failedFuture(result.cause()));
+                return;
+            }
+            HttpClientResponse response = result.result();
+            if (response.statusCode() != 200) {
+                handler.handle(Future.failedFuture(new LayerServerException(response.statusCode(), response.statusMessage())));
+                return;
+            }
+            response.exceptionHandler(err -> handler.handle(Future.failedFuture(err)));
+            response.bodyHandler(body -> {
+                if (storing != null) {
+                    storing.record(endpoint, body);
+                }
+                handler.handle(Future.succeededFuture(body));
+            });
+        });
     }
 
     /**
@@ -59,12 +506,7 @@ public class LayerServerClient {
      * @param user_ID User id for which conversations will be requested
      */
     public void getConversationsAsUser(Handler<HttpClientResponse> future, String user_ID) {
-        client.request(HttpMethod.GET, "/apps/" + layer_app_id + "/users/" + user_ID + "/conversations?sort_by=last_message", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> {System.err.println(err.getMessage()); err.printStackTrace(); future.handle(null);})
-                .end();
+        dispatch(LayerEndpoint.GET_CONVERSATIONS_AS_USER, template.userConversationsByLastMessage(user_ID), null, null, printOrNull(future));
     }
 
     /**
@@ -75,15 +517,7 @@ public class LayerServerClient {
      * @param user_ID User id for which conversation messages will be requested
      */
     public void getConversationMessageAsUser(Handler<HttpClientResponse> future, String conversation_UUID, String user_ID) {
-        client.request(HttpMethod.GET, "/apps/" + layer_app_id + "/users/" + user_ID + "/conversations/" + conversation_UUID + "/messages", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> {
-                    err.printStackTrace();
-                    future.handle(null);
-                })
-                .end();
+        dispatch(LayerEndpoint.GET_CONVERSATION_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID, null, printOrNull(future));
     }
 
     /**
@@ -95,12 +529,50 @@ public class LayerServerClient {
      * @param user_ID User ID specifying the layer user
      */
     public void postMessageAsUser(Handler<HttpClientResponse> future, String conversation_UUID, JsonObject message, String user_ID) {
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/users/" + user_ID + "/conversations/" + conversation_UUID + "/messages", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(new JsonObject().put("parts", message.getJsonArray("parts")).encode());
+        JsonObject parts = message.size() == 1 && message.containsKey("parts") ? message : new JsonObject().put("parts", message.getJsonArray("parts"));
+        dispatch(LayerEndpoint.POST_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID,
+                Buffer.buffer(parts.encode()), orNull(future));
+    }
+
+    /**
+     * Sends a single message as user, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID String for URI
+     * @param message JsonObject Message, see Layer API documentation.
+     * @param user_ID User ID specifying the layer user
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postMessageAsUser(Handler<HttpClientResponse> future, String conversation_UUID, JsonObject message, String user_ID, String idempotency_key) {
+        JsonObject parts = message.size() == 1 && message.containsKey("parts") ? message : new JsonObject().put("parts", message.getJsonArray("parts"));
+        dispatch(LayerEndpoint.POST_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID,
+                Buffer.buffer(parts.encode()), idempotency_key, orNull(future));
+    }
+
+    /**
+     * Sends a single message as user, pre-encoded.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID String for URI
+     * @param message Encoded message, an object with only MessagePart[] parts
+     * @param user_ID User ID specifying the layer user
+     * @see LayerBodyTemplate
+     */
+    public void postMessageAsUser(Handler<HttpClientResponse> future, String conversation_UUID, Buffer message, String user_ID) {
+        dispatch(LayerEndpoint.POST_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID, message, orNull(future));
+    }
+
+    /**
+     * Sends a single message as user, pre-encoded, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID String for URI
+     * @param message Encoded message, an object with only MessagePart[] parts
+     * @param user_ID User ID specifying the layer user
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postMessageAsUser(Handler<HttpClientResponse> future, String conversation_UUID, Buffer message, String user_ID, String idempotency_key) {
+        dispatch(LayerEndpoint.POST_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID, message,
+                idempotency_key, orNull(future));
     }
 
     /**
@@ -110,12 +582,43 @@ public class LayerServerClient {
      * @param conversation JsonObject Message, see Layer API documentation.
      */
     public void postConversationAsUser(Handler<HttpClientResponse> future, JsonObject conversation, String user_ID) {
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/users/" + user_ID + "/conversations", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(conversation.encode());
+        dispatch(LayerEndpoint.POST_CONVERSATION_AS_USER, template.userConversations(user_ID), null, Buffer.buffer(conversation.encode()), orNull(future));
+    }
+
+    /**
+     * Creates a single conversation as user, at most once per idempotency key.
+     * @param future       Handler, requires error handler.
+     * @param conversation JsonObject Message, see Layer API documentation.
+     * @param user_ID      User ID specifying the layer user
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postConversationAsUser(Handler<HttpClientResponse> future, JsonObject conversation, String user_ID, String idempotency_key) {
+        dispatch(LayerEndpoint.POST_CONVERSATION_AS_USER, template.userConversations(user_ID), null, Buffer.buffer(conversation.encode()),
+                idempotency_key, orNull(future));
+    }
+
+    /**
+     * Creates a single conversation as user, pre-encoded.
+     * @param future       Handler, requires error handler.
+     * @param conversation Encoded conversation, see Layer API documentation.
+     * @param user_ID      User ID specifying the layer user
+     * @see LayerBodyTemplate
+     */
+    public void postConversationAsUser(Handler<HttpClientResponse> future, Buffer conversation, String user_ID) {
+        dispatch(LayerEndpoint.POST_CONVERSATION_AS_USER, template.userConversations(user_ID), null, conversation, orNull(future));
+    }
+
+    /**
+     * Creates a single conversation as user, pre-encoded, at most once per idempotency key.
+     * @param future       Handler, requires error handler.
+     * @param conversation Encoded conversation, see Layer API documentation.
+     * @param user_ID      User ID specifying the layer user
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postConversationAsUser(Handler<HttpClientResponse> future, Buffer conversation, String user_ID, String idempotency_key) {
+        dispatch(LayerEndpoint.POST_CONVERSATION_AS_USER, template.userConversations(user_ID), null, conversation, idempotency_key, orNull(future));
     }
 
     /**
@@ -124,12 +627,7 @@ public class LayerServerClient {
      * @param conversation_UUID Conversation UUID for the requested conversation
      */
     public void getConversation(Handler<HttpClientResponse> future, String conversation_UUID){
-        client.request(HttpMethod.GET, "/apps/" + layer_app_id + "/conversations/" + conversation_UUID, future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end();
+        dispatch(LayerEndpoint.GET_CONVERSATION, template.conversation(conversation_UUID), conversation_UUID, null, orNull(future));
     }
     /**
      * Gets messages for specified conversation, messages is retrieved as server, NOT USER
@@ -137,15 +635,7 @@ public class LayerServerClient {
      * @param conversation_UUID Conversation UUID for the requested conversation
      */
     public void getConversationMessage(Handler<HttpClientResponse> future, String conversation_UUID){
-        client.request(HttpMethod.GET, "/apps/" + layer_app_id + "/conversations/" + conversation_UUID + "/messages", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> {
-                    err.printStackTrace();
-                    future.handle(null);
-                })
-                .end();
+        dispatch(LayerEndpoint.GET_CONVERSATION_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, null, printOrNull(future));
     }
 
     /**
@@ -154,12 +644,39 @@ public class LayerServerClient {
      * @param conversation Conversation, requires String[] participants, boolean distinct, Object metadata
      */
     public void postConversation(Handler<HttpClientResponse> future, JsonObject conversation){
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/conversations", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(conversation.encode());
+        dispatch(LayerEndpoint.POST_CONVERSATION, template.conversations(), null, Buffer.buffer(conversation.encode()), orNull(future));
+    }
+
+    /**
+     * Creates a conversation as server, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation Conversation, requires String[] participants, boolean distinct, Object metadata
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postConversation(Handler<HttpClientResponse> future, JsonObject conversation, String idempotency_key){
+        dispatch(LayerEndpoint.POST_CONVERSATION, template.conversations(), null, Buffer.buffer(conversation.encode()), idempotency_key, orNull(future));
+    }
+
+    /**
+     * Creates a conversation as server, pre-encoded.
+     * @param future Handler, requires error handler.
+     * @param conversation Encoded conversation, requires String[] participants, boolean distinct, Object metadata
+     * @see LayerBodyTemplate
+     */
+    public void postConversation(Handler<HttpClientResponse> future, Buffer conversation){
+        dispatch(LayerEndpoint.POST_CONVERSATION, template.conversations(), null, conversation, orNull(future));
+    }
+
+    /**
+     * Creates a conversation as server, pre-encoded, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation Encoded conversation, requires String[] participants, boolean distinct, Object metadata
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postConversation(Handler<HttpClientResponse> future, Buffer conversation, String idempotency_key){
+        dispatch(LayerEndpoint.POST_CONVERSATION, template.conversations(), null, conversation, idempotency_key, orNull(future));
     }
 
     /**
@@ -169,12 +686,43 @@ public class LayerServerClient {
      * @param message Message requires String sender_id, MessagePart[] parts. Optional Object notification
      */
     public void postMessage(Handler<HttpClientResponse> future, String conversation_UUID, JsonObject message){
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/conversations/" + conversation_UUID + "/messages", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(message.encode());
+        dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, Buffer.buffer(message.encode()), orNull(future));
+    }
+
+    /**
+     * Sends message as user specified in JsonObject message, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID Conversation UUID of which to send the message
+     * @param message Message requires String sender_id, MessagePart[] parts. Optional Object notification
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postMessage(Handler<HttpClientResponse> future, String conversation_UUID, JsonObject message, String idempotency_key){
+        dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, Buffer.buffer(message.encode()),
+                idempotency_key, orNull(future));
+    }
+
+    /**
+     * Sends message as user specified in the message, pre-encoded.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID Conversation UUID of which to send the message
+     * @param message Encoded message, requires String sender_id, MessagePart[] parts. Optional Object notification
+     * @see LayerBodyTemplate
+     */
+    public void postMessage(Handler<HttpClientResponse> future, String conversation_UUID, Buffer message){
+        dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, message, orNull(future));
+    }
+
+    /**
+     * Sends message as user specified in the message, pre-encoded, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param conversation_UUID Conversation UUID of which to send the message
+     * @param message Encoded message, requires String sender_id, MessagePart[] parts. Optional Object notification
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postMessage(Handler<HttpClientResponse> future, String conversation_UUID, Buffer message, String idempotency_key){
+        dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, message, idempotency_key, orNull(future));
     }
 
     /**
@@ -184,12 +732,13 @@ public class LayerServerClient {
      * @param message Message requires String sender_id, MessagePart[] parts. Optional Object notification
      */
     public void postMessage(Future<HttpClientResponse> future, String conversation_UUID, JsonObject message){
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/conversations/" + conversation_UUID + "/messages", future::complete)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(future::fail)
-                .end(message.encode());
+        dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, Buffer.buffer(message.encode()), result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.fail(result.cause());
+            }
+        });
     }
 
     /**
@@ -198,12 +747,39 @@ public class LayerServerClient {
      * @param announcement Announcement requires String[] recipients, String sender_id, MessageParts[] parts, Object notification
      */
     public void postAnnouncement(Handler<HttpClientResponse> future, JsonObject announcement){
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/announcements", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(announcement.encode());
+        dispatch(LayerEndpoint.POST_ANNOUNCEMENT, template.announcements(), null, Buffer.buffer(announcement.encode()), orNull(future));
+    }
+
+    /**
+     * Sends a announcement, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param announcement Announcement requires String[] recipients, String sender_id, MessageParts[] parts, Object notification
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postAnnouncement(Handler<HttpClientResponse> future, JsonObject announcement, String idempotency_key){
+        dispatch(LayerEndpoint.POST_ANNOUNCEMENT, template.announcements(), null, Buffer.buffer(announcement.encode()), idempotency_key, orNull(future));
+    }
+
+    /**
+     * Sends a announcement, pre-encoded.
+     * @param future Handler, requires error handler.
+     * @param announcement Encoded announcement, requires String[] recipients, String sender_id, MessageParts[] parts, Object notification
+     * @see LayerBodyTemplate
+     */
+    public void postAnnouncement(Handler<HttpClientResponse> future, Buffer announcement){
+        dispatch(LayerEndpoint.POST_ANNOUNCEMENT, template.announcements(), null, announcement, orNull(future));
+    }
+
+    /**
+     * Sends a announcement, pre-encoded, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param announcement Encoded announcement, requires String[] recipients, String sender_id, MessageParts[] parts, Object notification
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postAnnouncement(Handler<HttpClientResponse> future, Buffer announcement, String idempotency_key){
+        dispatch(LayerEndpoint.POST_ANNOUNCEMENT, template.announcements(), null, announcement, idempotency_key, orNull(future));
     }
 
     /**
@@ -212,11 +788,471 @@ public class LayerServerClient {
      * @param notification Notification requires String[] recipients, JsonObject notification {String title, String text, (optional) String sound}
      */
     public void postNotification(Handler<HttpClientResponse> future, JsonObject notification){
-        client.request(HttpMethod.POST, "/apps/" + layer_app_id + "/notifications", future)
-                .putHeader("accept", "application/vnd.layer+json; version=2.0")
-                .putHeader("Authorization", "Bearer " + layer_app_token )
-                .putHeader("Content-Type", "application/json")
-                .exceptionHandler(err -> future.handle(null))
-                .end(notification.encode());
+        dispatch(LayerEndpoint.POST_NOTIFICATION, template.notifications(), null, Buffer.buffer(notification.encode()), orNull(future));
+    }
+
+    /**
+     * Sends a notification to specified recipients, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param notification Notification requires String[] recipients, JsonObject notification {String title, String text, (optional) String sound}
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postNotification(Handler<HttpClientResponse> future, JsonObject notification, String idempotency_key){
+        dispatch(LayerEndpoint.POST_NOTIFICATION, template.notifications(), null, Buffer.buffer(notification.encode()), idempotency_key, orNull(future));
+    }
+
+    /**
+     * Sends a notification to specified recipients, pre-encoded.
+     * @param future Handler, requires error handler.
+     * @param notification Encoded notification, requires String[] recipients, JsonObject notification {String title, String text, (optional) String sound}
+     * @see LayerBodyTemplate
+     */
+    public void postNotification(Handler<HttpClientResponse> future, Buffer notification){
+        dispatch(LayerEndpoint.POST_NOTIFICATION, template.notifications(), null, notification, orNull(future));
+    }
+
+    /**
+     * Sends a notification to specified recipients, pre-encoded, at most once per idempotency key.
+     * @param future Handler, requires error handler.
+     * @param notification Encoded notification, requires String[] recipients, JsonObject notification {String title, String text, (optional) String sound}
+     * @param idempotency_key Key of this send, a post with the same key while this one is in flight or within the
+     *                        idempotency window gets its response instead of being sent. Null to send without a key
+     */
+    public void postNotification(Handler<HttpClientResponse> future, Buffer notification, String idempotency_key){
+        dispatch(LayerEndpoint.POST_NOTIFICATION, template.notifications(), null, notification, idempotency_key, orNull(future));
+    }
+
+    /**
+     * Uploads rich content, such as an attachment too large for a message part.
+     * <p>
+     *     Layer is asked for an upload URL, then the content is streamed to it with chunked transfer encoding.
+     *     The source is paused while the upload cannot keep up, so memory use does not grow with its size. Pass an
+     *     AsyncFile or any other ReadStream, it is paused at once and resumed when the upload starts.
+     *     Reference the content in a message with {@link #contentPart(JsonObject, String)}.
+     * </p>
+     * @param handler Receives the content created by Layer, with String id and long size. Fails if Layer or
+     *                storage answer with an error, the source fails or delivers another size than announced
+     * @param mime_type Type of the content
+     * @param size Size of the content in bytes
+     * @param content Source of the content, its handlers are replaced
+     */
+    public void postContent(Handler<AsyncResult<JsonObject>> handler, String mime_type, long size, ReadStream<Buffer> content) {
+        content.pause();
+        LayerRequest request = new LayerRequest(template, LayerEndpoint.POST_CONTENT, template.content(), null, null, false);
+        request.headers().set(UPLOAD_CONTENT_TYPE, mime_type).set(UPLOAD_CONTENT_LENGTH, Long.toString(size));
+        dispatcher.dispatch(request, result -> {
+            if (result.failed()) {
+                handler.handle(Future.failedFuture(result.cause()));
+                return;
+            }
+            HttpClientResponse response = result.result();
+            if (response.statusCode() / 100 != 2) {
+                handler.handle(Future.failedFuture(new LayerServerException(response.statusCode(), response.statusMessage())));
+                return;
+            }
+            response.exceptionHandler(err -> handler.handle(Future.failedFuture(err)));
+            response.bodyHandler(body -> {
+                JsonObject created;
+                try {
+                    created = body.toJsonObject();
+                } catch (DecodeException e) {
+                    handler.handle(Future.failedFuture(e));
+                    return;
+                }
+                String upload_url = created.getString("upload_url");
+                if (upload_url == null) {
+                    handler.handle(Future.failedFuture(new LayerServerException("Layer returned no upload_url")));
+                    return;
+                }
+                uploader.upload(upload_url, mime_type, size, content, uploaded -> handler.handle(uploaded.succeeded()
+                        ? Future.succeededFuture(created) : Future.failedFuture(uploaded.cause())));
+            });
+        });
+    }
+
+    /**
+     * Uploads rich content and sends a message with it as the last part.
+     * <p>
+     *     See {@link #postContent(Handler, String, long, ReadStream)}. The message is sent once the upload is done.
+     * </p>
+     * @param handler Receives the response to the message, or the failure of the upload or the message
+     * @param conversation_UUID Conversation UUID of which to send the message
+     * @param message Message requires String sender_id. Optional MessagePart[] parts, the content part is added to a copy
+     * @param mime_type Type of the content
+     * @param size Size of the content in bytes
+     * @param content Source of the content, its handlers are replaced
+     */
+    public void postMessageWithContent(Handler<AsyncResult<HttpClientResponse>> handler, String conversation_UUID, JsonObject message,
+                                       String mime_type, long size, ReadStream<Buffer> content) {
+        postContent(uploaded -> {
+            if (uploaded.failed()) {
+                handler.handle(Future.failedFuture(uploaded.cause()));
+                return;
+            }
+            JsonObject withContent = message.copy();
+            JsonArray parts = withContent.getJsonArray("parts");
+            if (parts == null) {
+                parts = new JsonArray();
+                withContent.put("parts", parts);
+            }
+            parts.add(contentPart(uploaded.result(), mime_type));
+            dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID,
+                    Buffer.buffer(withContent.encode()), handler);
+        }, mime_type, size, content);
+    }
+
+    /**
+     * Creates a message part that references uploaded rich content.
+     * @param content Content returned by {@link #postContent(Handler, String, long, ReadStream)}
+     * @param mime_type Type of the content
+     * @return Message part with String mime_type and Object content {String id, long size}
+     */
+    public static JsonObject contentPart(JsonObject content, String mime_type) {
+        return new JsonObject()
+                .put("mime_type", mime_type)
+                .put("content", new JsonObject().put("id", content.getString("id")).put("size", content.getLong("size")));
+    }
+
+    /**
+     * Creates a stream that sends every message written to it to one conversation.
+     * <p>
+     *     At most write_queue_max_size messages are in flight, see {@link LayerWriteStream}.
+     *     Pump a ReadStream into it to send as fast as Layer accepts.
+     * </p>
+     * @param conversation_UUID Conversation UUID of which to send the messages
+     * @return Message stream, messages require String sender_id, MessagePart[] parts. Optional Object notification
+     */
+    public LayerWriteStream postMessageStream(String conversation_UUID) {
+        return postMessageStream(message -> conversation_UUID);
+    }
+
+    /**
+     * Creates a stream that sends every message written to it to the conversation it belongs to.
+     * <p>
+     *     At most write_queue_max_size messages are in flight, see {@link LayerWriteStream}.
+     * </p>
+     * @param conversation Returns the conversation UUID of a message
+     * @return Message stream, messages require String sender_id, MessagePart[] parts. Optional Object notification
+     */
+    public LayerWriteStream postMessageStream(Function<JsonObject, String> conversation) {
+        return new LayerWriteStream((message, handler) -> {
+            String conversation_UUID = conversation.apply(message);
+            dispatch(LayerEndpoint.POST_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, Buffer.buffer(message.encode()), handler);
+        }, writeQueueMaxSize);
+    }
+
+    /**
+     * Creates a fan-out that posts one message to many conversations, see {@link LayerFanOut}.
+     * <p>
+     *     The message is encoded once. At most write_queue_max_size posts are in flight unless set on the fan-out.
+     * </p>
+     * @param message Message, requires String sender_id, MessagePart[] parts. Optional Object notification
+     * @param conversation_UUIDs Conversations to post to
+     * @return Fan-out, not started
+     */
+    public LayerFanOut postMessageFanOut(JsonObject message, Collection<String> conversation_UUIDs) {
+        return postMessageFanOut(Buffer.buffer(message.encode()), conversation_UUIDs);
+    }
+
+    /**
+     * Creates a fan-out that posts one pre-encoded message to many conversations, see {@link LayerFanOut}.
+     * <p>
+     *     The body is sent as is to every conversation and must not change until the fan-out has completed.
+     * </p>
+     * @param message Encoded message, requires String sender_id, MessagePart[] parts. Optional Object notification
+     * @param conversation_UUIDs Conversations to post to
+     * @return Fan-out, not started
+     */
+    public LayerFanOut postMessageFanOut(Buffer message, Collection<String> conversation_UUIDs) {
+        return new LayerFanOut(vertx, (conversation_UUID, idempotency_key, handler) -> dispatch(LayerEndpoint.POST_MESSAGE,
+                template.conversationMessages(conversation_UUID), conversation_UUID, message, idempotency_key, handler),
+                conversation_UUIDs.toArray(new String[conversation_UUIDs.size()]), writeQueueMaxSize);
+    }
+
+    /**
+     * Creates a stream that sends every announcement written to it.
+     * <p>
+     *     At most write_queue_max_size announcements are in flight, see {@link LayerWriteStream}.
+     * </p>
+     * @return Announcement stream, announcements require String[] recipients, String sender_id, MessageParts[] parts, Object notification
+     */
+    public LayerWriteStream postAnnouncementStream() {
+        return new LayerWriteStream((announcement, handler) ->
+                dispatch(LayerEndpoint.POST_ANNOUNCEMENT, template.announcements(), null, Buffer.buffer(announcement.encode()), handler), writeQueueMaxSize);
+    }
+
+    /**
+     * Creates a stream that sends every notification written to it.
+     * <p>
+     *     At most write_queue_max_size notifications are in flight, see {@link LayerWriteStream}.
+     * </p>
+     * @return Notification stream, notifications require String[] recipients, JsonObject notification {String title, String text, (optional) String sound}
+     */
+    public LayerWriteStream postNotificationStream() {
+        return new LayerWriteStream((notification, handler) ->
+                dispatch(LayerEndpoint.POST_NOTIFICATION, template.notifications(), null, Buffer.buffer(notification.encode()), handler), writeQueueMaxSize);
+    }
+
+    /**
+     * Streams all conversations for a user, sorted by last message.
+     * <p>
+     *     Pages are fetched with from_id as the stream is consumed, pause the stream to stop fetching.
+     * </p>
+     * @param user_ID User id for which conversations will be requested
+     * @return Stream of conversations, fails with LayerServerException on HTTP errors
+     */
+    public ReadStream<JsonObject> getAllConversationsAsUser(String user_ID) {
+        return pages(LayerEndpoint.GET_CONVERSATIONS_AS_USER, template.userConversationsByLastMessage(user_ID), null);
+    }
+
+    /**
+     * Creates a local view of the conversations of a user, kept current by incremental refreshes.
+     * <p>
+     *     Refreshes read only the conversations with new messages since the previous one and emit add and update
+     *     deltas, see {@link LayerConversationSync}.
+     * </p>
+     * @param user_ID User id for which conversations will be synced
+     * @return Sync of the conversations, empty until refreshed
+     */
+    public LayerConversationSync syncConversationsAsUser(String user_ID) {
+        return new LayerConversationSync(this, template.userConversationsByLastMessage(user_ID), pageSize, syncPageSize);
+    }
+
+    /**
+     * Streams all messages in a conversation, newest first. Messages are retrieved as server, NOT USER
+     * <p>
+     *     Pages are fetched with from_id as the stream is consumed, pause the stream to stop fetching.
+     * </p>
+     * @param conversation_UUID Conversation UUID for the requested conversation
+     * @return Stream of messages, fails with LayerServerException on HTTP errors
+     */
+    public ReadStream<JsonObject> getAllConversationMessages(String conversation_UUID) {
+        return pages(LayerEndpoint.GET_CONVERSATION_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID);
+    }
+
+    /**
+     * Streams all messages in a conversation as User, newest first.
+     * <p>
+     *     Pages are fetched with from_id as the stream is consumed, pause the stream to stop fetching.
+     * </p>
+     * @param conversation_UUID UUID specifying conversation
+     * @param user_ID User id for which conversation messages will be requested
+     * @return Stream of messages, fails with LayerServerException on HTTP errors
+     */
+    public ReadStream<JsonObject> getAllConversationMessagesAsUser(String conversation_UUID, String user_ID) {
+        return pages(LayerEndpoint.GET_CONVERSATION_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID);
+    }
+
+    /**
+     * Gets 100 conversations for authenticated user, emitting each conversation as soon as it has been received.
+     * <p>
+     *     The response body is parsed as it arrives, memory use is bounded by one conversation rather than the page.
+     *     Pausing the stream pauses the response.
+     * </p>
+     * @param handler Receives the conversation stream, fails with LayerServerException on HTTP errors
+     * @param user_ID User id for which conversations will be requested
+     */
+    public void getConversationsAsUserStream(Handler<AsyncResult<ReadStream<JsonObject>>> handler, String user_ID) {
+        elements(LayerEndpoint.GET_CONVERSATIONS_AS_USER, template.userConversationsByLastMessage(user_ID), null, handler);
+    }
+
+    /**
+     * Gets the last 100 messages in a conversation, emitting each message as soon as it has been received.
+     * Messages are retrieved as server, NOT USER
+     * <p>
+     *     The response body is parsed as it arrives, memory use is bounded by one message rather than the page.
+     *     Pausing the stream pauses the response.
+     * </p>
+     * @param handler Receives the message stream, fails with LayerServerException on HTTP errors
+     * @param conversation_UUID Conversation UUID for the requested conversation
+     */
+    public void getConversationMessageStream(Handler<AsyncResult<ReadStream<JsonObject>>> handler, String conversation_UUID) {
+        elements(LayerEndpoint.GET_CONVERSATION_MESSAGE, template.conversationMessages(conversation_UUID), conversation_UUID, handler);
+    }
+
+    /**
+     * Gets the last 100 messages in a conversation as User, emitting each message as soon as it has been received.
+     * <p>
+     *     The response body is parsed as it arrives, memory use is bounded by one message rather than the page.
+     *     Pausing the stream pauses the response.
+     * </p>
+     * @param handler Receives the message stream, fails with LayerServerException on HTTP errors
+     * @param conversation_UUID UUID specifying conversation
+     * @param user_ID User id for which conversation messages will be requested
+     */
+    public void getConversationMessageAsUserStream(Handler<AsyncResult<ReadStream<JsonObject>>> handler, String conversation_UUID, String user_ID) {
+        elements(LayerEndpoint.GET_CONVERSATION_MESSAGE_AS_USER, template.userConversationMessages(conversation_UUID, user_ID), conversation_UUID, handler);
+    }
+
+    /**
+     * Returns response cache counters, use them to size the cache.
+     * @return size, max_entries, hits, misses, revalidations, evictions and invalidations. Empty if the cache is disabled
+     */
+    public JsonObject getCacheStats() {
+        return cache == null ? new JsonObject() : cache.stats();
+    }
+
+    /**
+     * Returns number of calls served by the response of an identical GET that was already in flight.
+     * @return Number of coalesced calls, 0 if coalescing is disabled
+     */
+    public long getCoalescedRequests() {
+        return coalescing == null ? 0 : coalescing.coalesced();
+    }
+
+    /**
+     * Returns outbox counters.
+     * @return pending, appended, acknowledged, forces, moved, the messages copied forward when old segments were
+     *         compacted, segments, skipped, the records this version cannot read, replayed, the messages left from an
+     *         earlier run, and redelivered, the times one was sent again. Empty if the outbox is disabled
+     */
+    public JsonObject getOutboxStats() {
+        return outbox == null ? new JsonObject() : outbox.stats();
+    }
+
+    /**
+     * Returns idempotency counters.
+     * @return keyed posts, generated keys, sent posts of a key, collapsed posts that waited for a post in flight,
+     *         replayed posts answered from the window and entries kept. Empty if disabled
+     */
+    public JsonObject getIdempotencyStats() {
+        return idempotency == null ? new JsonObject() : idempotency.stats();
+    }
+
+    /**
+     * Returns the local store of the conversations and messages this client has read or posted.
+     * @return Store, null if it is disabled
+     */
+    public LayerMessageStore getMessageStore() {
+        return store;
+    }
+
+    /**
+     * Returns compression counters.
+     * @return requests_compressed, request_bytes and request_compressed_bytes of the compressed requests, responses_inflated,
+     *         response_compressed_bytes and response_bytes, request_ratio and response_ratio of uncompressed to compressed
+     *         bytes, compress_cpu_ms and inflate_cpu_ms. Empty if compression is disabled
+     */
+    public JsonObject getCompressionStats() {
+        return compression == null ? new JsonObject() : compression.stats();
+    }
+
+    /**
+     * Returns per conversation ordering counters.
+     * @return conversations with a post in flight, queued posts and ordered, the posts that waited for an earlier
+     *         one. Empty if messages are not ordered
+     */
+    public JsonObject getOrderingStats() {
+        return ordering == null ? new JsonObject() : ordering.stats();
+    }
+
+    /**
+     * Returns client side rate limit counters.
+     * @return queued, throttled (429 responses), rejected and the current rate of every limit. Empty if no rate limit is set
+     */
+    public JsonObject getRateLimitStats() {
+        return rateLimiting == null ? new JsonObject() : rateLimiting.stats();
+    }
+
+    /**
+     * Returns adaptive concurrency limit counters.
+     * @return limit, in_flight, queued, rejected, rtt_ms and long_rtt_ms. Empty if the adaptive concurrency limit is disabled
+     */
+    public JsonObject getConcurrencyStats() {
+        return concurrencyLimiting == null ? new JsonObject() : concurrencyLimiting.stats();
+    }
+
+    /**
+     * Returns retry and hedging counters.
+     * @return retries, hedges, hedge_wins and budget_exhausted. Empty if retries and hedging are disabled
+     */
+    public JsonObject getRetryStats() {
+        return retrying == null ? new JsonObject() : retrying.stats();
+    }
+
+    /**
+     * Returns circuit breaker states.
+     * @return closed, open or half_open per endpoint family. Empty if circuit breakers are disabled
+     */
+    public JsonObject getCircuitBreakerStates() {
+        return circuitBreaking == null ? new JsonObject() : circuitBreaking.states();
+    }
+
+    /**
+     * Returns a snapshot of the client's metrics.
+     * <p>
+     *     endpoints holds, per client method: calls, calls_in_flight, requests sent to Layer, in_flight, failed,
+     *     status code counts, request_bytes, response_bytes and the latency, wait and handler histograms.
+     *     latency is the time to response headers, wait the time before the request was sent, handler the time
+     *     spent in the response handler. The other entries are the counters of the enabled features.
+     * </p>
+     * @return Metrics, endpoints is left out if metrics are disabled
+     */
+    public JsonObject getMetrics() {
+        JsonObject snapshot = new JsonObject();
+        if (metrics != null) {
+            snapshot.put("endpoints", metrics.snapshot());
+        }
+        if (cache != null) {
+            snapshot.put("cache", cache.stats());
+        }
+        if (coalescing != null) {
+            snapshot.put("coalesced", coalescing.coalesced());
+        }
+        if (outbox != null) {
+            snapshot.put("outbox", outbox.stats());
+        }
+        if (idempotency != null) {
+            snapshot.put("idempotency", idempotency.stats());
+        }
+        if (store != null) {
+            snapshot.put("store", store.getStats());
+        }
+        if (compression != null) {
+            snapshot.put("compression", compression.stats());
+        }
+        if (ordering != null) {
+            snapshot.put("ordering", ordering.stats());
+        }
+        if (retrying != null) {
+            snapshot.put("retry", retrying.stats());
+        }
+        if (circuitBreaking != null) {
+            snapshot.put("circuit_breakers", circuitBreaking.states());
+        }
+        if (rateLimiting != null) {
+            snapshot.put("rate_limit", rateLimiting.stats());
+        }
+        if (concurrencyLimiting != null) {
+            snapshot.put("concurrency", concurrencyLimiting.stats());
+        }
+        if (shards != null) {
+            snapshot.put("shards", shards.shards());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Stops publishing metrics and closes the outbox and the message store. Requests in flight complete normally,
+     * messages in flight stay in the outbox. The store can still be read.
+     * <p>
+     *     A client created with {@link #createSharded} also closes its HttpClients, a HttpClient passed to a
+     *     constructor is left open.
+     * </p>
+     */
+    public void close() {
+        if (metricsTimer != -1) {
+            vertx.cancelTimer(metricsTimer);
+        }
+        if (shards != null) {
+            shards.close();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+        if (store != null) {
+            store.close();
+        }
     }
 }
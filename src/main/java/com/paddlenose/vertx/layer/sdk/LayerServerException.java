@@ -0,0 +1,52 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.VertxException;
+
+/**
+ * Failure of a Layer call.
+ * <p>
+ *     Carries the HTTP status code when Layer answered with an unexpected status,
+ *     status code is 0 when the call failed before a response was received.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public class LayerServerException extends VertxException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * @param statusCode HTTP status code returned by Layer
+     * @param message Status message returned by Layer
+     */
+    public LayerServerException(int statusCode, String message) {
+        super(statusCode + " " + message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @param message Reason the call failed
+     */
+    public LayerServerException(String message) {
+        super(message);
+        this.statusCode = 0;
+    }
+
+    /**
+     * @param message Reason the call failed
+     * @param cause Underlying failure
+     */
+    public LayerServerException(String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = 0;
+    }
+
+    /**
+     * Returns HTTP status code
+     * @return HTTP status code, 0 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -1,5 +1,6 @@
 package com.paddlenose.vertx.layer.sdk;
 
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.json.JsonObject;
 
 /**
@@ -9,6 +10,126 @@ import io.vertx.core.json.JsonObject;
  */
 @SuppressWarnings("WeakerAccess")
 public class LayerServerOptions {
+    /**
+     * Default items per page, the largest page Layer returns
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Default time to live of cached responses in milliseconds
+     */
+    public static final long DEFAULT_CACHE_TTL = 5000;
+
+    /**
+     * Default maximum number of requests waiting for the rate limit
+     */
+    public static final int DEFAULT_RATE_LIMIT_QUEUE_SIZE = 10000;
+
+    /**
+     * Default highest adaptive concurrency limit
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 100;
+
+    /**
+     * Default maximum number of requests waiting for the concurrency limit
+     */
+    public static final int DEFAULT_CONCURRENCY_QUEUE_SIZE = 1000;
+
+    /**
+     * Default backoff before the first retry in milliseconds
+     */
+    public static final long DEFAULT_RETRY_BACKOFF = 50;
+
+    /**
+     * Default maximum backoff between retries in milliseconds
+     */
+    public static final long DEFAULT_RETRY_MAX_BACKOFF = 2000;
+
+    /**
+     * Default retries and hedges allowed per 100 requests
+     */
+    public static final double DEFAULT_RETRY_BUDGET = 10;
+
+    /**
+     * Default calls in the window of a circuit breaker
+     */
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW = 20;
+
+    /**
+     * Default failure rate in percent that opens a circuit breaker
+     */
+    public static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+
+    /**
+     * Default slow-call rate in percent that opens a circuit breaker
+     */
+    public static final double DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE = 80;
+
+    /**
+     * Default duration in milliseconds after which a call is slow
+     */
+    public static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 5000;
+
+    /**
+     * Default duration in milliseconds a circuit breaker stays open
+     */
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 10000;
+
+    /**
+     * Default event bus address of circuit breaker state changes
+     */
+    public static final String DEFAULT_CIRCUIT_BREAKER_ADDRESS = "layer.circuit_breaker";
+
+    /**
+     * Default interval in milliseconds between metrics published on the event bus
+     */
+    public static final long DEFAULT_METRICS_PUBLISH_INTERVAL = 10000;
+
+    /**
+     * Default event bus address of metrics
+     */
+    public static final String DEFAULT_METRICS_ADDRESS = "layer.metrics";
+
+    /**
+     * Default number of connections to Layer, the max pool size of a Vert.x HttpClient
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = HttpClientOptions.DEFAULT_MAX_POOL_SIZE;
+
+    /**
+     * Default number of requests in flight per connection when pipelining
+     */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 10;
+
+    /**
+     * Default number of requests in flight per post stream
+     */
+    public static final int DEFAULT_WRITE_QUEUE_MAX_SIZE = 100;
+
+    /**
+     * Default size in bytes of an outbox segment file
+     */
+    public static final int DEFAULT_OUTBOX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default size in bytes of a message store segment file
+     */
+    public static final int DEFAULT_STORE_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default milliseconds a post answered under an idempotency key is remembered
+     */
+    public static final long DEFAULT_IDEMPOTENCY_WINDOW = 60000;
+
+    /**
+     * Default number of answered idempotency keys remembered
+     */
+    public static final int DEFAULT_IDEMPOTENCY_MAX_ENTRIES = 10000;
+
+    /**
+     * Default items on the first page of an incremental conversation sync
+     */
+    public static final int DEFAULT_SYNC_PAGE_SIZE = 10;
+
     private JsonObject options;
 
     /**
@@ -61,6 +182,853 @@ public class LayerServerOptions {
         return options;
     }
 
+    /**
+     * Set page size used when streaming conversations and messages
+     * @param layer_page_size Items per page, at most 100
+     * @return Current options
+     */
+    public JsonObject setPageSize(int layer_page_size){
+        this.options.put("layer_page_size", layer_page_size);
+        return options;
+    }
+
+    /**
+     * Returns page size used when streaming conversations and messages
+     * @return Items per page, defaults to {@link #DEFAULT_PAGE_SIZE}
+     */
+    public int getPageSize() {
+        return options.getInteger("layer_page_size", DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Enables the response cache for getConversation, getConversationMessage, getConversationMessageAsUser
+     * and getConversationsAsUser
+     * @param cache_max_entries Maximum number of cached responses, 0 disables the cache
+     * @return Current options
+     */
+    public JsonObject setCacheMaxEntries(int cache_max_entries){
+        this.options.put("cache_max_entries", cache_max_entries);
+        return options;
+    }
+
+    /**
+     * Returns maximum number of cached responses
+     * @return Maximum number of cached responses, 0 if the cache is disabled
+     */
+    public int getCacheMaxEntries() {
+        return options.getInteger("cache_max_entries", 0);
+    }
+
+    /**
+     * Set time to live of cached responses for one endpoint
+     * @param endpoint Name of the client method, for example getConversation
+     * @param ttl_ms Time to live in milliseconds, 0 disables caching of the endpoint
+     * @return Current options
+     */
+    public JsonObject setCacheTtl(String endpoint, long ttl_ms){
+        JsonObject ttls = options.getJsonObject("cache_ttl");
+        if (ttls == null) {
+            ttls = new JsonObject();
+            options.put("cache_ttl", ttls);
+        }
+        ttls.put(endpoint, ttl_ms);
+        return options;
+    }
+
+    /**
+     * Returns time to live of cached responses for one endpoint
+     * @param endpoint Name of the client method, for example getConversation
+     * @return Time to live in milliseconds, defaults to {@link #DEFAULT_CACHE_TTL}
+     */
+    public long getCacheTtl(String endpoint) {
+        JsonObject ttls = options.getJsonObject("cache_ttl");
+        return ttls == null ? DEFAULT_CACHE_TTL : ttls.getLong(endpoint, DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * Enables coalescing of GET requests, identical GETs sent while one is in flight share its response
+     * @param coalesce_requests True to coalesce identical GET requests
+     * @return Current options
+     */
+    public JsonObject setCoalesceRequests(boolean coalesce_requests){
+        this.options.put("coalesce_requests", coalesce_requests);
+        return options;
+    }
+
+    /**
+     * Returns if identical GET requests are coalesced
+     * @return True if identical GET requests are coalesced, defaults to false
+     */
+    public boolean getCoalesceRequests() {
+        return options.getBoolean("coalesce_requests", false);
+    }
+
+    /**
+     * Limits requests over all endpoints. Requires a LayerServerClient created with, or on, a Vertx instance
+     * @param requests_per_second Requests per second, 0 disables the global limit
+     * @return Current options
+     */
+    public JsonObject setRateLimit(double requests_per_second){
+        this.options.put("rate_limit", requests_per_second);
+        return options;
+    }
+
+    /**
+     * Returns global rate limit
+     * @return Requests per second over all endpoints, 0 if not limited
+     */
+    public double getRateLimit() {
+        return options.getDouble("rate_limit", 0d);
+    }
+
+    /**
+     * Limits requests to one endpoint family. Requires a LayerServerClient created with, or on, a Vertx instance
+     * @param family Endpoint family: conversations, messages, announcements, notifications or content
+     * @param requests_per_second Requests per second, 0 disables the limit of the family
+     * @return Current options
+     */
+    public JsonObject setRateLimit(String family, double requests_per_second){
+        JsonObject limits = options.getJsonObject("rate_limits");
+        if (limits == null) {
+            limits = new JsonObject();
+            options.put("rate_limits", limits);
+        }
+        limits.put(family, requests_per_second);
+        return options;
+    }
+
+    /**
+     * Returns rate limit of one endpoint family
+     * @param family Endpoint family: conversations, messages, announcements, notifications or content
+     * @return Requests per second, 0 if not limited
+     */
+    public double getRateLimit(String family) {
+        JsonObject limits = options.getJsonObject("rate_limits");
+        return limits == null ? 0d : limits.getDouble(family, 0d);
+    }
+
+    /**
+     * Set maximum number of requests waiting for the rate limit, further requests fail
+     * @param rate_limit_queue_size Maximum number of waiting requests
+     * @return Current options
+     */
+    public JsonObject setRateLimitQueueSize(int rate_limit_queue_size){
+        this.options.put("rate_limit_queue_size", rate_limit_queue_size);
+        return options;
+    }
+
+    /**
+     * Returns maximum number of requests waiting for the rate limit
+     * @return Maximum number of waiting requests, defaults to {@link #DEFAULT_RATE_LIMIT_QUEUE_SIZE}
+     */
+    public int getRateLimitQueueSize() {
+        return options.getInteger("rate_limit_queue_size", DEFAULT_RATE_LIMIT_QUEUE_SIZE);
+    }
+
+    /**
+     * Enables the adaptive concurrency limit, requests in flight are limited by how Layer's latency responds to load
+     * @param adaptive_concurrency True to limit requests in flight
+     * @return Current options
+     */
+    public JsonObject setAdaptiveConcurrency(boolean adaptive_concurrency){
+        this.options.put("adaptive_concurrency", adaptive_concurrency);
+        return options;
+    }
+
+    /**
+     * Returns if requests in flight are limited adaptively
+     * @return True if the adaptive concurrency limit is enabled, defaults to false
+     */
+    public boolean getAdaptiveConcurrency() {
+        return options.getBoolean("adaptive_concurrency", false);
+    }
+
+    /**
+     * Set highest adaptive concurrency limit, keep it at or below the max pool size of the HttpClient
+     * @param max_concurrency Highest number of requests in flight
+     * @return Current options
+     */
+    public JsonObject setMaxConcurrency(int max_concurrency){
+        this.options.put("max_concurrency", max_concurrency);
+        return options;
+    }
+
+    /**
+     * Returns highest adaptive concurrency limit
+     * @return Highest number of requests in flight, defaults to {@link #DEFAULT_MAX_CONCURRENCY}
+     */
+    public int getMaxConcurrency() {
+        return options.getInteger("max_concurrency", DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Set maximum number of requests waiting for the concurrency limit, further requests fail at once
+     * @param concurrency_queue_size Maximum number of waiting requests, 0 rejects every request above the limit
+     * @return Current options
+     */
+    public JsonObject setConcurrencyQueueSize(int concurrency_queue_size){
+        this.options.put("concurrency_queue_size", concurrency_queue_size);
+        return options;
+    }
+
+    /**
+     * Returns maximum number of requests waiting for the concurrency limit
+     * @return Maximum number of waiting requests, defaults to {@link #DEFAULT_CONCURRENCY_QUEUE_SIZE}
+     */
+    public int getConcurrencyQueueSize() {
+        return options.getInteger("concurrency_queue_size", DEFAULT_CONCURRENCY_QUEUE_SIZE);
+    }
+
+    /**
+     * Set maximum attempts of GET requests that fail to connect, are dropped or answered with 502, 503 or 504.
+     * Requires a LayerServerClient created with, or on, a Vertx instance
+     * @param retry_max_attempts Maximum attempts, the first included, 1 disables retries
+     * @return Current options
+     */
+    public JsonObject setRetryMaxAttempts(int retry_max_attempts){
+        this.options.put("retry_max_attempts", retry_max_attempts);
+        return options;
+    }
+
+    /**
+     * Returns maximum attempts of GET requests
+     * @return Maximum attempts, the first included, defaults to 1
+     */
+    public int getRetryMaxAttempts() {
+        return options.getInteger("retry_max_attempts", 1);
+    }
+
+    /**
+     * Set backoff before the first retry, doubled for every further retry and jittered
+     * @param retry_backoff_ms Backoff in milliseconds
+     * @return Current options
+     */
+    public JsonObject setRetryBackoff(long retry_backoff_ms){
+        this.options.put("retry_backoff", retry_backoff_ms);
+        return options;
+    }
+
+    /**
+     * Returns backoff before the first retry
+     * @return Backoff in milliseconds, defaults to {@link #DEFAULT_RETRY_BACKOFF}
+     */
+    public long getRetryBackoff() {
+        return options.getLong("retry_backoff", DEFAULT_RETRY_BACKOFF);
+    }
+
+    /**
+     * Set maximum backoff between retries
+     * @param retry_max_backoff_ms Maximum backoff in milliseconds
+     * @return Current options
+     */
+    public JsonObject setRetryMaxBackoff(long retry_max_backoff_ms){
+        this.options.put("retry_max_backoff", retry_max_backoff_ms);
+        return options;
+    }
+
+    /**
+     * Returns maximum backoff between retries
+     * @return Maximum backoff in milliseconds, defaults to {@link #DEFAULT_RETRY_MAX_BACKOFF}
+     */
+    public long getRetryMaxBackoff() {
+        return options.getLong("retry_max_backoff", DEFAULT_RETRY_MAX_BACKOFF);
+    }
+
+    /**
+     * Set share of traffic that may be retries and hedges
+     * @param retry_budget_percent Retries and hedges allowed per 100 requests
+     * @return Current options
+     */
+    public JsonObject setRetryBudget(double retry_budget_percent){
+        this.options.put("retry_budget", retry_budget_percent);
+        return options;
+    }
+
+    /**
+     * Returns share of traffic that may be retries and hedges
+     * @return Retries and hedges allowed per 100 requests, defaults to {@link #DEFAULT_RETRY_BUDGET}
+     */
+    public double getRetryBudget() {
+        return options.getDouble("retry_budget", DEFAULT_RETRY_BUDGET);
+    }
+
+    /**
+     * Enables hedging of getConversation, getConversationMessage and getConversationsAsUser, a second request is sent
+     * when the first has not answered within the observed 95th percentile latency.
+     * Requires a LayerServerClient created with, or on, a Vertx instance
+     * @param hedging True to hedge read-only requests
+     * @return Current options
+     */
+    public JsonObject setHedging(boolean hedging){
+        this.options.put("hedging", hedging);
+        return options;
+    }
+
+    /**
+     * Returns if read-only requests are hedged
+     * @return True if read-only requests are hedged, defaults to false
+     */
+    public boolean getHedging() {
+        return options.getBoolean("hedging", false);
+    }
+
+    /**
+     * Enables a circuit breaker per endpoint family, calls fail with LayerCircuitOpenException while it is open.
+     * Requires a LayerServerClient created with, or on, a Vertx instance
+     * @param circuit_breaker True to enable circuit breakers
+     * @return Current options
+     */
+    public JsonObject setCircuitBreaker(boolean circuit_breaker){
+        this.options.put("circuit_breaker", circuit_breaker);
+        return options;
+    }
+
+    /**
+     * Returns if circuit breakers are enabled
+     * @return True if circuit breakers are enabled, defaults to false
+     */
+    public boolean getCircuitBreaker() {
+        return options.getBoolean("circuit_breaker", false);
+    }
+
+    /**
+     * Set number of recent calls the failure and slow-call rates are computed over
+     * @param circuit_breaker_window Calls in the window
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerWindow(int circuit_breaker_window){
+        this.options.put("circuit_breaker_window", circuit_breaker_window);
+        return options;
+    }
+
+    /**
+     * Returns number of recent calls the rates are computed over
+     * @return Calls in the window, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_WINDOW}
+     */
+    public int getCircuitBreakerWindow() {
+        return options.getInteger("circuit_breaker_window", DEFAULT_CIRCUIT_BREAKER_WINDOW);
+    }
+
+    /**
+     * Set failure rate that opens a circuit breaker, calls without response or with 5xx status fail
+     * @param circuit_breaker_failure_rate Failure rate in percent
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerFailureRate(double circuit_breaker_failure_rate){
+        this.options.put("circuit_breaker_failure_rate", circuit_breaker_failure_rate);
+        return options;
+    }
+
+    /**
+     * Returns failure rate that opens a circuit breaker
+     * @return Failure rate in percent, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE}
+     */
+    public double getCircuitBreakerFailureRate() {
+        return options.getDouble("circuit_breaker_failure_rate", DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE);
+    }
+
+    /**
+     * Set slow-call rate that opens a circuit breaker
+     * @param circuit_breaker_slow_call_rate Slow-call rate in percent
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerSlowCallRate(double circuit_breaker_slow_call_rate){
+        this.options.put("circuit_breaker_slow_call_rate", circuit_breaker_slow_call_rate);
+        return options;
+    }
+
+    /**
+     * Returns slow-call rate that opens a circuit breaker
+     * @return Slow-call rate in percent, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE}
+     */
+    public double getCircuitBreakerSlowCallRate() {
+        return options.getDouble("circuit_breaker_slow_call_rate", DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE);
+    }
+
+    /**
+     * Set duration after which a call is slow, measured until the response headers arrive
+     * @param circuit_breaker_slow_call_duration_ms Duration in milliseconds
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerSlowCallDuration(long circuit_breaker_slow_call_duration_ms){
+        this.options.put("circuit_breaker_slow_call_duration", circuit_breaker_slow_call_duration_ms);
+        return options;
+    }
+
+    /**
+     * Returns duration after which a call is slow
+     * @return Duration in milliseconds, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION}
+     */
+    public long getCircuitBreakerSlowCallDuration() {
+        return options.getLong("circuit_breaker_slow_call_duration", DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION);
+    }
+
+    /**
+     * Set duration a circuit breaker stays open before it lets probe calls through
+     * @param circuit_breaker_open_duration_ms Duration in milliseconds
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerOpenDuration(long circuit_breaker_open_duration_ms){
+        this.options.put("circuit_breaker_open_duration", circuit_breaker_open_duration_ms);
+        return options;
+    }
+
+    /**
+     * Returns duration a circuit breaker stays open
+     * @return Duration in milliseconds, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION}
+     */
+    public long getCircuitBreakerOpenDuration() {
+        return options.getLong("circuit_breaker_open_duration", DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+    }
+
+    /**
+     * Set event bus address state changes of circuit breakers are published to
+     * @param circuit_breaker_address Event bus address
+     * @return Current options
+     */
+    public JsonObject setCircuitBreakerAddress(String circuit_breaker_address){
+        this.options.put("circuit_breaker_address", circuit_breaker_address);
+        return options;
+    }
+
+    /**
+     * Returns event bus address of circuit breaker state changes
+     * @return Event bus address, defaults to {@link #DEFAULT_CIRCUIT_BREAKER_ADDRESS}
+     */
+    public String getCircuitBreakerAddress() {
+        return options.getString("circuit_breaker_address", DEFAULT_CIRCUIT_BREAKER_ADDRESS);
+    }
+
+    /**
+     * Enables metrics: latency histograms, status codes, requests in flight and bytes per endpoint
+     * @param metrics True to record metrics
+     * @return Current options
+     */
+    public JsonObject setMetrics(boolean metrics){
+        this.options.put("metrics", metrics);
+        return options;
+    }
+
+    /**
+     * Returns if metrics are recorded
+     * @return True if metrics are recorded, defaults to false
+     */
+    public boolean getMetrics() {
+        return options.getBoolean("metrics", false);
+    }
+
+    /**
+     * Set interval between metrics published on the event bus. Requires a LayerServerClient created with, or on,
+     * a Vertx instance
+     * @param metrics_publish_interval_ms Interval in milliseconds, 0 disables publishing
+     * @return Current options
+     */
+    public JsonObject setMetricsPublishInterval(long metrics_publish_interval_ms){
+        this.options.put("metrics_publish_interval", metrics_publish_interval_ms);
+        return options;
+    }
+
+    /**
+     * Returns interval between metrics published on the event bus
+     * @return Interval in milliseconds, defaults to {@link #DEFAULT_METRICS_PUBLISH_INTERVAL}
+     */
+    public long getMetricsPublishInterval() {
+        return options.getLong("metrics_publish_interval", DEFAULT_METRICS_PUBLISH_INTERVAL);
+    }
+
+    /**
+     * Set event bus address metrics are published to
+     * @param metrics_address Event bus address
+     * @return Current options
+     */
+    public JsonObject setMetricsAddress(String metrics_address){
+        this.options.put("metrics_address", metrics_address);
+        return options;
+    }
+
+    /**
+     * Returns event bus address metrics are published to
+     * @return Event bus address, defaults to {@link #DEFAULT_METRICS_ADDRESS}
+     */
+    public String getMetricsAddress() {
+        return options.getString("metrics_address", DEFAULT_METRICS_ADDRESS);
+    }
+
+    /**
+     * Set if requests are pipelined, several requests are sent on a connection without waiting for the responses
+     * <p>
+     *     Pipelining multiplexes many calls over few connections, saving connections and TLS handshakes.
+     *     Apply the options to the HttpClientOptions with {@link #applyTo(HttpClientOptions)}.
+     *     Disabled, one request at a time is in flight per connection. <br>
+     *     A pipelined POST may be sent again if its connection closes before the response, and be posted twice
+     *     (RFC 7230, 6.3.2). A client from {@link LayerServerClient#createSharded} pipelines only GETs and sends the
+     *     other requests over connections without pipelining. A client given a pipelining HttpClient pipelines
+     *     every request, give a client that posts a HttpClient without pipelining.
+     * </p>
+     * @param pipelining True to pipeline requests
+     * @return Current options
+     */
+    public JsonObject setPipelining(boolean pipelining){
+        this.options.put("pipelining", pipelining);
+        return options;
+    }
+
+    /**
+     * Returns if requests are pipelined
+     * @return True if pipelining is enabled, defaults to false
+     */
+    public boolean getPipelining() {
+        return options.getBoolean("pipelining", false);
+    }
+
+    /**
+     * Set number of connections to Layer, per event loop for a client created with
+     * {@link LayerServerClient#createSharded}
+     * @param max_connections Maximum number of connections
+     * @return Current options
+     */
+    public JsonObject setMaxConnections(int max_connections){
+        this.options.put("max_connections", max_connections);
+        return options;
+    }
+
+    /**
+     * Returns number of connections to Layer
+     * @return Maximum number of connections, defaults to {@link #DEFAULT_MAX_CONNECTIONS}
+     */
+    public int getMaxConnections() {
+        return options.getInteger("max_connections", DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Set number of requests in flight per connection when pipelining, requests above
+     * max_connections * max_pipelined_requests wait, up to concurrency_queue_size
+     * @param max_pipelined_requests Requests in flight per connection
+     * @return Current options
+     */
+    public JsonObject setMaxPipelinedRequests(int max_pipelined_requests){
+        this.options.put("max_pipelined_requests", max_pipelined_requests);
+        return options;
+    }
+
+    /**
+     * Returns number of requests in flight per connection when pipelining
+     * @return Requests in flight per connection, defaults to {@link #DEFAULT_MAX_PIPELINED_REQUESTS}
+     */
+    public int getMaxPipelinedRequests() {
+        return options.getInteger("max_pipelined_requests", DEFAULT_MAX_PIPELINED_REQUESTS);
+    }
+
+    /**
+     * Set if the messages of a conversation are sent one at a time, in the order they were posted
+     * <p>
+     *     Messages to different conversations are still sent in parallel.
+     * </p>
+     * @param ordered_messages True to order messages per conversation
+     * @return Current options
+     */
+    public JsonObject setOrderedMessages(boolean ordered_messages){
+        this.options.put("ordered_messages", ordered_messages);
+        return options;
+    }
+
+    /**
+     * Returns if the messages of a conversation are sent in order
+     * @return True if messages are ordered per conversation, defaults to false
+     */
+    public boolean getOrderedMessages() {
+        return options.getBoolean("ordered_messages", false);
+    }
+
+    /**
+     * Set directory of the outbox, messages are written to it before they are sent and sent again after a restart
+     * until Layer acknowledges them
+     * @param outbox_directory Directory of the journal, created if missing. Not shared with another client
+     * @return Current options
+     */
+    public JsonObject setOutboxDirectory(String outbox_directory){
+        this.options.put("outbox_directory", outbox_directory);
+        return options;
+    }
+
+    /**
+     * Returns directory of the outbox
+     * @return Directory, null if the outbox is disabled
+     */
+    public String getOutboxDirectory() {
+        return options.getString("outbox_directory");
+    }
+
+    /**
+     * Set size of an outbox segment file, a message must fit in one segment
+     * @param outbox_segment_size Size in bytes
+     * @return Current options
+     */
+    public JsonObject setOutboxSegmentSize(int outbox_segment_size){
+        this.options.put("outbox_segment_size", outbox_segment_size);
+        return options;
+    }
+
+    /**
+     * Returns size of an outbox segment file
+     * @return Size in bytes, defaults to {@link #DEFAULT_OUTBOX_SEGMENT_SIZE}
+     */
+    public int getOutboxSegmentSize() {
+        return options.getInteger("outbox_segment_size", DEFAULT_OUTBOX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Set if messages are forced to disk before they are sent
+     * <p>
+     *     Forces are batched over the messages posted meanwhile. Without fsync the outbox survives a crash of the
+     *     process but not of the machine.
+     * </p>
+     * @param outbox_fsync True to force messages to disk
+     * @return Current options
+     */
+    public JsonObject setOutboxFsync(boolean outbox_fsync){
+        this.options.put("outbox_fsync", outbox_fsync);
+        return options;
+    }
+
+    /**
+     * Returns if messages are forced to disk before they are sent
+     * @return True if messages are forced to disk, defaults to true
+     */
+    public boolean getOutboxFsync() {
+        return options.getBoolean("outbox_fsync", true);
+    }
+
+    /**
+     * Set directory of the local message store, conversations and messages read or posted are written to it and
+     * can be read back from {@link LayerServerClient#getMessageStore()}, also after a restart
+     * @param store_directory Directory of the store, created if missing. Not shared with another client
+     * @return Current options
+     */
+    public JsonObject setStoreDirectory(String store_directory){
+        this.options.put("store_directory", store_directory);
+        return options;
+    }
+
+    /**
+     * Returns directory of the local message store
+     * @return Directory, null if the store is disabled
+     */
+    public String getStoreDirectory() {
+        return options.getString("store_directory");
+    }
+
+    /**
+     * Set size of a message store segment file, a conversation or message larger than a segment is not stored
+     * @param store_segment_size Size in bytes
+     * @return Current options
+     */
+    public JsonObject setStoreSegmentSize(int store_segment_size){
+        this.options.put("store_segment_size", store_segment_size);
+        return options;
+    }
+
+    /**
+     * Returns size of a message store segment file
+     * @return Size in bytes, defaults to {@link #DEFAULT_STORE_SEGMENT_SIZE}
+     */
+    public int getStoreSegmentSize() {
+        return options.getInteger("store_segment_size", DEFAULT_STORE_SEGMENT_SIZE);
+    }
+
+    /**
+     * Set how long a post answered with 2xx under an idempotency key is remembered, posts with the key get its
+     * response meanwhile instead of being sent
+     * @param idempotency_window_ms Window in milliseconds, 0 to disable deduplication by key
+     * @return Current options
+     */
+    public JsonObject setIdempotencyWindow(long idempotency_window_ms){
+        this.options.put("idempotency_window", idempotency_window_ms);
+        return options;
+    }
+
+    /**
+     * Returns how long a post answered under an idempotency key is remembered
+     * @return Window in milliseconds, defaults to {@link #DEFAULT_IDEMPOTENCY_WINDOW}
+     */
+    public long getIdempotencyWindow() {
+        return options.getLong("idempotency_window", DEFAULT_IDEMPOTENCY_WINDOW);
+    }
+
+    /**
+     * Set number of answered idempotency keys remembered, the oldest are forgotten first
+     * @param idempotency_max_entries Keys remembered
+     * @return Current options
+     */
+    public JsonObject setIdempotencyMaxEntries(int idempotency_max_entries){
+        this.options.put("idempotency_max_entries", idempotency_max_entries);
+        return options;
+    }
+
+    /**
+     * Returns number of answered idempotency keys remembered
+     * @return Keys, defaults to {@link #DEFAULT_IDEMPOTENCY_MAX_ENTRIES}
+     */
+    public int getIdempotencyMaxEntries() {
+        return options.getInteger("idempotency_max_entries", DEFAULT_IDEMPOTENCY_MAX_ENTRIES);
+    }
+
+    /**
+     * Set if posts without an idempotency key are sent with a generated one, so Layer or a proxy in front of it
+     * can recognize a post that reaches it twice
+     * @param generate_idempotency_keys True to generate keys
+     * @return Current options
+     */
+    public JsonObject setGenerateIdempotencyKeys(boolean generate_idempotency_keys){
+        this.options.put("generate_idempotency_keys", generate_idempotency_keys);
+        return options;
+    }
+
+    /**
+     * Returns if posts without an idempotency key are sent with a generated one
+     * @return True if keys are generated, defaults to false
+     */
+    public boolean getGenerateIdempotencyKeys() {
+        return options.getBoolean("generate_idempotency_keys", false);
+    }
+
+    /**
+     * Set if responses may be compressed, requests accept gzip and deflate and compressed responses are inflated
+     * as they arrive
+     * @param compression True to accept compressed responses
+     * @return Current options
+     */
+    public JsonObject setCompression(boolean compression){
+        this.options.put("compression", compression);
+        return options;
+    }
+
+    /**
+     * Returns if responses may be compressed
+     * @return True if compressed responses are accepted, defaults to false
+     */
+    public boolean getCompression() {
+        return options.getBoolean("compression", false);
+    }
+
+    /**
+     * Set size from which POST bodies are sent gzipped with Content-Encoding gzip
+     * <p>
+     *     Bodies that gzip does not make smaller are sent as they are. Large recipient lists compress well, a
+     *     threshold around 1024 bytes leaves small messages alone.
+     * </p>
+     * @param compression_threshold Smallest body that is compressed in bytes, 0 disables request compression
+     * @return Current options
+     */
+    public JsonObject setCompressionThreshold(int compression_threshold){
+        this.options.put("compression_threshold", compression_threshold);
+        return options;
+    }
+
+    /**
+     * Returns size from which POST bodies are gzipped
+     * @return Size in bytes, defaults to 0, requests are not compressed
+     */
+    public int getCompressionThreshold() {
+        return options.getInteger("compression_threshold", 0);
+    }
+
+    /**
+     * Set share of a {@link LayerTenantPool} this app gets while other apps wait too
+     * <p>
+     *     An app with weight 2 gets twice the requests in flight of an app with weight 1 when both have a backlog.
+     * </p>
+     * @param tenant_weight Weight, above 0
+     * @return Current options
+     */
+    public JsonObject setTenantWeight(double tenant_weight){
+        this.options.put("tenant_weight", tenant_weight);
+        return options;
+    }
+
+    /**
+     * Returns share of a {@link LayerTenantPool} this app gets
+     * @return Weight, defaults to 1
+     */
+    public double getTenantWeight() {
+        return options.getDouble("tenant_weight", 1d);
+    }
+
+    /**
+     * Set maximum number of requests in flight of this app in a {@link LayerTenantPool}, more wait in its queue
+     * of concurrency_queue_size requests
+     * @param tenant_max_in_flight Requests in flight, 0 for no cap besides that of the pool
+     * @return Current options
+     */
+    public JsonObject setTenantMaxInFlight(int tenant_max_in_flight){
+        this.options.put("tenant_max_in_flight", tenant_max_in_flight);
+        return options;
+    }
+
+    /**
+     * Returns maximum number of requests in flight of this app in a {@link LayerTenantPool}
+     * @return Requests in flight, defaults to 0, only the cap of the pool applies
+     */
+    public int getTenantMaxInFlight() {
+        return options.getInteger("tenant_max_in_flight", 0);
+    }
+
+    /**
+     * Set items on the first page of an incremental {@link LayerConversationSync} refresh
+     * <p>
+     *     An incremental refresh usually stops within its first page, a small page keeps unchanged conversations
+     *     from being downloaded. Later pages double in size, up to layer_page_size.
+     * </p>
+     * @param sync_page_size Items on the first page, at most 100
+     * @return Current options
+     */
+    public JsonObject setSyncPageSize(int sync_page_size){
+        this.options.put("sync_page_size", sync_page_size);
+        return options;
+    }
+
+    /**
+     * Returns items on the first page of an incremental conversation sync
+     * @return Items, defaults to {@link #DEFAULT_SYNC_PAGE_SIZE}
+     */
+    public int getSyncPageSize() {
+        return options.getInteger("sync_page_size", DEFAULT_SYNC_PAGE_SIZE);
+    }
+
+    /**
+     * Set number of requests in flight per post stream, a stream is full when this many items are in flight or waiting
+     * @param write_queue_max_size Requests in flight
+     * @return Current options
+     */
+    public JsonObject setWriteQueueMaxSize(int write_queue_max_size){
+        this.options.put("write_queue_max_size", write_queue_max_size);
+        return options;
+    }
+
+    /**
+     * Returns number of requests in flight per post stream
+     * @return Requests in flight, defaults to {@link #DEFAULT_WRITE_QUEUE_MAX_SIZE}
+     */
+    public int getWriteQueueMaxSize() {
+        return options.getInteger("write_queue_max_size", DEFAULT_WRITE_QUEUE_MAX_SIZE);
+    }
+
+    /**
+     * Applies the connection options to the options of the HttpClient used by LayerServerClient
+     * <p>
+     *     Sets keep alive, pipelining and max pool size. With pipelining disabled the client uses HTTP/1.1 with
+     *     one request at a time in flight per connection.
+     * </p>
+     * @param clientOptions Options of the HttpClient
+     * @return The HttpClient options
+     */
+    public HttpClientOptions applyTo(HttpClientOptions clientOptions) {
+        return clientOptions
+                .setKeepAlive(true)
+                .setPipelining(getPipelining())
+                .setMaxPoolSize(getMaxConnections());
+    }
+
     /**
      * Returns options
      * @return Options
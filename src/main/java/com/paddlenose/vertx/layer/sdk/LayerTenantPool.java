@@ -0,0 +1,115 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves many Layer apps from one HttpClient, sharing its connections fairly between them.
+ * <p>
+ *     Every app registered with {@link #tenant(LayerServerOptions)} gets a LayerServerClient of its own, with its
+ *     own app id, token, cache, limits and metrics, but all of them send through one connection pool. At most
+ *     max_in_flight requests of all apps are in flight, while that many are, requests wait in the queue of their app
+ *     and are sent by weighted fair queuing, so an app with a backlog gets its tenant_weight share and cannot starve
+ *     the others. tenant_max_in_flight caps the requests in flight of a single app, and its rate_limit options cap
+ *     its request rate before it queues for the pool.
+ * </p>
+ * <pre>
+ * LayerTenantPool pool = new LayerTenantPool(vertx, httpClient, 64);
+ * pool.tenant(new LayerServerOptions(app_id, app_token));
+ * pool.get(app_id).getConversation(handler, conversation_UUID);
+ * </pre>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerTenantPool {
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final FairQueuingDispatcher scheduler;
+    private final Map<String, LayerServerClient> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * @param vertx Vertx instance the pool belongs to, runs timers of rate limiting, retries and hedging
+     * @param client A HttpClient, requires default host. Its max_pool_size should allow max_in_flight connections,
+     *               or max_in_flight / max_pipelined_requests with pipelining
+     * @param max_in_flight Requests in flight over all apps
+     */
+    public LayerTenantPool(Vertx vertx, HttpClient client, int max_in_flight) {
+        if (max_in_flight < 1) {
+            throw new IllegalArgumentException("max_in_flight must be at least 1");
+        }
+        this.vertx = vertx;
+        this.client = client;
+        this.scheduler = new FairQueuingDispatcher(new HttpClientDispatcher(client), max_in_flight);
+    }
+
+    /**
+     * Registers an app.
+     * <p>
+     *     Reads tenant_weight, tenant_max_in_flight and concurrency_queue_size, the number of requests of the app
+     *     that may wait for the pool before more are rejected with LayerServerException.
+     * </p>
+     * @param options Requires layer_app_id and layer_app_token
+     * @return Client of the app
+     * @throws IllegalArgumentException If the app is already registered
+     */
+    public LayerServerClient tenant(LayerServerOptions options) {
+        String app_id = options.getString("layer_app_id");
+        FairQueuingDispatcher.Tenant transport = scheduler.register(app_id, options.getTenantWeight(),
+                options.getTenantMaxInFlight(), options.getConcurrencyQueueSize());
+        LayerServerClient tenant;
+        try {
+            tenant = LayerServerClient.create(vertx, client, transport, options);
+        } catch (RuntimeException e) {
+            scheduler.remove(app_id);
+            throw e;
+        }
+        tenants.put(app_id, tenant);
+        return tenant;
+    }
+
+    /**
+     * Returns the client of an app.
+     * @param layer_app_id Layer app id
+     * @return Client of the app, null if it is not registered
+     */
+    public LayerServerClient get(String layer_app_id) {
+        return tenants.get(layer_app_id);
+    }
+
+    /**
+     * Removes an app and closes its client, its waiting requests fail.
+     * @param layer_app_id Layer app id
+     */
+    public void remove(String layer_app_id) {
+        LayerServerClient tenant = tenants.remove(layer_app_id);
+        scheduler.remove(layer_app_id);
+        if (tenant != null) {
+            tenant.close();
+        }
+    }
+
+    /**
+     * Returns the scheduling counters of the pool.
+     * @return in_flight and max_in_flight of the pool, and under tenants per app id its weight, in_flight,
+     *         queued, sent and rejected requests
+     */
+    public JsonObject getStats() {
+        return scheduler.stats();
+    }
+
+    /**
+     * Removes every app and closes its client. The HttpClient is not closed.
+     */
+    public void close() {
+        List<String> app_ids = new ArrayList<>(tenants.keySet());
+        for (String app_id : app_ids) {
+            remove(app_id);
+        }
+    }
+}
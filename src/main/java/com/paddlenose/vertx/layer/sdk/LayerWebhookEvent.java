@@ -0,0 +1,63 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A Layer webhook delivery, published on the event bus by {@link LayerWebhookServer}.
+ * <p>
+ *     Wraps the verified body. Id, type and creation time are read from its <code>event</code> object, the changed
+ *     resource is under the key of its kind, for instance <code>message</code>. Local consumers share one instance,
+ *     do not modify the payload.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerWebhookEvent {
+    private final JsonObject payload;
+    private final JsonObject event;
+
+    /**
+     * @param payload Webhook body, requires an event object with a type
+     */
+    LayerWebhookEvent(JsonObject payload) {
+        this.payload = payload;
+        this.event = payload.getJsonObject("event");
+    }
+
+    /**
+     * Returns event id, the same for every delivery of the event
+     * @return Event id, null if Layer sent none
+     */
+    public String getId() {
+        return event.getString("id");
+    }
+
+    /**
+     * Returns event type
+     * @return Type, for instance Message.created
+     */
+    public String getType() {
+        return event.getString("type");
+    }
+
+    /**
+     * Returns when the event happened
+     * @return ISO 8601 time, null if Layer sent none
+     */
+    public String getCreatedAt() {
+        return event.getString("created_at");
+    }
+
+    /**
+     * Returns webhook body
+     * @return Body with the event and the resource it concerns
+     */
+    public JsonObject getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return payload.encode();
+    }
+}
@@ -0,0 +1,45 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event bus codec of LayerWebhookEvent.
+ * <p>
+ *     Local consumers get the published instance, over the wire the payload is sent as length-prefixed JSON.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class LayerWebhookEventCodec implements MessageCodec<LayerWebhookEvent, LayerWebhookEvent> {
+    static final String NAME = "layer-webhook-event";
+
+    @Override
+    public void encodeToWire(Buffer buffer, LayerWebhookEvent event) {
+        byte[] encoded = event.getPayload().encode().getBytes(StandardCharsets.UTF_8);
+        buffer.appendInt(encoded.length).appendBytes(encoded);
+    }
+
+    @Override
+    public LayerWebhookEvent decodeFromWire(int pos, Buffer buffer) {
+        int length = buffer.getInt(pos);
+        return new LayerWebhookEvent(new JsonObject(buffer.getString(pos + 4, pos + 4 + length, "UTF-8")));
+    }
+
+    @Override
+    public LayerWebhookEvent transform(LayerWebhookEvent event) {
+        return event;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -0,0 +1,230 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Options for LayerWebhookServer.
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public class LayerWebhookOptions {
+    /**
+     * Default port webhooks are received on
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    /**
+     * Default interface webhooks are received on
+     */
+    public static final String DEFAULT_HOST = "0.0.0.0";
+
+    /**
+     * Default path webhooks are received on
+     */
+    public static final String DEFAULT_PATH = "/";
+
+    /**
+     * Default event bus address events are published on
+     */
+    public static final String DEFAULT_ADDRESS = "layer.webhook";
+
+    /**
+     * Default duration in milliseconds a delivered event id is remembered
+     */
+    public static final long DEFAULT_DEDUP_WINDOW = 10 * 60 * 1000;
+
+    /**
+     * Default maximum number of event ids remembered
+     */
+    public static final int DEFAULT_DEDUP_MAX_ENTRIES = 100000;
+
+    /**
+     * Default largest webhook body accepted in bytes
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    private JsonObject options;
+
+    /**
+     * Constructor creates options
+     * <p>
+     *     Requires String webhook_secret as JsonObject
+     * </p>
+     * @param options the options, contains: String webhook_secret
+     */
+    public LayerWebhookOptions(JsonObject options){
+        this.options = options;
+    }
+
+    /**
+     * Constructor, creates options from arguments
+     * @param webhook_secret Secret given when the webhook was registered with Layer
+     */
+    public LayerWebhookOptions(String webhook_secret){
+        this.options = new JsonObject().put("webhook_secret", webhook_secret);
+    }
+
+    /**
+     * Returns secret the webhook bodies are signed with
+     * @return Secret, null if not set
+     */
+    public String getWebhookSecret() {
+        return options.getString("webhook_secret");
+    }
+
+    /**
+     * Set port webhooks are received on
+     * @param port Port
+     * @return Current options
+     */
+    public JsonObject setPort(int port){
+        this.options.put("port", port);
+        return options;
+    }
+
+    /**
+     * Returns port webhooks are received on
+     * @return Port, defaults to {@link #DEFAULT_PORT}
+     */
+    public int getPort() {
+        return options.getInteger("port", DEFAULT_PORT);
+    }
+
+    /**
+     * Set interface webhooks are received on
+     * @param host Host name or address
+     * @return Current options
+     */
+    public JsonObject setHost(String host){
+        this.options.put("host", host);
+        return options;
+    }
+
+    /**
+     * Returns interface webhooks are received on
+     * @return Host, defaults to {@link #DEFAULT_HOST}
+     */
+    public String getHost() {
+        return options.getString("host", DEFAULT_HOST);
+    }
+
+    /**
+     * Set path webhooks are received on, requests to other paths get 404
+     * @param path Path, the URL registered with Layer
+     * @return Current options
+     */
+    public JsonObject setPath(String path){
+        this.options.put("path", path);
+        return options;
+    }
+
+    /**
+     * Returns path webhooks are received on
+     * @return Path, defaults to {@link #DEFAULT_PATH}
+     */
+    public String getPath() {
+        return options.getString("path", DEFAULT_PATH);
+    }
+
+    /**
+     * Set event bus address events are published on
+     * <p>
+     *     Every event is published on the address and on the address followed by a dot and the event type,
+     *     for instance layer.webhook.Message.created.
+     * </p>
+     * @param address Event bus address
+     * @return Current options
+     */
+    public JsonObject setAddress(String address){
+        this.options.put("address", address);
+        return options;
+    }
+
+    /**
+     * Returns event bus address events are published on
+     * @return Address, defaults to {@link #DEFAULT_ADDRESS}
+     */
+    public String getAddress() {
+        return options.getString("address", DEFAULT_ADDRESS);
+    }
+
+    /**
+     * Set number of HttpServers sharing the port, each on an event loop of its own
+     * @param instances Servers, one per core receives the most webhooks
+     * @return Current options
+     */
+    public JsonObject setInstances(int instances){
+        this.options.put("instances", instances);
+        return options;
+    }
+
+    /**
+     * Returns number of HttpServers sharing the port
+     * @return Servers, defaults to 1
+     */
+    public int getInstances() {
+        return options.getInteger("instances", 1);
+    }
+
+    /**
+     * Set duration an event id is remembered, a redelivery within it is acknowledged but not published
+     * @param dedup_window_ms Duration in milliseconds, 0 publishes every delivery
+     * @return Current options
+     */
+    public JsonObject setDedupWindow(long dedup_window_ms){
+        this.options.put("dedup_window_ms", dedup_window_ms);
+        return options;
+    }
+
+    /**
+     * Returns duration an event id is remembered
+     * @return Duration in milliseconds, defaults to {@link #DEFAULT_DEDUP_WINDOW}
+     */
+    public long getDedupWindow() {
+        return options.getLong("dedup_window_ms", DEFAULT_DEDUP_WINDOW);
+    }
+
+    /**
+     * Set maximum number of event ids remembered, the oldest are forgotten first
+     * @param dedup_max_entries Event ids
+     * @return Current options
+     */
+    public JsonObject setDedupMaxEntries(int dedup_max_entries){
+        this.options.put("dedup_max_entries", dedup_max_entries);
+        return options;
+    }
+
+    /**
+     * Returns maximum number of event ids remembered
+     * @return Event ids, defaults to {@link #DEFAULT_DEDUP_MAX_ENTRIES}
+     */
+    public int getDedupMaxEntries() {
+        return options.getInteger("dedup_max_entries", DEFAULT_DEDUP_MAX_ENTRIES);
+    }
+
+    /**
+     * Set largest webhook body accepted, larger bodies get 413
+     * @param max_body_size Size in bytes
+     * @return Current options
+     */
+    public JsonObject setMaxBodySize(int max_body_size){
+        this.options.put("max_body_size", max_body_size);
+        return options;
+    }
+
+    /**
+     * Returns largest webhook body accepted
+     * @return Size in bytes, defaults to {@link #DEFAULT_MAX_BODY_SIZE}
+     */
+    public int getMaxBodySize() {
+        return options.getInteger("max_body_size", DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * Returns options
+     * @return Options
+     */
+    public JsonObject getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,278 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+import javax.crypto.Mac;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives Layer webhooks and publishes them on the event bus.
+ * <p>
+ *     Bodies are hashed chunk by chunk as they arrive, with a HMAC-SHA1 Mac taken from a pool per event loop, and
+ *     decoded once the signature in the layer-webhook-signature header matches. Unsigned or wrongly signed bodies get
+ *     403 and are never decoded. A verified event is published as a {@link LayerWebhookEvent} on the address of the
+ *     options and on the address followed by a dot and the event type, then acknowledged with 200. An event whose id
+ *     was delivered within the dedup window is acknowledged but not published again. <br>
+ *     The verification challenge Layer sends with GET when the webhook is registered is echoed. <br>
+ *     With instances above 1 that many servers share the port, each on an event loop of its own.
+ * </p>
+ * <pre>
+ * vertx.eventBus().consumer("layer.webhook.Message.created", (Message&lt;LayerWebhookEvent&gt; message) -&gt;
+ *         handle(message.body().getPayload().getJsonObject("message")));
+ * new LayerWebhookServer(vertx, new LayerWebhookOptions(webhook_secret)).listen(result -&gt; { });
+ * </pre>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerWebhookServer {
+    /**
+     * Header with the hex HMAC-SHA1 of the body
+     */
+    public static final String SIGNATURE_HEADER = "layer-webhook-signature";
+
+    private final Vertx vertx;
+    private final LayerWebhookOptions options;
+    private final WebhookSignature signature;
+    private final WebhookDeduplicator deduplicator;
+    private final DeliveryOptions delivery = new DeliveryOptions().setCodecName(LayerWebhookEventCodec.NAME);
+    private final List<String> deployments = new ArrayList<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * @param vertx Vertx instance the servers are deployed on and events are published with
+     * @param options Requires webhook_secret
+     */
+    public LayerWebhookServer(Vertx vertx, LayerWebhookOptions options) {
+        if (options.getWebhookSecret() == null) {
+            throw new IllegalArgumentException("Webhooks require a webhook_secret");
+        }
+        this.vertx = vertx;
+        this.options = options;
+        this.signature = new WebhookSignature(options.getWebhookSecret());
+        this.deduplicator = options.getDedupWindow() > 0
+                ? new WebhookDeduplicator(TimeUnit.MILLISECONDS.toNanos(options.getDedupWindow()), options.getDedupMaxEntries())
+                : null;
+        try {
+            vertx.eventBus().registerCodec(new LayerWebhookEventCodec());
+        } catch (IllegalStateException e) {
+            // Registered by another server of this Vertx instance
+        }
+    }
+
+    /**
+     * Starts the servers.
+     * @param handler Called once every server listens, or with the first failure, after which none listens
+     */
+    public void listen(Handler<AsyncResult<Void>> handler) {
+        int instances = Math.max(1, options.getInstances());
+        AtomicInteger remaining = new AtomicInteger(instances);
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            vertx.deployVerticle(new Receiver(), result -> {
+                synchronized (deployments) {
+                    if (result.succeeded()) {
+                        deployments.add(result.result());
+                    } else {
+                        failures.add(result.cause());
+                    }
+                }
+                if (remaining.decrementAndGet() > 0) {
+                    return;
+                }
+                if (failures.isEmpty()) {
+                    handler.handle(Future.succeededFuture());
+                } else {
+                    close(closed -> handler.handle(Future.failedFuture(failures.get(0))));
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the servers.
+     * @param handler Called once every server stopped
+     */
+    public void close(Handler<AsyncResult<Void>> handler) {
+        List<String> ids;
+        synchronized (deployments) {
+            ids = new ArrayList<>(deployments);
+            deployments.clear();
+        }
+        if (ids.isEmpty()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(ids.size());
+        for (String id : ids) {
+            vertx.undeploy(id, result -> {
+                if (remaining.decrementAndGet() == 0) {
+                    handler.handle(Future.succeededFuture());
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the servers.
+     */
+    public void close() {
+        close(result -> {
+        });
+    }
+
+    /**
+     * Returns counters of the webhooks received.
+     * @return received requests, rejected signatures, malformed bodies, duplicates dropped, published events
+     *         and dedup_entries, the event ids remembered
+     */
+    public JsonObject getStats() {
+        return new JsonObject()
+                .put("received", received.get())
+                .put("rejected", rejected.get())
+                .put("malformed", malformed.get())
+                .put("duplicates", duplicates.get())
+                .put("published", published.get())
+                .put("dedup_entries", deduplicator == null ? 0 : deduplicator.size());
+    }
+
+    /**
+     * Signs a body as Layer does, to test consumers of webhooks.
+     * @param webhook_secret Webhook secret
+     * @param body Webhook body
+     * @return Value of the {@link #SIGNATURE_HEADER} header
+     */
+    public static String sign(String webhook_secret, Buffer body) {
+        return WebhookSignature.sign(webhook_secret, body.getBytes());
+    }
+
+    private void handle(HttpServerRequest request) {
+        if (!request.path().equals(options.getPath())) {
+            request.response().setStatusCode(404).end();
+            return;
+        }
+        if (request.method() == HttpMethod.GET) {
+            String challenge = request.getParam("verification_challenge");
+            request.response().setStatusCode(challenge == null ? 400 : 200).end(challenge == null ? "" : challenge);
+            return;
+        }
+        if (request.method() != HttpMethod.POST) {
+            request.response().setStatusCode(405).end();
+            return;
+        }
+        received.incrementAndGet();
+        String header = request.getHeader(SIGNATURE_HEADER);
+        if (header == null) {
+            rejected.incrementAndGet();
+            request.response().setStatusCode(403).end();
+            return;
+        }
+        int maxBodySize = options.getMaxBodySize();
+        Mac mac = signature.acquire();
+        Buffer body = Buffer.buffer(initialSize(request.getHeader("Content-Length"), maxBodySize));
+        boolean[] tooLarge = new boolean[1];
+        request.handler(chunk -> {
+            if (tooLarge[0]) {
+                return;
+            }
+            if (body.length() + chunk.length() > maxBodySize) {
+                tooLarge[0] = true;
+                return;
+            }
+            mac.update(chunk.getByteBuf().nioBuffer());
+            body.appendBuffer(chunk);
+        });
+        request.endHandler(v -> {
+            if (tooLarge[0]) {
+                signature.release(mac);
+                malformed.incrementAndGet();
+                request.response().setStatusCode(413).end();
+                return;
+            }
+            byte[] digest = mac.doFinal();
+            signature.release(mac);
+            if (!WebhookSignature.matches(digest, header)) {
+                rejected.incrementAndGet();
+                request.response().setStatusCode(403).end();
+                return;
+            }
+            request.response().setStatusCode(dispatch(body)).end();
+        });
+    }
+
+    /**
+     * Decodes a verified body and publishes its event, unless it is a redelivery.
+     * @return Status of the response
+     */
+    private int dispatch(Buffer body) {
+        LayerWebhookEvent event;
+        try {
+            JsonObject payload = body.toJsonObject();
+            if (!(payload.getValue("event") instanceof JsonObject) || payload.getJsonObject("event").getString("type") == null) {
+                malformed.incrementAndGet();
+                return 400;
+            }
+            event = new LayerWebhookEvent(payload);
+        } catch (DecodeException | ClassCastException e) {
+            malformed.incrementAndGet();
+            return 400;
+        }
+        if (deduplicator != null && event.getId() != null && !deduplicator.firstDelivery(event.getId(), System.nanoTime())) {
+            duplicates.incrementAndGet();
+            return 200;
+        }
+        String address = options.getAddress();
+        vertx.eventBus().publish(address, event, delivery);
+        vertx.eventBus().publish(address + "." + event.getType(), event, delivery);
+        published.incrementAndGet();
+        return 200;
+    }
+
+    private static int initialSize(String contentLength, int maxBodySize) {
+        if (contentLength != null) {
+            try {
+                return (int) Math.min(Math.max(Long.parseLong(contentLength), 0), maxBodySize);
+            } catch (NumberFormatException e) {
+                // Read without a size hint
+            }
+        }
+        return 1024;
+    }
+
+    /**
+     * One server, deployed per instance so every one runs on an event loop of its own.
+     */
+    private final class Receiver extends AbstractVerticle {
+        @Override
+        public void start(Future<Void> startFuture) {
+            vertx.createHttpServer(new HttpServerOptions().setHost(options.getHost()).setPort(options.getPort()))
+                    .requestHandler(LayerWebhookServer.this::handle)
+                    .listen(result -> {
+                        if (result.succeeded()) {
+                            startFuture.complete();
+                        } else {
+                            startFuture.fail(result.cause());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stream that posts every item written to it, with a bounded number of requests in flight.
+ * <p>
+ *     At most write queue max size requests are in flight, further items wait in the stream.
+ *     {@link #writeQueueFull()} is true while the items in flight and waiting reach the write queue max size,
+ *     the drain handler is called once they are down to half of it. Use with {@link io.vertx.core.streams.Pump}
+ *     to post as fast as Layer accepts. <br>
+ *     Failed posts, including responses other than 2xx, go to the exception handler as the cause or a
+ *     LayerServerException, the stream keeps posting. <br>
+ *     Handlers are called on the context the stream was created on, if any. Thread safe, state is guarded by
+ *     this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LayerWriteStream implements WriteStream<JsonObject> {
+
+    /**
+     * Posts one item.
+     */
+    interface Poster {
+        /**
+         * @param item Item written to the stream
+         * @param handler Receives the response, or the failure
+         */
+        void post(JsonObject item, Handler<AsyncResult<HttpClientResponse>> handler);
+    }
+
+    private final Poster poster;
+    private final Context context;
+    private final ArrayDeque<JsonObject> queue = new ArrayDeque<>();
+
+    private int maxSize;
+    private int inFlight;
+    private boolean full;
+    private boolean ended;
+    private long posted;
+    private long failed;
+    private Handler<Void> drainHandler;
+    private Handler<Throwable> exceptionHandler;
+    private Handler<Void> endHandler;
+
+    /**
+     * @param poster Posts the items
+     * @param maxSize Write queue max size, requests in flight
+     */
+    LayerWriteStream(Poster poster, int maxSize) {
+        this.poster = poster;
+        this.maxSize = Math.max(1, maxSize);
+        this.context = Vertx.currentContext();
+    }
+
+    @Override
+    public synchronized LayerWriteStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public LayerWriteStream write(JsonObject item) {
+        synchronized (this) {
+            if (ended) {
+                throw new IllegalStateException("Stream is ended");
+            }
+            queue.add(item);
+            if (inFlight + queue.size() >= maxSize) {
+                full = true;
+            }
+        }
+        sendQueued();
+        return this;
+    }
+
+    /**
+     * Ends the stream, items already written are still posted. The end handler is called once they are done.
+     */
+    @Override
+    public void end() {
+        boolean done;
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            done = inFlight == 0 && queue.isEmpty();
+        }
+        if (done) {
+            ended();
+        }
+    }
+
+    /**
+     * Set number of requests in flight, the stream is full when this many items are in flight or waiting
+     * @param maxSize Requests in flight
+     * @return This stream
+     */
+    @Override
+    public LayerWriteStream setWriteQueueMaxSize(int maxSize) {
+        synchronized (this) {
+            this.maxSize = Math.max(1, maxSize);
+        }
+        sendQueued();
+        return this;
+    }
+
+    @Override
+    public synchronized boolean writeQueueFull() {
+        return inFlight + queue.size() >= maxSize;
+    }
+
+    @Override
+    public synchronized LayerWriteStream drainHandler(Handler<Void> handler) {
+        this.drainHandler = handler;
+        return this;
+    }
+
+    /**
+     * Set handler called once the stream was ended and every item is done
+     * @param handler Handler
+     * @return This stream
+     */
+    public synchronized LayerWriteStream endHandler(Handler<Void> handler) {
+        this.endHandler = handler;
+        return this;
+    }
+
+    /**
+     * @return Number of items posted with a 2xx response
+     */
+    public synchronized long posted() {
+        return posted;
+    }
+
+    /**
+     * @return Number of items that failed
+     */
+    public synchronized long failed() {
+        return failed;
+    }
+
+    /**
+     * @return Number of requests in flight
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private void sendQueued() {
+        while (true) {
+            JsonObject item;
+            synchronized (this) {
+                if (inFlight >= maxSize || queue.isEmpty()) {
+                    return;
+                }
+                item = queue.poll();
+                inFlight++;
+            }
+            poster.post(item, this::completed);
+        }
+    }
+
+    private void completed(AsyncResult<HttpClientResponse> result) {
+        if (context != null && Vertx.currentContext() != context) {
+            context.runOnContext(v -> completed(result));
+            return;
+        }
+        Throwable failure = result.failed() ? result.cause() : null;
+        if (failure == null && result.result().statusCode() / 100 != 2) {
+            failure = new LayerServerException(result.result().statusCode(), result.result().statusMessage());
+        }
+        Handler<Void> drain = null;
+        Handler<Throwable> exception;
+        boolean done;
+        synchronized (this) {
+            inFlight--;
+            if (failure == null) {
+                posted++;
+            } else {
+                failed++;
+            }
+            if (full && inFlight + queue.size() <= maxSize / 2) {
+                full = false;
+                drain = drainHandler;
+            }
+            exception = exceptionHandler;
+            done = ended && inFlight == 0 && queue.isEmpty();
+        }
+        if (failure != null && exception != null) {
+            exception.handle(failure);
+        }
+        sendQueued();
+        if (drain != null) {
+            drain.handle(null);
+        }
+        if (done) {
+            ended();
+        }
+    }
+
+    private void ended() {
+        Handler<Void> handler;
+        synchronized (this) {
+            handler = endHandler;
+        }
+        if (handler != null) {
+            handler.handle(null);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+
+/**
+ * Records {@link LayerMetrics}.
+ * <p>
+ *     A LayerServerClient uses two: the outermost counts calls and times the caller's handler, the innermost
+ *     counts requests sent to the HttpClient and records their latency, status and size. Response size is taken from
+ *     Content-Length, chunked responses are not counted.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class MetricsDispatcher implements LayerDispatcher {
+    private final LayerDispatcher next;
+    private final LayerMetrics metrics;
+    private final boolean transport;
+
+    /**
+     * @param next Next dispatcher
+     * @param metrics Metrics to record
+     * @param transport True for the innermost dispatcher, false for the outermost
+     */
+    MetricsDispatcher(LayerDispatcher next, LayerMetrics metrics, boolean transport) {
+        this.next = next;
+        this.metrics = metrics;
+        this.transport = transport;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        LayerMetrics.Endpoint endpoint = metrics.endpoint(request.endpoint);
+        long start = System.nanoTime();
+        if (transport) {
+            if (request.dispatched != 0) {
+                endpoint.wait.record(start - request.dispatched);
+            }
+            endpoint.requests.incrementAndGet();
+            endpoint.inFlight.incrementAndGet();
+            if (request.body != null) {
+                endpoint.requestBytes.addAndGet(request.body.length());
+            }
+            next.dispatch(request, result -> {
+                endpoint.inFlight.decrementAndGet();
+                endpoint.latency.record(System.nanoTime() - start);
+                if (result.succeeded()) {
+                    endpoint.status(result.result().statusCode());
+                    endpoint.responseBytes.addAndGet(contentLength(result.result()));
+                } else {
+                    endpoint.failed.incrementAndGet();
+                }
+                handler.handle(result);
+            });
+        } else {
+            request.dispatched = start;
+            endpoint.calls.incrementAndGet();
+            endpoint.callsInFlight.incrementAndGet();
+            next.dispatch(request, result -> {
+                endpoint.callsInFlight.decrementAndGet();
+                long called = System.nanoTime();
+                handler.handle(result);
+                endpoint.handler.record(System.nanoTime() - called);
+            });
+        }
+    }
+
+    private static long contentLength(HttpClientResponse response) {
+        String length = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (length == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends the messages of a conversation one at a time, in the order they were posted.
+ * <p>
+ *     A POST to a conversation waits until the previous POST to the same conversation has its response, or has
+ *     failed. Posts to different conversations and all other requests pass at once. A failed post does not stop
+ *     the ones after it. <br>
+ *     Only conversations with a post in flight are kept, a conversation is forgotten once its last post is done,
+ *     so memory is bounded by the posts in flight and waiting. A waiting post is sent on the context it was made on. <br>
+ *     Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class OrderingDispatcher implements LayerDispatcher {
+
+    private static final class Pending {
+        final LayerRequest request;
+        final Handler<AsyncResult<HttpClientResponse>> handler;
+        final Context context;
+
+        Pending(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler, Context context) {
+            this.request = request;
+            this.handler = handler;
+            this.context = context;
+        }
+    }
+
+    private final LayerDispatcher next;
+    /**
+     * Waiting posts of every conversation with a post in flight, null while none is waiting
+     */
+    private final Map<String, ArrayDeque<Pending>> conversations = new HashMap<>();
+
+    private int queued;
+    private long ordered;
+
+    /**
+     * @param next Dispatcher that sends the requests
+     */
+    OrderingDispatcher(LayerDispatcher next) {
+        this.next = next;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        String conversation = request.conversation_UUID;
+        if (conversation == null || request.endpoint.method != HttpMethod.POST) {
+            next.dispatch(request, handler);
+            return;
+        }
+        synchronized (this) {
+            if (conversations.containsKey(conversation)) {
+                ArrayDeque<Pending> waiting = conversations.get(conversation);
+                if (waiting == null) {
+                    waiting = new ArrayDeque<>(2);
+                    conversations.put(conversation, waiting);
+                }
+                waiting.add(new Pending(request, handler, Vertx.currentContext()));
+                queued++;
+                ordered++;
+                return;
+            }
+            conversations.put(conversation, null);
+        }
+        send(conversation, request, handler);
+    }
+
+    /**
+     * @return conversations with a post in flight, queued posts and ordered, the posts that had to wait
+     */
+    synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("conversations", conversations.size())
+                .put("queued", queued)
+                .put("ordered", ordered);
+    }
+
+    private void send(String conversation, LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        next.dispatch(request, result -> {
+            Pending pending = null;
+            synchronized (this) {
+                ArrayDeque<Pending> waiting = conversations.get(conversation);
+                if (waiting == null || waiting.isEmpty()) {
+                    conversations.remove(conversation);
+                } else {
+                    pending = waiting.poll();
+                    queued--;
+                }
+            }
+            if (pending != null) {
+                Pending following = pending;
+                if (following.context == null || following.context == Vertx.currentContext()) {
+                    send(conversation, following.request, following.handler);
+                } else {
+                    following.context.runOnContext(v -> send(conversation, following.request, following.handler));
+                }
+            }
+            handler.handle(result);
+        });
+    }
+}
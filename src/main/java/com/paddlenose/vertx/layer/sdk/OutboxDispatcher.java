@@ -0,0 +1,132 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes messages to an {@link OutboxJournal} before they are sent, and sends the ones left from an earlier run.
+ * <p>
+ *     A message is sent once its entry is durable, on the context it was posted on. The entry is acknowledged once
+ *     the response or failure has been handed to the caller, who decides whether to post again. Entries whose
+ *     outcome never reached a caller, because the process stopped, are sent again when the client is next created,
+ *     with the extra headers of the original post such as its Idempotency-Key. A replayed entry is acknowledged when
+ *     Layer answers with 2xx, or with a 4xx other than 408 and 429 since sending it again would not help, otherwise
+ *     it is sent again after a backoff that doubles up to a minute. Other requests pass at once.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class OutboxDispatcher implements LayerDispatcher {
+    /**
+     * First backoff in milliseconds before a replayed entry is sent again
+     */
+    static final long REDELIVERY_DELAY = 1000;
+    private static final long MAX_REDELIVERY_DELAY = 60000;
+
+    private final Vertx vertx;
+    private final LayerDispatcher next;
+    private final OutboxJournal journal;
+    private final LayerRequestTemplate template;
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong redelivered = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param vertx Runs the backoff timers of replayed entries
+     * @param next Dispatcher that sends the requests
+     * @param journal Journal, owned by this dispatcher
+     * @param template Template of the client, supplies the Layer headers of replayed entries
+     */
+    OutboxDispatcher(Vertx vertx, LayerDispatcher next, OutboxJournal journal, LayerRequestTemplate template) {
+        this.vertx = vertx;
+        this.next = next;
+        this.journal = journal;
+        this.template = template;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.endpoint != LayerEndpoint.POST_MESSAGE && request.endpoint != LayerEndpoint.POST_MESSAGE_AS_USER) {
+            next.dispatch(request, handler);
+            return;
+        }
+        Context context = Vertx.currentContext();
+        MultiMap headers = request.hasHeaders() ? request.headers() : null;
+        journal.append(request.endpoint, request.uri, request.conversation_UUID, headers, request.body, appended -> {
+            if (appended.failed()) {
+                handler.handle(Future.failedFuture(appended.cause()));
+            } else if (context == null || context == Vertx.currentContext()) {
+                send(appended.result(), request, handler);
+            } else {
+                context.runOnContext(v -> send(appended.result(), request, handler));
+            }
+        });
+    }
+
+    /**
+     * Sends the entries left from an earlier run, oldest first.
+     */
+    void replay() {
+        for (OutboxJournal.Entry entry : journal.recovered()) {
+            replayed.incrementAndGet();
+            LayerRequest request = new LayerRequest(template, entry.endpoint, entry.uri, entry.conversation_UUID, entry.body, false);
+            if (entry.headers != null) {
+                request.headers().addAll(entry.headers);
+            }
+            redeliver(entry.id, request, REDELIVERY_DELAY);
+        }
+    }
+
+    /**
+     * @return Journal counters, replayed, the entries sent again when the client was created, and redelivered, the
+     *         times a replayed entry was sent again after a backoff
+     */
+    JsonObject stats() {
+        return journal.stats().put("replayed", replayed.get()).put("redelivered", redelivered.get());
+    }
+
+    void close() {
+        closed = true;
+        journal.close();
+    }
+
+    private void send(long id, LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        next.dispatch(request, result -> {
+            handler.handle(result);
+            journal.acknowledge(id);
+        });
+    }
+
+    /**
+     * Sends a replayed entry until Layer has taken it or refused it for good.
+     * @param delay Backoff in milliseconds before the next attempt
+     */
+    private void redeliver(long id, LayerRequest request, long delay) {
+        next.dispatch(request, result -> {
+            if (result.succeeded() && done(result.result().statusCode())) {
+                journal.acknowledge(id);
+            } else if (!closed) {
+                vertx.setTimer(delay, timer -> {
+                    if (!closed) {
+                        redelivered.incrementAndGet();
+                        redeliver(id, request, Math.min(delay * 2, MAX_REDELIVERY_DELAY));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return True if the message must not be sent again
+     */
+    private static boolean done(int status) {
+        return status / 100 == 2 || status / 100 == 4 && status != 408 && status != 429;
+    }
+}
@@ -0,0 +1,424 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of posts that Layer has not acknowledged yet, in a {@link SegmentLog}.
+ * <p>
+ *     A record is its format, its type, the entry id and for an entry the endpoint key, URI, conversation, extra
+ *     headers and body of the post. An acknowledgement is a record with the id only. Records of another format and
+ *     entries of an endpoint this version does not know are skipped and counted. <br>
+ *     Records are written to the mapped segment, they survive a crash of the process at once. With fsync enabled an
+ *     entry is durable once its segment has been forced to disk, forces are batched: appends made while a force runs
+ *     wait for the next one, so one force covers many entries. Acknowledgements are not forced, after a crash of
+ *     the machine an acknowledged post may be sent again. <br>
+ *     Segments are deleted oldest first once all their entries are acknowledged, acknowledgements are never older
+ *     than their entries so no acknowledgement of a kept entry is lost. While more than two segments are kept, the
+ *     entries left in the oldest are copied to the active segment when they fit, so an entry that stays pending does
+ *     not keep the segments after it. With fsync the oldest segment is deleted once its copies are forced. <br>
+ *     Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class OutboxJournal {
+    /**
+     * Format of the records written, 1 and 2 were the types of records written before the format byte existed
+     */
+    private static final byte FORMAT = 3;
+    private static final byte ENTRY = 1;
+    private static final byte ACK = 2;
+    /**
+     * Format, type and id
+     */
+    private static final int ID = 10;
+    /**
+     * Smallest segment, room for an acknowledgement and a small entry
+     */
+    static final int MIN_SEGMENT_SIZE = SegmentLog.MIN_SEGMENT_SIZE;
+
+    /**
+     * A post read back from the journal.
+     */
+    static final class Entry {
+        final long id;
+        final LayerEndpoint endpoint;
+        final String uri;
+        final String conversation_UUID;
+        /**
+         * Extra headers of the post, null if none
+         */
+        final MultiMap headers;
+        final Buffer body;
+
+        Entry(long id, LayerEndpoint endpoint, String uri, String conversation_UUID, MultiMap headers, Buffer body) {
+            this.id = id;
+            this.endpoint = endpoint;
+            this.uri = uri;
+            this.conversation_UUID = conversation_UUID;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final class Waiter {
+        final long id;
+        final Handler<AsyncResult<Long>> handler;
+
+        Waiter(long id, Handler<AsyncResult<Long>> handler) {
+            this.id = id;
+            this.handler = handler;
+        }
+    }
+
+    private final Vertx vertx;
+    private final boolean fsync;
+    private final SegmentLog log;
+    /**
+     * Location of every entry not acknowledged yet
+     */
+    private final Map<Long, Long> pending = new HashMap<>();
+    private final List<Entry> recovered;
+
+    private long nextId;
+    private List<Waiter> waiting = new ArrayList<>();
+    private List<SegmentLog.Segment> dirty = new ArrayList<>();
+    /**
+     * Segments whose entries were copied forward, deleted after the next force
+     */
+    private List<SegmentLog.Segment> retired = new ArrayList<>();
+    private boolean forcing;
+    private boolean closed;
+    private long appended;
+    private long acknowledged;
+    private long forces;
+    private long moved;
+    private long skipped;
+
+    /**
+     * Opens the journal in a directory and reads the entries not acknowledged yet. Blocks while reading.
+     * @param vertx Runs the forces
+     * @param directory Directory of the segment files, created if missing
+     * @param segmentSize Size of a segment file in bytes
+     * @param fsync True to force entries to disk before they count as durable
+     * @throws IOException if the directory or a segment could not be opened
+     */
+    OutboxJournal(Vertx vertx, File directory, int segmentSize, boolean fsync) throws IOException {
+        this.vertx = vertx;
+        this.fsync = fsync;
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        this.log = new SegmentLog(directory, "outbox", segmentSize);
+        log.read((location, record) -> read(location, record, entries));
+        for (long location : pending.values()) {
+            log.segment(location).live++;
+        }
+        this.recovered = Collections.unmodifiableList(new ArrayList<>(entries.values()));
+        compact();
+    }
+
+    /**
+     * @return Entries found when the journal was opened and not acknowledged, oldest first
+     */
+    List<Entry> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends an entry.
+     * @param endpoint Endpoint of the post
+     * @param uri Request URI
+     * @param conversation_UUID Conversation, null if none
+     * @param headers Extra headers of the post, such as its Idempotency-Key, null if none
+     * @param body Request body
+     * @param handler Receives the id of the entry once it is durable, or the failure
+     */
+    void append(LayerEndpoint endpoint, String uri, String conversation_UUID, MultiMap headers, Buffer body, Handler<AsyncResult<Long>> handler) {
+        byte[] keyBytes = endpoint.key.getBytes(StandardCharsets.UTF_8);
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        byte[] conversationBytes = conversation_UUID == null ? null : conversation_UUID.getBytes(StandardCharsets.UTF_8);
+        Buffer record = Buffer.buffer(ID - 1 + 20 + keyBytes.length + uriBytes.length + (conversationBytes == null ? 0 : conversationBytes.length) + body.length())
+                .appendByte(ENTRY)
+                .appendLong(0)
+                .appendInt(keyBytes.length).appendBytes(keyBytes)
+                .appendInt(uriBytes.length).appendBytes(uriBytes)
+                .appendInt(conversationBytes == null ? -1 : conversationBytes.length);
+        if (conversationBytes != null) {
+            record.appendBytes(conversationBytes);
+        }
+        if (headers == null || headers.isEmpty()) {
+            record.appendInt(0);
+        } else {
+            record.appendInt(headers.size());
+            for (Map.Entry<String, String> header : headers) {
+                appendString(record, header.getKey());
+                appendString(record, header.getValue());
+            }
+        }
+        record.appendInt(body.length()).appendBuffer(body);
+        long id;
+        boolean force = false;
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Outbox is closed");
+                }
+                id = nextId++;
+                record.setLong(1, id);
+                long location = log.append(FORMAT, record.getBytes());
+                SegmentLog.Segment segment = log.segment(location);
+                pending.put(id, location);
+                segment.live++;
+                appended++;
+                if (fsync) {
+                    waiting.add(new Waiter(id, handler));
+                    if (!dirty.contains(segment)) {
+                        dirty.add(segment);
+                    }
+                    force = !forcing;
+                    forcing = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            handler.handle(Future.failedFuture(new LayerServerException("Could not write to outbox", e)));
+            return;
+        }
+        if (force) {
+            force();
+        } else if (!fsync) {
+            handler.handle(Future.succeededFuture(id));
+        }
+    }
+
+    /**
+     * Marks an entry as acknowledged, it is not read back again.
+     * @param id Id of the entry
+     */
+    synchronized void acknowledge(long id) {
+        Long location = pending.remove(id);
+        if (location == null || closed) {
+            return;
+        }
+        try {
+            log.append(FORMAT, Buffer.buffer(ID - 1).appendByte(ACK).appendLong(id).getBytes());
+        } catch (IOException e) {
+            // The entry is sent again after a restart
+        }
+        log.segment(location).live--;
+        acknowledged++;
+        compact();
+    }
+
+    /**
+     * @return pending, appended, acknowledged, forces, moved, the entries copied forward, skipped and segments
+     */
+    synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("pending", pending.size())
+                .put("appended", appended)
+                .put("acknowledged", acknowledged)
+                .put("forces", forces)
+                .put("moved", moved)
+                .put("skipped", skipped)
+                .put("segments", log.size());
+    }
+
+    /**
+     * Closes the journal, entries not acknowledged are read back when it is opened again.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    private void force() {
+        List<Waiter> batch;
+        List<SegmentLog.Segment> written;
+        List<SegmentLog.Segment> deleted;
+        synchronized (this) {
+            batch = waiting;
+            written = dirty;
+            deleted = retired;
+            waiting = new ArrayList<>();
+            dirty = new ArrayList<>();
+            retired = new ArrayList<>();
+        }
+        vertx.<Void>executeBlocking(future -> {
+            for (SegmentLog.Segment segment : written) {
+                segment.buffer.force();
+            }
+            // The copies of their entries are durable now
+            for (SegmentLog.Segment segment : deleted) {
+                segment.file.delete();
+            }
+            future.complete();
+        }, false, result -> {
+            boolean again;
+            synchronized (this) {
+                forces++;
+                again = !waiting.isEmpty() || !retired.isEmpty();
+                forcing = again;
+            }
+            for (Waiter waiter : batch) {
+                waiter.handler.handle(result.succeeded() ? Future.succeededFuture(waiter.id)
+                        : Future.failedFuture(new LayerServerException("Could not write to outbox", result.cause())));
+            }
+            if (again) {
+                force();
+            }
+        });
+    }
+
+    /**
+     * Deletes the oldest segments while all their entries are acknowledged or copied forward.
+     */
+    private void compact() {
+        while (log.size() > 1) {
+            SegmentLog.Segment oldest = log.first();
+            boolean copied = oldest.live > 0;
+            if (copied && (log.size() <= 2 || !moveForward(oldest))) {
+                break;
+            }
+            log.removeFirst();
+            dirty.remove(oldest);
+            if (copied && fsync) {
+                retired.add(oldest);
+                SegmentLog.Segment active = log.active();
+                if (!dirty.contains(active)) {
+                    dirty.add(active);
+                }
+                if (!forcing) {
+                    forcing = true;
+                    force();
+                }
+            } else {
+                oldest.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Copies the pending entries of a segment to the active segment, if they fit without starting a new one.
+     * @return True if the entries were copied
+     */
+    private boolean moveForward(SegmentLog.Segment segment) {
+        int size = 0;
+        for (long location : pending.values()) {
+            if (log.segment(location) == segment) {
+                size += SegmentLog.HEADER + log.length(location);
+            }
+        }
+        if (size > log.remaining()) {
+            return false;
+        }
+        try {
+            for (Map.Entry<Long, Long> entry : pending.entrySet()) {
+                long location = entry.getValue();
+                if (log.segment(location) != segment) {
+                    continue;
+                }
+                long copy = log.append(FORMAT, log.rest(location));
+                entry.setValue(copy);
+                log.segment(copy).live++;
+                segment.live--;
+                moved++;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies a record read when the journal is opened.
+     */
+    private void read(long location, byte[] bytes, Map<Long, Entry> entries) {
+        Buffer record = Buffer.buffer(bytes);
+        if (record.length() < ID || record.getByte(0) != FORMAT) {
+            // Written by another version, this one cannot read it
+            skipped++;
+            return;
+        }
+        long id = record.getLong(2);
+        nextId = Math.max(nextId, id + 1);
+        if (record.getByte(1) == ENTRY) {
+            Entry entry = entry(id, record);
+            if (entry == null) {
+                // Written by a version with another endpoint, this one cannot send it
+                skipped++;
+                return;
+            }
+            entries.put(id, entry);
+            pending.put(id, location);
+        } else {
+            entries.remove(id);
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * @return Entry of the record, null if its endpoint is unknown or it is malformed
+     */
+    private static Entry entry(long id, Buffer record) {
+        try {
+            return parse(id, record);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static Entry parse(long id, Buffer record) {
+        int position = ID;
+        int keyLength = record.getInt(position);
+        LayerEndpoint endpoint = LayerEndpoint.forKey(record.getString(position + 4, position + 4 + keyLength, "UTF-8"));
+        if (endpoint == null) {
+            return null;
+        }
+        position += 4 + keyLength;
+        int uriLength = record.getInt(position);
+        String uri = record.getString(position + 4, position + 4 + uriLength, "UTF-8");
+        position += 4 + uriLength;
+        int conversationLength = record.getInt(position);
+        position += 4;
+        String conversation_UUID = null;
+        if (conversationLength >= 0) {
+            conversation_UUID = record.getString(position, position + conversationLength, "UTF-8");
+            position += conversationLength;
+        }
+        int headerCount = record.getInt(position);
+        position += 4;
+        MultiMap headers = null;
+        if (headerCount > 0) {
+            headers = MultiMap.caseInsensitiveMultiMap();
+            for (int i = 0; i < headerCount; i++) {
+                int nameLength = record.getInt(position);
+                String name = record.getString(position + 4, position + 4 + nameLength, "UTF-8");
+                position += 4 + nameLength;
+                int valueLength = record.getInt(position);
+                headers.add(name, record.getString(position + 4, position + 4 + valueLength, "UTF-8"));
+                position += 4 + valueLength;
+            }
+        }
+        int bodyLength = record.getInt(position);
+        position += 4;
+        return new Entry(id, endpoint, uri, conversation_UUID, headers, record.getBuffer(position, position + bodyLength));
+    }
+
+    private static void appendString(Buffer record, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        record.appendInt(bytes.length).appendBytes(bytes);
+    }
+}
@@ -0,0 +1,270 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonObject;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side rate limit, one token bucket for all requests and one per endpoint family.
+ * <p>
+ *     A request is sent when both the global bucket and the bucket of its family hold a token, otherwise it waits
+ *     in the queue of its family. Queues are drained in turns on a Vert.x timer, nothing blocks. A waiting request
+ *     is sent on the context it was made on. <br>
+ *     On 429 the bucket pauses for Retry-After, one second if absent, and halves its rate.
+ *     X-RateLimit-Remaining and X-RateLimit-Reset pace the bucket over the rest of Layer's window.
+ *     Layer headers adjust the global bucket, or the family bucket if there is no global limit. <br>
+ *     Thread safe, state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class RateLimitingDispatcher implements LayerDispatcher {
+    static final CharSequence RETRY_AFTER = HttpHeaders.createOptimized("Retry-After");
+    static final CharSequence RATE_LIMIT_REMAINING = HttpHeaders.createOptimized("X-RateLimit-Remaining");
+    static final CharSequence RATE_LIMIT_RESET = HttpHeaders.createOptimized("X-RateLimit-Reset");
+    private static final long DEFAULT_RETRY_AFTER = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Reset values above this are epoch seconds rather than seconds from now
+     */
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+
+    private static final class Pending {
+        final LayerRequest request;
+        final Handler<AsyncResult<HttpClientResponse>> handler;
+        final TokenBucket family;
+        final Context context;
+
+        Pending(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler, TokenBucket family, Context context) {
+            this.request = request;
+            this.handler = handler;
+            this.family = family;
+            this.context = context;
+        }
+    }
+
+    private final Vertx vertx;
+    private final LayerDispatcher next;
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> families;
+    private final Map<String, ArrayDeque<Pending>> queues = new LinkedHashMap<>();
+    private final int maxQueued;
+
+    private int queued;
+    private long timer = -1;
+    private long timerDeadline;
+    private long throttled;
+    private long rejected;
+
+    /**
+     * @param vertx Vert.x instance, runs the drain timer
+     * @param next Dispatcher that sends released requests
+     * @param globalRate Requests per second over all endpoints, 0 for no global limit
+     * @param familyRates Requests per second per endpoint family, families not included are not limited
+     * @param maxQueued Maximum number of waiting requests, more are rejected
+     */
+    RateLimitingDispatcher(Vertx vertx, LayerDispatcher next, double globalRate, Map<String, Double> familyRates, int maxQueued) {
+        long now = System.nanoTime();
+        this.vertx = vertx;
+        this.next = next;
+        this.global = globalRate > 0 ? new TokenBucket(globalRate, now) : null;
+        this.families = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> rate : familyRates.entrySet()) {
+            families.put(rate.getKey(), new TokenBucket(rate.getValue(), now));
+        }
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        TokenBucket family = families.get(request.endpoint.family);
+        if (global == null && family == null) {
+            next.dispatch(request, handler);
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            full = queued >= maxQueued;
+            if (full) {
+                rejected++;
+            } else {
+                queues.computeIfAbsent(request.endpoint.family, key -> new ArrayDeque<>())
+                        .add(new Pending(request, handler, family, Vertx.currentContext()));
+                queued++;
+            }
+        }
+        if (full) {
+            handler.handle(Future.failedFuture(new LayerServerException("Rate limit queue is full")));
+        } else {
+            drain();
+        }
+    }
+
+    /**
+     * @return Counters: queued, throttled, rejected and the current rate of every bucket
+     */
+    synchronized JsonObject stats() {
+        long now = System.nanoTime();
+        JsonObject rates = new JsonObject();
+        if (global != null) {
+            global.delay(now);
+            rates.put("global", global.rate());
+        }
+        for (Map.Entry<String, TokenBucket> family : families.entrySet()) {
+            family.getValue().delay(now);
+            rates.put(family.getKey(), family.getValue().rate());
+        }
+        return new JsonObject()
+                .put("queued", queued)
+                .put("throttled", throttled)
+                .put("rejected", rejected)
+                .put("rate", rates);
+    }
+
+    /**
+     * Releases every request that has tokens, one per family in turn, and schedules the next drain.
+     */
+    private void drain() {
+        List<Pending> ready = null;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            boolean released;
+            do {
+                released = false;
+                for (ArrayDeque<Pending> queue : queues.values()) {
+                    Pending pending = queue.peek();
+                    if (pending == null) {
+                        continue;
+                    }
+                    long delay = Math.max(global == null ? 0 : global.delay(now), pending.family == null ? 0 : pending.family.delay(now));
+                    if (delay > 0) {
+                        wait = Math.min(wait, delay);
+                        continue;
+                    }
+                    if (global != null) {
+                        global.take();
+                    }
+                    if (pending.family != null) {
+                        pending.family.take();
+                    }
+                    queue.poll();
+                    queued--;
+                    if (ready == null) {
+                        ready = new ArrayList<>();
+                    }
+                    ready.add(pending);
+                    released = true;
+                }
+            } while (released);
+            if (wait != Long.MAX_VALUE) {
+                schedule(now, wait);
+            }
+        }
+        if (ready != null) {
+            for (Pending pending : ready) {
+                send(pending);
+            }
+        }
+    }
+
+    private void schedule(long now, long wait) {
+        long deadline = now + wait;
+        if (timer != -1) {
+            if (deadline - timerDeadline >= 0) {
+                return;
+            }
+            vertx.cancelTimer(timer);
+        }
+        timerDeadline = deadline;
+        timer = vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait) + 1), id -> {
+            synchronized (this) {
+                if (timer == id) {
+                    timer = -1;
+                }
+            }
+            drain();
+        });
+    }
+
+    private void send(Pending pending) {
+        if (pending.context == null || pending.context == Vertx.currentContext()) {
+            next.dispatch(pending.request, result -> observe(result, pending));
+        } else {
+            pending.context.runOnContext(v -> next.dispatch(pending.request, result -> observe(result, pending)));
+        }
+    }
+
+    private void observe(AsyncResult<HttpClientResponse> result, Pending pending) {
+        if (result.succeeded()) {
+            HttpClientResponse response = result.result();
+            TokenBucket bucket = global != null ? global : pending.family;
+            if (response.statusCode() == 429) {
+                long retryAfter = retryAfter(response.getHeader(RETRY_AFTER));
+                synchronized (this) {
+                    throttled++;
+                    bucket.throttled(System.nanoTime(), retryAfter);
+                }
+            } else {
+                String remaining = response.getHeader(RATE_LIMIT_REMAINING);
+                String reset = response.getHeader(RATE_LIMIT_RESET);
+                if (remaining != null && reset != null) {
+                    try {
+                        long window = resetNanos(Long.parseLong(reset.trim()));
+                        long left = Long.parseLong(remaining.trim());
+                        synchronized (this) {
+                            bucket.observed(System.nanoTime(), left, window);
+                        }
+                    } catch (NumberFormatException ignored) {
+                        // Not a header we understand, keep the current rate
+                    }
+                }
+            }
+        }
+        pending.handler.handle(result);
+    }
+
+    /**
+     * Parses Retry-After, seconds or an HTTP date.
+     * @return Nanoseconds to wait
+     */
+    static long retryAfter(String value) {
+        if (value == null) {
+            return DEFAULT_RETRY_AFTER;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                long at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(0, at - System.currentTimeMillis()));
+            } catch (DateTimeParseException ignored) {
+                return DEFAULT_RETRY_AFTER;
+            }
+        }
+    }
+
+    /**
+     * @param reset X-RateLimit-Reset, seconds from now or epoch seconds
+     * @return Nanoseconds until the window resets
+     */
+    static long resetNanos(long reset) {
+        if (reset > EPOCH_SECONDS_THRESHOLD) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, reset * 1000 - System.currentTimeMillis()));
+        }
+        return TimeUnit.SECONDS.toNanos(Math.max(0, reset));
+    }
+}
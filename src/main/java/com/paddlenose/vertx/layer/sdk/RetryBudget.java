@@ -0,0 +1,54 @@
+package com.paddlenose.vertx.layer.sdk;
+
+/**
+ * Caps retries and hedges to a share of the requests made.
+ * <p>
+ *     Every request deposits the configured share of a retry, every retry withdraws a whole one.
+ *     The balance starts at {@link #RESERVE} so a quiet client can still retry, and never exceeds {@link #MAX_BALANCE}
+ *     so a long quiet period cannot fund a retry storm. <br>
+ *     Thread safe, all access is synchronized.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class RetryBudget {
+    /**
+     * Retries available before any request was made
+     */
+    static final int RESERVE = 10;
+    /**
+     * Highest number of retries saved up
+     */
+    static final int MAX_BALANCE = 100;
+    /**
+     * Balance is kept in hundredths of a percent of a retry so deposits add up exactly
+     */
+    private static final long RETRY = 10000;
+
+    private final long deposit;
+    private long balance = RESERVE * RETRY;
+
+    /**
+     * @param percent Retries allowed per 100 requests
+     */
+    RetryBudget(double percent) {
+        this.deposit = Math.round(percent * RETRY / 100);
+    }
+
+    /**
+     * A request was made.
+     */
+    synchronized void deposit() {
+        balance = Math.min(MAX_BALANCE * RETRY, balance + deposit);
+    }
+
+    /**
+     * @return True if a retry may be made, it is then withdrawn
+     */
+    synchronized boolean withdraw() {
+        if (balance < RETRY) {
+            return false;
+        }
+        balance -= RETRY;
+        return true;
+    }
+}
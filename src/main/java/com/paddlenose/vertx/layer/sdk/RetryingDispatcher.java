@@ -0,0 +1,216 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries and hedges GET requests.
+ * <p>
+ *     A GET that fails to connect, is dropped, or is answered with 502, 503 or 504 is sent again after an exponential
+ *     backoff with full jitter, up to the maximum attempts. Failures raised by the client itself, LayerServerException,
+ *     are not retried. POST requests are never sent twice, Layer would create duplicates. <br>
+ *     Hedged endpoints send a second request when the first has not answered within the observed 95th percentile
+ *     latency of the endpoint, the first response wins. Retries and hedges draw from a shared {@link RetryBudget}. <br>
+ *     Thread safe, every call guards its own state.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class RetryingDispatcher implements LayerDispatcher {
+    /**
+     * Read-only endpoints that may be hedged
+     */
+    static final Set<LayerEndpoint> HEDGED = EnumSet.of(
+            LayerEndpoint.GET_CONVERSATION, LayerEndpoint.GET_CONVERSATION_MESSAGE, LayerEndpoint.GET_CONVERSATIONS_AS_USER);
+
+    private final Vertx vertx;
+    private final LayerDispatcher next;
+    private final int maxAttempts;
+    private final long backoff;
+    private final long maxBackoff;
+    private final RetryBudget budget;
+    private final Map<LayerEndpoint, LatencyWindow> latencies;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    /**
+     * @param vertx Vert.x instance, runs backoff and hedge timers
+     * @param next Dispatcher that sends every attempt
+     * @param maxAttempts Maximum attempts per call, the first included
+     * @param backoff Backoff before the first retry in milliseconds, doubled for every further retry
+     * @param maxBackoff Maximum backoff in milliseconds
+     * @param budget Budget shared by retries and hedges
+     * @param hedging True to hedge the {@link #HEDGED} endpoints
+     */
+    RetryingDispatcher(Vertx vertx, LayerDispatcher next, int maxAttempts, long backoff, long maxBackoff, RetryBudget budget, boolean hedging) {
+        this.vertx = vertx;
+        this.next = next;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.budget = budget;
+        this.latencies = new EnumMap<>(LayerEndpoint.class);
+        if (hedging) {
+            for (LayerEndpoint endpoint : HEDGED) {
+                latencies.put(endpoint, new LatencyWindow());
+            }
+        }
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.endpoint.method != HttpMethod.GET) {
+            next.dispatch(request, handler);
+            return;
+        }
+        budget.deposit();
+        new Call(request, handler, request.streaming ? null : latencies.get(request.endpoint)).start();
+    }
+
+    /**
+     * @return Counters: retries, hedges, hedge_wins and budget_exhausted
+     */
+    JsonObject stats() {
+        return new JsonObject()
+                .put("retries", retries.get())
+                .put("hedges", hedges.get())
+                .put("hedge_wins", hedgeWins.get())
+                .put("budget_exhausted", budgetExhausted.get());
+    }
+
+    /**
+     * @return True if the attempt may succeed when sent again
+     */
+    static boolean retryable(AsyncResult<HttpClientResponse> result) {
+        if (result.failed()) {
+            return !(result.cause() instanceof LayerServerException);
+        }
+        int status = result.result().statusCode();
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * @param retry Retry number, 1 for the first retry
+     * @return Backoff with full jitter in milliseconds
+     */
+    long backoff(int retry) {
+        long ceiling = Math.min(maxBackoff, backoff << Math.min(retry - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * One call to the dispatcher and its attempts.
+     */
+    private final class Call {
+        private final LayerRequest request;
+        private final Handler<AsyncResult<HttpClientResponse>> handler;
+        private final LatencyWindow latency;
+
+        private int attempts;
+        private int outstanding;
+        private long hedgeTimer = -1;
+        private boolean hedged;
+        private boolean done;
+
+        Call(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler, LatencyWindow latency) {
+            this.request = request;
+            this.handler = handler;
+            this.latency = latency;
+        }
+
+        void start() {
+            long p95 = latency == null ? -1 : latency.p95();
+            if (p95 >= 0) {
+                synchronized (this) {
+                    hedgeTimer = vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(p95)), id -> hedge());
+                }
+            }
+            attempt(false);
+        }
+
+        private void attempt(boolean hedge) {
+            boolean first;
+            synchronized (this) {
+                first = attempts == 0;
+                attempts++;
+                outstanding++;
+            }
+            long sent = System.nanoTime();
+            next.dispatch(request, result -> {
+                if (first && latency != null && result.succeeded()) {
+                    latency.record(System.nanoTime() - sent);
+                }
+                completed(result, hedge);
+            });
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                hedgeTimer = -1;
+                if (done || hedged || outstanding == 0) {
+                    return;
+                }
+                if (!budget.withdraw()) {
+                    budgetExhausted.incrementAndGet();
+                    return;
+                }
+                hedged = true;
+            }
+            hedges.incrementAndGet();
+            attempt(true);
+        }
+
+        private void completed(AsyncResult<HttpClientResponse> result, boolean hedge) {
+            boolean retry = false;
+            synchronized (this) {
+                outstanding--;
+                if (done) {
+                    return;
+                }
+                if (retryable(result)) {
+                    if (outstanding > 0) {
+                        // The other attempt may still succeed
+                        return;
+                    }
+                    if (attempts < maxAttempts) {
+                        if (budget.withdraw()) {
+                            retry = true;
+                        } else {
+                            budgetExhausted.incrementAndGet();
+                        }
+                    }
+                }
+                if (!retry) {
+                    done = true;
+                    if (hedgeTimer != -1) {
+                        vertx.cancelTimer(hedgeTimer);
+                        hedgeTimer = -1;
+                    }
+                }
+            }
+            if (retry) {
+                retries.incrementAndGet();
+                vertx.setTimer(Math.max(1, backoff(attempts)), id -> attempt(false));
+                return;
+            }
+            if (hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            handler.handle(result);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records in memory-mapped segment files, used by OutboxJournal and LayerMessageStore.
+ * <p>
+ *     A record is its length, a CRC32 of the rest, a first byte that the owner uses for its type or format, and the
+ *     rest. Reading stops at the first record that is cut short or fails its checksum, new records are written from
+ *     there. When a segment is full a new one is started. <br>
+ *     A location is the sequence of the segment in the high half and the offset of the record in the low half. <br>
+ *     Not thread safe, the owner guards it.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class SegmentLog {
+    /**
+     * Length and CRC32
+     */
+    static final int HEADER = 8;
+    /**
+     * Smallest segment
+     */
+    static final int MIN_SEGMENT_SIZE = 4096;
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Receives the records found when the log is opened.
+     */
+    interface Reader {
+        /**
+         * @param location Location of the record
+         * @param record First byte and rest of the record
+         */
+        void record(long location, byte[] record);
+    }
+
+    static final class Segment {
+        final long sequence;
+        final File file;
+        final MappedByteBuffer buffer;
+        /**
+         * Records of this segment that its owner still needs
+         */
+        int live;
+
+        Segment(long sequence, File file, int size) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            // The mapping stays valid after the file is closed
+            try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+                this.buffer = random.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, random.length()));
+            }
+        }
+    }
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    /**
+     * Segments oldest first
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    private Segment active;
+    private long bytes;
+
+    /**
+     * Opens the log in a directory, {@link #read(Reader)} reads its records before the first append.
+     * @param directory Directory of the segment files, created if missing
+     * @param name Name of the log, the prefix of its segment files
+     * @param segmentSize Size of a segment file in bytes
+     * @throws IOException if the directory or a segment could not be opened
+     */
+    SegmentLog(File directory, String name, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + name + " directory " + directory);
+        }
+        for (long sequence : sequences(directory, name + '-')) {
+            active = new Segment(sequence, file(sequence), 0);
+            segments.add(active);
+        }
+        if (active == null) {
+            roll();
+        }
+    }
+
+    /**
+     * Reads the records of every segment and leaves the positions at the end of them. Blocks while reading.
+     * @param reader Receives the records, oldest first
+     */
+    void read(Reader reader) {
+        for (Segment segment : segments) {
+            read(segment, reader);
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment if it does not fit.
+     * @param first First byte of the record
+     * @param rest Rest of the record
+     * @return Location of the record
+     * @throws IOException if the record is larger than a segment or a new segment could not be created
+     */
+    long append(byte first, byte[] rest) throws IOException {
+        int length = rest.length + 1;
+        if (HEADER + length + HEADER > segmentSize) {
+            throw new IOException("Record of " + length + " bytes is larger than the " + name + " segment size");
+        }
+        if (active.buffer.remaining() < HEADER + length + HEADER) {
+            roll();
+        }
+        crc.reset();
+        crc.update(first);
+        crc.update(rest, 0, rest.length);
+        MappedByteBuffer buffer = active.buffer;
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(first);
+        buffer.put(rest);
+        // End of the records, the length is written last so a record cut short reads as the end
+        buffer.putInt(buffer.position(), 0);
+        buffer.putInt(start, length);
+        bytes += HEADER + length;
+        return active.sequence << 32 | start;
+    }
+
+    /**
+     * @param location Location of a record
+     * @return Length of the record, its first byte included
+     */
+    int length(long location) {
+        return segment(location).buffer.getInt((int) location);
+    }
+
+    /**
+     * @param location Location of a record
+     * @return Record without its first byte
+     */
+    byte[] rest(long location) {
+        ByteBuffer view = segment(location).buffer.duplicate();
+        int offset = (int) location;
+        byte[] rest = new byte[view.getInt(offset) - 1];
+        view.position(offset + HEADER + 1);
+        view.get(rest);
+        return rest;
+    }
+
+    /**
+     * @param location Location of a record
+     * @return Segment of the record
+     */
+    Segment segment(long location) {
+        long sequence = location >>> 32;
+        int index = (int) (sequence - segments.get(0).sequence);
+        if (index >= 0 && index < segments.size() && segments.get(index).sequence == sequence) {
+            return segments.get(index);
+        }
+        // Segments missing from the directory leave gaps in the sequences
+        for (Segment segment : segments) {
+            if (segment.sequence == sequence) {
+                return segment;
+            }
+        }
+        throw new IllegalArgumentException("No " + name + " segment " + sequence);
+    }
+
+    /**
+     * @return Segment records are appended to
+     */
+    Segment active() {
+        return active;
+    }
+
+    /**
+     * @return Oldest segment
+     */
+    Segment first() {
+        return segments.get(0);
+    }
+
+    /**
+     * Removes the oldest segment from the log, the owner deletes its file.
+     * @return Segment removed
+     */
+    Segment removeFirst() {
+        return segments.remove(0);
+    }
+
+    /**
+     * @return Bytes that can still be appended to the active segment without starting a new one, headers included
+     */
+    int remaining() {
+        return active.buffer.remaining() - HEADER;
+    }
+
+    /**
+     * @return Number of segments
+     */
+    int size() {
+        return segments.size();
+    }
+
+    /**
+     * @return Bytes of the records read and appended
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    private void roll() throws IOException {
+        long sequence = active == null ? 0 : active.sequence + 1;
+        active = new Segment(sequence, file(sequence), segmentSize);
+        segments.add(active);
+    }
+
+    /**
+     * Reads the records of a segment and leaves its position at the end of them.
+     */
+    private void read(Segment segment, Reader reader) {
+        MappedByteBuffer buffer = segment.buffer;
+        while (buffer.remaining() >= HEADER + 1) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 1 || length > buffer.remaining() - HEADER) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.position(start + HEADER);
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, record.length);
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                buffer.position(start);
+                break;
+            }
+            bytes += HEADER + length;
+            reader.record(segment.sequence << 32 | start, record);
+        }
+    }
+
+    private File file(long sequence) {
+        return new File(directory, name + '-' + String.format("%020d", sequence) + SUFFIX);
+    }
+
+    private static long[] sequences(File directory, String prefix) {
+        File[] files = directory.listFiles((dir, file) -> file.startsWith(prefix) && file.endsWith(SUFFIX));
+        if (files == null) {
+            return new long[0];
+        }
+        long[] sequences = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                sequences[count] = Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        long[] found = Arrays.copyOf(sequences, count);
+        Arrays.sort(found);
+        return found;
+    }
+}
@@ -0,0 +1,93 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Writes the conversations and messages of successful responses to a LayerMessageStore.
+ * <p>
+ *     Responses of the conversation and message endpoints are buffered, stored and then handed on. Streaming
+ *     requests are passed through, their pages are stored by the client with {@link #record}. Bodies that are not
+ *     the JSON expected are handed on without being stored.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class StoringDispatcher implements LayerDispatcher {
+    private final LayerDispatcher next;
+    private final LayerMessageStore store;
+
+    /**
+     * @param next Dispatcher that sends the requests
+     * @param store Store to write
+     */
+    StoringDispatcher(LayerDispatcher next, LayerMessageStore store) {
+        this.next = next;
+        this.store = store;
+    }
+
+    @Override
+    public void dispatch(LayerRequest request, Handler<AsyncResult<HttpClientResponse>> handler) {
+        if (request.streaming || !stored(request.endpoint)) {
+            next.dispatch(request, handler);
+            return;
+        }
+        next.dispatch(request, result -> {
+            if (result.failed() || result.result().statusCode() / 100 != 2) {
+                handler.handle(result);
+                return;
+            }
+            BufferedHttpClientResponse.buffer(result.result(), buffered -> {
+                if (buffered.failed()) {
+                    handler.handle(Future.failedFuture(buffered.cause()));
+                    return;
+                }
+                record(request.endpoint, buffered.result().body());
+                buffered.result().respond(handler);
+            });
+        });
+    }
+
+    /**
+     * Stores the conversations or messages of a response body.
+     * @param endpoint Endpoint that returned the body
+     * @param body Conversation or message for a single one, JSON array for a listing
+     */
+    void record(LayerEndpoint endpoint, Buffer body) {
+        if (!stored(endpoint) || body.length() == 0) {
+            return;
+        }
+        boolean messages = LayerEndpoint.MESSAGES.equals(endpoint.family);
+        try {
+            if (body.getByte(0) == '[') {
+                JsonArray items = body.toJsonArray();
+                for (Object item : items) {
+                    if (item instanceof JsonObject) {
+                        record(messages, (JsonObject) item);
+                    }
+                }
+            } else {
+                record(messages, body.toJsonObject());
+            }
+        } catch (DecodeException e) {
+            // Handed on unstored
+        }
+    }
+
+    private void record(boolean message, JsonObject item) {
+        if (message) {
+            store.putMessage(item);
+        } else {
+            store.putConversation(item);
+        }
+    }
+
+    private static boolean stored(LayerEndpoint endpoint) {
+        return LayerEndpoint.MESSAGES.equals(endpoint.family) || LayerEndpoint.CONVERSATIONS.equals(endpoint.family);
+    }
+}
@@ -0,0 +1,120 @@
+package com.paddlenose.vertx.layer.sdk;
+
+/**
+ * Token bucket with a refill rate that follows what Layer reports.
+ * <p>
+ *     Holds at most one second of requests. The rate starts at the configured maximum, is halved on 429 and
+ *     recovers linearly to the maximum over {@link #RECOVERY_SECONDS}. When Layer reports the remaining requests
+ *     of its window the rate is set to spread them over the rest of the window. <br>
+ *     Time is passed in as System.nanoTime() values. Not thread safe, callers synchronize.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class TokenBucket {
+    /**
+     * Seconds to recover from a 429 to the configured rate
+     */
+    static final double RECOVERY_SECONDS = 10;
+    /**
+     * Lowest rate as a fraction of the configured rate
+     */
+    static final double MIN_RATE_FRACTION = 0.05;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double capacity;
+
+    private double rate;
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+
+    /**
+     * @param maxRate Configured rate in requests per second
+     * @param now Current time in nanoseconds
+     */
+    TokenBucket(double maxRate, long now) {
+        this.maxRate = maxRate;
+        this.minRate = maxRate * MIN_RATE_FRACTION;
+        this.capacity = Math.max(1, maxRate);
+        this.rate = maxRate;
+        this.tokens = capacity;
+        this.refilledAt = now;
+        this.pausedUntil = now;
+    }
+
+    /**
+     * @param now Current time in nanoseconds
+     * @return Nanoseconds until a token is available, 0 if one is available now
+     */
+    long delay(long now) {
+        refill(now);
+        if (now - pausedUntil < 0) {
+            return pausedUntil - now;
+        }
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) ((1 - tokens) / rate * 1e9) + 1;
+    }
+
+    /**
+     * Takes a token, call after {@link #delay} returned 0.
+     */
+    void take() {
+        tokens -= 1;
+    }
+
+    /**
+     * Layer answered 429, empties the bucket, halves the rate and pauses.
+     * @param now Current time in nanoseconds
+     * @param retryAfter Nanoseconds to pause
+     */
+    void throttled(long now, long retryAfter) {
+        refill(now);
+        tokens = 0;
+        rate = Math.max(minRate, rate / 2);
+        if (now + retryAfter - pausedUntil > 0) {
+            pausedUntil = now + retryAfter;
+        }
+    }
+
+    /**
+     * Layer reported its remaining requests, paces them over the rest of the window.
+     * @param now Current time in nanoseconds
+     * @param remaining Requests left in the window
+     * @param reset Nanoseconds until the window resets
+     */
+    void observed(long now, long remaining, long reset) {
+        refill(now);
+        if (reset <= 0) {
+            return;
+        }
+        tokens = Math.min(tokens, remaining);
+        rate = Math.max(minRate, Math.min(maxRate, remaining * 1e9 / reset));
+        if (remaining == 0 && now + reset - pausedUntil > 0) {
+            pausedUntil = now + reset;
+        }
+    }
+
+    /**
+     * @return Current rate in requests per second
+     */
+    double rate() {
+        return rate;
+    }
+
+    private void refill(long now) {
+        // Nothing accumulates while paused
+        long from = pausedUntil - refilledAt > 0 ? pausedUntil : refilledAt;
+        if (now - refilledAt > 0) {
+            refilledAt = now;
+        }
+        if (now - from <= 0) {
+            return;
+        }
+        double seconds = (now - from) / 1e9;
+        tokens = Math.min(capacity, tokens + seconds * rate);
+        rate = Math.min(maxRate, rate + maxRate * seconds / RECOVERY_SECONDS);
+    }
+}
@@ -0,0 +1,104 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open addressing hash table from UUID to a non-negative long, in three primitive arrays.
+ * <p>
+ *     An entry takes 24 bytes per slot, with at most three quarters of the slots used. Entries are never removed.
+ *     Not thread safe.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class UuidIndex {
+    /**
+     * Value of a free slot and result for a missing key
+     */
+    static final long MISSING = -1;
+
+    private long[] most;
+    private long[] least;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * @param capacity Entries expected, rounded up
+     */
+    UuidIndex(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(16, capacity * 4 / 3) - 1) << 1);
+    }
+
+    /**
+     * @param key Key looked up
+     * @return Value of the key, {@link #MISSING} if it has none
+     */
+    long get(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        for (int slot = slot(msb, lsb); values[slot] != MISSING; slot = slot + 1 & mask) {
+            if (most[slot] == msb && least[slot] == lsb) {
+                return values[slot];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * @param key Key to set
+     * @param value Value, not negative
+     * @return Previous value of the key, {@link #MISSING} if it had none
+     */
+    long put(UUID key, long value) {
+        long previous = insert(key.getMostSignificantBits(), key.getLeastSignificantBits(), value);
+        if (previous == MISSING && ++size > values.length / 4 * 3) {
+            long[] oldMost = most;
+            long[] oldLeast = least;
+            long[] oldValues = values;
+            allocate(values.length * 2);
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != MISSING) {
+                    insert(oldMost[i], oldLeast[i], oldValues[i]);
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * @return Number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    private long insert(long msb, long lsb, long value) {
+        int slot = slot(msb, lsb);
+        while (values[slot] != MISSING) {
+            if (most[slot] == msb && least[slot] == lsb) {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = slot + 1 & mask;
+        }
+        most[slot] = msb;
+        least[slot] = lsb;
+        values[slot] = value;
+        return MISSING;
+    }
+
+    private void allocate(int slots) {
+        most = new long[slots];
+        least = new long[slots];
+        values = new long[slots];
+        Arrays.fill(values, MISSING);
+        mask = slots - 1;
+    }
+
+    private int slot(long msb, long lsb) {
+        long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
@@ -0,0 +1,58 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ids of delivered events for a time window, to drop redeliveries.
+ * <p>
+ *     Ids are kept in the order they arrived, so expired ids are removed from the head in constant time per id.
+ *     When more than the maximum number of ids are within the window the oldest are forgotten early. Thread safe,
+ *     state is guarded by this instance.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class WebhookDeduplicator {
+    private final long windowNanos;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    /**
+     * @param windowNanos Duration an id is remembered
+     * @param maxEntries Maximum number of ids remembered
+     */
+    WebhookDeduplicator(long windowNanos, int maxEntries) {
+        this.windowNanos = windowNanos;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Records a delivery.
+     * @param id Event id
+     * @param now Current System.nanoTime()
+     * @return True if the id was not delivered within the window
+     */
+    synchronized boolean firstDelivery(String id, long now) {
+        Iterator<Map.Entry<String, Long>> oldest = seen.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            if (now - entry.getValue() < windowNanos && seen.size() < maxEntries) {
+                break;
+            }
+            oldest.remove();
+        }
+        if (seen.containsKey(id)) {
+            return false;
+        }
+        seen.put(id, now);
+        return true;
+    }
+
+    /**
+     * @return Number of ids remembered
+     */
+    synchronized int size() {
+        return seen.size();
+    }
+}
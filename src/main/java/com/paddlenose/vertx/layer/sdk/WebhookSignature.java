@@ -0,0 +1,99 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+
+/**
+ * HMAC-SHA1 of webhook bodies, the signature Layer sends in the layer-webhook-signature header.
+ * <p>
+ *     Creating and keying a Mac costs more than hashing a small body, so initialized instances are kept per thread,
+ *     that is per event loop. A Mac holds the state of one body while its chunks arrive and requests on one event
+ *     loop interleave, so every request takes a Mac of its own from the pool of its thread and returns it at the end.
+ * </p>
+ * @author Gustaf Nilstadius
+ */
+final class WebhookSignature {
+    static final String ALGORITHM = "HmacSHA1";
+    private static final int MAX_POOLED = 64;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<ArrayDeque<Mac>> pools = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * @param secret Webhook secret
+     */
+    WebhookSignature(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        mac();
+    }
+
+    /**
+     * @return A keyed Mac of the current thread, return it with {@link #release(Mac)}
+     */
+    Mac acquire() {
+        Mac mac = pools.get().poll();
+        return mac != null ? mac : mac();
+    }
+
+    /**
+     * Resets a Mac and keeps it for the next request of the current thread.
+     */
+    void release(Mac mac) {
+        mac.reset();
+        ArrayDeque<Mac> pool = pools.get();
+        if (pool.size() < MAX_POOLED) {
+            pool.push(mac);
+        }
+    }
+
+    /**
+     * Compares a digest with a signature header in constant time.
+     * @param digest Digest of the body
+     * @param signature Hex signature, case insensitive, may be null
+     * @return True if they match
+     */
+    static boolean matches(byte[] digest, String signature) {
+        if (signature == null || signature.length() != digest.length * 2) {
+            return false;
+        }
+        byte[] expected = new byte[digest.length];
+        for (int i = 0; i < expected.length; i++) {
+            int high = Character.digit(signature.charAt(2 * i), 16);
+            int low = Character.digit(signature.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            expected[i] = (byte) (high << 4 | low);
+        }
+        return MessageDigest.isEqual(digest, expected);
+    }
+
+    /**
+     * Signs a body, as Layer does.
+     * @param secret Webhook secret
+     * @param body Body
+     * @return Lower case hex signature
+     */
+    static String sign(String secret, byte[] body) {
+        byte[] digest = new WebhookSignature(secret).acquire().doFinal(body);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private Mac mac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not create " + ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class CircuitBreakerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void opensOnFailureRate(TestContext context) throws Exception {
+        List<JsonObject> events = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker("messages", 4, 50, 100, SECOND, events::add);
+        for (int i = 0; i < 3; i++) {
+            context.assertTrue(breaker.tryAcquire(0));
+            breaker.record(0, i == 0, false);
+        }
+        context.assertEquals(breaker.state(), CircuitBreaker.State.CLOSED);
+        breaker.record(0, true, false);
+        context.assertEquals(breaker.state(), CircuitBreaker.State.OPEN);
+        context.assertFalse(breaker.tryAcquire(SECOND - 1));
+        context.assertEquals(events.size(), 1);
+        context.assertEquals(events.get(0).getString("family"), "messages");
+        context.assertEquals(events.get(0).getString("state"), "open");
+        context.assertEquals(events.get(0).getDouble("failure_rate"), 50d);
+    }
+
+    @Test
+    public void opensOnSlowCallRate(TestContext context) throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("messages", 2, 50, 100, SECOND, event -> { });
+        breaker.record(0, false, true);
+        breaker.record(0, false, true);
+        context.assertEquals(breaker.state(), CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void halfOpenCloses(TestContext context) throws Exception {
+        List<JsonObject> events = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker("messages", 1, 50, 100, SECOND, events::add);
+        breaker.record(0, true, false);
+        for (int i = 0; i < CircuitBreaker.PROBES; i++) {
+            context.assertTrue(breaker.tryAcquire(SECOND));
+        }
+        context.assertEquals(breaker.state(), CircuitBreaker.State.HALF_OPEN);
+        context.assertFalse(breaker.tryAcquire(SECOND));
+        for (int i = 0; i < CircuitBreaker.PROBES; i++) {
+            breaker.record(SECOND, false, false);
+        }
+        context.assertEquals(breaker.state(), CircuitBreaker.State.CLOSED);
+        context.assertEquals(events.get(1).getString("state"), "half_open");
+        context.assertEquals(events.get(2).getString("state"), "closed");
+    }
+
+    @Test
+    public void halfOpenReopens(TestContext context) throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("messages", 1, 50, 100, SECOND, event -> { });
+        breaker.record(0, true, false);
+        context.assertTrue(breaker.tryAcquire(SECOND));
+        context.assertTrue(breaker.tryAcquire(SECOND));
+        breaker.record(SECOND, true, false);
+        context.assertEquals(breaker.state(), CircuitBreaker.State.HALF_OPEN);
+        breaker.record(SECOND, true, false);
+        context.assertEquals(breaker.state(), CircuitBreaker.State.OPEN);
+        context.assertFalse(breaker.tryAcquire(2 * SECOND - 1));
+        context.assertTrue(breaker.tryAcquire(2 * SECOND));
+    }
+
+    @Test
+    public void openCircuitFailsFast(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCircuitBreaker(true);
+        options.setCircuitBreakerWindow(4);
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().setStatusCode(500).end();
+        });
+        Async opened = context.async();
+        vertx.eventBus().<JsonObject>consumer(LayerServerOptions.DEFAULT_CIRCUIT_BREAKER_ADDRESS, message -> {
+            context.assertEquals(message.body().getString("family"), "messages");
+            context.assertEquals(message.body().getString("state"), "open");
+            opened.complete();
+        });
+
+        for (int i = 0; i < 4; i++) {
+            Async async = context.async();
+            subject.getConversationMessage(response -> {
+                context.assertEquals(response.statusCode(), 500);
+                async.complete();
+            }, "123");
+            async.awaitSuccess();
+        }
+        opened.awaitSuccess();
+
+        Async failed = context.async();
+        subject.getConversationMessageStream(result -> {
+            context.assertTrue(result.failed());
+            context.assertTrue(result.cause() instanceof LayerCircuitOpenException);
+            context.assertEquals(((LayerCircuitOpenException) result.cause()).getFamily(), "messages");
+            failed.complete();
+        }, "123");
+        failed.awaitSuccess();
+
+        context.assertEquals(requests.get(), 4);
+        context.assertEquals(subject.getCircuitBreakerStates().getString("messages"), "open");
+        context.assertEquals(subject.getCircuitBreakerStates().getString("conversations"), "closed");
+        server.close();
+    }
+}
@@ -0,0 +1,173 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class CoalescingDispatcherTest {
+
+    private Vertx vertx;
+
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCoalesceRequests(true);
+        subject = new LayerServerClient(vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void identicalGetsShareResponse(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            vertx.setTimer(200, id -> request.response().end(new JsonObject().put("id", "layer:///conversations/123").encode()));
+        });
+
+        Async async = context.async(5);
+        for (int i = 0; i < 5; i++) {
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                response.bodyHandler(body -> {
+                    context.assertEquals(body.toJsonObject().getString("id"), "layer:///conversations/123");
+                    async.countDown();
+                });
+            }, "123");
+        }
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 1);
+        context.assertEquals(subject.getCoalescedRequests(), 4L);
+        server.close();
+    }
+
+    @Test
+    public void differentUrisNotShared(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            vertx.setTimer(100, id -> request.response().end(new JsonObject().put("id", request.path()).encode()));
+        });
+
+        Async async = context.async(2);
+        subject.getConversation(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject().getString("id"), "/apps/123456789abc/conversations/1");
+            async.countDown();
+        }), "1");
+        subject.getConversation(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject().getString("id"), "/apps/123456789abc/conversations/2");
+            async.countDown();
+        }), "2");
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 2);
+        context.assertEquals(subject.getCoalescedRequests(), 0L);
+        server.close();
+    }
+
+    @Test
+    public void errorStatusShared(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            vertx.setTimer(100, id -> request.response().setStatusCode(404).end());
+        });
+
+        Async async = context.async(3);
+        for (int i = 0; i < 3; i++) {
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 404);
+                async.countDown();
+            }, "123");
+        }
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 1);
+        server.close();
+    }
+
+    @Test
+    public void failureShared(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> vertx.setTimer(100, id -> request.response().close()));
+
+        Async async = context.async(3);
+        for (int i = 0; i < 3; i++) {
+            subject.getConversation(response -> {
+                context.assertNull(response);
+                async.countDown();
+            }, "123");
+        }
+        async.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void sequentialGetsNotShared(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().end(new JsonObject().encode());
+        });
+
+        for (int i = 0; i < 2; i++) {
+            Async async = context.async();
+            subject.getConversation(response -> response.bodyHandler(body -> async.complete()), "123");
+            async.awaitSuccess();
+        }
+
+        context.assertEquals(requests.get(), 2);
+        server.close();
+    }
+
+    @Test
+    public void lateCallbackIgnored(TestContext context) throws Exception {
+        List<Handler<AsyncResult<HttpClientResponse>>> sent = new ArrayList<>();
+        CoalescingDispatcher dispatcher = new CoalescingDispatcher((request, handler) -> sent.add(handler));
+        LayerRequest request = new LayerRequest(null, LayerEndpoint.GET_CONVERSATION, "/conversations/123", "123", null, false);
+        AtomicInteger first = new AtomicInteger();
+        List<Throwable> follower = new ArrayList<>();
+
+        dispatcher.dispatch(request, result -> first.incrementAndGet());
+        sent.get(0).handle(Future.failedFuture("first"));
+        dispatcher.dispatch(request, result -> {});
+        dispatcher.dispatch(request, result -> follower.add(result.cause()));
+        sent.get(0).handle(Future.failedFuture("late"));
+
+        context.assertEquals(first.get(), 1);
+        context.assertTrue(follower.isEmpty());
+        context.assertEquals(sent.size(), 2);
+
+        sent.get(1).handle(Future.failedFuture("second"));
+        context.assertEquals(follower.size(), 1);
+        context.assertEquals(follower.get(0).getMessage(), "second");
+    }
+}
@@ -0,0 +1,185 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class CompressionTest {
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void gzipResponsesInflated(TestContext context) throws Exception {
+        JsonArray messages = messages(100);
+        List<String> accepted = new CopyOnWriteArrayList<>();
+        HttpServer server = TestSupport.listen(vertx, context, new HttpServerOptions().setCompressionSupported(true), request -> {
+            accepted.add(String.valueOf(request.getHeader("Accept-Encoding")));
+            request.response().end(messages.encode());
+        });
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCompression(true);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+
+        Async read = context.async();
+        subject.getConversationMessage(response -> {
+            context.assertNull(response.getHeader("Content-Encoding"));
+            response.bodyHandler(body -> {
+                context.assertEquals(body.toJsonArray(), messages);
+                read.complete();
+            });
+        }, "123");
+        read.awaitSuccess();
+
+        Async streamed = context.async();
+        AtomicInteger elements = new AtomicInteger();
+        subject.getConversationMessageStream(context.asyncAssertSuccess((ReadStream<JsonObject> stream) -> {
+            stream.handler(message -> elements.incrementAndGet());
+            stream.endHandler(v -> streamed.complete());
+        }), "123");
+        streamed.awaitSuccess();
+        context.assertEquals(elements.get(), 100);
+
+        context.assertEquals(accepted.get(0), "gzip, deflate");
+        JsonObject stats = subject.getCompressionStats();
+        context.assertEquals(stats.getLong("responses_inflated"), 2L);
+        context.assertEquals(stats.getLong("response_bytes"), 2L * messages.encode().length());
+        context.assertTrue(stats.getDouble("response_ratio") > 5, "Ratio " + stats.getDouble("response_ratio"));
+        context.assertTrue(stats.getDouble("inflate_cpu_ms") >= 0);
+        context.assertTrue(subject.getMetrics().containsKey("compression"));
+        server.close();
+    }
+
+    @Test
+    public void deflateResponsesInflated(TestContext context) throws Exception {
+        JsonArray messages = messages(10);
+        HttpServer server = TestSupport.listen(vertx, context, new HttpServerOptions(), request -> {
+            Deflater deflater = new Deflater();
+            deflater.setInput(messages.encode().getBytes());
+            deflater.finish();
+            byte[] out = new byte[64 * 1024];
+            int length = deflater.deflate(out);
+            request.response().putHeader("Content-Encoding", "deflate").end(Buffer.buffer().appendBytes(out, 0, length));
+        });
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCompression(true);
+
+        Async read = context.async();
+        TestSupport.client(vertx, options).getConversationMessage(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonArray(), messages);
+            read.complete();
+        }), "123");
+        read.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void largePostsGzipped(TestContext context) throws Exception {
+        JsonArray recipients = new JsonArray();
+        for (int i = 0; i < 500; i++) {
+            recipients.add("layer:///identities/" + i);
+        }
+        JsonObject announcement = new JsonObject().put("recipients", recipients).put("sender_id", "layer:///identities/777");
+        JsonObject small = new JsonObject().put("recipients", new JsonArray().add("layer:///identities/1"));
+        List<String> encodings = new CopyOnWriteArrayList<>();
+        HttpServer server = TestSupport.listen(vertx, context, new HttpServerOptions(), request -> request.bodyHandler(body -> {
+            String encoding = request.getHeader("Content-Encoding");
+            encodings.add(String.valueOf(encoding));
+            Buffer received = "gzip".equals(encoding) ? gunzip(body) : body;
+            request.response().setStatusCode(202).end(received);
+        }));
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCompressionThreshold(1024);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+
+        Async posted = context.async(2);
+        subject.postAnnouncement(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject(), announcement);
+            posted.countDown();
+        }), announcement);
+        subject.postNotification(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject(), small);
+            posted.countDown();
+        }), small);
+        posted.awaitSuccess();
+
+        context.assertTrue(encodings.contains("gzip"));
+        context.assertTrue(encodings.contains("null"), "Small bodies are sent as they are");
+        JsonObject stats = subject.getCompressionStats();
+        context.assertEquals(stats.getLong("requests_compressed"), 1L);
+        context.assertEquals(stats.getLong("request_bytes"), (long) announcement.encode().length());
+        context.assertTrue(stats.getDouble("request_ratio") > 3, "Ratio " + stats.getDouble("request_ratio"));
+        context.assertEquals(stats.getLong("responses_inflated"), 0L);
+        server.close();
+    }
+
+    @Test
+    public void disabledByDefault(TestContext context) throws Exception {
+        Async read = context.async();
+        HttpServer server = TestSupport.listen(vertx, context, new HttpServerOptions().setCompressionSupported(true), request -> {
+            context.assertNull(request.getHeader("Accept-Encoding"));
+            request.response().end("[]");
+        });
+        LayerServerClient subject = TestSupport.client(vertx, new LayerServerOptions("123456789abc", "thisIsAToken"));
+        subject.getConversationMessage(response -> read.complete(), "123");
+        read.awaitSuccess();
+        context.assertEquals(subject.getCompressionStats(), new JsonObject());
+        server.close();
+    }
+
+    private static JsonArray messages(int count) {
+        JsonArray messages = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            messages.add(new JsonObject()
+                    .put("id", "layer:///messages/940de862-3c96-11e4-baad-" + String.format("%012d", i))
+                    .put("sender", new JsonObject().put("user_id", "1234"))
+                    .put("parts", new JsonArray().add(new JsonObject().put("body", "Hello, World!").put("mime_type", "text/plain"))));
+        }
+        return messages;
+    }
+
+    private static Buffer gunzip(Buffer body) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+            return Buffer.buffer(out.toByteArray());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class ConcurrencyLimitingDispatcherTest {
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void limitGrowsWhileLatencyFlat(TestContext context) throws Exception {
+        GradientLimit limit = new GradientLimit(10, 1, 100);
+        for (int i = 0; i < 200; i++) {
+            limit.sample(10 * MILLISECOND, limit.limit());
+        }
+        context.assertEquals(limit.limit(), 100);
+    }
+
+    @Test
+    public void limitShrinksWhenQueueing(TestContext context) throws Exception {
+        GradientLimit limit = new GradientLimit(50, 1, 100);
+        for (int i = 0; i < 20; i++) {
+            limit.sample(10 * MILLISECOND, limit.limit());
+        }
+        int before = limit.limit();
+        for (int i = 0; i < 20; i++) {
+            limit.sample(100 * MILLISECOND, limit.limit());
+        }
+        context.assertTrue(limit.limit() < before / 2, "limit " + limit.limit() + " before " + before);
+    }
+
+    @Test
+    public void limitKeptWhenIdle(TestContext context) throws Exception {
+        GradientLimit limit = new GradientLimit(10, 1, 100);
+        for (int i = 0; i < 50; i++) {
+            limit.sample(10 * MILLISECOND, 1);
+        }
+        context.assertEquals(limit.limit(), 10);
+    }
+
+    @Test
+    public void limitBacksOffOnDrop(TestContext context) throws Exception {
+        GradientLimit limit = new GradientLimit(10, 2, 100);
+        limit.dropped();
+        context.assertEquals(limit.limit(), 9);
+        for (int i = 0; i < 50; i++) {
+            limit.dropped();
+        }
+        context.assertEquals(limit.limit(), 2);
+    }
+
+    @Test
+    public void excessQueuedThenRejected(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setAdaptiveConcurrency(true);
+        options.setMaxConcurrency(2);
+        options.setConcurrencyQueueSize(1);
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            vertx.setTimer(100, id -> {
+                concurrent.decrementAndGet();
+                request.response().end(new JsonObject().encode());
+            });
+        });
+
+        Async async = context.async(4);
+        AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            subject.getConversation(response -> {
+                if (response == null) {
+                    rejected.incrementAndGet();
+                }
+                async.countDown();
+            }, "123");
+        }
+        context.assertEquals(subject.getConcurrencyStats().getInteger("in_flight"), 2);
+        context.assertEquals(subject.getConcurrencyStats().getInteger("queued"), 1);
+        async.awaitSuccess();
+
+        context.assertEquals(rejected.get(), 1);
+        context.assertEquals(maxConcurrent.get(), 2);
+        JsonObject stats = subject.getConcurrencyStats();
+        context.assertEquals(stats.getLong("rejected"), 1L);
+        context.assertEquals(stats.getInteger("limit"), 2);
+        context.assertTrue(stats.getDouble("rtt_ms") >= 90, "rtt " + stats.getDouble("rtt_ms"));
+        server.close();
+    }
+}
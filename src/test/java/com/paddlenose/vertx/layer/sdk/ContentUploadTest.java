@@ -0,0 +1,257 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class ContentUploadTest {
+    private static final String CONTENT_ID = "layer:///content/7a0aefb8-3c97-11e4-baad-164230d1df67";
+
+    private Vertx vertx;
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), new LayerServerOptions("123456789abc", "thisIsAToken"));
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void uploadsFileAndPostsMessage(TestContext context) throws Exception {
+        File file = File.createTempFile("content", ".bin");
+        file.deleteOnExit();
+        long size = 3 * 1024 * 1024 + 17;
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(size);
+        }
+        AtomicLong uploaded = new AtomicLong();
+        AtomicReference<JsonObject> posted = new AtomicReference<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.path().equals("/apps/123456789abc/content")) {
+                context.assertEquals(request.getHeader("Upload-Content-Type"), "application/octet-stream");
+                context.assertEquals(request.getHeader("Upload-Content-Length"), "" + size);
+                context.assertEquals(request.getHeader("Authorization"), "Bearer thisIsAToken");
+                request.response().setStatusCode(201).end(created(size).encode());
+            } else if (request.path().equals("/upload")) {
+                context.assertEquals(request.getHeader("Transfer-Encoding"), "chunked");
+                context.assertNull(request.getHeader("Authorization"), "Storage gets no Layer token");
+                request.handler(chunk -> uploaded.addAndGet(chunk.length()));
+                request.endHandler(v -> request.response().setStatusCode(200).end());
+            } else {
+                request.bodyHandler(body -> {
+                    posted.set(body.toJsonObject());
+                    request.response().setStatusCode(201).end();
+                });
+            }
+        });
+
+        AsyncFile content = vertx.fileSystem().openBlocking(file.getPath(), new OpenOptions().setRead(true));
+        JsonObject message = new JsonObject().put("sender_id", "layer:///identities/1234")
+                .put("parts", new JsonArray().add(new JsonObject().put("body", "See attached").put("mime_type", "text/plain")));
+        Async done = context.async();
+        subject.postMessageWithContent(context.asyncAssertSuccess(response -> {
+            context.assertEquals(response.statusCode(), 201);
+            done.complete();
+        }), "123", message, "application/octet-stream", size, content);
+        done.awaitSuccess();
+
+        context.assertEquals(uploaded.get(), size);
+        JsonArray parts = posted.get().getJsonArray("parts");
+        context.assertEquals(parts.size(), 2);
+        context.assertEquals(parts.getJsonObject(1), LayerServerClient.contentPart(created(size), "application/octet-stream"));
+        context.assertEquals(parts.getJsonObject(1).getJsonObject("content").getString("id"), CONTENT_ID);
+        context.assertEquals(message.getJsonArray("parts").size(), 1, "Message of the caller is not changed");
+        server.close();
+    }
+
+    @Test
+    public void sourcePausedWhileStorageIsSlow(TestContext context) throws Exception {
+        long size = 256L * 1024 * 1024;
+        Generator content = new Generator(size);
+        AtomicReference<HttpServerRequest> upload = new AtomicReference<>();
+        Async stalled = context.async();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.path().equals("/apps/123456789abc/content")) {
+                request.response().setStatusCode(201).end(created(size).encode());
+            } else {
+                request.pause();
+                upload.set(request);
+                stalled.complete();
+            }
+        });
+
+        Async done = context.async();
+        subject.postContent(context.asyncAssertSuccess(created -> {
+            context.assertEquals(created.getString("id"), CONTENT_ID);
+            done.complete();
+        }), "video/mp4", size, content);
+        stalled.awaitSuccess();
+        Thread.sleep(500);
+        long produced = content.produced.get();
+        context.assertTrue(produced < size / 8, "Source was paused after " + produced + " bytes");
+
+        HttpServerRequest request = upload.get();
+        vertx.runOnContext(v -> {
+            request.endHandler(end -> request.response().end());
+            request.handler(chunk -> {
+            });
+            request.resume();
+        });
+        done.awaitSuccess();
+        context.assertEquals(content.produced.get(), size);
+        server.close();
+    }
+
+    @Test
+    public void failures(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.path().equals("/apps/123456789abc/content")) {
+                request.response().setStatusCode(201).end(created(10).encode());
+            } else {
+                request.endHandler(v -> request.response().setStatusCode(400).end());
+                request.handler(chunk -> {
+                });
+            }
+        });
+
+        Async shorter = context.async();
+        subject.postContent(context.asyncAssertFailure(err -> {
+            context.assertTrue(err.getMessage().contains("announced"), err.getMessage());
+            shorter.complete();
+        }), "text/plain", 10, new Generator(5));
+        shorter.awaitSuccess();
+
+        Async rejected = context.async();
+        subject.postContent(context.asyncAssertFailure(err -> {
+            context.assertEquals(((LayerServerException) err).getStatusCode(), 400);
+            rejected.complete();
+        }), "text/plain", 10, new Generator(10));
+        rejected.awaitSuccess();
+        Async closed = context.async();
+        server.close(context.asyncAssertSuccess(v -> closed.complete()));
+        closed.awaitSuccess();
+
+        server = TestSupport.listen(vertx, context, request -> request.response().setStatusCode(422).end());
+        Async refused = context.async();
+        subject.postContent(context.asyncAssertFailure(err -> refused.complete()), "text/plain", 10, new Generator(10));
+        refused.awaitSuccess();
+        server.close();
+    }
+
+    private static JsonObject created(long size) {
+        return new JsonObject()
+                .put("id", CONTENT_ID)
+                .put("size", size)
+                .put("upload_url", "http://localhost:8080/upload")
+                .putNull("download_url");
+    }
+
+    /**
+     * Source of zeros that emits 64 KB chunks as long as it is not paused.
+     */
+    private final class Generator implements ReadStream<Buffer> {
+        private static final int CHUNK = 64 * 1024;
+
+        final AtomicLong produced = new AtomicLong();
+        private final long size;
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private boolean paused;
+        private boolean scheduled;
+
+        Generator(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public Generator exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public Generator handler(Handler<Buffer> handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        @Override
+        public Generator pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public Generator resume() {
+            paused = false;
+            schedule();
+            return this;
+        }
+
+        @Override
+        public Generator endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+
+        private void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                vertx.runOnContext(v -> {
+                    scheduled = false;
+                    emit();
+                });
+            }
+        }
+
+        private void emit() {
+            for (int i = 0; i < 16 && !paused; i++) {
+                long left = size - produced.get();
+                if (left == 0) {
+                    Handler<Void> end = endHandler;
+                    endHandler = null;
+                    if (end != null) {
+                        end.handle(null);
+                    }
+                    return;
+                }
+                int length = (int) Math.min(CHUNK, left);
+                produced.addAndGet(length);
+                handler.handle(Buffer.buffer(new byte[length]));
+            }
+            if (!paused) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class ContextShardedDispatcherTest {
+    private static final int CALLS = 10;
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void connectionsPerContext(TestContext context) throws Exception {
+        Set<Integer> ports = ConcurrentHashMap.newKeySet();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            ports.add(request.remoteAddress().port());
+            request.response().end(new JsonObject().put("id", "layer:///conversations/123").encode());
+        });
+        LayerServerClient subject = LayerServerClient.createSharded(vertx, clientOptions(), options());
+        List<Context> contexts = deploy(context, 2);
+
+        for (Context caller : contexts) {
+            Async calls = context.async(CALLS);
+            caller.runOnContext(v -> {
+                for (int i = 0; i < CALLS; i++) {
+                    subject.getConversation(response -> {
+                        context.assertEquals(response.statusCode(), 200);
+                        context.assertEquals(Vertx.currentContext(), caller, "Response handled on the caller's context");
+                        calls.countDown();
+                    }, "123");
+                }
+            });
+            calls.awaitSuccess();
+        }
+
+        // One pooled connection per context
+        context.assertEquals(ports.size(), 2);
+        context.assertEquals(subject.getMetrics().getInteger("shards"), 2);
+        subject.close();
+        server.close();
+    }
+
+    @Test
+    public void undeployClosesShard(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().end("{}"));
+        LayerServerClient subject = LayerServerClient.createSharded(vertx, clientOptions(), options());
+        List<Context> contexts = deploy(context, 2);
+        for (Context caller : contexts) {
+            Async call = context.async();
+            caller.runOnContext(v -> subject.getConversation(response -> call.complete(), "123"));
+            call.awaitSuccess();
+        }
+        context.assertEquals(subject.getMetrics().getInteger("shards"), 2);
+
+        Async undeployed = context.async();
+        vertx.undeploy(contexts.get(0).deploymentID(), context.asyncAssertSuccess(v -> undeployed.complete()));
+        undeployed.awaitSuccess();
+        context.assertEquals(subject.getMetrics().getInteger("shards"), 1);
+
+        subject.close();
+        context.assertEquals(subject.getMetrics().getInteger("shards"), 0);
+        server.close();
+    }
+
+    @Test
+    public void callsOutsideContext(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().end("{}"));
+        LayerServerClient subject = LayerServerClient.createSharded(vertx, clientOptions(), options());
+        Async call = context.async();
+        subject.getConversation(response -> {
+            context.assertEquals(response.statusCode(), 200);
+            call.complete();
+        }, "123");
+        call.awaitSuccess();
+        context.assertEquals(subject.getMetrics().getInteger("shards"), 0);
+        subject.close();
+        server.close();
+    }
+
+    private static HttpClientOptions clientOptions() {
+        return new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setMaxPoolSize(1);
+    }
+
+    private static LayerServerOptions options() {
+        return new LayerServerOptions("123456789abc", "thisIsAToken");
+    }
+
+    /**
+     * Deploys verticles and returns their contexts.
+     */
+    private List<Context> deploy(TestContext context, int instances) {
+        List<Context> contexts = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            Async deployed = context.async();
+            vertx.deployVerticle(new AbstractVerticle() {
+                @Override
+                public void start() throws Exception {
+                    synchronized (contexts) {
+                        contexts.add(this.context);
+                    }
+                }
+            }, context.asyncAssertSuccess(id -> deployed.complete()));
+            deployed.awaitSuccess();
+        }
+        return contexts;
+    }
+}
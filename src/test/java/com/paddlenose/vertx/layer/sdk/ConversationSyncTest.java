@@ -0,0 +1,216 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class ConversationSyncTest {
+    private Vertx vertx;
+    private HttpServer server;
+    private LayerConversationSync subject;
+    /**
+     * Conversations on the server by id
+     */
+    private final Map<String, JsonObject> conversations = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<JsonObject> deltas = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        for (int i = 0; i < 25; i++) {
+            put(i, i);
+        }
+        Async listening = context.async();
+        server = vertx.createHttpServer().requestHandler(request -> {
+            context.assertEquals(request.path(), "/apps/123456789abc/users/1234/conversations");
+            context.assertEquals(request.getParam("sort_by"), "last_message");
+            requests.incrementAndGet();
+            request.response().end(page(Integer.parseInt(request.getParam("page_size")), request.getParam("from_id")).encode());
+        }).listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setPageSize(10);
+        options.setSyncPageSize(5);
+        subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options).syncConversationsAsUser("1234");
+        subject.deltaHandler(deltas::add);
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void firstRefreshReadsEverything(TestContext context) throws Exception {
+        JsonObject result = refresh(context, false);
+        context.assertTrue(result.getBoolean("full"));
+        context.assertEquals(result.getInteger("pages"), 3);
+        context.assertEquals(result.getInteger("added"), 25);
+        context.assertEquals(deltas.size(), 25);
+        context.assertEquals(deltas.get(0).getString("type"), "add");
+        List<JsonObject> view = subject.getConversations();
+        context.assertEquals(view.size(), 25);
+        context.assertEquals(view.get(0).getString("id"), id(24));
+        context.assertEquals(subject.getConversation(id(3)), conversations.get(id(3)));
+    }
+
+    @Test
+    public void laterRefreshesReadOnlyChanges(TestContext context) throws Exception {
+        refresh(context, false);
+        deltas.clear();
+        requests.set(0);
+
+        JsonObject unchanged = refresh(context, false);
+        context.assertFalse(unchanged.getBoolean("full"));
+        context.assertEquals(unchanged.getInteger("pages"), 1);
+        context.assertEquals(unchanged.getInteger("conversations_read"), 1, "Stops below the newest conversation");
+        context.assertTrue(deltas.isEmpty());
+
+        put(3, 100);
+        put(7, 101);
+        put(30, 102);
+        JsonObject changed = refresh(context, false);
+        context.assertEquals(changed.getInteger("pages"), 1);
+        context.assertEquals(changed.getInteger("added"), 1);
+        context.assertEquals(changed.getInteger("updated"), 2);
+        context.assertEquals(changed.getInteger("conversations_read"), 4);
+        context.assertEquals(deltas.size(), 3);
+        context.assertEquals(deltas.get(0).getString("type"), "add");
+        context.assertEquals(deltas.get(0).getString("id"), id(30));
+        context.assertEquals(deltas.get(1).getString("type"), "update");
+        context.assertEquals(deltas.get(1).getString("id"), id(7));
+        context.assertEquals(subject.getConversations().get(1).getString("id"), id(7));
+
+        for (int i = 0; i < 8; i++) {
+            put(i, 200 + i);
+        }
+        JsonObject paged = refresh(context, false);
+        context.assertEquals(paged.getInteger("pages"), 2, "Pages on while conversations are newer");
+        context.assertEquals(paged.getInteger("updated"), 8);
+        context.assertEquals(requests.get(), 4);
+        context.assertTrue(subject.getStats().getLong("bytes_read") > 0);
+    }
+
+    @Test
+    public void fullRefreshFindsRemovals(TestContext context) throws Exception {
+        refresh(context, false);
+        deltas.clear();
+        JsonObject removedConversation = conversations.remove(id(5));
+        conversations.get(id(2)).put("metadata", new JsonObject().put("title", "Renamed"));
+
+        context.assertEquals(refresh(context, false).getInteger("updated"), 0, "Metadata changes wait for a full refresh");
+        JsonObject result = refresh(context, true);
+        context.assertEquals(result.getInteger("removed"), 1);
+        context.assertEquals(result.getInteger("updated"), 1);
+        JsonObject removal = deltas.stream().filter(delta -> delta.getString("type").equals("remove")).findFirst().get();
+        context.assertEquals(removal.getString("id"), id(5));
+        context.assertEquals(removal.getJsonObject("conversation"), removedConversation);
+        context.assertNull(subject.getConversation(id(5)));
+        context.assertEquals(subject.getStats().getInteger("conversations"), 24);
+    }
+
+    @Test
+    public void waitingRefreshesShareOne(TestContext context) throws Exception {
+        Async done = context.async(3);
+        List<JsonObject> results = new CopyOnWriteArrayList<>();
+        vertx.runOnContext(v -> {
+            subject.refresh(context.asyncAssertSuccess(r -> {
+                results.add(r);
+                done.countDown();
+            }));
+            subject.refresh(context.asyncAssertSuccess(r -> {
+                results.add(r);
+                done.countDown();
+            }));
+            subject.refreshAll(context.asyncAssertSuccess(r -> {
+                results.add(r);
+                done.countDown();
+            }));
+        });
+        done.awaitSuccess();
+        context.assertEquals(subject.getStats().getLong("refreshes"), 2L);
+        context.assertEquals(results.get(1), results.get(2));
+        context.assertTrue(results.get(2).getBoolean("full"));
+        context.assertEquals(requests.get(), 6);
+    }
+
+    private JsonObject refresh(TestContext context, boolean full) {
+        Async done = context.async();
+        JsonObject[] result = new JsonObject[1];
+        vertx.runOnContext(v -> {
+            if (full) {
+                subject.refreshAll(context.asyncAssertSuccess(r -> {
+                    result[0] = r;
+                    done.complete();
+                }));
+            } else {
+                subject.refresh(context.asyncAssertSuccess(r -> {
+                    result[0] = r;
+                    done.complete();
+                }));
+            }
+        });
+        done.awaitSuccess();
+        return result[0];
+    }
+
+    private static String id(int conversation) {
+        return "layer:///conversations/" + conversation;
+    }
+
+    /**
+     * Sets a conversation with its last message sent at the given minute.
+     */
+    private void put(int conversation, int minute) {
+        conversations.put(id(conversation), new JsonObject()
+                .put("id", id(conversation))
+                .put("created_at", "2017-01-01T00:00:00.000Z")
+                .put("last_message", new JsonObject()
+                        .put("id", "layer:///messages/" + conversation + "-" + minute)
+                        .put("sent_at", String.format("2017-01-07T%02d:%02d:00.000Z", minute / 60, minute % 60)))
+                .put("participants", new JsonArray().add("1234")));
+    }
+
+    /**
+     * Conversations sorted by last message, newest first, after from_id.
+     */
+    private JsonArray page(int page_size, String from_id) {
+        List<JsonObject> sorted = new ArrayList<>(conversations.values());
+        sorted.sort((a, b) -> LayerConversationSync.sortKey(b).compareTo(LayerConversationSync.sortKey(a)));
+        int start = 0;
+        if (from_id != null) {
+            while (!sorted.get(start).getString("id").equals(from_id)) {
+                start++;
+            }
+            start++;
+        }
+        JsonArray page = new JsonArray();
+        for (int i = start; i < sorted.size() && page.size() < page_size; i++) {
+            page.add(sorted.get(i).copy());
+        }
+        return page;
+    }
+}
@@ -0,0 +1,153 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class FanOutTest {
+    private static final String FAILING = "failing";
+
+    private Vertx vertx;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        Async listening = context.async();
+        vertx.createHttpServer().requestHandler(request -> request.bodyHandler(body -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            String conversation = request.path().split("/")[4];
+            bodies.add(body.toString());
+            keys.put(conversation, String.valueOf(request.getHeader(LayerServerClient.IDEMPOTENCY_KEY_HEADER)));
+            vertx.setTimer(20, id -> {
+                inFlight.decrementAndGet();
+                if (conversation.startsWith(FAILING)) {
+                    request.response().setStatusCode(500).end();
+                } else {
+                    request.response().setStatusCode(201)
+                            .end(new JsonObject().put("id", "layer:///messages/" + conversation).encode());
+                }
+            });
+        })).listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void postsToEveryConversation(TestContext context) {
+        LayerServerClient client = client();
+        List<String> conversations = conversations(40);
+        conversations.set(5, FAILING + "-5");
+        conversations.set(30, FAILING + "-30");
+        JsonObject message = new JsonObject().put("sender_id", "layer:///identities/1234");
+
+        List<JsonObject> results = new CopyOnWriteArrayList<>();
+        Async done = context.async();
+        client.postMessageFanOut(message, conversations)
+                .concurrency(4)
+                .resultHandler(results::add)
+                .start()
+                .setHandler(context.asyncAssertSuccess(summary -> {
+                    context.assertEquals(summary.getInteger("targets"), 40);
+                    context.assertEquals(summary.getInteger("sent"), 40);
+                    context.assertEquals(summary.getInteger("succeeded"), 38);
+                    context.assertEquals(summary.getInteger("failed"), 2);
+                    context.assertEquals(summary.getInteger("cancelled"), 0);
+                    context.assertEquals(summary.getJsonArray("failures").getJsonObject(0).getInteger("status"), 500);
+                    context.assertEquals(results.size(), 40);
+                    JsonObject first = results.stream()
+                            .filter(result -> result.getString("conversation_UUID").equals(conversations.get(0)))
+                            .findFirst().get();
+                    context.assertEquals(first.getInteger("status"), 201);
+                    context.assertEquals(first.getString("id"), "layer:///messages/" + conversations.get(0));
+                    context.assertTrue(maxInFlight.get() <= 4, "At most 4 posts in flight, was " + maxInFlight.get());
+                    context.assertTrue(maxInFlight.get() > 1, "Posts run concurrently");
+                    context.assertEquals(bodies.size(), 40);
+                    context.assertTrue(bodies.stream().allMatch(message.encode()::equals));
+                    context.assertEquals(keys.get(conversations.get(0)), "null");
+                    done.complete();
+                }));
+    }
+
+    @Test
+    public void cancelStopsPosting(TestContext context) {
+        LayerServerClient client = client();
+        Async done = context.async();
+        LayerFanOut fanOut = client.postMessageFanOut(new JsonObject(), conversations(100)).concurrency(2);
+        fanOut.resultHandler(result -> fanOut.cancel())
+                .start()
+                .setHandler(context.asyncAssertSuccess(summary -> {
+                    context.assertEquals(summary.getInteger("sent"), 2, "Posts in flight complete");
+                    context.assertEquals(summary.getInteger("succeeded"), 2);
+                    context.assertEquals(summary.getInteger("cancelled"), 98);
+                    context.assertEquals(fanOut.getStats().getInteger("in_flight"), 0);
+                    done.complete();
+                }));
+    }
+
+    @Test
+    public void rateCapPacesPosts(TestContext context) {
+        LayerServerClient client = client();
+        Async done = context.async();
+        client.postMessageFanOut(new JsonObject(), conversations(10))
+                .concurrency(10)
+                .rateLimit(50)
+                .idempotencyKey("announce-1")
+                .start()
+                .setHandler(context.asyncAssertSuccess(summary -> {
+                    context.assertEquals(summary.getInteger("succeeded"), 10);
+                    context.assertTrue(summary.getLong("duration_ms") >= 180,
+                            "10 posts at 50 per second take 180 ms, took " + summary.getLong("duration_ms"));
+                    context.assertTrue(maxInFlight.get() <= 3, "Paced posts do not pile up");
+                    context.assertEquals(keys.get("conversation-3"), "announce-1:conversation-3");
+                    done.complete();
+                }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startsOnce() {
+        LayerFanOut fanOut = client().postMessageFanOut(new JsonObject(), new ArrayList<>());
+        fanOut.start();
+        fanOut.start();
+    }
+
+    private LayerServerClient client() {
+        return new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setMaxPoolSize(16)), new LayerServerOptions("123456789abc", "thisIsAToken"));
+    }
+
+    private static List<String> conversations(int count) {
+        List<String> conversations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            conversations.add("conversation-" + i);
+        }
+        return conversations;
+    }
+}
@@ -0,0 +1,145 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class IdempotencyTest {
+    private static final String CONVERSATION = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+
+    private Vertx vertx;
+    private final AtomicInteger posts = new AtomicInteger();
+    private final List<String> keys = new CopyOnWriteArrayList<>();
+    /**
+     * Status of the next responses
+     */
+    private volatile int status = 201;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        Async listening = context.async();
+        vertx.createHttpServer().requestHandler(request -> {
+            int post = posts.incrementAndGet();
+            keys.add(String.valueOf(request.getHeader(LayerServerClient.IDEMPOTENCY_KEY_HEADER)));
+            vertx.setTimer(50, id -> request.response().setStatusCode(status)
+                    .end(new JsonObject().put("id", "layer:///messages/" + post).encode()));
+        }).listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void secondSubmissionCollapses(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setIdempotencyWindow(300);
+        LayerServerClient client = TestSupport.client(vertx, options);
+        JsonObject message = new JsonObject().put("sender_id", "layer:///identities/1234");
+
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        Async inFlight = context.async(3);
+        Handler<HttpClientResponse> read = response -> response.bodyHandler(body -> {
+            context.assertEquals(response.statusCode(), 201);
+            bodies.add(body.toString());
+            inFlight.countDown();
+        });
+        client.postMessage(read, CONVERSATION, message, "send-1");
+        client.postMessage(read, CONVERSATION, message, "send-1");
+        client.postMessageAsUser(read, CONVERSATION, message.copy().put("parts", new JsonArray()), "1234", "send-1");
+        inFlight.awaitSuccess();
+        context.assertEquals(posts.get(), 1, "Posts in flight collapse into one");
+        context.assertEquals(bodies.get(0), bodies.get(2));
+        context.assertEquals(keys.get(0), "send-1");
+
+        Async acknowledged = context.async();
+        client.postMessage(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toString(), bodies.get(0));
+            acknowledged.complete();
+        }), CONVERSATION, message, "send-1");
+        acknowledged.awaitSuccess();
+        context.assertEquals(posts.get(), 1, "Acknowledged posts are replayed within the window");
+
+        post(context, client, "send-2");
+        context.assertEquals(posts.get(), 2, "Other keys are sent");
+        post(context, client, null);
+        post(context, client, null);
+        context.assertEquals(posts.get(), 4, "Posts without a key are always sent");
+        context.assertEquals(keys.get(2), "null");
+
+        Thread.sleep(350);
+        post(context, client, "send-1");
+        context.assertEquals(posts.get(), 5, "Keys are forgotten after the window");
+
+        JsonObject stats = client.getIdempotencyStats();
+        context.assertEquals(stats.getLong("keyed"), 6L);
+        context.assertEquals(stats.getLong("sent"), 3L);
+        context.assertEquals(stats.getLong("collapsed"), 2L);
+        context.assertEquals(stats.getLong("replayed"), 1L);
+        context.assertEquals(client.getMetrics().getJsonObject("idempotency"), stats);
+    }
+
+    @Test
+    public void failedPostsAreForgotten(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setIdempotencyMaxEntries(2);
+        LayerServerClient client = TestSupport.client(vertx, options);
+        status = 503;
+        post(context, client, "send-1");
+        status = 201;
+        post(context, client, "send-1");
+        context.assertEquals(posts.get(), 2, "A post answered with an error can be sent again");
+
+        post(context, client, "send-2");
+        post(context, client, "send-3");
+        context.assertEquals(client.getIdempotencyStats().getInteger("entries"), 2);
+        post(context, client, "send-1");
+        context.assertEquals(posts.get(), 5, "The oldest key is forgotten when full");
+        post(context, client, "send-3");
+        context.assertEquals(posts.get(), 5);
+    }
+
+    @Test
+    public void generatedKeys(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setGenerateIdempotencyKeys(true);
+        LayerServerClient client = TestSupport.client(vertx, options);
+        post(context, client, null);
+        post(context, client, null);
+        post(context, client, "mine");
+        context.assertEquals(posts.get(), 3);
+        context.assertNotEquals(keys.get(0), "null");
+        context.assertNotEquals(keys.get(0), keys.get(1));
+        context.assertEquals(keys.get(2), "mine");
+        JsonObject stats = client.getIdempotencyStats();
+        context.assertEquals(stats.getLong("generated"), 2L);
+        context.assertEquals(stats.getInteger("entries"), 1, "Generated keys are not kept");
+    }
+
+    private void post(TestContext context, LayerServerClient client, String key) {
+        Async done = context.async();
+        client.postConversation(response -> response.bodyHandler(body -> done.complete()),
+                new JsonObject().put("participants", new JsonArray().add("1234")), key);
+        done.awaitSuccess();
+    }
+}
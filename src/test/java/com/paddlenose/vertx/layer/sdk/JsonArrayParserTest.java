@@ -0,0 +1,81 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class JsonArrayParserTest {
+
+    private final JsonArray array = new JsonArray()
+            .add(new JsonObject().put("id", "layer:///messages/1").put("parts", new JsonArray()
+                    .add(new JsonObject().put("body", "Braces { ] and \"quotes\" \\ in a string").put("mime_type", "text/plain"))))
+            .add(new JsonObject().put("id", "layer:///messages/2").put("metadata", new JsonObject().put("title", "K\u00e5re \ud83d\ude00 \u00fcn\u00efcode")))
+            .add(new JsonObject().put("id", "layer:///messages/3").put("nested", new JsonArray().add(new JsonArray().add(1).add(2))));
+
+    @Test
+    public void wholeArray(TestContext context) throws Exception {
+        List<JsonObject> elements = new ArrayList<>();
+        JsonArrayParser parser = new JsonArrayParser(elements::add);
+        parser.handle(Buffer.buffer(array.encodePrettily()));
+        parser.end();
+        context.assertEquals(new JsonArray(elements), array);
+        context.assertEquals(parser.count(), 3);
+    }
+
+    @Test
+    public void everySplitPoint(TestContext context) throws Exception {
+        byte[] bytes = array.encode().getBytes(StandardCharsets.UTF_8);
+        for (int split = 1; split < bytes.length; split++) {
+            List<JsonObject> elements = new ArrayList<>();
+            JsonArrayParser parser = new JsonArrayParser(elements::add);
+            parser.handle(Buffer.buffer().appendBytes(bytes, 0, split));
+            parser.handle(Buffer.buffer().appendBytes(bytes, split, bytes.length - split));
+            parser.end();
+            context.assertEquals(new JsonArray(elements), array, "Split at byte " + split);
+        }
+    }
+
+    @Test
+    public void elementEmittedWhenComplete(TestContext context) throws Exception {
+        List<JsonObject> elements = new ArrayList<>();
+        JsonArrayParser parser = new JsonArrayParser(elements::add);
+        parser.handle(Buffer.buffer("[{\"id\":\"a\"},{\"id\":"));
+        context.assertEquals(elements.size(), 1);
+        parser.handle(Buffer.buffer("\"b\"}]"));
+        context.assertEquals(elements.size(), 2);
+        parser.end();
+    }
+
+    @Test
+    public void emptyArray(TestContext context) throws Exception {
+        JsonArrayParser parser = new JsonArrayParser(element -> context.fail("No elements expected"));
+        parser.handle(Buffer.buffer(" [ ] \n"));
+        parser.end();
+        context.assertEquals(parser.count(), 0);
+    }
+
+    @Test(expected = DecodeException.class)
+    public void notAnArray(TestContext context) throws Exception {
+        new JsonArrayParser(element -> {}).handle(Buffer.buffer("{\"id\":\"a\"}"));
+    }
+
+    @Test(expected = DecodeException.class)
+    public void truncated(TestContext context) throws Exception {
+        JsonArrayParser parser = new JsonArrayParser(element -> {});
+        parser.handle(Buffer.buffer("[{\"id\":\"a\"},{\"id\""));
+        parser.end();
+    }
+}
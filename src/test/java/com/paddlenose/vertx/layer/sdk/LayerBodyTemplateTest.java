@@ -0,0 +1,96 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerBodyTemplateTest {
+    private final LayerBodyTemplate text = new LayerBodyTemplate(new JsonObject()
+            .put("sender_id", "${sender}")
+            .put("parts", new JsonArray().add(new JsonObject().put("body", "${body}").put("mime_type", "text/plain")))
+            .put("notification", new JsonObject().put("text", "${body}")), "body", "sender");
+
+    @Test
+    public void splicesValues(TestContext context) throws Exception {
+        String body = "Hello \"world\" \u00e5\u00e4\u00f6\n";
+        JsonObject expected = new JsonObject()
+                .put("sender_id", "layer:///identities/1234")
+                .put("parts", new JsonArray().add(new JsonObject().put("body", body).put("mime_type", "text/plain")))
+                .put("notification", new JsonObject().put("text", body));
+        Buffer encoded = text.apply(body, "layer:///identities/1234");
+        context.assertEquals(encoded.toJsonObject(), expected);
+        context.assertEquals(encoded.length(), expected.encode().getBytes("UTF-8").length, "Body is sized exactly");
+    }
+
+    @Test
+    public void valueTypes(TestContext context) throws Exception {
+        LayerBodyTemplate template = new LayerBodyTemplate(new JsonObject()
+                .put("object", "${object}").put("array", "${array}").put("raw", "${raw}")
+                .put("number", "${number}").put("flag", "${flag}").put("none", "${none}"),
+                "object", "array", "raw", "number", "flag", "none");
+        JsonObject body = template.apply(new JsonObject().put("a", 1), new JsonArray().add("b"), Buffer.buffer("{\"c\":[]}"),
+                42, true, null).toJsonObject();
+        context.assertEquals(body.getJsonObject("object"), new JsonObject().put("a", 1));
+        context.assertEquals(body.getJsonArray("array"), new JsonArray().add("b"));
+        context.assertEquals(body.getJsonObject("raw"), new JsonObject().put("c", new JsonArray()));
+        context.assertEquals(body.getInteger("number"), 42);
+        context.assertTrue(body.getBoolean("flag"));
+        context.assertTrue(body.containsKey("none"));
+        context.assertNull(body.getValue("none"));
+    }
+
+    @Test
+    public void invalidFields(TestContext context) throws Exception {
+        try {
+            new LayerBodyTemplate(new JsonObject().put("body", "${body}"), "body", "missing");
+            context.fail("Missing field accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        try {
+            text.apply("only one");
+            context.fail("Wrong number of values accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void postedAsIs(TestContext context) throws Exception {
+        Vertx vertx = Vertx.vertx();
+        Buffer message = text.apply("Hi", "layer:///identities/1234");
+        Async listening = context.async();
+        HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+            context.assertEquals(request.path(), "/apps/123456789abc/conversations/123/messages");
+            request.bodyHandler(body -> {
+                context.assertEquals(body, message);
+                request.response().setStatusCode(201).end();
+            });
+        }).listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), new LayerServerOptions("123456789abc", "thisIsAToken"));
+        Async posted = context.async();
+        subject.postMessage(response -> {
+            context.assertEquals(response.statusCode(), 201);
+            posted.complete();
+        }, "123", message);
+        posted.awaitSuccess();
+        server.close();
+        vertx.close(context.asyncAssertSuccess());
+    }
+}
@@ -0,0 +1,231 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerMessageStoreTest {
+    private static final String CONVERSATION = "f3cc7b32-3c92-11e4-baad-164230d1df67";
+
+    private Vertx vertx;
+    private File directory;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("store").toFile();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void storesResponsesOfTheClient(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        Async listening = context.async();
+        HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+            requests.incrementAndGet();
+            String path = request.path();
+            if (path.endsWith("/users/1234/conversations")) {
+                request.response().end(new JsonArray().add(conversation(CONVERSATION, "1234", "5678")).add(conversation("c2", "1234")).encode());
+            } else if (path.endsWith("/conversations/" + CONVERSATION)) {
+                request.response().end(conversation(CONVERSATION, "1234", "5678").encode());
+            } else if (request.method().name().equals("POST")) {
+                request.bodyHandler(body -> request.response().setStatusCode(201)
+                        .end(message("m9", CONVERSATION, 9).put("parts", body.toJsonObject().getJsonArray("parts")).encode()));
+            } else {
+                request.response().end(new JsonArray().add(message("m2", CONVERSATION, 2)).add(message("m1", CONVERSATION, 1)).encode());
+            }
+        }).listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setStoreDirectory(directory.getPath());
+        LayerServerClient client = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+
+        Async read = context.async(3);
+        client.getConversation(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject().getString("id"), "layer:///conversations/" + CONVERSATION);
+            read.countDown();
+        }), CONVERSATION);
+        client.getConversationMessage(response -> response.bodyHandler(body -> read.countDown()), CONVERSATION);
+        client.postMessage(response -> response.bodyHandler(body -> read.countDown()), CONVERSATION,
+                new JsonObject().put("parts", new JsonArray().add(new JsonObject().put("body", "Hello"))));
+        read.awaitSuccess();
+        Async paged = context.async();
+        ReadStream<JsonObject> conversations = client.getAllConversationsAsUser("1234");
+        conversations.endHandler(v -> paged.complete());
+        conversations.handler(conversation -> { });
+        paged.awaitSuccess();
+        client.close();
+
+        LayerMessageStore store = client.getMessageStore();
+        context.assertEquals(store.getConversation(CONVERSATION).getString("id"), "layer:///conversations/" + CONVERSATION);
+        context.assertEquals(store.getMessage("layer:///messages/m9").getJsonArray("parts").getJsonObject(0).getString("body"), "Hello");
+        List<JsonObject> history = store.getConversationMessages("layer:///conversations/" + CONVERSATION, 10);
+        context.assertEquals(history.size(), 3);
+        context.assertEquals(history.get(0).getString("id"), "layer:///messages/m9");
+        context.assertEquals(history.get(2).getString("id"), "layer:///messages/m1");
+        context.assertEquals(store.getConversationsOfParticipant("1234").size(), 2);
+        context.assertEquals(store.getConversationsOfParticipant("5678").size(), 1);
+        context.assertEquals(requests.get(), 4, "Store reads are local");
+        JsonObject stats = client.getMetrics().getJsonObject("store");
+        context.assertEquals(stats.getInteger("conversations"), 2);
+        context.assertEquals(stats.getInteger("messages"), 3);
+        context.assertEquals(stats.getLong("unchanged"), 1L, "The conversation read twice is written once");
+        server.close();
+    }
+
+    @Test
+    public void indexesSurviveReopen(TestContext context) throws Exception {
+        LayerMessageStore store = new LayerMessageStore(directory, 0);
+        for (int i = 0; i < 200; i++) {
+            store.putMessage(message("m" + i, CONVERSATION, i));
+        }
+        store.putConversation(conversation(CONVERSATION, "1234", "5678"));
+        store.putConversation(conversation(CONVERSATION, "1234", "9999").put("metadata", new JsonObject().put("title", "Renamed")));
+        store.putConversation(conversation("c2", "5678"));
+        store.putMessage(message("m7", CONVERSATION, 7).put("parts", new JsonArray().add("edited")));
+        store.close();
+        store.putMessage(message("m500", CONVERSATION, 500));
+        context.assertTrue(store.getStats().getInteger("segments") > 1, "Rolls over small segments");
+
+        LayerMessageStore reopened = new LayerMessageStore(directory, 0);
+        JsonObject stats = reopened.getStats();
+        context.assertEquals(stats.getInteger("messages"), 200);
+        context.assertEquals(stats.getInteger("conversations"), 2);
+        context.assertEquals(reopened.getMessage("m7").getJsonArray("parts").getString(0), "edited");
+        context.assertEquals(reopened.getConversation(CONVERSATION).getJsonObject("metadata").getString("title"), "Renamed");
+        context.assertEquals(reopened.getConversationsOfParticipant("1234").size(), 1);
+        context.assertTrue(reopened.getConversationsOfParticipant("5678").get(0).getString("id").endsWith("c2"),
+                "Participants removed by an update are unindexed");
+        context.assertEquals(reopened.getConversationsOfParticipant("9999").size(), 1);
+        context.assertTrue(reopened.getConversationsOfParticipant("0000").isEmpty());
+        context.assertNull(reopened.getMessage("m500"), "Closed stores are not written");
+
+        List<JsonObject> newest = reopened.getConversationMessages(CONVERSATION, 50);
+        context.assertEquals(newest.size(), 50);
+        context.assertEquals(newest.get(0).getString("id"), "layer:///messages/m199");
+        List<JsonObject> older = reopened.getConversationMessages(CONVERSATION, newest.get(49).getLong("position"), 100);
+        context.assertEquals(older.size(), 100);
+        context.assertEquals(older.get(0).getString("id"), "layer:///messages/m149");
+        context.assertEquals(reopened.getConversationMessages(CONVERSATION, 50, 100).size(), 50);
+        context.assertTrue(reopened.getConversationMessages("c9", 10).isEmpty());
+    }
+
+    @Test
+    public void standInPositionsSurviveReopen(TestContext context) throws Exception {
+        LayerMessageStore store = new LayerMessageStore(directory, 0);
+        store.putMessage(message("m1", CONVERSATION, 1));
+        store.putMessage(message("m2", CONVERSATION, 0).put("position", (Object) null));
+        store.close();
+
+        LayerMessageStore reopened = new LayerMessageStore(directory, 0);
+        reopened.putMessage(message("m3", CONVERSATION, 0).put("position", (Object) null));
+        List<JsonObject> history = reopened.getConversationMessages(CONVERSATION, 10);
+        context.assertEquals(history.size(), 3);
+        context.assertEquals(history.get(0).getString("id"), "layer:///messages/m3");
+        context.assertEquals(history.get(1).getString("id"), "layer:///messages/m2");
+        context.assertEquals(history.get(2).getString("id"), "layer:///messages/m1");
+    }
+
+    @Test
+    public void tornRecordIgnored(TestContext context) throws Exception {
+        LayerMessageStore store = new LayerMessageStore(directory, 0);
+        store.putMessage(message("m1", CONVERSATION, 1));
+        store.putMessage(message("m2", CONVERSATION, 2));
+        store.putMessage(message("m1", CONVERSATION, 1));
+        context.assertEquals(store.getStats().getLong("appended"), 2L);
+        context.assertEquals(store.getStats().getLong("unchanged"), 1L);
+        store.close();
+
+        // Corrupt the last byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+            long end = 0;
+            while (true) {
+                file.seek(end);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                end += 8 + length;
+            }
+            file.seek(end - 1);
+            int last = file.read();
+            file.seek(end - 1);
+            file.write(last ^ 0xff);
+        }
+
+        LayerMessageStore reopened = new LayerMessageStore(directory, 0);
+        context.assertNotNull(reopened.getMessage("m1"));
+        context.assertNull(reopened.getMessage("m2"));
+        reopened.putMessage(message("m3", CONVERSATION, 3));
+        context.assertEquals(new LayerMessageStore(directory, 0).getConversationMessages(CONVERSATION, 10).size(), 2,
+                "Writes continue after the last good record");
+    }
+
+    @Test
+    public void uuidIndexGrows(TestContext context) {
+        UuidIndex index = new UuidIndex(0);
+        UUID[] keys = new UUID[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = UUID.randomUUID();
+            context.assertEquals(index.put(keys[i], i), UuidIndex.MISSING);
+        }
+        context.assertEquals(index.put(keys[5], 50), 5L);
+        context.assertEquals(index.size(), keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            context.assertEquals(index.get(keys[i]), i == 5 ? 50L : i);
+        }
+        context.assertEquals(index.get(UUID.randomUUID()), UuidIndex.MISSING);
+        context.assertEquals(LayerMessageStore.key("layer:///conversations/" + CONVERSATION), UUID.fromString(CONVERSATION));
+        context.assertEquals(LayerMessageStore.key("layer:///messages/m1"), LayerMessageStore.key("m1"));
+    }
+
+    private static JsonObject conversation(String uuid, String... participants) {
+        return new JsonObject()
+                .put("id", "layer:///conversations/" + uuid)
+                .put("created_at", "2017-01-01T00:00:00.000Z")
+                .put("participants", new JsonArray(Arrays.asList((Object[]) participants)));
+    }
+
+    private static JsonObject message(String uuid, String conversation, long position) {
+        return new JsonObject()
+                .put("id", "layer:///messages/" + uuid)
+                .put("conversation", new JsonObject().put("id", "layer:///conversations/" + conversation))
+                .put("position", position)
+                .put("sent_at", "2017-01-07T12:00:00.000Z");
+    }
+}
@@ -0,0 +1,146 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerMetricsTest {
+    private static final int ITERATIONS = 100_000;
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void bucketBounds(TestContext context) throws Exception {
+        for (long value = 0; value < LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.index(value);
+            context.assertTrue(LatencyHistogram.lowest(index) <= value && value <= LatencyHistogram.highest(index), "value " + value);
+            long width = LatencyHistogram.highest(index) - LatencyHistogram.lowest(index) + 1;
+            context.assertTrue(width <= Math.max(1, value / LatencyHistogram.SUB_BUCKETS + 1), "value " + value + " width " + width);
+        }
+        context.assertEquals(LatencyHistogram.highest(LatencyHistogram.index(LatencyHistogram.MAX_VALUE)), LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles(TestContext context) throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertNear(context, histogram.percentile(50), 5000);
+        assertNear(context, histogram.percentile(99), 9900);
+        context.assertEquals(histogram.percentile(100), 10000L);
+        JsonObject snapshot = histogram.snapshot();
+        context.assertEquals(snapshot.getLong("count"), 10000L);
+        context.assertEquals(snapshot.getDouble("max_ms"), 10d);
+        context.assertEquals(snapshot.getDouble("mean_ms"), 5.0005d);
+    }
+
+    @Test
+    public void recordingAllocatesNothing(TestContext context) throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        LayerMetrics.Endpoint endpoint = new LayerMetrics().endpoint(LayerEndpoint.POST_MESSAGE);
+
+        for (int i = 0; i < 5; i++) {
+            record(endpoint);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        record(endpoint);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // Allow for the measurement itself, nothing per recorded value
+        context.assertTrue(allocated < 1024, "Allocated " + allocated + " bytes for " + ITERATIONS + " recordings");
+    }
+
+    @Test
+    public void callsRecordedAndPublished(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setMetrics(true);
+        options.setMetricsPublishInterval(50);
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+        String conversation = new JsonObject().put("id", "layer:///conversations/123").encode();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.method().name().equals("GET")) {
+                request.response().end(conversation);
+            } else {
+                request.bodyHandler(body -> request.response().setStatusCode(201).end());
+            }
+        });
+
+        Async get = context.async();
+        subject.getConversation(response -> response.bodyHandler(body -> get.complete()), "123");
+        get.awaitSuccess();
+        Async post = context.async();
+        JsonObject message = new JsonObject().put("sender_id", "1234").put("parts", new JsonArray());
+        subject.postMessage(response -> post.complete(), "123", message);
+        post.awaitSuccess();
+
+        JsonObject endpoints = subject.getMetrics().getJsonObject("endpoints");
+        JsonObject getConversation = endpoints.getJsonObject("getConversation");
+        context.assertEquals(getConversation.getLong("calls"), 1L);
+        context.assertEquals(getConversation.getInteger("in_flight"), 0);
+        context.assertEquals(getConversation.getJsonObject("status").getLong("200"), 1L);
+        context.assertEquals(getConversation.getLong("response_bytes"), (long) conversation.length());
+        context.assertEquals(getConversation.getJsonObject("latency").getLong("count"), 1L);
+        context.assertEquals(getConversation.getJsonObject("handler").getLong("count"), 1L);
+        JsonObject postMessage = endpoints.getJsonObject("postMessage");
+        context.assertEquals(postMessage.getJsonObject("status").getLong("201"), 1L);
+        context.assertEquals(postMessage.getLong("request_bytes"), (long) message.encode().length());
+        context.assertEquals(endpoints.getJsonObject("postNotification").getLong("calls"), 0L);
+
+        Async published = context.async();
+        vertx.eventBus().<JsonObject>consumer(LayerServerOptions.DEFAULT_METRICS_ADDRESS, msg -> {
+            if (!published.isCompleted()) {
+                context.assertEquals(msg.body().getJsonObject("endpoints").getJsonObject("getConversation").getLong("calls"), 1L);
+                published.complete();
+            }
+        });
+        published.awaitSuccess();
+        subject.close();
+        server.close();
+    }
+
+    private static void record(LayerMetrics.Endpoint endpoint) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            endpoint.latency.record(i * 1000L);
+            endpoint.status(200);
+            endpoint.inFlight.incrementAndGet();
+            endpoint.inFlight.decrementAndGet();
+            endpoint.responseBytes.addAndGet(i);
+        }
+    }
+
+    private static void assertNear(TestContext context, long actual, long expected) {
+        context.assertTrue(Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS, "actual " + actual + " expected " + expected);
+    }
+}
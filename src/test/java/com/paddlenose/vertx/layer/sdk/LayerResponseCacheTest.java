@@ -0,0 +1,191 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerResponseCacheTest {
+
+    private Vertx vertx;
+
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCacheMaxEntries(2);
+        options.setCacheTtl("getConversationMessage", 0);
+        subject = new LayerServerClient(vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void lruEviction(TestContext context) throws Exception {
+        LayerResponseCache cache = new LayerResponseCache(2);
+        long generation = cache.generation();
+        cache.put(entry("a", "1"), generation);
+        cache.put(entry("b", "2"), generation);
+        context.assertNotNull(cache.get("a", 0));
+        cache.put(entry("c", "3"), generation);
+        context.assertNotNull(cache.get("a", 0));
+        context.assertNull(cache.get("b", 0));
+        context.assertEquals(cache.stats().getLong("evictions"), 1L);
+        context.assertEquals(cache.stats().getInteger("size"), 2);
+    }
+
+    @Test
+    public void invalidationDropsRacingResponse(TestContext context) throws Exception {
+        LayerResponseCache cache = new LayerResponseCache(10);
+        long before = cache.generation();
+        cache.invalidateConversation("1");
+        cache.put(entry("a", "1"), before);
+        cache.put(entry("b", "2"), before);
+        context.assertNull(cache.get("a", 0));
+        context.assertNotNull(cache.get("b", 0));
+        cache.invalidateConversation("2");
+        context.assertNull(cache.get("b", 0));
+        context.assertEquals(cache.stats().getLong("invalidations"), 1L);
+    }
+
+    @Test
+    public void getConversationCached(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().end(new JsonObject().put("id", "layer:///conversations/123").encode());
+        });
+
+        for (int i = 0; i < 3; i++) {
+            Async async = context.async();
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                response.bodyHandler(body -> {
+                    context.assertEquals(body.toJsonObject().getString("id"), "layer:///conversations/123");
+                    async.complete();
+                });
+            }, "123");
+            async.awaitSuccess();
+        }
+
+        context.assertEquals(requests.get(), 1);
+        context.assertEquals(subject.getCacheStats().getLong("hits"), 2L);
+        context.assertEquals(subject.getCacheStats().getLong("misses"), 1L);
+        server.close();
+    }
+
+    @Test
+    public void getConversationRevalidated(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setCacheMaxEntries(10);
+        options.setCacheTtl("getConversation", 1);
+        LayerServerClient client = new LayerServerClient(vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (requests.incrementAndGet() == 1) {
+                context.assertNull(request.getHeader("If-None-Match"));
+                request.response().putHeader("ETag", "\"v1\"").end(new JsonObject().put("id", "layer:///conversations/123").encode());
+            } else {
+                context.assertEquals(request.getHeader("If-None-Match"), "\"v1\"");
+                request.response().setStatusCode(304).end();
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            Async async = context.async();
+            client.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                response.bodyHandler(body -> {
+                    context.assertEquals(body.toJsonObject().getString("id"), "layer:///conversations/123");
+                    async.complete();
+                });
+            }, "123");
+            async.awaitSuccess();
+            Thread.sleep(5);
+        }
+
+        context.assertEquals(requests.get(), 2);
+        context.assertEquals(client.getCacheStats().getLong("revalidations"), 1L);
+        server.close();
+    }
+
+    @Test
+    public void postMessageInvalidates(TestContext context) throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.method().name().equals("GET")) {
+                gets.incrementAndGet();
+                request.response().end(new JsonObject().put("id", "layer:///conversations/123").encode());
+            } else {
+                request.response().setStatusCode(201).end();
+            }
+        });
+
+        Async first = context.async();
+        subject.getConversation(response -> response.bodyHandler(body -> first.complete()), "123");
+        first.awaitSuccess();
+
+        Async post = context.async();
+        subject.postMessage(response -> {
+            context.assertEquals(response.statusCode(), 201);
+            post.complete();
+        }, "123", new JsonObject().put("sender_id", "1234").put("parts", new JsonArray()));
+        post.awaitSuccess();
+
+        Async second = context.async();
+        subject.getConversation(response -> response.bodyHandler(body -> second.complete()), "123");
+        second.awaitSuccess();
+
+        context.assertEquals(gets.get(), 2);
+        server.close();
+    }
+
+    @Test
+    public void endpointWithoutTtlNotCached(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().end(new JsonArray().encode());
+        });
+
+        for (int i = 0; i < 2; i++) {
+            Async async = context.async();
+            subject.getConversationMessage(response -> response.bodyHandler(body -> async.complete()), "123");
+            async.awaitSuccess();
+        }
+
+        context.assertEquals(requests.get(), 2);
+        server.close();
+    }
+
+    private LayerResponseCache.Entry entry(String key, String conversation_UUID) {
+        return new LayerResponseCache.Entry(key, conversation_UUID,
+                new BufferedHttpClientResponse(200, "OK", MultiMap.caseInsensitiveMultiMap(), Buffer.buffer()), null, Long.MAX_VALUE);
+    }
+}
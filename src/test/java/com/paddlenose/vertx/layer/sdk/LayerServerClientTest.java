@@ -6,6 +6,7 @@ import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
@@ -14,6 +15,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Gustaf Nilstadius
  *         Created by Gustaf Nilstadius ( hipernx ) on 2016-12-22.
@@ -26,7 +32,6 @@ public class LayerServerClientTest {
 
     private LayerServerClient subject;
 
-
     @SuppressWarnings("UnusedParameters")
     @Before
     public void setUp(TestContext context) throws Exception {
@@ -54,11 +59,11 @@ public class LayerServerClientTest {
         final Async async = context.async();
         final Async asyncServer = context.async();
 
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("userID/conversations"));
             request.response().end(conversations.encode());
             asyncServer.complete();
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.getConversationsAsUser(response -> {
             context.assertTrue(response.statusCode() == 200);
@@ -84,11 +89,11 @@ public class LayerServerClientTest {
 
         String conversation_UUID = "123";
         String user_ID = "user";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("/" + conversation_UUID));
             request.response().end(messages.encode());
             asyncServer.complete();
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.getConversationMessageAsUser(response -> {
             context.assertTrue(response.statusCode() == 200);
@@ -116,14 +121,14 @@ public class LayerServerClientTest {
 
         String conversationURI = "/conversations";
         String user_ID = "user";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains(conversationURI));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), createConversation);
                 request.response().setStatusCode(201).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postConversationAsUser(response -> {
             context.assertTrue(response.statusCode() == 201);
@@ -148,14 +153,14 @@ public class LayerServerClientTest {
 
         String conversation_UUID = "123";
         String user_ID = "user";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains(conversation_UUID));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), new JsonObject().put("parts", messages.getJsonObject(0).getJsonArray("parts")));
                 request.response().setStatusCode(201).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postMessageAsUser(response -> {
             context.assertTrue(response.statusCode() == 201);
@@ -180,11 +185,11 @@ public class LayerServerClientTest {
 
         String conversation_UUID = "convId";
 
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("conversations/" + conversation_UUID));
             request.response().end(conversations.getJsonObject(0).encode());
             asyncServer.complete();
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.getConversation(response -> {
             context.assertTrue(response.statusCode() == 200);
@@ -209,11 +214,11 @@ public class LayerServerClientTest {
         final Async asyncServer = context.async();
 
         String conversation_UUID = "123";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("/" + conversation_UUID));
             request.response().end(messages.encode());
             asyncServer.complete();
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.getConversationMessage(response -> {
             context.assertTrue(response.statusCode() == 200);
@@ -240,14 +245,14 @@ public class LayerServerClientTest {
         final Async asyncServer = context.async();
 
         String conversationURI = "/conversations";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains(conversationURI));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), createConversation);
                 request.response().setStatusCode(201).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postConversation(response -> {
             context.assertTrue(response.statusCode() == 201);
@@ -271,14 +276,14 @@ public class LayerServerClientTest {
         final Async asyncServer = context.async();
 
         String conversation_UUID = "123";
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains(conversation_UUID));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), messages.getJsonObject(0).put("sender_id", "1234"));
                 request.response().setStatusCode(201).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postMessage(response -> {
             context.assertTrue(response.statusCode() == 201);
@@ -301,14 +306,14 @@ public class LayerServerClientTest {
         final Async async = context.async();
         final Async asyncServer = context.async();
 
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("/announcements"));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), announcement);
                 request.response().setStatusCode(202).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postAnnouncement(response -> {
             context.assertTrue(response.statusCode() == 202);
@@ -331,14 +336,14 @@ public class LayerServerClientTest {
         final Async async = context.async();
         final Async asyncServer = context.async();
 
-        HttpServer server = vertx.createHttpServer().requestHandler( request -> {
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
             context.assertTrue(request.absoluteURI().contains("/notifications"));
             request.bodyHandler(body -> {
                 context.assertEquals(body.toJsonObject(), notification);
                 request.response().setStatusCode(202).end(body.toJsonObject().encode());
                 asyncServer.complete();
             });
-        }).listen(8080, context.asyncAssertSuccess());
+        });
 
         subject.postNotification(response -> {
             context.assertTrue(response.statusCode() == 202);
@@ -356,6 +361,168 @@ public class LayerServerClientTest {
         server.close();
     }
 
+    @Test
+    public void getAllConversationMessages(TestContext context) throws Exception {
+        final Async async = context.async();
+
+        String conversation_UUID = "123";
+        AtomicInteger pageRequests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            context.assertTrue(request.path().endsWith("/conversations/" + conversation_UUID + "/messages"));
+            context.assertEquals(request.getParam("page_size"), "100");
+            pageRequests.incrementAndGet();
+            request.response().end(messagePage(request.getParam("from_id"), 250).encode());
+        });
+
+        List<String> ids = new ArrayList<>();
+        subject.getAllConversationMessages(conversation_UUID)
+                .exceptionHandler(context::fail)
+                .endHandler(v -> {
+                    context.assertEquals(ids.size(), 250);
+                    context.assertEquals(ids.get(0), "layer:///messages/0");
+                    context.assertEquals(ids.get(249), "layer:///messages/249");
+                    context.assertEquals(pageRequests.get(), 3);
+                    async.complete();
+                })
+                .handler(message -> ids.add(message.getString("id")));
+
+        /*
+         * Wait for async tasks to complete before cleanup
+         */
+        async.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void getAllConversationsAsUserPaused(TestContext context) throws Exception {
+        final Async async = context.async();
+
+        AtomicInteger pageRequests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            context.assertTrue(request.uri().contains("userID/conversations?sort_by=last_message&page_size=100"));
+            pageRequests.incrementAndGet();
+            request.response().end(messagePage(request.getParam("from_id"), 1000).encode());
+        });
+
+        AtomicInteger received = new AtomicInteger();
+        ReadStream<JsonObject> stream = subject.getAllConversationsAsUser("userID");
+        stream.exceptionHandler(context::fail)
+                .endHandler(v -> {
+                    context.assertEquals(received.get(), 1000);
+                    async.complete();
+                })
+                .handler(conversation -> {
+                    if (received.incrementAndGet() == 1) {
+                        stream.pause();
+                        vertx.setTimer(200, id -> {
+                            // First page and one prefetched page, nothing more while paused
+                            context.assertEquals(pageRequests.get(), 2);
+                            stream.resume();
+                        });
+                    }
+                });
+
+        /*
+         * Wait for async tasks to complete before cleanup
+         */
+        async.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void getAllConversationMessagesAsUserNotFound(TestContext context) throws Exception {
+        final Async async = context.async();
+
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            context.assertTrue(request.path().endsWith("/users/user/conversations/123/messages"));
+            request.response().setStatusCode(404).end();
+        });
+
+        subject.getAllConversationMessagesAsUser("123", "user")
+                .exceptionHandler(err -> {
+                    context.assertEquals(((LayerServerException) err).getStatusCode(), 404);
+                    async.complete();
+                })
+                .endHandler(v -> context.fail("Stream should fail"))
+                .handler(message -> context.fail("No messages expected"));
+
+        /*
+         * Wait for async tasks to complete before cleanup
+         */
+        async.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void getConversationMessageStream(TestContext context) throws Exception {
+        final Async async = context.async();
+
+        String conversation_UUID = "123";
+        AtomicBoolean serverEnded = new AtomicBoolean();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            context.assertTrue(request.path().endsWith("/conversations/" + conversation_UUID + "/messages"));
+            String body = messagePage(null, 100).encode();
+            int split = body.indexOf("},{") + 2;
+            request.response().setChunked(true).write(body.substring(0, split));
+            vertx.setTimer(500, id -> {
+                serverEnded.set(true);
+                request.response().end(body.substring(split));
+            });
+        });
+
+        AtomicInteger received = new AtomicInteger();
+        subject.getConversationMessageStream(context.asyncAssertSuccess(stream -> stream
+                .exceptionHandler(context::fail)
+                .endHandler(v -> {
+                    context.assertEquals(received.get(), 100);
+                    async.complete();
+                })
+                .handler(message -> {
+                    if (received.getAndIncrement() == 0) {
+                        // First message is emitted before the rest of the page has been sent
+                        context.assertFalse(serverEnded.get());
+                        context.assertEquals(message.getString("id"), "layer:///messages/0");
+                    }
+                })), conversation_UUID);
+
+        /*
+         * Wait for async tasks to complete before cleanup
+         */
+        async.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void getConversationsAsUserStreamNotFound(TestContext context) throws Exception {
+        final Async async = context.async();
+
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().setStatusCode(404).end());
+
+        subject.getConversationsAsUserStream(result -> {
+            context.assertTrue(result.failed());
+            context.assertEquals(((LayerServerException) result.cause()).getStatusCode(), 404);
+            async.complete();
+        }, "userID");
+
+        /*
+         * Wait for async tasks to complete before cleanup
+         */
+        async.awaitSuccess();
+        server.close();
+    }
+
+    /**
+     * Creates the page that follows from_id, out of total messages with ids layer:///messages/0 and up.
+     */
+    private JsonArray messagePage(String from_id, int total) {
+        int from = from_id == null ? 0 : Integer.parseInt(from_id.substring(from_id.lastIndexOf('/') + 1)) + 1;
+        JsonArray page = new JsonArray();
+        for (int i = from; i < Math.min(from + 100, total); i++) {
+            page.add(new JsonObject().put("id", "layer:///messages/" + i).put("parts", new JsonArray()));
+        }
+        return page;
+    }
+
     private final JsonObject notification = new JsonObject(
             "{\n" +
             "    \"recipients\": [\n" +
@@ -0,0 +1,177 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerTenantPoolTest {
+    private Vertx vertx;
+    private LayerTenantPool pool;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        if (pool != null) {
+            pool.close();
+        }
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void sharesByWeight(TestContext context) throws Exception {
+        List<String> served = new CopyOnWriteArrayList<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            served.add(appId(request));
+            vertx.setTimer(5, id -> request.response().end("{}"));
+        });
+        pool = pool(2);
+        LayerServerOptions heavyOptions = options("heavyApp", "heavyToken");
+        heavyOptions.setTenantWeight(3);
+        LayerServerClient heavy = pool.tenant(heavyOptions);
+        LayerServerClient light = pool.tenant(options("lightApp", "lightToken"));
+
+        Async done = context.async(80);
+        for (int i = 0; i < 40; i++) {
+            heavy.getConversation(response -> done.countDown(), "" + i);
+            light.getConversation(response -> done.countDown(), "" + i);
+        }
+        done.awaitSuccess();
+
+        long heavyServed = served.subList(0, 40).stream().filter("heavyApp"::equals).count();
+        context.assertTrue(heavyServed >= 27 && heavyServed <= 33, "Heavy app got " + heavyServed + " of 40");
+        JsonObject stats = pool.getStats();
+        context.assertEquals(stats.getInteger("in_flight"), 0);
+        context.assertEquals(stats.getJsonObject("tenants").getJsonObject("heavyApp").getLong("sent"), 40L);
+        context.assertEquals(stats.getJsonObject("tenants").getJsonObject("lightApp").getDouble("weight"), 1d);
+        server.close();
+    }
+
+    @Test
+    public void noisyAppDoesNotStarveOthers(TestContext context) throws Exception {
+        AtomicInteger noisyServed = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (appId(request).equals("noisyApp")) {
+                noisyServed.incrementAndGet();
+            }
+            vertx.setTimer(5, id -> request.response().end("{}"));
+        });
+        pool = pool(4);
+        LayerServerClient noisy = pool.tenant(options("noisyApp", "noisyToken"));
+        LayerServerClient quiet = pool.tenant(options("quietApp", "quietToken"));
+
+        Async flooded = context.async(400);
+        for (int i = 0; i < 400; i++) {
+            noisy.getConversation(response -> flooded.countDown(), "" + i);
+        }
+        Async answered = context.async(5);
+        vertx.setTimer(50, id -> {
+            for (int i = 0; i < 5; i++) {
+                quiet.getConversation(response -> answered.countDown(), "" + i);
+            }
+        });
+        answered.awaitSuccess();
+        int backlog = 400 - noisyServed.get();
+        context.assertTrue(backlog > 200, "Quiet app waited for " + (400 - backlog) + " requests of the noisy app");
+        flooded.awaitSuccess();
+        server.close();
+    }
+
+    @Test
+    public void capsAppsAndSignsPerApp(TestContext context) throws Exception {
+        Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+        Map<String, Integer> peak = new ConcurrentHashMap<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            String app = appId(request);
+            context.assertEquals(request.getHeader("Authorization"), "Bearer " + app.replace("App", "Token"));
+            int now = active.computeIfAbsent(app, key -> new AtomicInteger()).incrementAndGet();
+            peak.merge(app, now, Math::max);
+            vertx.setTimer(20, id -> {
+                active.get(app).decrementAndGet();
+                request.response().end("{}");
+            });
+        });
+        pool = pool(10);
+        LayerServerOptions capped = options("cappedApp", "cappedToken");
+        capped.setTenantMaxInFlight(1);
+        pool.tenant(capped);
+        pool.tenant(options("freeApp", "freeToken"));
+
+        Async done = context.async(12);
+        for (int i = 0; i < 6; i++) {
+            pool.get("cappedApp").getConversation(response -> done.countDown(), "" + i);
+            pool.get("freeApp").getConversation(response -> done.countDown(), "" + i);
+        }
+        done.awaitSuccess();
+
+        context.assertEquals(peak.get("cappedApp"), 1);
+        context.assertTrue(peak.get("freeApp") > 1, "Free app peaked at " + peak.get("freeApp"));
+        context.assertNull(pool.get("otherApp"));
+        try {
+            pool.tenant(options("freeApp", "freeToken"));
+            context.fail("App registered twice");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        server.close();
+    }
+
+    @Test
+    public void fullQueueRejects(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> vertx.setTimer(50, id -> request.response().end("{}")));
+        pool = pool(1);
+        LayerServerOptions options = options("smallApp", "smallToken");
+        options.setConcurrencyQueueSize(1);
+        LayerServerClient small = pool.tenant(options);
+
+        Async done = context.async(2);
+        Async rejected = context.async();
+        small.getConversation(response -> done.countDown(), "1");
+        small.getConversation(response -> done.countDown(), "2");
+        small.getConversation(response -> {
+            context.assertNull(response, "Rejected requests get no response");
+            rejected.complete();
+        }, "3");
+        rejected.awaitSuccess();
+        done.awaitSuccess();
+        context.assertEquals(pool.getStats().getJsonObject("tenants").getJsonObject("smallApp").getLong("rejected"), 1L);
+        server.close();
+    }
+
+    private static String appId(HttpServerRequest request) {
+        return request.path().split("/")[2];
+    }
+
+    private static LayerServerOptions options(String app_id, String app_token) {
+        return new LayerServerOptions(app_id, app_token);
+    }
+
+    private LayerTenantPool pool(int max_in_flight) {
+        return new LayerTenantPool(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setMaxPoolSize(max_in_flight)), max_in_flight);
+    }
+}
@@ -0,0 +1,191 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerWebhookServerTest {
+    private static final String SECRET = "thisIsASecret";
+
+    private Vertx vertx;
+    private HttpClient client;
+    private LayerWebhookServer server;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost("localhost").setDefaultPort(8080));
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void publishesVerifiedEvents(TestContext context) throws Exception {
+        LayerWebhookOptions options = new LayerWebhookOptions(SECRET);
+        options.setPath("/layer");
+        options.setInstances(2);
+        listen(context, options);
+        List<LayerWebhookEvent> created = new CopyOnWriteArrayList<>();
+        List<LayerWebhookEvent> all = new CopyOnWriteArrayList<>();
+        vertx.eventBus().consumer("layer.webhook.Message.created", (Message<LayerWebhookEvent> message) -> created.add(message.body()));
+        vertx.eventBus().consumer("layer.webhook", (Message<LayerWebhookEvent> message) -> all.add(message.body()));
+
+        Buffer body = event("e1", "Message.created");
+        context.assertEquals(post("/layer", body, LayerWebhookServer.sign(SECRET, body), 7), 200);
+        Buffer deleted = event("e2", "Conversation.deleted");
+        context.assertEquals(post("/layer", deleted, LayerWebhookServer.sign(SECRET, deleted).toUpperCase(), 0), 200);
+
+        waitFor(() -> all.size() == 2);
+        context.assertEquals(created.size(), 1);
+        LayerWebhookEvent event = created.get(0);
+        context.assertEquals(event.getId(), "e1");
+        context.assertEquals(event.getType(), "Message.created");
+        context.assertEquals(event.getCreatedAt(), "2017-01-07T12:00:00.000Z");
+        context.assertEquals(event.getPayload().getJsonObject("message").getString("id"), "layer:///messages/1");
+        context.assertEquals(server.getStats().getLong("published"), 2L);
+    }
+
+    @Test
+    public void rejectsUnverifiedBodies(TestContext context) throws Exception {
+        LayerWebhookOptions options = new LayerWebhookOptions(SECRET);
+        options.setMaxBodySize(256);
+        listen(context, options);
+        List<Object> published = new CopyOnWriteArrayList<>();
+        vertx.eventBus().consumer("layer.webhook", message -> published.add(message.body()));
+
+        Buffer body = event("e1", "Message.created");
+        context.assertEquals(post("/", body, null, 0), 403);
+        context.assertEquals(post("/", body, LayerWebhookServer.sign("otherSecret", body), 0), 403);
+        context.assertEquals(post("/", body, "zz", 0), 403);
+        Buffer tampered = Buffer.buffer(body.toString().replace("e1", "e9"));
+        context.assertEquals(post("/", tampered, LayerWebhookServer.sign(SECRET, body), 0), 403);
+        Buffer notJson = Buffer.buffer("{\"event\":");
+        context.assertEquals(post("/", notJson, LayerWebhookServer.sign(SECRET, notJson), 0), 400);
+        Buffer noEvent = Buffer.buffer("{\"message\":{}}");
+        context.assertEquals(post("/", noEvent, LayerWebhookServer.sign(SECRET, noEvent), 0), 400);
+        Buffer large = Buffer.buffer(new JsonObject().put("event", new JsonObject().put("type", "Message.created"))
+                .put("padding", new String(new char[300]).replace('\0', 'x')).encode());
+        context.assertEquals(post("/", large, LayerWebhookServer.sign(SECRET, large), 64), 413);
+        context.assertEquals(post("/other", body, LayerWebhookServer.sign(SECRET, body), 0), 404);
+
+        Thread.sleep(100);
+        context.assertTrue(published.isEmpty());
+        JsonObject stats = server.getStats();
+        context.assertEquals(stats.getLong("received"), 7L);
+        context.assertEquals(stats.getLong("rejected"), 4L);
+        context.assertEquals(stats.getLong("malformed"), 3L);
+    }
+
+    @Test
+    public void dropsRedeliveries(TestContext context) throws Exception {
+        listen(context, new LayerWebhookOptions(SECRET));
+        List<Object> published = new CopyOnWriteArrayList<>();
+        vertx.eventBus().consumer("layer.webhook", message -> published.add(message.body()));
+
+        Buffer body = event("e1", "Message.created");
+        String signature = LayerWebhookServer.sign(SECRET, body);
+        context.assertEquals(post("/", body, signature, 0), 200);
+        context.assertEquals(post("/", body, signature, 5), 200);
+        Buffer other = event("e2", "Message.created");
+        context.assertEquals(post("/", other, LayerWebhookServer.sign(SECRET, other), 0), 200);
+
+        waitFor(() -> published.size() == 2);
+        Thread.sleep(100);
+        context.assertEquals(published.size(), 2);
+        context.assertEquals(server.getStats().getLong("duplicates"), 1L);
+        context.assertEquals(server.getStats().getInteger("dedup_entries"), 2);
+    }
+
+    @Test
+    public void echoesVerificationChallenge(TestContext context) throws Exception {
+        listen(context, new LayerWebhookOptions(SECRET));
+        Async echoed = context.async();
+        client.getNow("/?verification_challenge=abc123", response -> response.bodyHandler(body -> {
+            context.assertEquals(response.statusCode(), 200);
+            context.assertEquals(body.toString(), "abc123");
+            echoed.complete();
+        }));
+        echoed.awaitSuccess();
+    }
+
+    @Test
+    public void deduplicatorWindowAndBound(TestContext context) {
+        WebhookDeduplicator deduplicator = new WebhookDeduplicator(TimeUnit.SECONDS.toNanos(10), 3);
+        long now = 0;
+        context.assertTrue(deduplicator.firstDelivery("a", now));
+        context.assertFalse(deduplicator.firstDelivery("a", now + TimeUnit.SECONDS.toNanos(9)));
+        context.assertTrue(deduplicator.firstDelivery("a", now + TimeUnit.SECONDS.toNanos(10)), "Forgotten after the window");
+        context.assertTrue(deduplicator.firstDelivery("b", now + TimeUnit.SECONDS.toNanos(11)));
+        context.assertTrue(deduplicator.firstDelivery("c", now + TimeUnit.SECONDS.toNanos(11)));
+        context.assertTrue(deduplicator.firstDelivery("d", now + TimeUnit.SECONDS.toNanos(11)));
+        context.assertEquals(deduplicator.size(), 3);
+        context.assertTrue(deduplicator.firstDelivery("a", now + TimeUnit.SECONDS.toNanos(12)), "Oldest forgotten when full");
+        context.assertFalse(deduplicator.firstDelivery("d", now + TimeUnit.SECONDS.toNanos(12)));
+    }
+
+    private static Buffer event(String id, String type) {
+        return Buffer.buffer(new JsonObject()
+                .put("event", new JsonObject().put("created_at", "2017-01-07T12:00:00.000Z").put("type", type).put("id", id))
+                .put("message", new JsonObject().put("id", "layer:///messages/1")).encode());
+    }
+
+    /**
+     * Posts a body and waits for the response status.
+     * @param chunk Size of the chunks the body is written in, 0 to write it at once
+     */
+    private int post(String path, Buffer body, String signature, int chunk) throws Exception {
+        CompletableFuture<Integer> status = new CompletableFuture<>();
+        HttpClientRequest request = client.post(path, response -> response.bodyHandler(b -> status.complete(response.statusCode())));
+        request.exceptionHandler(status::completeExceptionally);
+        if (signature != null) {
+            request.putHeader(LayerWebhookServer.SIGNATURE_HEADER, signature);
+        }
+        if (chunk == 0) {
+            request.end(body);
+        } else {
+            request.setChunked(true);
+            for (int i = 0; i < body.length(); i += chunk) {
+                request.write(body.getBuffer(i, Math.min(body.length(), i + chunk)));
+            }
+            request.end();
+        }
+        return status.get(10, TimeUnit.SECONDS);
+    }
+
+    private void listen(TestContext context, LayerWebhookOptions options) {
+        server = new LayerWebhookServer(vertx, options);
+        Async listening = context.async();
+        server.listen(context.asyncAssertSuccess(v -> listening.complete()));
+        listening.awaitSuccess();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class LayerWriteStreamTest {
+    private Vertx vertx;
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setMaxPoolSize(10)), new LayerServerOptions("123456789abc", "thisIsAToken"));
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void inFlightBounded(TestContext context) throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            int now = current.incrementAndGet();
+            max.accumulateAndGet(now, Math::max);
+            context.assertTrue(request.path().endsWith("/conversations/123/messages"));
+            vertx.setTimer(20, id -> {
+                current.decrementAndGet();
+                request.response().setStatusCode(201).end();
+            });
+        });
+
+        LayerWriteStream stream = subject.postMessageStream("123").setWriteQueueMaxSize(4);
+        Async ended = context.async();
+        stream.endHandler(v -> ended.complete());
+        for (int i = 0; i < 20; i++) {
+            stream.write(message(i));
+            context.assertEquals(stream.writeQueueFull(), i >= 3);
+        }
+        context.assertEquals(stream.inFlight(), 4);
+        stream.end();
+        ended.awaitSuccess();
+
+        context.assertEquals(max.get(), 4);
+        context.assertEquals(stream.posted(), 20L);
+        context.assertFalse(stream.writeQueueFull());
+        server.close();
+    }
+
+    @Test
+    public void drainHandler(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> vertx.setTimer(5, id -> request.response().setStatusCode(202).end()));
+        LayerWriteStream stream = subject.postNotificationStream().setWriteQueueMaxSize(8);
+        int total = 100;
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger drains = new AtomicInteger();
+        Async ended = context.async();
+        stream.endHandler(v -> ended.complete());
+        Handler<Void> writer = new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                while (written.get() < total && !stream.writeQueueFull()) {
+                    stream.write(new JsonObject()
+                            .put("recipients", new JsonArray().add("777"))
+                            .put("notification", new JsonObject().put("title", "n" + written.getAndIncrement())));
+                }
+                if (written.get() < total) {
+                    stream.drainHandler(v -> {
+                        drains.incrementAndGet();
+                        handle(null);
+                    });
+                } else {
+                    stream.end();
+                }
+            }
+        };
+        vertx.runOnContext(writer);
+        ended.awaitSuccess();
+
+        context.assertEquals(stream.posted(), (long) total);
+        context.assertTrue(drains.get() > 0);
+        server.close();
+    }
+
+    @Test
+    public void failuresReported(TestContext context) throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response()
+                .setStatusCode(received.incrementAndGet() % 2 == 0 ? 500 : 201).end());
+        LayerWriteStream stream = subject.postMessageStream(message -> message.getString("conversation")).setWriteQueueMaxSize(2);
+        Async failures = context.async(5);
+        stream.exceptionHandler(err -> {
+            context.assertTrue(err instanceof LayerServerException);
+            context.assertEquals(((LayerServerException) err).getStatusCode(), 500);
+            failures.countDown();
+        });
+        Async ended = context.async();
+        stream.endHandler(v -> ended.complete());
+        for (int i = 0; i < 10; i++) {
+            stream.write(message(i).put("conversation", "123"));
+        }
+        stream.end();
+        ended.awaitSuccess();
+        failures.awaitSuccess();
+
+        context.assertEquals(stream.posted(), 5L);
+        context.assertEquals(stream.failed(), 5L);
+        server.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeAfterEnd() throws Exception {
+        LayerWriteStream stream = subject.postAnnouncementStream();
+        stream.end();
+        stream.write(new JsonObject());
+    }
+
+    private static JsonObject message(int index) {
+        return new JsonObject()
+                .put("sender_id", "layer:///identities/1234")
+                .put("parts", new JsonArray().add(new JsonObject().put("body", "message " + index).put("mime_type", "text/plain")));
+    }
+}
@@ -0,0 +1,149 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class OrderingDispatcherTest {
+    private static final int MESSAGES = 20;
+
+    private Vertx vertx;
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setOrderedMessages(true);
+        subject = new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setMaxPoolSize(10)), options);
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void orderedPerConversation(TestContext context) throws Exception {
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        Random random = new Random(1);
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.bodyHandler(body -> {
+            String conversation = request.path().split("/")[4];
+            context.assertEquals(inFlight.computeIfAbsent(conversation, c -> new AtomicInteger()).incrementAndGet(), 1,
+                    "One post in flight per conversation");
+            max.accumulateAndGet(current.incrementAndGet(), Math::max);
+            received.computeIfAbsent(conversation, c -> new ArrayList<>()).add(body.toJsonObject().getInteger("index"));
+            vertx.setTimer(1 + random.nextInt(10), id -> {
+                inFlight.get(conversation).decrementAndGet();
+                current.decrementAndGet();
+                request.response().setStatusCode(201).end();
+            });
+        }));
+
+        Async posted = context.async(MESSAGES * 3);
+        for (int i = 0; i < MESSAGES; i++) {
+            for (String conversation : new String[]{"a", "b", "c"}) {
+                subject.postMessage(response -> {
+                    context.assertEquals(response.statusCode(), 201);
+                    posted.countDown();
+                }, conversation, message(i));
+            }
+        }
+        posted.awaitSuccess();
+
+        for (String conversation : new String[]{"a", "b", "c"}) {
+            List<Integer> indexes = received.get(conversation);
+            context.assertEquals(indexes.size(), MESSAGES);
+            for (int i = 0; i < MESSAGES; i++) {
+                context.assertEquals(indexes.get(i), i);
+            }
+        }
+        context.assertEquals(max.get(), 3, "Conversations are sent in parallel");
+        JsonObject stats = subject.getOrderingStats();
+        context.assertEquals(stats.getInteger("conversations"), 0, "Idle conversations are forgotten");
+        context.assertEquals(stats.getInteger("queued"), 0);
+        context.assertEquals(stats.getLong("ordered"), (long) (MESSAGES - 1) * 3);
+        server.close();
+    }
+
+    @Test
+    public void failureDoesNotBlock(TestContext context) throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (received.incrementAndGet() == 1) {
+                request.response().close();
+            } else {
+                request.response().setStatusCode(201).end();
+            }
+        });
+
+        Async posted = context.async(3);
+        List<Integer> statuses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            subject.postMessage(response -> {
+                synchronized (statuses) {
+                    statuses.add(response == null ? 0 : response.statusCode());
+                }
+                posted.countDown();
+            }, "a", message(i));
+        }
+        posted.awaitSuccess();
+        synchronized (statuses) {
+            context.assertEquals(statuses.toString(), "[0, 201, 201]");
+        }
+        server.close();
+    }
+
+    @Test
+    public void readsNotOrdered(TestContext context) throws Exception {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            max.accumulateAndGet(current.incrementAndGet(), Math::max);
+            vertx.setTimer(20, id -> {
+                current.decrementAndGet();
+                request.response().end("{}");
+            });
+        });
+        Async read = context.async(3);
+        for (int i = 0; i < 3; i++) {
+            subject.getConversation(response -> read.countDown(), "a");
+        }
+        read.awaitSuccess();
+        context.assertEquals(max.get(), 3);
+        server.close();
+    }
+
+    private static JsonObject message(int index) {
+        return new JsonObject()
+                .put("index", index)
+                .put("sender_id", "layer:///identities/1234")
+                .put("parts", new JsonArray());
+    }
+}
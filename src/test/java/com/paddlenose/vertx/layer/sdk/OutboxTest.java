@@ -0,0 +1,378 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class OutboxTest {
+    private Vertx vertx;
+    private File directory;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void pendingEntriesRecovered(TestContext context) throws Exception {
+        OutboxJournal journal = new OutboxJournal(vertx, directory, 0, true);
+        long[] ids = new long[3];
+        for (int i = 0; i < 3; i++) {
+            Async appended = context.async();
+            int index = i;
+            journal.append(LayerEndpoint.POST_MESSAGE, "/apps/1/conversations/" + i + "/messages", "conversation" + i, null,
+                    Buffer.buffer("body " + i), context.asyncAssertSuccess(id -> {
+                        ids[index] = id;
+                        appended.complete();
+                    }));
+            appended.awaitSuccess();
+        }
+        journal.acknowledge(ids[1]);
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(vertx, directory, 0, true);
+        List<OutboxJournal.Entry> entries = reopened.recovered();
+        context.assertEquals(entries.size(), 2);
+        context.assertEquals(entries.get(0).id, ids[0]);
+        context.assertEquals(entries.get(0).endpoint, LayerEndpoint.POST_MESSAGE);
+        context.assertEquals(entries.get(0).uri, "/apps/1/conversations/0/messages");
+        context.assertEquals(entries.get(0).conversation_UUID, "conversation0");
+        context.assertEquals(entries.get(0).body.toString(), "body 0");
+        context.assertEquals(entries.get(1).id, ids[2]);
+        context.assertEquals(reopened.stats().getInteger("pending"), 2);
+
+        Async appended = context.async();
+        reopened.append(LayerEndpoint.POST_MESSAGE_AS_USER, "/uri", null, null, Buffer.buffer(), context.asyncAssertSuccess(id -> {
+            context.assertTrue(id > ids[2], "Ids keep growing after a restart");
+            appended.complete();
+        }));
+        appended.awaitSuccess();
+        reopened.close();
+        context.assertNull(new OutboxJournal(vertx, directory, 0, true).recovered().get(2).conversation_UUID);
+    }
+
+    @Test
+    public void tornRecordIgnored(TestContext context) throws Exception {
+        OutboxJournal journal = new OutboxJournal(vertx, directory, 0, false);
+        Async appended = context.async(2);
+        journal.append(LayerEndpoint.POST_MESSAGE, "/a", "a", null, Buffer.buffer("first"), context.asyncAssertSuccess(id -> appended.countDown()));
+        journal.append(LayerEndpoint.POST_MESSAGE, "/b", "b", null, Buffer.buffer("second"), context.asyncAssertSuccess(id -> appended.countDown()));
+        appended.awaitSuccess();
+        journal.close();
+
+        // Corrupt the last byte of the second record
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long end = 0;
+            while (true) {
+                file.seek(end);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                end += 8 + length;
+            }
+            file.seek(end - 1);
+            int last = file.read();
+            file.seek(end - 1);
+            file.write(last ^ 0xff);
+        }
+
+        OutboxJournal reopened = new OutboxJournal(vertx, directory, 0, false);
+        context.assertEquals(reopened.recovered().size(), 1);
+        context.assertEquals(reopened.recovered().get(0).body.toString(), "first");
+    }
+
+    @Test
+    public void acknowledgedSegmentsDeleted(TestContext context) throws Exception {
+        OutboxJournal journal = new OutboxJournal(vertx, directory, OutboxJournal.MIN_SEGMENT_SIZE, true);
+        Buffer body = Buffer.buffer(new byte[1000]);
+        int entries = 20;
+        List<Long> ids = new CopyOnWriteArrayList<>();
+        Async appended = context.async(entries);
+        for (int i = 0; i < entries; i++) {
+            journal.append(LayerEndpoint.POST_MESSAGE, "/uri", "a", null, body, context.asyncAssertSuccess(id -> {
+                ids.add(id);
+                appended.countDown();
+            }));
+        }
+        appended.awaitSuccess();
+        context.assertTrue(journal.stats().getInteger("segments") >= 5);
+        context.assertTrue(journal.stats().getLong("forces") < entries, "Forces are batched");
+
+        // Acknowledging a later segment first keeps the entries of the earlier ones
+        journal.acknowledge(ids.get(entries - 1));
+        context.assertEquals(journal.stats().getInteger("pending"), entries - 1);
+        for (long id : ids) {
+            journal.acknowledge(id);
+        }
+        context.assertEquals(journal.stats().getInteger("segments"), 1);
+        context.assertEquals(journal.stats().getInteger("pending"), 0);
+        // Segments whose entries were copied forward are deleted after the next force
+        await(() -> directory.listFiles().length == 1);
+        context.assertEquals(directory.listFiles().length, 1);
+        journal.close();
+        context.assertEquals(new OutboxJournal(vertx, directory, OutboxJournal.MIN_SEGMENT_SIZE, true).recovered().size(), 0);
+
+        Async tooLarge = context.async();
+        new OutboxJournal(vertx, directory, OutboxJournal.MIN_SEGMENT_SIZE, true).append(LayerEndpoint.POST_MESSAGE, "/uri", "a", null,
+                Buffer.buffer(new byte[OutboxJournal.MIN_SEGMENT_SIZE]), context.asyncAssertFailure(err -> tooLarge.complete()));
+        tooLarge.awaitSuccess();
+    }
+
+    @Test
+    public void unknownEndpointSkipped(TestContext context) throws Exception {
+        Buffer segment = Buffer.buffer();
+        appendRecord(segment, entryRecord(0, "postCarrierPigeon", "/a"));
+        appendRecord(segment, entryRecord(1, LayerEndpoint.POST_MESSAGE.key, "/b"));
+        segment.appendBytes(new byte[OutboxJournal.MIN_SEGMENT_SIZE - segment.length()]);
+        Files.write(new File(directory, "outbox-00000000000000000000.log").toPath(), segment.getBytes());
+
+        OutboxJournal journal = new OutboxJournal(vertx, directory, 0, true);
+        List<OutboxJournal.Entry> entries = journal.recovered();
+        context.assertEquals(entries.size(), 1);
+        context.assertEquals(entries.get(0).id, 1L);
+        context.assertEquals(entries.get(0).endpoint, LayerEndpoint.POST_MESSAGE);
+        context.assertEquals(entries.get(0).uri, "/b");
+        context.assertEquals(journal.stats().getLong("skipped"), 1L);
+        context.assertEquals(journal.stats().getInteger("pending"), 1);
+        journal.close();
+    }
+
+    @Test
+    public void otherFormatSkipped(TestContext context) throws Exception {
+        Buffer segment = Buffer.buffer();
+        // Entry written before records had a format, without headers
+        appendRecord(segment, Buffer.buffer().appendByte((byte) 1).appendLong(0)
+                .appendInt(LayerEndpoint.POST_MESSAGE.key.length()).appendString(LayerEndpoint.POST_MESSAGE.key)
+                .appendInt(2).appendString("/a")
+                .appendInt(-1)
+                .appendInt(4).appendString("body"));
+        appendRecord(segment, entryRecord(1, LayerEndpoint.POST_MESSAGE.key, "/b"));
+        segment.appendBytes(new byte[OutboxJournal.MIN_SEGMENT_SIZE - segment.length()]);
+        Files.write(new File(directory, "outbox-00000000000000000000.log").toPath(), segment.getBytes());
+
+        OutboxJournal journal = new OutboxJournal(vertx, directory, 0, true);
+        context.assertEquals(journal.recovered().size(), 1);
+        context.assertEquals(journal.recovered().get(0).uri, "/b");
+        context.assertEquals(journal.stats().getLong("skipped"), 1L);
+        journal.close();
+    }
+
+    @Test
+    public void stuckEntryDoesNotPinSegments(TestContext context) throws Exception {
+        OutboxJournal journal = new OutboxJournal(vertx, directory, OutboxJournal.MIN_SEGMENT_SIZE, true);
+        Async stuck = context.async();
+        journal.append(LayerEndpoint.POST_MESSAGE, "/stuck", "a", null, Buffer.buffer("stuck"), context.asyncAssertSuccess(id -> stuck.complete()));
+        stuck.awaitSuccess();
+        Buffer body = Buffer.buffer(new byte[1000]);
+        for (int i = 0; i < 30; i++) {
+            Async appended = context.async();
+            journal.append(LayerEndpoint.POST_MESSAGE, "/uri", "a", null, body, context.asyncAssertSuccess(id -> {
+                journal.acknowledge(id);
+                appended.complete();
+            }));
+            appended.awaitSuccess();
+        }
+        await(() -> directory.listFiles().length <= 2);
+
+        context.assertTrue(journal.stats().getInteger("segments") <= 2, "Segments " + journal.stats().getInteger("segments"));
+        context.assertTrue(directory.listFiles().length <= 2, "Files " + directory.listFiles().length);
+        context.assertTrue(journal.stats().getLong("moved") > 0);
+        context.assertEquals(journal.stats().getInteger("pending"), 1);
+        journal.close();
+        List<OutboxJournal.Entry> entries = new OutboxJournal(vertx, directory, 0, true).recovered();
+        context.assertEquals(entries.size(), 1);
+        context.assertEquals(entries.get(0).uri, "/stuck");
+        context.assertEquals(entries.get(0).body.toString(), "stuck");
+    }
+
+    @Test
+    public void failedPostAcknowledged(TestContext context) throws Exception {
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().setStatusCode(503).end());
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setOutboxDirectory(directory.getPath());
+        LayerServerClient subject = TestSupport.client(vertx, options);
+
+        Async posted = context.async();
+        subject.postMessage(response -> {
+            context.assertEquals(response.statusCode(), 503);
+            posted.complete();
+        }, "123", new JsonObject().put("sender_id", "1234").put("parts", new JsonArray()));
+        posted.awaitSuccess();
+        await(() -> subject.getOutboxStats().getInteger("pending") == 0);
+
+        context.assertEquals(subject.getOutboxStats().getInteger("pending"), 0);
+        subject.close();
+        context.assertEquals(TestSupport.client(vertx, options).getOutboxStats().getLong("replayed"), 0L);
+        server.close();
+    }
+
+    @Test
+    public void replayedAfterRestart(TestContext context) throws Exception {
+        // Without a status the process stops before Layer answers
+        AtomicInteger status = new AtomicInteger();
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.bodyHandler(body -> {
+            received.add(request.path() + " " + body.toJsonObject().getString("index"));
+            if (status.get() != 0) {
+                request.response().setStatusCode(status.get()).end();
+            }
+        }));
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setOutboxDirectory(directory.getPath());
+        LayerServerClient subject = TestSupport.client(vertx, options);
+
+        for (int i = 0; i < 3; i++) {
+            JsonObject message = new JsonObject().put("index", "" + i).put("sender_id", "1234").put("parts", new JsonArray());
+            subject.postMessage(response -> {}, "123", message);
+        }
+        await(() -> received.size() == 3);
+        context.assertEquals(subject.getOutboxStats().getInteger("pending"), 3);
+        subject.close();
+
+        status.set(201);
+        received.clear();
+        LayerServerClient restarted = TestSupport.client(vertx, options);
+        context.assertEquals(restarted.getOutboxStats().getLong("replayed"), 3L);
+        await(() -> restarted.getOutboxStats().getInteger("pending") == 0);
+        context.assertEquals(restarted.getOutboxStats().getInteger("pending"), 0);
+        context.assertEquals(received.size(), 3);
+        context.assertTrue(received.contains("/apps/123456789abc/conversations/123/messages 0"));
+        restarted.close();
+        context.assertEquals(TestSupport.client(vertx, options).getOutboxStats().getLong("replayed"), 0L);
+        server.close();
+    }
+
+    @Test
+    public void replayRedeliveredAfterBackoff(TestContext context) throws Exception {
+        AtomicInteger status = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.bodyHandler(body -> {
+            received.incrementAndGet();
+            if (status.get() != 0) {
+                request.response().setStatusCode(status.getAndSet(201)).end();
+            }
+        }));
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setOutboxDirectory(directory.getPath());
+        LayerServerClient subject = TestSupport.client(vertx, options);
+        subject.postMessage(response -> {}, "123", new JsonObject().put("sender_id", "1234").put("parts", new JsonArray()));
+        await(() -> received.get() == 1);
+        subject.close();
+
+        // The replay gets 503 once, then 201
+        status.set(503);
+        received.set(0);
+        long start = System.currentTimeMillis();
+        LayerServerClient restarted = TestSupport.client(vertx, options);
+        await(() -> restarted.getOutboxStats().getInteger("pending") == 0);
+
+        context.assertEquals(restarted.getOutboxStats().getInteger("pending"), 0);
+        context.assertEquals(received.get(), 2);
+        context.assertEquals(restarted.getOutboxStats().getLong("redelivered"), 1L);
+        context.assertTrue(System.currentTimeMillis() - start >= OutboxDispatcher.REDELIVERY_DELAY);
+        restarted.close();
+        server.close();
+    }
+
+    @Test
+    public void replayKeepsIdempotencyKey(TestContext context) throws Exception {
+        AtomicInteger status = new AtomicInteger();
+        List<String> keys = new CopyOnWriteArrayList<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.bodyHandler(body -> {
+            keys.add(request.getHeader(LayerServerClient.IDEMPOTENCY_KEY_HEADER));
+            if (status.get() != 0) {
+                request.response().setStatusCode(status.get()).end();
+            }
+        }));
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setOutboxDirectory(directory.getPath());
+        options.setGenerateIdempotencyKeys(true);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+
+        JsonObject message = new JsonObject().put("sender_id", "1234").put("parts", new JsonArray());
+        subject.postMessage(response -> {}, "123", message, "send-1");
+        subject.postMessage(response -> {}, "456", message);
+        await(() -> keys.size() == 2);
+        List<String> sent = new ArrayList<>(keys);
+        context.assertTrue(sent.contains("send-1"));
+        context.assertNotNull(sent.get(0));
+        context.assertNotNull(sent.get(1));
+        subject.close();
+
+        status.set(201);
+        keys.clear();
+        LayerServerClient restarted = TestSupport.client(vertx, options);
+        await(() -> restarted.getOutboxStats().getInteger("pending") == 0);
+        context.assertEquals(restarted.getOutboxStats().getInteger("pending"), 0);
+        context.assertEquals(new HashSet<>(keys), new HashSet<>(sent));
+        restarted.close();
+        server.close();
+    }
+
+    /**
+     * Waits up to five seconds for a condition.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Entry record as OutboxJournal writes it, without conversation or headers and with an empty body.
+     */
+    private static Buffer entryRecord(long id, String endpoint, String uri) {
+        return Buffer.buffer().appendByte((byte) 3).appendByte((byte) 1).appendLong(id)
+                .appendInt(endpoint.length()).appendString(endpoint)
+                .appendInt(uri.length()).appendString(uri)
+                .appendInt(-1)
+                .appendInt(0)
+                .appendInt(0);
+    }
+
+    private static void appendRecord(Buffer segment, Buffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes());
+        segment.appendInt(record.length()).appendInt((int) crc.getValue()).appendBuffer(record);
+    }
+}
@@ -0,0 +1,153 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class PipeliningTest {
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void applyTo(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        HttpClientOptions clientOptions = options.applyTo(new HttpClientOptions());
+        context.assertFalse(clientOptions.isPipelining());
+        context.assertEquals(clientOptions.getMaxPoolSize(), LayerServerOptions.DEFAULT_MAX_CONNECTIONS);
+
+        options.setPipelining(true);
+        options.setMaxConnections(2);
+        clientOptions = options.applyTo(new HttpClientOptions().setKeepAlive(false));
+        context.assertTrue(clientOptions.isPipelining());
+        context.assertTrue(clientOptions.isKeepAlive());
+        context.assertEquals(clientOptions.getMaxPoolSize(), 2);
+    }
+
+    @Test
+    public void pipelinedOverFewConnections(TestContext context) throws Exception {
+        Set<Integer> ports = ConcurrentHashMap.newKeySet();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            ports.add(request.remoteAddress().port());
+            request.response().end("{}");
+        });
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setPipelining(true);
+        options.setMaxConnections(1);
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(options.applyTo(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080))), options);
+
+        Async calls = context.async(50);
+        for (int i = 0; i < 50; i++) {
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                calls.countDown();
+            }, "123");
+        }
+        calls.awaitSuccess();
+        context.assertEquals(ports.size(), 1);
+        server.close();
+    }
+
+    @Test
+    public void inFlightCapped(TestContext context) throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            received.incrementAndGet();
+            vertx.setTimer(100, id -> request.response().end("{}"));
+        });
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setPipelining(true);
+        options.setMaxConnections(1);
+        options.setMaxPipelinedRequests(2);
+        options.setConcurrencyQueueSize(3);
+        LayerServerClient subject = new LayerServerClient(vertx, vertx.createHttpClient(options.applyTo(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080))), options);
+
+        AtomicInteger rejected = new AtomicInteger();
+        Async calls = context.async(10);
+        for (int i = 0; i < 10; i++) {
+            subject.getConversation(response -> {
+                if (response == null) {
+                    rejected.incrementAndGet();
+                }
+                calls.countDown();
+            }, "123");
+        }
+        calls.awaitSuccess();
+        // 2 in flight and 3 waiting, the rest fail at once
+        context.assertEquals(rejected.get(), 5);
+        context.assertEquals(received.get(), 5);
+        server.close();
+    }
+
+    @Test
+    public void shardedPostsNotPipelined(TestContext context) throws Exception {
+        Set<Integer> getPorts = ConcurrentHashMap.newKeySet();
+        Set<Integer> postPorts = ConcurrentHashMap.newKeySet();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (request.method() == HttpMethod.GET) {
+                getPorts.add(request.remoteAddress().port());
+                vertx.setTimer(100, id -> request.response().end("{}"));
+            } else {
+                postPorts.add(request.remoteAddress().port());
+                request.response().setStatusCode(201).end("{}");
+            }
+        });
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setPipelining(true);
+        options.setMaxConnections(1);
+        LayerServerClient subject = LayerServerClient.createSharded(vertx, options.applyTo(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+
+        Async calls = context.async(4);
+        for (int i = 0; i < 2; i++) {
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                calls.countDown();
+            }, "123");
+            subject.postMessage(response -> {
+                context.assertEquals(response.statusCode(), 201);
+                calls.countDown();
+            }, "123", new JsonObject().put("parts", new JsonArray()));
+        }
+        calls.awaitSuccess();
+        // Posts never share the pipelined connection of the GETs
+        context.assertEquals(getPorts.size(), 1);
+        context.assertFalse(postPorts.isEmpty());
+        for (Integer port : postPorts) {
+            context.assertFalse(getPorts.contains(port));
+        }
+        subject.close();
+        server.close();
+    }
+}
@@ -0,0 +1,211 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class RateLimitingDispatcherTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void bucketPaces(TestContext context) throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 0);
+        for (int i = 0; i < 10; i++) {
+            context.assertEquals(bucket.delay(0), 0L);
+            bucket.take();
+        }
+        long delay = bucket.delay(0);
+        context.assertTrue(delay > SECOND / 10 - 1000 && delay <= SECOND / 10 + 1, "delay " + delay);
+        context.assertEquals(bucket.delay(SECOND / 10 + 1), 0L);
+    }
+
+    @Test
+    public void bucketThrottled(TestContext context) throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 0);
+        bucket.throttled(0, 2 * SECOND);
+        context.assertEquals(bucket.delay(SECOND), SECOND);
+        context.assertEquals(bucket.rate(), 5d);
+        // Nothing accumulated during the pause, tokens refill at the halved rate
+        context.assertTrue(bucket.delay(2 * SECOND) > 0);
+        context.assertEquals(bucket.delay(2 * SECOND + SECOND / 4), 0L);
+        bucket.delay(2 * SECOND + (long) (TokenBucket.RECOVERY_SECONDS * SECOND));
+        context.assertEquals(bucket.rate(), 10d);
+    }
+
+    @Test
+    public void bucketObserved(TestContext context) throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 0);
+        bucket.observed(0, 30, 60 * SECOND);
+        context.assertEquals(bucket.rate(), 0.5d);
+        bucket.observed(0, 0, 5 * SECOND);
+        context.assertEquals(bucket.rate(), 10 * TokenBucket.MIN_RATE_FRACTION);
+        context.assertEquals(bucket.delay(SECOND), 4 * SECOND);
+        bucket.observed(0, 100000, SECOND);
+        context.assertEquals(bucket.rate(), 10d);
+    }
+
+    @Test
+    public void retryAfterParsed(TestContext context) throws Exception {
+        context.assertEquals(RateLimitingDispatcher.retryAfter("2"), 2 * SECOND);
+        context.assertEquals(RateLimitingDispatcher.retryAfter(null), SECOND);
+        context.assertEquals(RateLimitingDispatcher.retryAfter("soon"), SECOND);
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+        long retryAfter = RateLimitingDispatcher.retryAfter(date);
+        context.assertTrue(retryAfter > 28 * SECOND && retryAfter <= 30 * SECOND, "retryAfter " + retryAfter);
+        context.assertEquals(RateLimitingDispatcher.resetNanos(60), 60 * SECOND);
+    }
+
+    @Test
+    public void globalLimitPaces(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRateLimit(5);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().end(new JsonObject().encode());
+        });
+
+        long start = System.nanoTime();
+        Async async = context.async(10);
+        for (int i = 0; i < 10; i++) {
+            subject.getConversation(response -> {
+                context.assertEquals(response.statusCode(), 200);
+                async.countDown();
+            }, "123");
+        }
+        async.awaitSuccess();
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        context.assertTrue(elapsed >= 900, "elapsed " + elapsed);
+        context.assertEquals(requests.get(), 10);
+        server.close();
+    }
+
+    @Test
+    public void familyLimitLeavesOtherFamilies(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRateLimit("messages", 1);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().end(new JsonObject().encode()));
+
+        long start = System.nanoTime();
+        Async async = context.async(5);
+        for (int i = 0; i < 5; i++) {
+            subject.getConversation(response -> async.countDown(), "123");
+        }
+        async.awaitSuccess();
+
+        context.assertTrue(System.nanoTime() - start < SECOND / 2);
+        context.assertEquals(subject.getRateLimitStats().getJsonObject("rate").getDouble("messages"), 1d);
+        server.close();
+    }
+
+    @Test
+    public void tooManyRequestsPauses(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRateLimit(100);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+        AtomicInteger requests = new AtomicInteger();
+        AtomicLong secondArrived = new AtomicLong();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (requests.incrementAndGet() == 1) {
+                request.response().setStatusCode(429).putHeader("Retry-After", "1").end();
+            } else {
+                secondArrived.set(System.nanoTime());
+                request.response().end(new JsonObject().encode());
+            }
+        });
+
+        Async first = context.async();
+        subject.getConversation(response -> {
+            context.assertEquals(response.statusCode(), 429);
+            first.complete();
+        }, "123");
+        first.awaitSuccess();
+
+        long start = System.nanoTime();
+        Async second = context.async();
+        subject.getConversation(response -> {
+            context.assertEquals(response.statusCode(), 200);
+            second.complete();
+        }, "123");
+        second.awaitSuccess();
+
+        context.assertTrue(secondArrived.get() - start >= SECOND * 9 / 10, "paused " + (secondArrived.get() - start));
+        context.assertEquals(subject.getRateLimitStats().getLong("throttled"), 1L);
+        server.close();
+    }
+
+    @Test
+    public void fullQueueRejects(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRateLimit(1);
+        options.setRateLimitQueueSize(1);
+        LayerServerClient subject = TestSupport.client(vertx, options);
+        HttpServer server = TestSupport.listen(vertx, context, request -> request.response().end(new JsonObject().encode()));
+
+        Async async = context.async(3);
+        AtomicInteger failed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            subject.getConversation(response -> {
+                if (response == null) {
+                    failed.incrementAndGet();
+                }
+                async.countDown();
+            }, "123");
+        }
+        async.awaitSuccess();
+
+        context.assertEquals(failed.get(), 1);
+        context.assertEquals(subject.getRateLimitStats().getLong("rejected"), 1L);
+        server.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateLimitRequiresVertx() throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRateLimit(1);
+        new LayerServerClient(vertx.createHttpClient(), options);
+    }
+
+    @Test
+    public void unlimitedPassesThrough(TestContext context) throws Exception {
+        RateLimitingDispatcher dispatcher = new RateLimitingDispatcher(vertx, (request, handler) -> handler.handle(null),
+                0, Collections.singletonMap(LayerEndpoint.MESSAGES, 1d), 1);
+        Async async = context.async();
+        dispatcher.dispatch(new LayerRequest(null, LayerEndpoint.GET_CONVERSATION, "/", null, null, false), result -> async.complete());
+        context.assertEquals(dispatcher.stats().getInteger("queued"), 0);
+    }
+}
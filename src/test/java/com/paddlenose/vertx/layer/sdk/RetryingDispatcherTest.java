@@ -0,0 +1,188 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Gustaf Nilstadius
+ */
+@RunWith(VertxUnitRunner.class)
+public class RetryingDispatcherTest {
+
+    private Vertx vertx;
+
+    private LayerServerClient subject;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+        vertx = Vertx.vertx();
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setRetryMaxAttempts(3);
+        options.setRetryBackoff(10);
+        subject = TestSupport.client(vertx, options);
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void budgetCapsRetries(TestContext context) throws Exception {
+        RetryBudget budget = new RetryBudget(10);
+        for (int i = 0; i < RetryBudget.RESERVE; i++) {
+            context.assertTrue(budget.withdraw());
+        }
+        context.assertFalse(budget.withdraw());
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        context.assertTrue(budget.withdraw());
+        context.assertFalse(budget.withdraw());
+    }
+
+    @Test
+    public void p95OfWindow(TestContext context) throws Exception {
+        LatencyWindow window = new LatencyWindow();
+        for (int i = 1; i < LatencyWindow.MIN_SAMPLES; i++) {
+            window.record(i);
+        }
+        context.assertEquals(window.p95(), -1L);
+        for (int i = LatencyWindow.MIN_SAMPLES; i <= LatencyWindow.SIZE; i++) {
+            window.record(i);
+        }
+        context.assertEquals(window.p95(), 95L);
+    }
+
+    @Test
+    public void droppedConnectionRetried(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            if (requests.incrementAndGet() == 1) {
+                request.response().close();
+            } else {
+                request.response().end(new JsonObject().put("id", "layer:///conversations/123").encode());
+            }
+        });
+
+        Async async = context.async();
+        subject.getConversation(response -> {
+            context.assertEquals(response.statusCode(), 200);
+            response.bodyHandler(body -> {
+                context.assertEquals(body.toJsonObject().getString("id"), "layer:///conversations/123");
+                async.complete();
+            });
+        }, "123");
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 2);
+        context.assertEquals(subject.getRetryStats().getLong("retries"), 1L);
+        server.close();
+    }
+
+    @Test
+    public void unavailableRetriedUntilMaxAttempts(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().setStatusCode(503).end();
+        });
+
+        Async async = context.async();
+        subject.getConversationMessage(response -> {
+            context.assertEquals(response.statusCode(), 503);
+            async.complete();
+        }, "123");
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 3);
+        server.close();
+    }
+
+    @Test
+    public void notFoundNotRetried(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().setStatusCode(404).end();
+        });
+
+        Async async = context.async();
+        subject.getConversation(response -> {
+            context.assertEquals(response.statusCode(), 404);
+            async.complete();
+        }, "123");
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 1);
+        server.close();
+    }
+
+    @Test
+    public void postNotRetried(TestContext context) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            requests.incrementAndGet();
+            request.response().close();
+        });
+
+        Async async = context.async();
+        subject.postMessage(response -> {
+            context.assertNull(response);
+            async.complete();
+        }, "123", new JsonObject().put("sender_id", "1234").put("parts", new JsonArray()));
+        async.awaitSuccess();
+
+        context.assertEquals(requests.get(), 1);
+        server.close();
+    }
+
+    @Test
+    public void slowRequestHedged(TestContext context) throws Exception {
+        LayerServerOptions options = new LayerServerOptions("123456789abc", "thisIsAToken");
+        options.setHedging(true);
+        LayerServerClient client = TestSupport.client(vertx, options);
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        HttpServer server = TestSupport.listen(vertx, context, request -> {
+            int attempt = requests.computeIfAbsent(request.path(), path -> new AtomicInteger()).incrementAndGet();
+            if (request.path().endsWith("/slow") && attempt == 1) {
+                vertx.setTimer(2000, id -> request.response().end(new JsonObject().put("attempt", 1).encode()));
+            } else {
+                request.response().end(new JsonObject().put("attempt", attempt).encode());
+            }
+        });
+
+        for (int i = 0; i < LatencyWindow.MIN_SAMPLES; i++) {
+            Async async = context.async();
+            client.getConversation(response -> response.bodyHandler(body -> async.complete()), "fast");
+            async.awaitSuccess();
+        }
+
+        long start = System.nanoTime();
+        Async async = context.async();
+        client.getConversation(response -> response.bodyHandler(body -> {
+            context.assertEquals(body.toJsonObject().getInteger("attempt"), 2);
+            async.complete();
+        }), "slow");
+        async.awaitSuccess();
+
+        context.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        context.assertEquals(requests.get("/apps/123456789abc/conversations/slow").get(), 2);
+        context.assertTrue(client.getRetryStats().getLong("hedge_wins") >= 1L);
+        server.close();
+    }
+}
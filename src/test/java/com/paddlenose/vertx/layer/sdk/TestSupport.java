@@ -0,0 +1,46 @@
+package com.paddlenose.vertx.layer.sdk;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+
+/**
+ * Servers and clients shared by the tests.
+ * @author Gustaf Nilstadius
+ */
+final class TestSupport {
+    private TestSupport() {
+    }
+
+    /**
+     * Starts a server on port 8080 and waits until it is listening.
+     */
+    static HttpServer listen(Vertx vertx, TestContext context, Handler<HttpServerRequest> handler) {
+        return listen(vertx, context, new HttpServerOptions(), handler);
+    }
+
+    /**
+     * Starts a server with options on port 8080 and waits until it is listening.
+     */
+    static HttpServer listen(Vertx vertx, TestContext context, HttpServerOptions options, Handler<HttpServerRequest> handler) {
+        Async listening = context.async();
+        HttpServer server = vertx.createHttpServer(options).requestHandler(handler)
+                .listen(8080, context.asyncAssertSuccess(s -> listening.complete()));
+        listening.awaitSuccess();
+        return server;
+    }
+
+    /**
+     * Creates a client of the server on port 8080.
+     */
+    static LayerServerClient client(Vertx vertx, LayerServerOptions options) {
+        return new LayerServerClient(vertx, vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)), options);
+    }
+}